@@ -0,0 +1,289 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request dispatcher that learns a read timeout for each method from the response times of its recent calls,
+ * instead of waiting the same flat timeout for a cheap getter as for a large list. Wrap the dispatcher of each
+ * endpoint in one, so the timeouts are learned per method and endpoint.
+ * <p/>
+ * The timeout of a method is a percentile of its recent response times, {@value #DEFAULT_PERCENTILE} by default,
+ * times a multiplier, kept between a lower and an upper bound. Until a method has {@value #MIN_LATENCY_SAMPLES}
+ * calls to go by it is sent with the timeout it was seeded with, see {@link #seedTimeouts(Map)}, or else with the
+ * read timeout of the wrapped dispatcher. A call that times out counts as a response after the timeout, so a method
+ * that became slower for good soon gets a longer timeout. Calls whose {@link CallOptions} carry their own read
+ * timeout, and batches, are sent unchanged.
+ * <p/>
+ * The timeout is handed to the wrapped dispatcher in the options of the call, which {@link HttpsRequestDispatcher}
+ * and {@link PooledHttpsRequestDispatcher} honour.
+ */
+public class AdaptiveTimeoutRequestDispatcher implements RequestDispatcher, DescribedRequestDispatcher {
+
+    public static final double DEFAULT_PERCENTILE = 99.9;
+    public static final double DEFAULT_MULTIPLIER = 3;
+    public static final int DEFAULT_MIN_TIMEOUT_MILLIS = 1000;
+    public static final int DEFAULT_MAX_TIMEOUT_MILLIS = HttpsRequestDispatcher.DEFAULT_READ_TIMEOUT;
+
+    static final int LATENCY_WINDOW = 2048;
+    static final int MIN_LATENCY_SAMPLES = 100;
+
+    private final RequestDispatcher delegate;
+    private final ConcurrentMap<String, MethodTimeout> methods = new ConcurrentHashMap<>();
+    private volatile double percentile = DEFAULT_PERCENTILE;
+    private volatile double multiplier = DEFAULT_MULTIPLIER;
+    private volatile int minTimeoutMillis = DEFAULT_MIN_TIMEOUT_MILLIS;
+    private volatile int maxTimeoutMillis = DEFAULT_MAX_TIMEOUT_MILLIS;
+
+    /**
+     * @param delegate the dispatcher that sends the requests to one endpoint
+     */
+    public AdaptiveTimeoutRequestDispatcher(RequestDispatcher delegate) {
+        if (null == delegate) throw new IllegalArgumentException("delegate is null");
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return the version of the wrapped dispatcher
+     */
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    /**
+     * Dispatch an encoded request with the read timeout learned for its method.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws SocketTimeoutException if the response takes longer than the timeout
+     * @throws IOException            if anything went wrong on the connection side of things.
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        final String method = JsonRpcRequests.method(input);
+        final CallOptions options = CallOptions.current();
+        if (null == method || null != options && options.getReadTimeout(TimeUnit.MILLISECONDS) > 0) {
+            return delegate.dispatchRequest(input);
+        }
+
+        final MethodTimeout timeout = methodTimeout(method);
+        final int timeoutMillis = timeout.timeoutMillis();
+        final CallOptions previous = timeoutMillis > 0 ?
+                CallOptions.enter((null == options ? new CallOptions() : options).withReadTimeout(timeoutMillis, TimeUnit.MILLISECONDS)) :
+                null;
+        final long start = System.nanoTime();
+        try {
+            final String response = delegate.dispatchRequest(input);
+            timeout.window.record(System.nanoTime() - start);
+            return response;
+        } catch (DeadlineExceededException | CallCancelledException e) {
+            throw e;
+        } catch (SocketTimeoutException e) {
+            timeout.window.record(System.nanoTime() - start);
+            throw e;
+        } finally {
+            if (timeoutMillis > 0) {
+                CallOptions.exit(previous);
+            }
+        }
+    }
+
+    private MethodTimeout methodTimeout(String method) {
+        MethodTimeout timeout = methods.get(method);
+        if (null == timeout) {
+            final MethodTimeout created = new MethodTimeout();
+            timeout = methods.putIfAbsent(method, created);
+            if (null == timeout) {
+                timeout = created;
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * @param method the method name
+     * @return the read timeout in milliseconds the next call of the method is sent with, or 0 if it is sent with the
+     * read timeout of the wrapped dispatcher
+     */
+    public int getTimeout(String method) {
+        final MethodTimeout timeout = methods.get(method);
+        return null == timeout ? 0 : timeout.timeoutMillis();
+    }
+
+    /**
+     * Use these to seed a new dispatcher, so that it starts with the timeouts this one learned.
+     *
+     * @return the read timeout in milliseconds of every method that has one, by method name
+     */
+    public Map<String, Integer> getTimeouts() {
+        final Map<String, Integer> timeouts = new TreeMap<>();
+        for (Map.Entry<String, MethodTimeout> entry : methods.entrySet()) {
+            final int timeoutMillis = entry.getValue().timeoutMillis();
+            if (timeoutMillis > 0) {
+                timeouts.put(entry.getKey(), timeoutMillis);
+            }
+        }
+        return timeouts;
+    }
+
+    /**
+     * Sets the read timeouts the methods are sent with until they have enough calls of their own to go by. The
+     * timeouts are kept between the bounds.
+     *
+     * @param timeouts the read timeouts in milliseconds by method name, as returned by {@link #getTimeouts()}
+     */
+    public void seedTimeouts(Map<String, Integer> timeouts) {
+        if (null == timeouts) throw new IllegalArgumentException("timeouts is null");
+        for (Map.Entry<String, Integer> entry : timeouts.entrySet()) {
+            if (null == entry.getKey() || null == entry.getValue() || entry.getValue() < 1)
+                throw new IllegalArgumentException("Invalid timeout " + entry.getValue() + " for method " + entry.getKey());
+        }
+        for (Map.Entry<String, Integer> entry : timeouts.entrySet()) {
+            methodTimeout(entry.getKey()).seedMillis = entry.getValue();
+        }
+    }
+
+    /**
+     * Getter for property 'percentile'.
+     *
+     * @return Value for property 'percentile'.
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * Sets the percentile of the recent response times of a method its timeout is derived from.
+     *
+     * @param percentile greater than 0 and at most 100
+     */
+    public void setPercentile(double percentile) {
+        if (!(percentile > 0 && percentile <= 100)) throw new IllegalArgumentException("percentile must be greater than 0 and at most 100");
+        this.percentile = percentile;
+    }
+
+    /**
+     * Getter for property 'multiplier'.
+     *
+     * @return Value for property 'multiplier'.
+     */
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * Sets the factor the percentile is multiplied by to give the timeout.
+     *
+     * @param multiplier at least 1
+     */
+    public void setMultiplier(double multiplier) {
+        if (!(multiplier >= 1)) throw new IllegalArgumentException("multiplier must be at least 1");
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * Getter for property 'minTimeoutMillis'.
+     *
+     * @return Value for property 'minTimeoutMillis'.
+     */
+    public int getMinTimeoutMillis() {
+        return minTimeoutMillis;
+    }
+
+    /**
+     * Getter for property 'maxTimeoutMillis'.
+     *
+     * @return Value for property 'maxTimeoutMillis'.
+     */
+    public int getMaxTimeoutMillis() {
+        return maxTimeoutMillis;
+    }
+
+    /**
+     * Sets the bounds the timeouts are kept between.
+     *
+     * @param minTimeoutMillis the shortest timeout in milliseconds
+     * @param maxTimeoutMillis the longest timeout in milliseconds
+     */
+    public void setTimeoutBounds(int minTimeoutMillis, int maxTimeoutMillis) {
+        if (minTimeoutMillis < 1) throw new IllegalArgumentException("minTimeoutMillis must be at least 1");
+        if (maxTimeoutMillis < minTimeoutMillis) throw new IllegalArgumentException("maxTimeoutMillis can not be less than minTimeoutMillis");
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        delegate.setConnectionTimeout(timeInMilliseconds);
+    }
+
+    /**
+     * Sets the read timeout of the wrapped dispatcher, which applies to methods without a timeout of their own yet.
+     */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        delegate.setReadTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        delegate.setTimeoutToDefault();
+    }
+
+    /**
+     * @return the endpoint of the wrapped dispatcher
+     */
+    @Override
+    public String describe() {
+        return RequestDispatchers.describe(delegate);
+    }
+
+    /**
+     * Getter for property 'delegate'.
+     *
+     * @return Value for property 'delegate'.
+     */
+    public RequestDispatcher getDelegate() {
+        return delegate;
+    }
+
+    private final class MethodTimeout {
+        private final LatencyWindow window = new LatencyWindow(LATENCY_WINDOW, MIN_LATENCY_SAMPLES);
+        private volatile int seedMillis;
+
+        /**
+         * @return the timeout in milliseconds, or 0 if there is none yet
+         */
+        private int timeoutMillis() {
+            final long nanos = window.percentile(percentile);
+            final double millis = nanos < 0 ? seedMillis : nanos * multiplier / TimeUnit.MILLISECONDS.toNanos(1);
+            if (millis <= 0) {
+                return 0;
+            }
+            return (int) Math.max(minTimeoutMillis, Math.min(maxTimeoutMillis, Math.ceil(millis)));
+        }
+    }
+}
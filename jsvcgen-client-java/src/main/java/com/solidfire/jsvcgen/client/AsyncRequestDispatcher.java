@@ -0,0 +1,32 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.jsvcgen.javautil.CompletableFuture;
+
+/**
+ * A request dispatcher that can send a request without blocking the calling thread.
+ */
+public interface AsyncRequestDispatcher extends RequestDispatcher {
+    /**
+     * Dispatch an encoded request to the system and return immediately. The returned future completes with the
+     * server's response, or exceptionally with the IOException that made the request fail.
+     *
+     * @param input The input string to send to the remote server.
+     * @return A future holding the server's response.
+     */
+    CompletableFuture<String> dispatchRequestAsync(String input);
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Replaces every {@code "attributes":""} in a response with {@code "attributes":null} while it is read, which is what
+ * {@link ServiceBase} does to a response string before decoding it.
+ */
+final class AttributesNormalizingReader extends FilterReader {
+
+    private static final char[] PATTERN = "\"attributes\":\"\"".toCharArray();
+    private static final char[] REPLACEMENT = "\"attributes\":null".toCharArray();
+
+    // Characters read but not yet scanned; the last few are kept back while they could start a match.
+    private final char[] in = new char[8192];
+    private int inLength;
+    private boolean eof;
+
+    private final char[] out = new char[in.length * 2];
+    private int outPosition;
+    private int outLength;
+
+    AttributesNormalizingReader(Reader in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (outPosition == outLength && !fill()) {
+            return -1;
+        }
+        return out[outPosition++];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (outPosition == outLength && !fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, outLength - outPosition);
+        System.arraycopy(out, outPosition, cbuf, off, n);
+        outPosition += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && read() != -1) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return outPosition < outLength || super.ready();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
+    /**
+     * Reads and scans more input until at least one character is available.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        outPosition = 0;
+        outLength = 0;
+        while (outLength == 0) {
+            if (eof && inLength == 0) {
+                return false;
+            }
+            if (!eof) {
+                final int n = super.read(in, inLength, in.length - inLength);
+                if (n == -1) {
+                    eof = true;
+                } else {
+                    inLength += n;
+                }
+            }
+            scan();
+        }
+        return true;
+    }
+
+    private void scan() {
+        final int limit = eof ? inLength : inLength - (PATTERN.length - 1);
+        int i = 0;
+        while (i < limit) {
+            if (matchesAt(i)) {
+                System.arraycopy(REPLACEMENT, 0, out, outLength, REPLACEMENT.length);
+                outLength += REPLACEMENT.length;
+                i += PATTERN.length;
+            } else {
+                out[outLength++] = in[i++];
+            }
+        }
+        if (i > 0) {
+            System.arraycopy(in, i, in, 0, inLength - i);
+            inLength -= i;
+        }
+    }
+
+    private boolean matchesAt(int start) {
+        if (start + PATTERN.length > inLength) {
+            return false;
+        }
+        for (int j = 0; j < PATTERN.length; j++) {
+            if (in[start + j] != PATTERN[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.jsvcgen.javautil.CompletableFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects several calls to a service and sends them to the server as a single JSON-RPC batch request.
+ * <p/>
+ * Each call added to the batch returns a {@link BatchResult} that holds its outcome once the batch has been executed.
+ * Responses are matched to calls by their JSON-RPC id, and an error reported for one call does not affect the others.
+ * A batch can be executed once. Each call passes the interceptors of the service and is recorded in its
+ * {@link MetricsRegistry} under its own method.
+ */
+public class BatchBase {
+
+    private final ServiceBase service;
+    private final List<BatchResult<?>> calls = new ArrayList<>();
+    private boolean executed;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param service the service that sends the batch
+     */
+    public BatchBase(ServiceBase service) {
+        if (null == service) throw new IllegalArgumentException("service is null");
+        this.service = service;
+    }
+
+    /**
+     * Add a call to the batch. The request is validated and encoded immediately.
+     *
+     * @param method             the api method name
+     * @param requestParams      the object containing the request parameters
+     * @param requestParamsClass the class (type) of the request object
+     * @param resultParamsClass  the class (type) of the results object
+     * @return the handle that holds the result once the batch has been executed
+     */
+    public synchronized <TResult, TRequest> BatchResult<TResult> add(String method,
+                                                                     TRequest requestParams,
+                                                                     Class<TRequest> requestParamsClass,
+                                                                     Class<TResult> resultParamsClass) {
+        checkNotExecuted();
+        final BatchResult<TResult> call = service.newBatchCall(method, requestParams, requestParamsClass, resultParamsClass);
+        calls.add(call);
+        return call;
+    }
+
+    /**
+     * Send every call in the batch in one request and wait for the response.
+     *
+     * @throws ApiException if the batch as a whole failed, in which case every call reports the same error
+     */
+    public void execute() {
+        final List<BatchResult<?>> toSend = markExecuted();
+        if (!toSend.isEmpty()) {
+            service.sendBatchRequest(toSend);
+        }
+    }
+
+    /**
+     * Send every call in the batch in one request without waiting for the response.
+     *
+     * @return a future that completes once every call holds its outcome, or fails if the batch as a whole failed
+     */
+    public CompletableFuture<Void> executeAsync() {
+        final List<BatchResult<?>> toSend = markExecuted();
+        if (toSend.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return service.sendBatchRequestAsync(toSend);
+    }
+
+    /**
+     * @return the number of calls in the batch
+     */
+    public synchronized int size() {
+        return calls.size();
+    }
+
+    /**
+     * @return the handles of every call in the batch, in the order they were added
+     */
+    public synchronized List<BatchResult<?>> getResults() {
+        return Collections.unmodifiableList(new ArrayList<>(calls));
+    }
+
+    /**
+     * Getter for property 'service'.
+     *
+     * @return Value for property 'service'.
+     */
+    protected final ServiceBase getService() {
+        return service;
+    }
+
+    private synchronized List<BatchResult<?>> markExecuted() {
+        checkNotExecuted();
+        executed = true;
+        return new ArrayList<>(calls);
+    }
+
+    private void checkNotExecuted() {
+        if (executed) throw new IllegalStateException("The batch has already been executed");
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.gson.JsonObject;
+
+/**
+ * The outcome of one call in a {@link BatchBase}: either the decoded result or the error the server reported for it.
+ *
+ * @param <TResult> the class (type) of the result object
+ */
+public final class BatchResult<TResult> {
+
+    private final String method;
+    private final String id;
+    private final JsonObject request;
+    private final Class<TResult> resultParamsClass;
+    private volatile boolean done;
+    private TResult result;
+    private ApiException error;
+
+    BatchResult(String method, String id, JsonObject request, Class<TResult> resultParamsClass) {
+        this.method = method;
+        this.id = id;
+        this.request = request;
+        this.resultParamsClass = resultParamsClass;
+    }
+
+    /**
+     * Getter for property 'method'.
+     *
+     * @return Value for property 'method'.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return true once the batch holding this call was executed
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return true if the call completed without an error
+     */
+    public boolean isSuccessful() {
+        return done && null == error;
+    }
+
+    /**
+     * @return the result (response) of the call
+     * @throws ApiException          the error reported for this call, an {@link ApiServerException} if it came from
+     *                               the server
+     * @throws IllegalStateException if the batch has not been executed yet
+     */
+    public TResult get() {
+        if (!done) throw new IllegalStateException("The batch holding this call has not been executed");
+        if (null != error) throw error;
+        return result;
+    }
+
+    /**
+     * @return the error reported for this call, or null if it succeeded or has not completed
+     */
+    public ApiException getError() {
+        return done ? error : null;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    JsonObject getRequest() {
+        return request;
+    }
+
+    Class<TResult> getResultParamsClass() {
+        return resultParamsClass;
+    }
+
+    void complete(TResult result) {
+        this.result = result;
+        this.done = true;
+    }
+
+    void fail(ApiException error) {
+        this.error = error;
+        this.done = true;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{method=" + method + ", id=" + id + ", " + (!done ? "pending" : null == error ? "result=" + result : "error=" + error) + "}";
+    }
+}
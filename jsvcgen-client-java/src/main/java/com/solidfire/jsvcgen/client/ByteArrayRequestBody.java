@@ -0,0 +1,46 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A request that is already encoded, and whose length is therefore known before it is sent.
+ */
+final class ByteArrayRequestBody implements RequestBody {
+
+    private final byte[] bytes;
+
+    ByteArrayRequestBody(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    /**
+     * Getter for property 'bytes'.
+     *
+     * @return Value for property 'bytes'.
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Serializable;
+
+/**
+ * A point-in-time snapshot of the counters of a {@link ResponseCache}.
+ */
+public final class CacheStatistics implements Serializable {
+
+    private static final long serialVersionUID = 2930118473627165304L;
+
+    private final int size;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long expirations;
+    private final long invalidations;
+
+    CacheStatistics(int size, long hits, long misses, long evictions, long expirations, long invalidations) {
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.invalidations = invalidations;
+    }
+
+    /**
+     * @return the number of results held
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of calls answered from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of calls to cached methods that had to be sent
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the share of calls to cached methods answered from the cache, or 0 if there were none
+     */
+    public double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * @return the number of results dropped to make room for newer ones
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of results dropped because they were too old when asked for
+     */
+    public long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * @return the number of results dropped because a call may have changed them
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{ size : " + size +
+                ", hits : " + hits +
+                ", misses : " + misses +
+                ", hitRate : " + String.format("%.3f", getHitRate()) +
+                ", evictions : " + evictions +
+                ", expirations : " + expirations +
+                ", invalidations : " + invalidations + " }";
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when a call is cancelled through its {@link Cancellation} before its result is decoded.
+ */
+public class CallCancelledException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 7315830614520447187L;
+
+    public CallCancelledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The deadline and cancellation handle of one or more calls. Unlike the timeouts of a request dispatcher, which apply
+ * to each connect and each read, the deadline is a fixed point in time that bounds the whole call: the wait for a
+ * pooled connection, the connect, sending the request, receiving the response and decoding it. When the deadline
+ * passes, or the call is cancelled, the connection of a call in flight is closed and the call fails with an
+ * {@link ApiException} caused by a {@link DeadlineExceededException} or a {@link CallCancelledException}.
+ * <p/>
+ * The deadline is fixed when the options are created, so options shared by several calls give them one budget.
+ * Options may also carry a read timeout, see {@link #withReadTimeout(long, TimeUnit)}, that replaces the one of the
+ * request dispatcher for their calls.
+ * Pass the options to {@link ServiceBase#sendRequest(String, Object, Class, Class, CallOptions)}, or make them current
+ * for the calls the generated service methods send on this thread:
+ * <pre>
+ * try (CallOptions.Scope scope = new CallOptions(5, TimeUnit.SECONDS).makeCurrent()) {
+ *     service.listVolumes(request);
+ * }
+ * </pre>
+ */
+public final class CallOptions {
+
+    private static final ThreadLocal<CallOptions> current = new ThreadLocal<>();
+
+    private final boolean hasDeadline;
+    private final long deadline;
+    private final Cancellation cancellation;
+    private final int readTimeout;
+
+    /**
+     * Create options with a deadline.
+     *
+     * @param timeout the time from now until the deadline
+     * @param unit    the unit of the timeout
+     */
+    public CallOptions(long timeout, TimeUnit unit) {
+        this(timeout, unit, null);
+    }
+
+    /**
+     * Create options with a deadline and a cancellation handle.
+     *
+     * @param timeout      the time from now until the deadline
+     * @param unit         the unit of the timeout
+     * @param cancellation the handle that cancels the calls, or null
+     */
+    public CallOptions(long timeout, TimeUnit unit, Cancellation cancellation) {
+        if (timeout < 0) throw new IllegalArgumentException("timeout can not be negative");
+        if (null == unit) throw new IllegalArgumentException("unit is null");
+        this.hasDeadline = true;
+        this.deadline = System.nanoTime() + unit.toNanos(timeout);
+        this.cancellation = cancellation;
+        this.readTimeout = 0;
+    }
+
+    /**
+     * Create options without a deadline.
+     *
+     * @param cancellation the handle that cancels the calls
+     */
+    public CallOptions(Cancellation cancellation) {
+        if (null == cancellation) throw new IllegalArgumentException("cancellation is null");
+        this.hasDeadline = false;
+        this.deadline = 0;
+        this.cancellation = cancellation;
+        this.readTimeout = 0;
+    }
+
+    /**
+     * Create options with neither a deadline nor a cancellation handle, to carry a read timeout.
+     */
+    CallOptions() {
+        this(false, 0, null, 0);
+    }
+
+    private CallOptions(boolean hasDeadline, long deadline, Cancellation cancellation, int readTimeout) {
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+        this.cancellation = cancellation;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Create options with the same deadline and cancellation handle, whose calls wait at most the timeout for each
+     * read instead of the read timeout of the request dispatcher.
+     *
+     * @param timeout the read timeout, at least one millisecond
+     * @param unit    the unit of the timeout
+     * @return the new options
+     */
+    public CallOptions withReadTimeout(long timeout, TimeUnit unit) {
+        if (null == unit) throw new IllegalArgumentException("unit is null");
+        final long millis = unit.toMillis(timeout);
+        if (millis < 1 || millis > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("timeout must be between 1 and " + Integer.MAX_VALUE + " milliseconds");
+        return new CallOptions(hasDeadline, deadline, cancellation, (int) millis);
+    }
+
+    /**
+     * Getter for property 'cancellation'.
+     *
+     * @return Value for property 'cancellation', may be null.
+     */
+    public Cancellation getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * @param unit the unit of the time returned
+     * @return the read timeout of the calls, or 0 if they use the one of the request dispatcher
+     */
+    public long getReadTimeout(TimeUnit unit) {
+        return unit.convert(readTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if these options have a deadline
+     */
+    public boolean hasDeadline() {
+        return hasDeadline;
+    }
+
+    /**
+     * @param unit the unit of the time returned
+     * @return the time left until the deadline, 0 once it passed, or {@link Long#MAX_VALUE} without a deadline
+     */
+    public long getRemaining(TimeUnit unit) {
+        if (!hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+        return unit.convert(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true if the deadline passed or the calls were cancelled
+     */
+    public boolean isDone() {
+        return null != failure();
+    }
+
+    /**
+     * Makes these options apply to every call sent on this thread until the scope is closed.
+     *
+     * @return the scope to close, which makes the options that were current before current again
+     */
+    public Scope makeCurrent() {
+        return new Scope(enter(this));
+    }
+
+    /**
+     * @return the options of the calls sent on this thread, or null
+     */
+    static CallOptions current() {
+        return current.get();
+    }
+
+    /**
+     * @return the options that were current, to pass to {@link #exit(CallOptions)}
+     */
+    static CallOptions enter(CallOptions options) {
+        final CallOptions previous = current.get();
+        current.set(options);
+        return previous;
+    }
+
+    static void exit(CallOptions previous) {
+        if (null == previous) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * @throws IOException if the deadline passed or the calls were cancelled
+     */
+    void check() throws IOException {
+        final IOException failure = failure();
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the exception a call fails with now, or null while it may go on
+     */
+    IOException failure() {
+        if (null != cancellation && cancellation.isCancelled()) {
+            return new CallCancelledException("The call was cancelled");
+        }
+        if (hasDeadline && deadline - System.nanoTime() <= 0) {
+            return new DeadlineExceededException("The deadline of the call passed");
+        }
+        return null;
+    }
+
+    /**
+     * Restores the options that were current before {@link #makeCurrent()}.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final CallOptions previous;
+        private boolean closed;
+
+        private Scope(CallOptions previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                exit(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Serializable;
+
+/**
+ * The time one service call spent in each of its phases, measured with {@link System#nanoTime()}.
+ * <p/>
+ * A phase the transport does not report, or that the call never reached, is -1. The connect and TLS handshake
+ * phases are 0 on a reused connection; {@link HttpsRequestDispatcher} reports both together as the connect phase.
+ * When a response is decoded while it is received, its download is part of the parse phase.
+ */
+public final class CallTiming implements Serializable {
+
+    private static final long serialVersionUID = 2364857102194533416L;
+
+    private final String traceId;
+    private final String endpoint;
+    private final String method;
+    private final long startedAt;
+    private final long connectNanos;
+    private final long tlsHandshakeNanos;
+    private final long timeToFirstByteNanos;
+    private final long downloadNanos;
+    private final long parseNanos;
+    private final long adaptNanos;
+    private final long totalNanos;
+    private final String error;
+
+    CallTiming(String traceId, String endpoint, String method, long startedAt, long connectNanos,
+               long tlsHandshakeNanos, long timeToFirstByteNanos, long downloadNanos, long parseNanos,
+               long adaptNanos, long totalNanos, String error) {
+        this.traceId = traceId;
+        this.endpoint = endpoint;
+        this.method = method;
+        this.startedAt = startedAt;
+        this.connectNanos = connectNanos;
+        this.tlsHandshakeNanos = tlsHandshakeNanos;
+        this.timeToFirstByteNanos = timeToFirstByteNanos;
+        this.downloadNanos = downloadNanos;
+        this.parseNanos = parseNanos;
+        this.adaptNanos = adaptNanos;
+        this.totalNanos = totalNanos;
+        this.error = error;
+    }
+
+    /**
+     * @return the id sent with the request in the {@code X-Request-ID} header
+     */
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Getter for property 'endpoint'.
+     *
+     * @return Value for property 'endpoint'.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Getter for property 'method'.
+     *
+     * @return Value for property 'method'.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the time the call started, in milliseconds since the epoch
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return the time taken to open the TCP connection
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * @return the time taken by the TLS handshake
+     */
+    public long getTlsHandshakeNanos() {
+        return tlsHandshakeNanos;
+    }
+
+    /**
+     * @return the time from the connection being ready, which includes sending the request, to the response headers
+     */
+    public long getTimeToFirstByteNanos() {
+        return timeToFirstByteNanos;
+    }
+
+    /**
+     * @return the time from the response headers to the end of the response body
+     */
+    public long getDownloadNanos() {
+        return downloadNanos;
+    }
+
+    /**
+     * @return the time taken to parse the response and bind it to the result type
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return the time taken to fill in the empty optional fields and convert the lists of the result
+     */
+    public long getAdaptNanos() {
+        return adaptNanos;
+    }
+
+    /**
+     * @return the time from the request being encoded to the result being returned
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * The server errors are named as in {@link MethodStatistics#getErrors()}.
+     *
+     * @return the error the call failed with, or null if it succeeded
+     */
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "CallTiming{ traceId : " + traceId +
+                ", endpoint : " + endpoint +
+                ", method : " + method +
+                ", connectMillis : " + millis(connectNanos) +
+                ", tlsHandshakeMillis : " + millis(tlsHandshakeNanos) +
+                ", timeToFirstByteMillis : " + millis(timeToFirstByteNanos) +
+                ", downloadMillis : " + millis(downloadNanos) +
+                ", parseMillis : " + millis(parseNanos) +
+                ", adaptMillis : " + millis(adaptNanos) +
+                ", totalMillis : " + millis(totalNanos) +
+                (null == error ? "" : ", error : " + error) + " }";
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "-" : String.format("%.3f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.util.UUID;
+
+/**
+ * The phase timing of one call while it is in flight. The service makes the trace current on the thread that sends
+ * the call, so that the request dispatcher can send the trace id and mark the phases of the transport.
+ */
+final class CallTrace {
+
+    static final String HEADER = "X-Request-ID";
+
+    private static final ThreadLocal<CallTrace> current = new ThreadLocal<>();
+
+    private final String traceId = UUID.randomUUID().toString();
+    private final String endpoint;
+    private final String method;
+    private final long startedAt = System.currentTimeMillis();
+    private final long start = System.nanoTime();
+
+    // Marked by whichever thread the call is on; completing the call's future publishes them to the thread finishing it.
+    private volatile long dispatched;
+    private volatile long ready;
+    private volatile long firstByte;
+    private volatile long received;
+    private volatile long connectNanos = -1;
+    private volatile long tlsHandshakeNanos = -1;
+    private volatile long decodeNanos = -1;
+    private volatile long adaptNanos = -1;
+
+    CallTrace(String endpoint, String method) {
+        this.endpoint = endpoint;
+        this.method = method;
+    }
+
+    /**
+     * @return the trace of the call being sent on this thread, or null
+     */
+    static CallTrace current() {
+        return current.get();
+    }
+
+    /**
+     * Makes the trace current on this thread.
+     *
+     * @return the trace that was current, to pass to {@link #exit(CallTrace)}
+     */
+    static CallTrace enter(CallTrace trace) {
+        final CallTrace previous = current.get();
+        current.set(trace);
+        return previous;
+    }
+
+    static void exit(CallTrace previous) {
+        if (null == previous) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Marks the request being handed to the request dispatcher.
+     */
+    void dispatching() {
+        dispatched = System.nanoTime();
+    }
+
+    /**
+     * Marks the connection being ready to send the request.
+     *
+     * @param connectNanos      the time taken to connect, 0 for a reused connection
+     * @param tlsHandshakeNanos the time taken by the handshake, 0 for a reused connection or -1 when it is part of
+     *                          the connect time
+     */
+    void connected(long connectNanos, long tlsHandshakeNanos) {
+        this.connectNanos = connectNanos;
+        this.tlsHandshakeNanos = tlsHandshakeNanos;
+        this.ready = System.nanoTime();
+    }
+
+    /**
+     * Marks the response headers being received.
+     */
+    void firstByte() {
+        firstByte = System.nanoTime();
+    }
+
+    /**
+     * Marks the response body being received in full, unless it is already marked.
+     */
+    void received() {
+        if (0 == received) {
+            received = System.nanoTime();
+        }
+    }
+
+    /**
+     * @param nanos the time taken to decode the response, including adapting the result
+     */
+    void decoded(long nanos) {
+        decodeNanos = nanos;
+    }
+
+    /**
+     * @param nanos the time taken to adapt the optional fields and lists of the result
+     */
+    void adapted(long nanos) {
+        adaptNanos = nanos;
+    }
+
+    /**
+     * @param error the exception the call failed with, or null if it succeeded
+     * @return the timing of the call, ending now
+     */
+    CallTiming finish(Throwable error) {
+        final long end = System.nanoTime();
+        final long readyAt = 0 != ready ? ready : dispatched;
+        final long timeToFirstByte = 0 != firstByte && 0 != readyAt ? firstByte - readyAt : -1;
+        final long download = 0 != firstByte && 0 != received ? received - firstByte : -1;
+        final long adapt = adaptNanos;
+        final long parse = decodeNanos < 0 ? -1 : decodeNanos - Math.max(0, adapt);
+        return new CallTiming(traceId, endpoint, method, startedAt, connectNanos, tlsHandshakeNanos, timeToFirstByte,
+                download, parse, adapt, end - start,
+                null == error ? null : MetricsRegistry.MethodMetrics.errorKey(error));
+    }
+}
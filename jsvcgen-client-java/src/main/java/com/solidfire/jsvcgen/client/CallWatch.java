@@ -0,0 +1,223 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces the {@link CallOptions} of one call: when the deadline passes or the call is cancelled, the connection
+ * attached to the watch is closed, which makes a blocked connect, write or read fail right away.
+ */
+final class CallWatch implements Closeable {
+
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "jsvcgen-call-deadline");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private final CallOptions options;
+    private final Runnable abort = new Runnable() {
+        @Override
+        public void run() {
+            abort();
+        }
+    };
+    private final ScheduledFuture<?> expiry;
+    private Closeable target;
+    private boolean aborted;
+    private boolean closed;
+
+    private CallWatch(CallOptions options) {
+        this.options = options;
+        this.expiry = options.hasDeadline() ?
+                timer.schedule(abort, options.getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS) : null;
+        if (null != options.getCancellation()) {
+            options.getCancellation().register(abort);
+        }
+    }
+
+    /**
+     * @return a watch over the options current on this thread, or null if there are none
+     * @throws IOException if the deadline already passed or the call was cancelled
+     */
+    static CallWatch start() throws IOException {
+        return start(CallOptions.current());
+    }
+
+    /**
+     * @param options the options of the call, may be null
+     * @return a watch over the options, or null if there are none
+     * @throws IOException if the deadline already passed or the call was cancelled
+     */
+    static CallWatch start(CallOptions options) throws IOException {
+        if (null == options) {
+            return null;
+        }
+        options.check();
+        return new CallWatch(options);
+    }
+
+    /**
+     * Sets what to close when the call is aborted; it is closed right away if the call already was.
+     */
+    void attach(Closeable target) {
+        synchronized (this) {
+            if (!aborted) {
+                this.target = target;
+                return;
+            }
+        }
+        PooledHttpsConnection.closeQuietly(target);
+    }
+
+    /**
+     * Stops the attached connection from being closed, once it is handed back for reuse.
+     */
+    synchronized void detach() {
+        target = null;
+    }
+
+    synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * @throws IOException if the deadline passed or the call was cancelled
+     */
+    void check() throws IOException {
+        options.check();
+    }
+
+    /**
+     * @param timeout a timeout in milliseconds of the request dispatcher, 0 for none
+     * @return the timeout, shortened to the time left until the deadline
+     * @throws IOException if the deadline passed or the call was cancelled
+     */
+    int timeout(int timeout) throws IOException {
+        check();
+        final long remaining = options.getRemaining(TimeUnit.MILLISECONDS);
+        if (remaining == Long.MAX_VALUE) {
+            return timeout;
+        }
+        final int bounded = (int) Math.max(1, Math.min(remaining, Integer.MAX_VALUE));
+        return timeout == 0 ? bounded : Math.min(timeout, bounded);
+    }
+
+    /**
+     * @param timeout the read timeout in milliseconds of the request dispatcher, 0 for none
+     * @return the read timeout of the options, or else the timeout, shortened to the time left until the deadline
+     * @throws IOException if the deadline passed or the call was cancelled
+     */
+    int readTimeout(int timeout) throws IOException {
+        final int readTimeout = (int) options.getReadTimeout(TimeUnit.MILLISECONDS);
+        return timeout(readTimeout > 0 ? readTimeout : timeout);
+    }
+
+    /**
+     * @param cause the exception a call failed with
+     * @return why the call was aborted, caused by the exception, or the exception itself if it was not aborted
+     */
+    IOException failure(IOException cause) {
+        final IOException failure = options.failure();
+        if (null == failure) {
+            return cause;
+        }
+        if (failure != cause) {
+            failure.initCause(cause);
+        }
+        return failure;
+    }
+
+    /**
+     * Wraps a response body so that a read failing because the call was aborted reports why, and so that closing
+     * the body ends the watch before the connection is handed back for reuse.
+     */
+    InputStream guard(InputStream body) {
+        return new FilterInputStream(body) {
+            @Override
+            public int read() throws IOException {
+                try {
+                    return super.read();
+                } catch (IOException e) {
+                    throw failure(e);
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                try {
+                    return super.read(b, off, len);
+                } catch (IOException e) {
+                    throw failure(e);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                CallWatch.this.close();
+                super.close();
+            }
+        };
+    }
+
+    private void abort() {
+        final Closeable closed;
+        synchronized (this) {
+            if (this.closed || aborted) {
+                return;
+            }
+            aborted = true;
+            closed = target;
+            target = null;
+        }
+        PooledHttpsConnection.closeQuietly(closed);
+    }
+
+    /**
+     * Ends the watch; the attached connection is no longer closed when the deadline passes.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            target = null;
+        }
+        if (null != expiry) {
+            expiry.cancel(false);
+        }
+        if (null != options.getCancellation()) {
+            options.getCancellation().unregister(abort);
+        }
+    }
+}
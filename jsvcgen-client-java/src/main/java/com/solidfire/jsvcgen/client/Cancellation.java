@@ -0,0 +1,73 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A handle to cancel the calls sent with it, see {@link CallOptions}. Cancelling aborts the connection of a call in
+ * flight and fails every later call sent with the same handle.
+ */
+public final class Cancellation {
+
+    private final List<Runnable> listeners = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    /**
+     * Cancels the calls sent with this handle; does nothing if they were already cancelled.
+     */
+    public void cancel() {
+        final List<Runnable> notified;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            notified = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for (Runnable listener : notified) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Getter for property 'cancelled'.
+     *
+     * @return Value for property 'cancelled'.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @param listener run once on cancellation, right away if this handle is already cancelled
+     */
+    void register(Runnable listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    synchronized void unregister(Runnable listener) {
+        listeners.remove(listener);
+    }
+}
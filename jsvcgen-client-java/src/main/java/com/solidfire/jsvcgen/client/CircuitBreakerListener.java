@@ -0,0 +1,31 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+/**
+ * Receives the state changes of a {@link CircuitBreakingRequestDispatcher}.
+ */
+public interface CircuitBreakerListener {
+    /**
+     * Called on the thread whose request caused the change, after the change, so it should return quickly.
+     *
+     * @param dispatcher the dispatcher whose circuit changed
+     * @param from       the previous state
+     * @param to         the new state
+     */
+    void stateChanged(CircuitBreakingRequestDispatcher dispatcher, CircuitBreakingRequestDispatcher.State from,
+                      CircuitBreakingRequestDispatcher.State to);
+}
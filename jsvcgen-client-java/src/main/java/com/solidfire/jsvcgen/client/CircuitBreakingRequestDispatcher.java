@@ -0,0 +1,361 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request dispatcher that stops sending requests to a cluster that keeps failing, so that callers fail in
+ * microseconds instead of waiting out connection and read timeouts.
+ * <p/>
+ * The outcome of the last {@code windowSize} requests is kept. Once at least {@code minimumCalls} are in the window,
+ * the circuit opens when the share of requests that failed with an I/O error reaches {@code failureRateThreshold}
+ * percent, or the share that took longer than {@code slowCallMillis} reaches {@code slowCallRateThreshold} percent.
+ * While open, every request fails with a {@link CircuitOpenException}. After {@code openMillis} the circuit is half
+ * open and lets {@code halfOpenProbes} requests through: if they all succeed in time it closes with an empty window,
+ * otherwise it opens again.
+ * <p/>
+ * Errors returned by the server are answers, not failures; a {@link RequestRejectedException} from a wrapped
+ * dispatcher is not counted either, since nothing was sent, nor is a {@link CallCancelledException}, since the caller
+ * gave up on the call rather than the server failing it.
+ */
+public class CircuitBreakingRequestDispatcher implements RequestDispatcher, DescribedRequestDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreakingRequestDispatcher.class);
+
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    public static final int DEFAULT_SLOW_CALL_RATE_THRESHOLD = 80;
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 10000;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+    public static final int DEFAULT_HALF_OPEN_PROBES = 3;
+
+    /**
+     * The states of the circuit.
+     */
+    public enum State {
+        /**
+         * Requests are sent and their outcomes recorded.
+         */
+        CLOSED,
+        /**
+         * Requests fail without being sent.
+         */
+        OPEN,
+        /**
+         * A few probe requests are sent to find out whether the cluster is back.
+         */
+        HALF_OPEN
+    }
+
+    private final RequestDispatcher delegate;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final Object lock = new Object();
+    private volatile CircuitBreakerListener listener;
+
+    // Guarded by lock.
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int calls;
+    private int position;
+    private int failures;
+    private int slowCalls;
+    private State state = State.CLOSED;
+    // Outcomes of requests started before the last state change are ignored.
+    private long generation;
+    private long openUntil;
+    private int probesStarted;
+    private int probesSucceeded;
+    private long rejected;
+
+    /**
+     * Create a dispatcher with the default thresholds.
+     *
+     * @param delegate the dispatcher that sends the requests
+     */
+    public CircuitBreakingRequestDispatcher(RequestDispatcher delegate) {
+        this(delegate, DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE_THRESHOLD,
+                DEFAULT_SLOW_CALL_RATE_THRESHOLD, DEFAULT_SLOW_CALL_MILLIS, DEFAULT_OPEN_MILLIS, DEFAULT_HALF_OPEN_PROBES);
+    }
+
+    /**
+     * @param delegate              the dispatcher that sends the requests
+     * @param windowSize            the number of most recent outcomes kept
+     * @param minimumCalls          the number of outcomes needed before the circuit can open
+     * @param failureRateThreshold  the percentage of failed requests that opens the circuit
+     * @param slowCallRateThreshold the percentage of slow requests that opens the circuit
+     * @param slowCallMillis        the time after which a request counts as slow
+     * @param openMillis            how long the circuit stays open before it lets probes through
+     * @param halfOpenProbes        the number of probes that must succeed to close the circuit
+     */
+    public CircuitBreakingRequestDispatcher(RequestDispatcher delegate, int windowSize, int minimumCalls,
+                                            int failureRateThreshold, int slowCallRateThreshold, long slowCallMillis,
+                                            long openMillis, int halfOpenProbes) {
+        if (null == delegate) throw new IllegalArgumentException("delegate is null");
+        if (windowSize < 1) throw new IllegalArgumentException("windowSize must be at least 1");
+        if (minimumCalls < 1 || minimumCalls > windowSize) throw new IllegalArgumentException("minimumCalls must be between 1 and windowSize");
+        if (failureRateThreshold < 1 || failureRateThreshold > 100) throw new IllegalArgumentException("failureRateThreshold must be between 1 and 100");
+        if (slowCallRateThreshold < 1 || slowCallRateThreshold > 100) throw new IllegalArgumentException("slowCallRateThreshold must be between 1 and 100");
+        if (slowCallMillis < 0) throw new IllegalArgumentException("slowCallMillis can not be negative");
+        if (openMillis < 0) throw new IllegalArgumentException("openMillis can not be negative");
+        if (halfOpenProbes < 1) throw new IllegalArgumentException("halfOpenProbes must be at least 1");
+
+        this.delegate = delegate;
+        this.failed = new boolean[windowSize];
+        this.slow = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * @return the version of the wrapped dispatcher
+     */
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    /**
+     * Dispatch an encoded request unless the circuit is open.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws CircuitOpenException if the circuit is open, or half open with all probes already sent
+     * @throws IOException          if anything went wrong on the connection side of things.
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        final long permit = acquire();
+        final long start = System.nanoTime();
+        try {
+            final String response = delegate.dispatchRequest(input);
+            record(permit, false, System.nanoTime() - start);
+            return response;
+        } catch (RequestRejectedException | CallCancelledException e) {
+            release(permit);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            record(permit, true, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the generation the request was let through in
+     */
+    private long acquire() throws CircuitOpenException {
+        State from = null;
+        final long permit;
+        synchronized (lock) {
+            final long now = System.nanoTime();
+            if (state == State.OPEN && now - openUntil >= 0) {
+                from = transition(State.HALF_OPEN);
+            }
+            if (state == State.OPEN || (state == State.HALF_OPEN && probesStarted >= halfOpenProbes)) {
+                rejected++;
+                final long retryAfter = state == State.OPEN ? TimeUnit.NANOSECONDS.toMillis(openUntil - now) : 0;
+                throw new CircuitOpenException("Circuit is " + state + ", request not sent", retryAfter);
+            }
+            if (state == State.HALF_OPEN) {
+                probesStarted++;
+            }
+            permit = generation;
+        }
+        notifyListener(from, State.HALF_OPEN);
+        return permit;
+    }
+
+    private void record(long permit, boolean failure, long nanos) {
+        final boolean wasSlow = nanos > slowCallNanos;
+        State from = null;
+        State to = null;
+        synchronized (lock) {
+            if (permit != generation) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                if (failure || wasSlow) {
+                    to = State.OPEN;
+                } else if (++probesSucceeded >= halfOpenProbes) {
+                    to = State.CLOSED;
+                }
+            } else if (state == State.CLOSED) {
+                if (calls == failed.length) {
+                    failures -= failed[position] ? 1 : 0;
+                    slowCalls -= slow[position] ? 1 : 0;
+                } else {
+                    calls++;
+                }
+                failed[position] = failure;
+                slow[position] = wasSlow;
+                failures += failure ? 1 : 0;
+                slowCalls += wasSlow ? 1 : 0;
+                position = (position + 1) % failed.length;
+
+                if (calls >= minimumCalls && (failures * 100 >= failureRateThreshold * calls
+                        || slowCalls * 100 >= slowCallRateThreshold * calls)) {
+                    to = State.OPEN;
+                }
+            }
+            if (null != to) {
+                from = transition(to);
+            }
+        }
+        notifyListener(from, to);
+    }
+
+    /**
+     * Forgets a request that was not sent, or that its caller cancelled, giving its probe to another request.
+     */
+    private void release(long permit) {
+        synchronized (lock) {
+            if (permit == generation && state == State.HALF_OPEN) {
+                probesStarted--;
+            }
+        }
+    }
+
+    /**
+     * @return the state before the change
+     */
+    private State transition(State to) {
+        final State from = state;
+        state = to;
+        generation++;
+        probesStarted = 0;
+        probesSucceeded = 0;
+        if (to == State.OPEN) {
+            openUntil = System.nanoTime() + openNanos;
+            if (from == State.HALF_OPEN) {
+                log.warn("Circuit opened again after a failed probe");
+            } else {
+                log.warn("Circuit opened after {} failed and {} slow of {} requests", new Object[]{failures, slowCalls, calls});
+            }
+        } else if (to == State.CLOSED) {
+            calls = 0;
+            position = 0;
+            failures = 0;
+            slowCalls = 0;
+            log.info("Circuit closed");
+        }
+        return from;
+    }
+
+    private void notifyListener(State from, State to) {
+        final CircuitBreakerListener listener = this.listener;
+        if (null != from && null != listener) {
+            try {
+                listener.stateChanged(this, from, to);
+            } catch (RuntimeException e) {
+                log.warn("Circuit breaker listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * @return the current state of the circuit
+     */
+    public State getState() {
+        synchronized (lock) {
+            return state;
+        }
+    }
+
+    /**
+     * @return the percentage of failed requests in the window, or 0 while it holds fewer than the minimum calls
+     */
+    public double getFailureRate() {
+        synchronized (lock) {
+            return calls < minimumCalls ? 0 : 100.0 * failures / calls;
+        }
+    }
+
+    /**
+     * @return the percentage of slow requests in the window, or 0 while it holds fewer than the minimum calls
+     */
+    public double getSlowCallRate() {
+        synchronized (lock) {
+            return calls < minimumCalls ? 0 : 100.0 * slowCalls / calls;
+        }
+    }
+
+    /**
+     * @return the number of requests failed without being sent
+     */
+    public long getRejected() {
+        synchronized (lock) {
+            return rejected;
+        }
+    }
+
+    /**
+     * Sets a listener that is told about every state change, or null to remove it.
+     *
+     * @param listener the listener
+     */
+    public void setListener(CircuitBreakerListener listener) {
+        this.listener = listener;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        delegate.setConnectionTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        delegate.setReadTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        delegate.setTimeoutToDefault();
+    }
+
+    /**
+     * @return the endpoint of the wrapped dispatcher
+     */
+    @Override
+    public String describe() {
+        return RequestDispatchers.describe(delegate);
+    }
+
+    /**
+     * Getter for property 'delegate'.
+     *
+     * @return Value for property 'delegate'.
+     */
+    public RequestDispatcher getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+/**
+ * Thrown instead of sending a request while a {@link CircuitBreakingRequestDispatcher} is open.
+ */
+public class CircuitOpenException extends RequestRejectedException {
+
+    private static final long serialVersionUID = -5153329725430227312L;
+
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return the time in milliseconds until the circuit lets a probe request through, 0 if it already does
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.gson.JsonElement;
+import com.solidfire.gson.JsonParseException;
+import com.solidfire.gson.JsonParser;
+import com.solidfire.gson.stream.JsonReader;
+import com.solidfire.jsvcgen.javautil.BiConsumer;
+import com.solidfire.jsvcgen.javautil.CompletableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request dispatcher that holds back concurrent requests for a short window and sends them to the wrapped dispatcher
+ * as a single JSON-RPC batch. Each caller still receives the response to its own request, so the dispatcher can be
+ * handed to any generated service in place of the one it wraps.
+ * <p/>
+ * A batch is sent as soon as it holds {@code maxBatchSize} requests, or when the oldest request in it has waited
+ * {@code windowMillis}. Requests without an id (notifications) and requests that already are a batch are passed through
+ * unchanged. If the server does not answer a batch with an array, the held requests are sent one by one and every later
+ * request is passed through.
+ */
+public class CoalescingRequestDispatcher implements AsyncRequestDispatcher, DescribedRequestDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(CoalescingRequestDispatcher.class);
+
+    public static final long DEFAULT_WINDOW_MILLIS = 2;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+
+    private final RequestDispatcher delegate;
+    private final long windowNanos;
+    private final int maxBatchSize;
+
+    private final Object lock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    private ScheduledFuture<?> windowTimer;
+    private volatile boolean batchesSupported = true;
+
+    // guarded by lock
+    private long requests;
+    private long passedThrough;
+    private long batches;
+    private long batchedRequests;
+    private int largestBatch;
+    private long flushesBySize;
+    private long flushesByWindow;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private long fallbacks;
+
+    /**
+     * Create a dispatcher using the default window and batch size.
+     *
+     * @param delegate the dispatcher that sends the requests
+     */
+    public CoalescingRequestDispatcher(RequestDispatcher delegate) {
+        this(delegate, DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Create a dispatcher.
+     *
+     * @param delegate     the dispatcher that sends the requests
+     * @param windowMillis the longest time a request is held back waiting for others to join its batch
+     * @param maxBatchSize the number of requests that are sent as soon as they are collected
+     */
+    public CoalescingRequestDispatcher(RequestDispatcher delegate, long windowMillis, int maxBatchSize) {
+        if (null == delegate) throw new IllegalArgumentException("delegate is null");
+        if (windowMillis < 0) throw new IllegalArgumentException("windowMillis can not be negative");
+        if (maxBatchSize < 1) throw new IllegalArgumentException("maxBatchSize must be at least 1");
+
+        this.delegate = delegate;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @return the version of the Element OS endpoint used in the connection
+     */
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    /**
+     * Dispatch an encoded request to the system and await some response. The calling thread waits while the request
+     * is held back for its batch.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws IOException if anything went wrong on the connection side of things.
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        return Futures.await(dispatchRequestAsync(input));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<String> dispatchRequestAsync(String input) {
+        final String id = batchesSupported && maxBatchSize > 1 ? requestId(input) : null;
+        if (null == id) {
+            synchronized (lock) {
+                requests++;
+                passedThrough++;
+            }
+            return send(input);
+        }
+
+        final Pending request = new Pending(input, id);
+        List<Pending> full = null;
+        List<Pending> collision = null;
+        synchronized (lock) {
+            requests++;
+            if (containsId(pending, id)) {
+                // Two services sharing this dispatcher may number their requests alike; keep the ids of a batch unique.
+                collision = takePending();
+            }
+            pending.add(request);
+            if (pending.size() >= maxBatchSize) {
+                full = takePending();
+                flushesBySize++;
+            } else if (pending.size() == 1) {
+                windowTimer = Scheduler.INSTANCE.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushWindow();
+                    }
+                }, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (null != collision) {
+            flush(collision);
+        }
+        if (null != full) {
+            flush(full);
+        }
+        return request.response;
+    }
+
+    private void flushWindow() {
+        final List<Pending> batch;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takePending();
+            flushesByWindow++;
+        }
+        flush(batch);
+    }
+
+    /**
+     * Removes the held requests and records how long they waited. Must be called holding the lock.
+     */
+    private List<Pending> takePending() {
+        final List<Pending> batch = pending;
+        pending = new ArrayList<>();
+        if (null != windowTimer) {
+            windowTimer.cancel(false);
+            windowTimer = null;
+        }
+
+        final long now = System.nanoTime();
+        for (Pending request : batch) {
+            final long waited = now - request.enqueuedAt;
+            totalWaitNanos += waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waited);
+        }
+        batches++;
+        batchedRequests += batch.size();
+        largestBatch = Math.max(largestBatch, batch.size());
+        return batch;
+    }
+
+    private void flush(final List<Pending> batch) {
+        if (batch.size() == 1) {
+            forward(send(batch.get(0).input), batch.get(0));
+            return;
+        }
+
+        final StringBuilder body = new StringBuilder();
+        body.append('[');
+        for (Pending request : batch) {
+            if (body.length() > 1) {
+                body.append(',');
+            }
+            body.append(request.input);
+        }
+        body.append(']');
+
+        log.debug("Sending {} requests as one batch", batch.size());
+        send(body.toString()).whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String response, Throwable ex) {
+                if (null != ex) {
+                    for (Pending request : batch) {
+                        request.response.completeExceptionally(ex);
+                    }
+                } else {
+                    split(response, batch);
+                }
+            }
+        });
+    }
+
+    private void split(String response, List<Pending> batch) {
+        JsonElement responseElem;
+        try {
+            final JsonReader reader = new JsonReader(new StringReader(response));
+            reader.setLenient(true);
+            responseElem = new JsonParser().parse(reader);
+        } catch (JsonParseException e) {
+            responseElem = null;
+        }
+
+        if (null == responseElem || !responseElem.isJsonArray()) {
+            // The server does not understand batches; answer these requests one at a time and stop batching.
+            log.debug("Batch was not answered with an array, sending {} requests individually", batch.size());
+            batchesSupported = false;
+            synchronized (lock) {
+                fallbacks++;
+            }
+            for (Pending request : batch) {
+                forward(send(request.input), request);
+            }
+            return;
+        }
+
+        final Map<String, JsonElement> responsesById = new HashMap<>();
+        for (JsonElement elem : responseElem.getAsJsonArray()) {
+            if (elem.isJsonObject()) {
+                final JsonElement id = elem.getAsJsonObject().get("id");
+                if (null != id && !id.isJsonNull()) {
+                    responsesById.put(id.getAsString(), elem);
+                }
+            }
+        }
+        for (Pending request : batch) {
+            final JsonElement elem = responsesById.get(request.id);
+            if (null == elem) {
+                request.response.completeExceptionally(new IOException("The batch response contains no response for request id " + request.id));
+            } else {
+                request.response.complete(elem.toString());
+            }
+        }
+    }
+
+    private CompletableFuture<String> send(final String input) {
+        if (delegate instanceof AsyncRequestDispatcher) {
+            return ((AsyncRequestDispatcher) delegate).dispatchRequestAsync(input);
+        }
+
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            ServiceBase.DefaultAsyncExecutor.INSTANCE.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(delegate.dispatchRequest(input));
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static void forward(CompletableFuture<String> from, final Pending to) {
+        from.whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String response, Throwable ex) {
+                if (null != ex) {
+                    to.response.completeExceptionally(ex);
+                } else {
+                    to.response.complete(response);
+                }
+            }
+        });
+    }
+
+    private static boolean containsId(List<Pending> requests, String id) {
+        for (Pending request : requests) {
+            if (request.id.equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the top level id of a single JSON-RPC request.
+     *
+     * @return the id, or null if the input is not a single request with an id
+     */
+    static String requestId(String input) {
+        return JsonRpcRequests.id(input);
+    }
+
+    /**
+     * @return a snapshot of the batch size and wait time counters of this dispatcher
+     */
+    public CoalescingStatistics getStatistics() {
+        synchronized (lock) {
+            return new CoalescingStatistics(requests, passedThrough, batches, batchedRequests, largestBatch,
+                    flushesBySize, flushesByWindow, totalWaitNanos, maxWaitNanos, fallbacks);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        delegate.setConnectionTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        delegate.setReadTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        delegate.setTimeoutToDefault();
+    }
+
+    /**
+     * @return the endpoint of the wrapped dispatcher
+     */
+    @Override
+    public String describe() {
+        return RequestDispatchers.describe(delegate);
+    }
+
+    /**
+     * Getter for property 'delegate'.
+     *
+     * @return Value for property 'delegate'.
+     */
+    public RequestDispatcher getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Getter for property 'windowMillis'.
+     *
+     * @return Value for property 'windowMillis'.
+     */
+    public long getWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+    }
+
+    /**
+     * Getter for property 'maxBatchSize'.
+     *
+     * @return Value for property 'maxBatchSize'.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    private static final class Pending {
+        final String input;
+        final String id;
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        final long enqueuedAt = System.nanoTime();
+
+        Pending(String input, String id) {
+            this.input = input;
+            this.id = id;
+        }
+    }
+
+    private static final class Scheduler {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "jsvcgen-coalescer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point-in-time snapshot of the counters of a {@link CoalescingRequestDispatcher}.
+ */
+public final class CoalescingStatistics implements Serializable {
+
+    private static final long serialVersionUID = 4412829037713651290L;
+
+    private final long requests;
+    private final long passedThrough;
+    private final long batches;
+    private final long batchedRequests;
+    private final int largestBatch;
+    private final long flushesBySize;
+    private final long flushesByWindow;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+    private final long fallbacks;
+
+    CoalescingStatistics(long requests, long passedThrough, long batches, long batchedRequests, int largestBatch,
+                         long flushesBySize, long flushesByWindow, long totalWaitNanos, long maxWaitNanos, long fallbacks) {
+        this.requests = requests;
+        this.passedThrough = passedThrough;
+        this.batches = batches;
+        this.batchedRequests = batchedRequests;
+        this.largestBatch = largestBatch;
+        this.flushesBySize = flushesBySize;
+        this.flushesByWindow = flushesByWindow;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.fallbacks = fallbacks;
+    }
+
+    /**
+     * @return the number of requests dispatched, including the ones passed through
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the number of requests sent unchanged because they could not be batched
+     */
+    public long getPassedThrough() {
+        return passedThrough;
+    }
+
+    /**
+     * @return the number of batches sent; a batch of one request is sent as a plain request
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return the number of requests that were sent as part of a batch
+     */
+    public long getBatchedRequests() {
+        return batchedRequests;
+    }
+
+    /**
+     * @return the average number of requests in a batch, or 0 if no batch was sent
+     */
+    public double getAverageBatchSize() {
+        return batches == 0 ? 0 : (double) batchedRequests / batches;
+    }
+
+    /**
+     * @return the number of requests in the largest batch sent
+     */
+    public int getLargestBatch() {
+        return largestBatch;
+    }
+
+    /**
+     * @return the number of batches sent because they reached the maximum batch size
+     */
+    public long getFlushesBySize() {
+        return flushesBySize;
+    }
+
+    /**
+     * @return the number of batches sent because the window of their oldest request ran out
+     */
+    public long getFlushesByWindow() {
+        return flushesByWindow;
+    }
+
+    /**
+     * @return the average time in milliseconds a batched request was held back, or 0 if no batch was sent
+     */
+    public double getAverageWaitMillis() {
+        return batchedRequests == 0 ? 0 : (double) totalWaitNanos / batchedRequests / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the longest time in milliseconds a batched request was held back
+     */
+    public double getMaxWaitMillis() {
+        return (double) maxWaitNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the number of batches the server did not answer as a batch, whose requests were then sent one by one
+     */
+    public long getFallbacks() {
+        return fallbacks;
+    }
+
+    @Override
+    public String toString() {
+        return "CoalescingStatistics{ requests : " + requests +
+                ", passedThrough : " + passedThrough +
+                ", batches : " + batches +
+                ", averageBatchSize : " + String.format("%.2f", getAverageBatchSize()) +
+                ", largestBatch : " + largestBatch +
+                ", flushesBySize : " + flushesBySize +
+                ", flushesByWindow : " + flushesByWindow +
+                ", averageWaitMillis : " + String.format("%.3f", getAverageWaitMillis()) +
+                ", maxWaitMillis : " + String.format("%.3f", getMaxWaitMillis()) +
+                ", fallbacks : " + fallbacks + " }";
+    }
+}
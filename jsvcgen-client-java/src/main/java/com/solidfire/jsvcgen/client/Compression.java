@@ -0,0 +1,185 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * HTTP content coding of request and response bodies, and the byte counting around it.
+ */
+final class Compression {
+
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    static final String GZIP = "gzip";
+
+    private Compression() {
+    }
+
+    /**
+     * @return the body compressed with gzip
+     */
+    static byte[] gzip(byte[] body, int offset, int length) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 4));
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, 8192)) {
+            out.write(body, offset, length);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Wraps a response body so that it is decompressed as it is read.
+     *
+     * @param in              the body as received
+     * @param contentEncoding the Content-Encoding of the response, may be null
+     * @return the decoded body
+     * @throws IOException if the content coding is not supported
+     */
+    static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        final String coding = null == contentEncoding ? "" : contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+        switch (coding) {
+            case "":
+            case "identity":
+                return in;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, 8192);
+            case "deflate":
+                // Meant to be zlib wrapped, but some servers send a raw deflate stream.
+                final PushbackInputStream peek = new PushbackInputStream(in, 2);
+                final int cmf = peek.read();
+                final int flg = peek.read();
+                if (flg != -1) peek.unread(flg);
+                if (cmf != -1) peek.unread(cmf);
+                final boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+                final Inflater inflater = new Inflater(!zlib);
+                return new InflaterInputStream(peek, inflater, 8192) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                };
+            default:
+                throw new IOException("Unsupported Content-Encoding \"" + contentEncoding + "\"");
+        }
+    }
+
+    /**
+     * Decodes a response body and records the transfer when the body is closed.
+     *
+     * @param wire             the body as received
+     * @param contentEncoding  the Content-Encoding of the response, may be null
+     * @param counters         the counters to record the call in
+     * @param requestBytes     the request body size before compression
+     * @param requestWireBytes the request body size as sent
+     * @return the decoded body
+     */
+    static InputStream decode(InputStream wire, String contentEncoding, final TransferCounters counters,
+                              final long requestBytes, final long requestWireBytes) throws IOException {
+        final CountingInputStream received = new CountingInputStream(wire);
+        return new CountingInputStream(decode(received, contentEncoding)) {
+            private boolean recorded;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!recorded) {
+                        recorded = true;
+                        counters.record(requestBytes, requestWireBytes, getCount(), received.getCount());
+                    }
+                }
+            }
+        };
+    }
+
+    static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
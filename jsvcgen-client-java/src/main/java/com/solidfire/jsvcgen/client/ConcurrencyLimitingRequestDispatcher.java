@@ -0,0 +1,331 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A request dispatcher that caps the number of requests in flight to the cluster behind it, and finds the cap by
+ * itself. Share one instance between all the services that talk to the same cluster.
+ * <p/>
+ * The limit grows by one for every limit's worth of requests that complete quickly while the limit is in use, and
+ * shrinks by {@value #BACKOFF_RATIO} when a request fails with an I/O error or takes more than a millisecond longer
+ * than {@value #LATENCY_TOLERANCE} times the fastest recent response, at most once per fastest response time. Requests over
+ * the limit wait in line, up to {@link #setMaxQueueSize(int)} of them for at most
+ * {@link #setMaxQueueWaitMillis(long)}; others are refused at once with a {@link RequestRejectedException}.
+ */
+public class ConcurrencyLimitingRequestDispatcher implements RequestDispatcher, DescribedRequestDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(ConcurrencyLimitingRequestDispatcher.class);
+
+    public static final int DEFAULT_INITIAL_LIMIT = 8;
+    public static final int DEFAULT_MAX_LIMIT = 64;
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 256;
+    public static final long DEFAULT_MAX_QUEUE_WAIT_MILLIS = 30000;
+
+    static final double BACKOFF_RATIO = 0.9;
+    static final double LATENCY_TOLERANCE = 2.0;
+    static final int MIN_RTT_SAMPLES = 500;
+    static final long LATENCY_SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final RequestDispatcher delegate;
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    // Guarded by lock.
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long rejected;
+    private long minRttNanos = Long.MAX_VALUE;
+    private long epochMinRttNanos = Long.MAX_VALUE;
+    private int epochSamples;
+    private long lastDecreaseNanos;
+
+    private volatile int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    private volatile long maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_QUEUE_WAIT_MILLIS);
+
+    /**
+     * Create a dispatcher starting at {@value #DEFAULT_INITIAL_LIMIT} and never exceeding {@value #DEFAULT_MAX_LIMIT}
+     * requests in flight.
+     *
+     * @param delegate the dispatcher that sends the requests
+     */
+    public ConcurrencyLimitingRequestDispatcher(RequestDispatcher delegate) {
+        this(delegate, DEFAULT_INITIAL_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * @param delegate     the dispatcher that sends the requests
+     * @param initialLimit the number of requests in flight allowed before anything has been measured
+     * @param maxLimit     the most requests in flight ever allowed
+     */
+    public ConcurrencyLimitingRequestDispatcher(RequestDispatcher delegate, int initialLimit, int maxLimit) {
+        if (null == delegate) throw new IllegalArgumentException("delegate is null");
+        if (initialLimit < 1) throw new IllegalArgumentException("initialLimit must be at least 1");
+        if (maxLimit < initialLimit) throw new IllegalArgumentException("maxLimit can not be less than initialLimit");
+
+        this.delegate = delegate;
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * @return the version of the wrapped dispatcher
+     */
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    /**
+     * Dispatch an encoded request once the limit allows it.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws RequestRejectedException if the queue is full or the request waited too long in it
+     * @throws IOException              if anything went wrong on the connection side of things.
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        acquire();
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final String response = delegate.dispatchRequest(input);
+            failed = false;
+            return response;
+        } finally {
+            release(System.nanoTime() - start, failed);
+        }
+    }
+
+    private void acquire() throws IOException {
+        lock.lock();
+        try {
+            if (inFlight < currentLimit()) {
+                inFlight++;
+                return;
+            }
+            if (queued >= maxQueueSize) {
+                rejected++;
+                throw new RequestRejectedException("Too many requests waiting: " + queued + " queued, "
+                        + inFlight + " in flight");
+            }
+            queued++;
+            try {
+                long remaining = maxQueueWaitNanos;
+                while (inFlight >= currentLimit()) {
+                    if (remaining <= 0) {
+                        rejected++;
+                        throw new RequestRejectedException("Request waited longer than "
+                                + TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos) + " ms for one of "
+                                + currentLimit() + " slots");
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+                inFlight++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send a request");
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long rttNanos, boolean failed) {
+        lock.lock();
+        try {
+            final int used = inFlight;
+            inFlight--;
+            final long now = System.nanoTime();
+
+            if (!failed) {
+                epochMinRttNanos = Math.min(epochMinRttNanos, rttNanos);
+                if (++epochSamples >= MIN_RTT_SAMPLES || minRttNanos == Long.MAX_VALUE) {
+                    // Start over now and then so the baseline follows the cluster when it gets slower for good.
+                    minRttNanos = epochMinRttNanos;
+                    epochMinRttNanos = Long.MAX_VALUE;
+                    epochSamples = 0;
+                }
+            }
+
+            if (failed || rttNanos > minRttNanos * LATENCY_TOLERANCE + LATENCY_SLACK_NANOS) {
+                if (minRttNanos == Long.MAX_VALUE || now - lastDecreaseNanos > minRttNanos) {
+                    lastDecreaseNanos = now;
+                    final double previous = limit;
+                    limit = Math.max(1, limit * BACKOFF_RATIO);
+                    if ((int) previous != (int) limit) {
+                        log.debug("Concurrency limit lowered to {}", (int) limit);
+                    }
+                }
+            } else if (used * 2 >= currentLimit()) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+
+            for (int free = currentLimit() - inFlight; free > 0; free--) {
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int currentLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the number of requests currently allowed in flight
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return currentLimit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests sent and not completed yet
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests waiting for a slot
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests refused because the queue was full or they waited too long
+     */
+    public long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for property 'maxQueueSize'.
+     *
+     * @return Value for property 'maxQueueSize'.
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * Sets the number of requests that may wait for a slot.
+     *
+     * @param maxQueueSize the number of requests, or 0 to refuse every request over the limit at once
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        if (maxQueueSize < 0) throw new IllegalArgumentException("maxQueueSize can not be negative");
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Getter for property 'maxQueueWaitMillis'.
+     *
+     * @return Value for property 'maxQueueWaitMillis'.
+     */
+    public long getMaxQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos);
+    }
+
+    /**
+     * Sets how long a request may wait for a slot before it is refused.
+     *
+     * @param maxQueueWaitMillis the time in milliseconds
+     */
+    public void setMaxQueueWaitMillis(long maxQueueWaitMillis) {
+        if (maxQueueWaitMillis < 0) throw new IllegalArgumentException("maxQueueWaitMillis can not be negative");
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMillis);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        delegate.setConnectionTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        delegate.setReadTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        delegate.setTimeoutToDefault();
+    }
+
+    /**
+     * @return the endpoint of the wrapped dispatcher
+     */
+    @Override
+    public String describe() {
+        return RequestDispatchers.describe(delegate);
+    }
+
+    /**
+     * Getter for property 'delegate'.
+     *
+     * @return Value for property 'delegate'.
+     */
+    public RequestDispatcher getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Getter for property 'maxLimit'.
+     *
+     * @return Value for property 'maxLimit'.
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * A point-in-time snapshot of the counters of a {@link HttpsConnectionPool}, either for a single host or summed over
+ * all hosts of the pool.
+ */
+public final class ConnectionPoolStatistics implements Serializable {
+
+    private static final long serialVersionUID = -3126394757062357710L;
+
+    private final int maxConnectionsPerHost;
+    private final int leased;
+    private final int idle;
+    private final long created;
+    private final long reused;
+    private final long closed;
+    private final long evicted;
+    private final long waitTimeouts;
+
+    ConnectionPoolStatistics(int maxConnectionsPerHost, int leased, int idle, long created, long reused, long closed, long evicted, long waitTimeouts) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.leased = leased;
+        this.idle = idle;
+        this.created = created;
+        this.reused = reused;
+        this.closed = closed;
+        this.evicted = evicted;
+        this.waitTimeouts = waitTimeouts;
+    }
+
+    static ConnectionPoolStatistics sum(int maxConnectionsPerHost, Collection<ConnectionPoolStatistics> all) {
+        int leased = 0, idle = 0;
+        long created = 0, reused = 0, closed = 0, evicted = 0, waitTimeouts = 0;
+        for (ConnectionPoolStatistics s : all) {
+            leased += s.leased;
+            idle += s.idle;
+            created += s.created;
+            reused += s.reused;
+            closed += s.closed;
+            evicted += s.evicted;
+            waitTimeouts += s.waitTimeouts;
+        }
+        return new ConnectionPoolStatistics(maxConnectionsPerHost, leased, idle, created, reused, closed, evicted, waitTimeouts);
+    }
+
+    /**
+     * @return the configured maximum number of open connections to a single host
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * @return the number of connections currently in use by a request
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return the number of open connections currently waiting to be reused
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * @return the number of connections opened, i.e. the number of TCP and TLS handshakes performed
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the number of requests that were sent over an already open connection
+     */
+    public long getReused() {
+        return reused;
+    }
+
+    /**
+     * @return the number of connections closed for any reason
+     */
+    public long getClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the number of connections closed because they were idle for too long
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @return the number of requests that gave up waiting for a free connection
+     */
+    public long getWaitTimeouts() {
+        return waitTimeouts;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStatistics{ leased : " + leased +
+                ", idle : " + idle +
+                ", created : " + created +
+                ", reused : " + reused +
+                ", closed : " + closed +
+                ", evicted : " + evicted +
+                ", waitTimeouts : " + waitTimeouts +
+                ", maxConnectionsPerHost : " + maxConnectionsPerHost + " }";
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Thrown when the deadline of a call passes before its result is decoded, see {@link CallOptions}.
+ */
+public class DeadlineExceededException extends SocketTimeoutException {
+
+    private static final long serialVersionUID = -2081627305948276610L;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+/**
+ * A request dispatcher that can name the endpoint its requests go to. A {@link ServiceBase} records its calls under
+ * that name in its {@link MetricsRegistry} and its {@link CallTiming}s, and a {@link LoadBalancingRequestDispatcher}
+ * names its endpoints by it. A dispatcher that wraps another one names the endpoint of the one it wraps.
+ */
+public interface DescribedRequestDispatcher extends RequestDispatcher {
+
+    /**
+     * @return the endpoint the requests are sent to, usually its URL
+     */
+    String describe();
+}
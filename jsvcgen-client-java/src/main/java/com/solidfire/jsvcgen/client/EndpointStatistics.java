@@ -0,0 +1,109 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point-in-time snapshot of one endpoint of a {@link LoadBalancingRequestDispatcher}.
+ */
+public final class EndpointStatistics implements Serializable {
+
+    private static final long serialVersionUID = 6172093319470553217L;
+
+    private final String endpoint;
+    private final int outstanding;
+    private final long requests;
+    private final long failures;
+    private final long ejections;
+    private final boolean ejected;
+    private final double latencyNanos;
+
+    EndpointStatistics(String endpoint, int outstanding, long requests, long failures, long ejections, boolean ejected,
+                       double latencyNanos) {
+        this.endpoint = endpoint;
+        this.outstanding = outstanding;
+        this.requests = requests;
+        this.failures = failures;
+        this.ejections = ejections;
+        this.ejected = ejected;
+        this.latencyNanos = latencyNanos;
+    }
+
+    /**
+     * @return a description of the endpoint, its URL where the dispatcher has one
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return the number of requests sent to the endpoint that have not completed yet
+     */
+    public int getOutstanding() {
+        return outstanding;
+    }
+
+    /**
+     * @return the number of requests sent to the endpoint
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the number of requests that failed with an I/O error
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of times the endpoint was taken out of rotation
+     */
+    public long getEjections() {
+        return ejections;
+    }
+
+    /**
+     * Getter for property 'ejected'.
+     *
+     * @return Value for property 'ejected'.
+     */
+    public boolean isEjected() {
+        return ejected;
+    }
+
+    /**
+     * @return the exponentially weighted moving average of the response time in milliseconds, or 0 before the first
+     * response
+     */
+    public double getAverageLatencyMillis() {
+        return latencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointStatistics{ endpoint : " + endpoint +
+                ", outstanding : " + outstanding +
+                ", requests : " + requests +
+                ", failures : " + failures +
+                ", ejections : " + ejections +
+                ", ejected : " + ejected +
+                ", averageLatencyMillis : " + String.format("%.3f", getAverageLatencyMillis()) + " }";
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+/**
+ * The call a {@link FleetExecutor} runs against each service of a fleet.
+ *
+ * @param <S> the type of the services
+ * @param <R> the type of the result
+ */
+public interface FleetCall<S, R> {
+    /**
+     * Called on a thread of the executor, with the options of the run current, see {@link CallOptions}.
+     *
+     * @param service the service of one cluster
+     * @return the result of the call
+     * @throws Exception if the call failed; only this cluster's result fails
+     */
+    R call(S service) throws Exception;
+}
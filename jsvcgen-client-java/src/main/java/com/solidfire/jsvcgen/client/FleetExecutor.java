@@ -0,0 +1,268 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs one call against the services of a fleet of clusters, at most {@link #getMaxConcurrency()} calls at a time in
+ * all and at most {@link #getMaxPerCluster()} at a time against any one service, and hands the results back as the
+ * calls complete, see {@link FleetRun}. A call that fails only fails the result of its own cluster.
+ * <p/>
+ * The calls of a run share one {@link CallOptions}: its deadline bounds the whole run, and cancelling the run aborts
+ * the calls in flight and fails those not started yet. Calls sent through {@link HttpsRequestDispatcher} or
+ * {@link PooledHttpsRequestDispatcher} share the TLS sessions of their socket factory and, for the pooled dispatcher,
+ * its connection pool, so give each cluster its own service and dispatcher and run them all through one executor.
+ * <p/>
+ * The executor has one thread per concurrent call, whatever the size of the fleet; the calls waiting for a thread
+ * only take a queue entry. Close it to stop its threads once no run is in progress.
+ */
+public class FleetExecutor implements Closeable {
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 64;
+    public static final int DEFAULT_MAX_PER_CLUSTER = 2;
+
+    private static final AtomicLong executors = new AtomicLong();
+
+    private final int maxConcurrency;
+    private final int maxPerCluster;
+    private final ThreadPoolExecutor workers;
+    // The clusters with calls in flight, by service; guarded by itself.
+    private final Map<Object, Cluster> clusters = new IdentityHashMap<>();
+
+    /**
+     * Create an executor running up to {@value #DEFAULT_MAX_CONCURRENCY} calls at a time.
+     */
+    public FleetExecutor() {
+        this(DEFAULT_MAX_CONCURRENCY, DEFAULT_MAX_PER_CLUSTER);
+    }
+
+    /**
+     * @param maxConcurrency the most calls in flight in all
+     * @param maxPerCluster  the most calls in flight against one service
+     */
+    public FleetExecutor(int maxConcurrency, int maxPerCluster) {
+        if (maxConcurrency < 1) throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        if (maxPerCluster < 1) throw new IllegalArgumentException("maxPerCluster must be at least 1");
+
+        this.maxConcurrency = maxConcurrency;
+        this.maxPerCluster = maxPerCluster;
+        final long executor = executors.incrementAndGet();
+        this.workers = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicLong threads = new AtomicLong();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "jsvcgen-fleet-" + executor + "-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the call against every service, without a deadline.
+     *
+     * @param services the services of the clusters; a service listed twice is called twice
+     * @param call     the call to run against each
+     * @return the run, which hands out the results as the calls complete
+     */
+    public <S, R> FleetRun<S, R> run(Collection<? extends S> services, FleetCall<S, R> call) {
+        final Cancellation cancellation = new Cancellation();
+        return run(services, call, new CallOptions(cancellation), cancellation);
+    }
+
+    /**
+     * Runs the call against every service within a deadline. The calls not started when the deadline passes fail
+     * without being sent, and the calls in flight are aborted.
+     *
+     * @param services the services of the clusters; a service listed twice is called twice
+     * @param call     the call to run against each
+     * @param timeout  the time from now until the deadline of the whole run
+     * @param unit     the unit of the timeout
+     * @return the run, which hands out the results as the calls complete
+     */
+    public <S, R> FleetRun<S, R> run(Collection<? extends S> services, FleetCall<S, R> call,
+                                     long timeout, TimeUnit unit) {
+        final Cancellation cancellation = new Cancellation();
+        return run(services, call, new CallOptions(timeout, unit, cancellation), cancellation);
+    }
+
+    private <S, R> FleetRun<S, R> run(Collection<? extends S> services, FleetCall<S, R> call,
+                                      CallOptions options, Cancellation cancellation) {
+        if (null == services) throw new IllegalArgumentException("services is null");
+        if (null == call) throw new IllegalArgumentException("call is null");
+        if (workers.isShutdown()) throw new IllegalStateException("The executor is closed");
+
+        final List<S> fleet = new ArrayList<>(services);
+        for (S service : fleet) {
+            if (null == service) throw new IllegalArgumentException("services contains null");
+        }
+        final FleetRun<S, R> run = new FleetRun<>(fleet.size(), options, cancellation);
+        for (S service : fleet) {
+            submit(new Task<>(run, call, service));
+        }
+        return run;
+    }
+
+    /**
+     * Hands the task to a thread if its cluster is below its cap, or else queues it behind the cluster's other tasks.
+     */
+    private void submit(Task<?, ?> task) {
+        synchronized (clusters) {
+            Cluster cluster = clusters.get(task.service);
+            if (null == cluster) {
+                cluster = new Cluster();
+                clusters.put(task.service, cluster);
+            }
+            if (cluster.inFlight >= maxPerCluster) {
+                cluster.pending.add(task);
+                return;
+            }
+            cluster.inFlight++;
+        }
+        execute(task);
+    }
+
+    /**
+     * Starts the next task queued for the cluster, if any, in place of one that completed.
+     */
+    private void completed(Object service) {
+        final Task<?, ?> next;
+        synchronized (clusters) {
+            final Cluster cluster = clusters.get(service);
+            next = cluster.pending.poll();
+            if (null == next && --cluster.inFlight == 0) {
+                clusters.remove(service);
+            }
+        }
+        if (null != next) {
+            execute(next);
+        }
+    }
+
+    private void execute(Task<?, ?> task) {
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.reject(e);
+        }
+    }
+
+    /**
+     * Getter for property 'maxConcurrency'.
+     *
+     * @return Value for property 'maxConcurrency'.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Getter for property 'maxPerCluster'.
+     *
+     * @return Value for property 'maxPerCluster'.
+     */
+    public int getMaxPerCluster() {
+        return maxPerCluster;
+    }
+
+    /**
+     * @return the number of calls in flight or waiting for a thread, in all runs
+     */
+    public int getActive() {
+        return workers.getActiveCount() + workers.getQueue().size();
+    }
+
+    /**
+     * Stops the threads once the calls handed to them have run; calls still waiting behind others against the same
+     * cluster fail.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    private final class Task<S, R> implements Runnable {
+        private final FleetRun<S, R> run;
+        private final FleetCall<S, R> call;
+        private final S service;
+
+        private Task(FleetRun<S, R> run, FleetCall<S, R> call, S service) {
+            this.run = run;
+            this.call = call;
+            this.service = service;
+        }
+
+        @Override
+        public void run() {
+            try {
+                run.complete(call());
+            } finally {
+                completed(service);
+            }
+        }
+
+        /**
+         * Fails the task, because the executor was closed before it could start.
+         */
+        private void reject(RejectedExecutionException e) {
+            try {
+                run.complete(new FleetResult<S, R>(service, null, new ApiException("The executor is closed", e), 0));
+            } finally {
+                completed(service);
+            }
+        }
+
+        private FleetResult<S, R> call() {
+            final CallOptions options = run.getOptions();
+            final IOException failure = options.failure();
+            if (null != failure) {
+                return new FleetResult<>(service, null, new ApiException(failure), 0);
+            }
+            final CallOptions previous = CallOptions.enter(options);
+            final long start = System.nanoTime();
+            try {
+                final R result = call.call(service);
+                return new FleetResult<>(service, result, null, System.nanoTime() - start);
+            } catch (Exception e) {
+                return new FleetResult<>(service, null, e, System.nanoTime() - start);
+            } finally {
+                CallOptions.exit(previous);
+            }
+        }
+    }
+
+    private static final class Cluster {
+        private final ArrayDeque<Task<?, ?>> pending = new ArrayDeque<>();
+        private int inFlight;
+    }
+}
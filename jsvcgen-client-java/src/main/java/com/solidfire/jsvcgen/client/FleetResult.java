@@ -0,0 +1,86 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a {@link FleetCall} against one service.
+ *
+ * @param <S> the type of the services
+ * @param <R> the type of the result
+ */
+public final class FleetResult<S, R> {
+
+    private final S service;
+    private final R result;
+    private final Exception failure;
+    private final long elapsedNanos;
+
+    FleetResult(S service, R result, Exception failure, long elapsedNanos) {
+        this.service = service;
+        this.result = result;
+        this.failure = failure;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Getter for property 'service'.
+     *
+     * @return Value for property 'service'.
+     */
+    public S getService() {
+        return service;
+    }
+
+    /**
+     * @return the result of the call, or null if it failed
+     */
+    public R getResult() {
+        return result;
+    }
+
+    /**
+     * A call that was not started before the deadline of the run passed, or before it was cancelled, fails with an
+     * {@link ApiException} caused by a {@link DeadlineExceededException} or a {@link CallCancelledException}.
+     *
+     * @return why the call failed, or null if it succeeded
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return true if the call succeeded
+     */
+    public boolean isSuccess() {
+        return null == failure;
+    }
+
+    /**
+     * @return the time in milliseconds the call took, 0 if it was not started
+     */
+    public double getElapsedMillis() {
+        return (double) elapsedNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "FleetResult{ service : " + service +
+                (isSuccess() ? ", result : " + result : ", failure : " + failure) +
+                ", elapsedMillis : " + String.format("%.3f", getElapsedMillis()) + " }";
+    }
+}
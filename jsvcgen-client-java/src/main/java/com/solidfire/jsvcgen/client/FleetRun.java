@@ -0,0 +1,191 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One call running across a fleet, see {@link FleetExecutor#run}. The results are handed out in the order the calls
+ * complete, through {@link #iterator()} or {@link #poll(long, TimeUnit)}, to one consumer; each result is handed out
+ * once. The failures can be read at any time through {@link #getFailures()}.
+ *
+ * @param <S> the type of the services
+ * @param <R> the type of the results
+ */
+public final class FleetRun<S, R> implements Iterable<FleetResult<S, R>> {
+
+    private final int size;
+    private final CallOptions options;
+    private final Cancellation cancellation;
+    private final BlockingQueue<FleetResult<S, R>> results = new LinkedBlockingQueue<>();
+    private final List<FleetResult<S, R>> failures = new ArrayList<>();
+    private final CountDownLatch remaining;
+    private int succeeded;
+    private int taken;
+
+    FleetRun(int size, CallOptions options, Cancellation cancellation) {
+        this.size = size;
+        this.options = options;
+        this.cancellation = cancellation;
+        this.remaining = new CountDownLatch(size);
+    }
+
+    void complete(FleetResult<S, R> result) {
+        synchronized (failures) {
+            if (result.isSuccess()) {
+                succeeded++;
+            } else {
+                failures.add(result);
+            }
+        }
+        // Counted first, so the run is done by the time its last result is taken.
+        remaining.countDown();
+        results.add(result);
+    }
+
+    CallOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Fails the calls not started yet with a {@link CallCancelledException}, and aborts those in flight.
+     */
+    public void cancel() {
+        cancellation.cancel();
+    }
+
+    /**
+     * @return the number of services the call runs against
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of calls completed, successfully or not
+     */
+    public int getCompleted() {
+        return size - (int) remaining.getCount();
+    }
+
+    /**
+     * @return the number of calls that succeeded so far
+     */
+    public int getSucceeded() {
+        synchronized (failures) {
+            return succeeded;
+        }
+    }
+
+    /**
+     * @return the calls that failed so far, in the order they completed
+     */
+    public List<FleetResult<S, R>> getFailures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    /**
+     * @return true once every call completed
+     */
+    public boolean isDone() {
+        return remaining.getCount() == 0;
+    }
+
+    /**
+     * Waits until every call completed.
+     *
+     * @param timeout the longest time to wait
+     * @param unit    the unit of the timeout
+     * @return true if every call completed, false if the time ran out
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return remaining.await(timeout, unit);
+    }
+
+    /**
+     * Takes the next result, waiting for a call to complete if needed.
+     *
+     * @param timeout the longest time to wait
+     * @param unit    the unit of the timeout
+     * @return the next result, or null if every result was taken or the time ran out
+     */
+    public FleetResult<S, R> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        synchronized (results) {
+            if (taken == size) {
+                return null;
+            }
+            final FleetResult<S, R> result = results.poll(timeout, unit);
+            if (null != result) {
+                taken++;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The iterator blocks until the next call completes; a thread interrupted while waiting ends the iteration with an
+     * {@link ApiException}.
+     *
+     * @return the results not taken yet, in the order the calls complete
+     */
+    @Override
+    public Iterator<FleetResult<S, R>> iterator() {
+        return new Iterator<FleetResult<S, R>>() {
+            @Override
+            public boolean hasNext() {
+                synchronized (results) {
+                    return taken < size;
+                }
+            }
+
+            @Override
+            public FleetResult<S, R> next() {
+                try {
+                    final FleetResult<S, R> result = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                    if (null == result) {
+                        throw new NoSuchElementException();
+                    }
+                    return result;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ApiException("Interrupted while waiting for a fleet result", e);
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "FleetRun{ size : " + size +
+                ", completed : " + getCompleted() +
+                ", succeeded : " + getSucceeded() +
+                ", failed : " + getFailures().size() + " }";
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+
+/**
+ * A request dispatcher that multiplexes concurrent requests over a shared HTTP/2 connection.
+ * <p/>
+ * This is the Java 7 version of a multi-release class. On JDK 11 and later the class in
+ * {@code META-INF/versions/11} replaces it with an implementation built on {@code java.net.http.HttpClient}; on older
+ * runtimes this version is loaded instead and simply sends every request over HTTP/1.1 through an
+ * {@link HttpsRequestDispatcher}. Use {@link #isMultiplexingSupported()} to find out which one is in use.
+ */
+public class Http2RequestDispatcher implements StreamingRequestDispatcher, DescribedRequestDispatcher {
+
+    private final HttpsRequestDispatcher delegate;
+
+    /**
+     * Create a dispatcher using no authentication.
+     */
+    public Http2RequestDispatcher(URL endpoint) {
+        this.delegate = new HttpsRequestDispatcher(endpoint);
+    }
+
+    /**
+     * Create a dispatcher using HTTP basic authentication using the supplied username and password.
+     *
+     * @param endpoint the hostname or IP address of the connection
+     * @param username username credential
+     * @param password password credential
+     */
+    public Http2RequestDispatcher(URL endpoint, String username, String password) {
+        this.delegate = new HttpsRequestDispatcher(endpoint, username, password);
+    }
+
+    /**
+     * Create a dispatcher using no authentication that trusts the certificates configured in the given context.
+     *
+     * @param endpoint   the hostname or IP address of the connection
+     * @param sslContext the TLS configuration to use
+     */
+    public Http2RequestDispatcher(URL endpoint, final SSLContext sslContext) {
+        this.delegate = new HttpsRequestDispatcher(endpoint) {
+            @Override
+            protected void prepareConnection(HttpsURLConnection connection) {
+                super.prepareConnection(connection);
+                connection.setSSLSocketFactory(sslContext.getSocketFactory());
+            }
+        };
+    }
+
+    /**
+     * Create a dispatcher using HTTP basic authentication that trusts the certificates configured in the given context.
+     *
+     * @param endpoint   the hostname or IP address of the connection
+     * @param username   username credential
+     * @param password   password credential
+     * @param sslContext the TLS configuration to use
+     */
+    public Http2RequestDispatcher(URL endpoint, String username, String password, final SSLContext sslContext) {
+        this.delegate = new HttpsRequestDispatcher(endpoint, username, password) {
+            @Override
+            protected void prepareConnection(HttpsURLConnection connection) {
+                super.prepareConnection(connection);
+                connection.setSSLSocketFactory(sslContext.getSocketFactory());
+            }
+        };
+    }
+
+    /**
+     * @return true if requests are multiplexed over HTTP/2 on this runtime, false if every request uses HTTP/1.1
+     */
+    public static boolean isMultiplexingSupported() {
+        return false;
+    }
+
+    /**
+     * @return the version of the Element OS endpoint used in the connection
+     */
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    /**
+     * Dispatch an encoded request to the system and await some response.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws IOException if anything went wrong on the connection side of things.
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        return delegate.dispatchRequest(input);
+    }
+
+    /**
+     * Dispatch a request to the system, encoding it while it is sent, and return the response as soon as it starts to
+     * arrive.
+     *
+     * @param request The request to send to the remote server.
+     * @return A reader of the server's response.
+     * @throws IOException if anything went wrong on the connection side of things.
+     */
+    @Override
+    public Reader dispatchRequestStream(RequestBody request) throws IOException {
+        return delegate.dispatchRequestStream(request);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        delegate.setConnectionTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        delegate.setReadTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        delegate.setTimeoutToDefault();
+    }
+
+    /**
+     * Getter for property 'acceptCompressedResponses'.
+     *
+     * @return Value for property 'acceptCompressedResponses'.
+     */
+    public boolean isAcceptCompressedResponses() {
+        return delegate.isAcceptCompressedResponses();
+    }
+
+    /**
+     * Asks the server to compress responses with gzip or deflate; they are decompressed while they are decoded.
+     *
+     * @param acceptCompressedResponses true to send {@code Accept-Encoding: gzip, deflate}
+     */
+    public void setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+        delegate.setAcceptCompressedResponses(acceptCompressedResponses);
+    }
+
+    /**
+     * Getter for property 'requestCompressionThreshold'.
+     *
+     * @return Value for property 'requestCompressionThreshold'.
+     */
+    public int getRequestCompressionThreshold() {
+        return delegate.getRequestCompressionThreshold();
+    }
+
+    /**
+     * Sends request bodies of at least the given size gzip compressed. The server must accept
+     * {@code Content-Encoding: gzip}. Disabled by default.
+     *
+     * @param bytes the smallest body size to compress, or a negative number to never compress requests
+     */
+    public void setRequestCompressionThreshold(int bytes) {
+        delegate.setRequestCompressionThreshold(bytes);
+    }
+
+    /**
+     * @return the byte counts, before and after compression, of all calls made through this dispatcher
+     */
+    public TransferStatistics getTransferStatistics() {
+        return delegate.getTransferStatistics();
+    }
+
+    /**
+     * Sets a listener that is told the byte counts of every call, or null to remove it.
+     *
+     * @param listener the listener
+     */
+    public void setTransferListener(TransferListener listener) {
+        delegate.setTransferListener(listener);
+    }
+
+    /**
+     * @return the URL of the endpoint
+     */
+    @Override
+    public String describe() {
+        return delegate.describe();
+    }
+
+    /**
+     * Getter for property 'endpoint'.
+     *
+     * @return Value for property 'endpoint'.
+     */
+    public URL getEndpoint() {
+        return delegate.getEndpoint();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An incremental HTTP/1.1 response parser for connections that receive a response in arbitrary pieces.
+ * <p/>
+ * Feed it bytes as they arrive; it reports when the whole response, including a Content-Length, chunked or
+ * close-delimited body, has been read. Interim 1xx responses are skipped.
+ */
+final class HttpResponseParser {
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private enum State {STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_EOF, DONE}
+
+    private final StringBuilder line = new StringBuilder(64);
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private ByteArrayOutputStream body;
+    private State state = State.STATUS_LINE;
+    private boolean started;
+    private boolean http11;
+    private int statusCode;
+    private long remaining;
+
+    /**
+     * Consumes bytes from the buffer until it is empty or the response is complete.
+     *
+     * @param in the received bytes, positioned at the first unread byte
+     * @return true once the complete response has been read
+     * @throws IOException if the bytes are not a valid HTTP response
+     */
+    boolean feed(ByteBuffer in) throws IOException {
+        while (in.hasRemaining() && state != State.DONE) {
+            started = true;
+            switch (state) {
+                case BODY:
+                case CHUNK_DATA: {
+                    final int n = (int) Math.min(remaining, in.remaining());
+                    write(in, n);
+                    remaining -= n;
+                    if (remaining == 0) {
+                        state = state == State.BODY ? State.DONE : State.CHUNK_END;
+                    }
+                    break;
+                }
+                case UNTIL_EOF:
+                    write(in, in.remaining());
+                    break;
+                default:
+                    if (readLine(in)) {
+                        final String complete = line.toString();
+                        line.setLength(0);
+                        onLine(complete);
+                    }
+            }
+        }
+        return state == State.DONE;
+    }
+
+    /**
+     * Tells the parser that the server closed the connection.
+     *
+     * @return true if the close ended a complete response, false if the response was cut short
+     */
+    boolean finishOnEof() {
+        if (state == State.UNTIL_EOF) {
+            state = State.DONE;
+        }
+        return state == State.DONE;
+    }
+
+    private boolean readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            final int c = in.get() & 0xff;
+            if (c == '\n') {
+                final int len = line.length();
+                if (len > 0 && line.charAt(len - 1) == '\r') {
+                    line.setLength(len - 1);
+                }
+                return true;
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("HTTP header line exceeds " + MAX_LINE_LENGTH + " bytes");
+            }
+            line.append((char) c);
+        }
+        return false;
+    }
+
+    private void onLine(String text) throws IOException {
+        switch (state) {
+            case STATUS_LINE:
+                if (!text.isEmpty()) {
+                    parseStatusLine(text);
+                    state = State.HEADERS;
+                }
+                break;
+            case HEADERS:
+                if (text.isEmpty()) {
+                    headersComplete();
+                } else {
+                    final int colon = text.indexOf(':');
+                    if (colon <= 0) {
+                        throw new IOException("Malformed HTTP header: " + text);
+                    }
+                    final String name = text.substring(0, colon).trim();
+                    final String value = text.substring(colon + 1).trim();
+                    final String existing = headers.get(name);
+                    headers.put(name, null == existing ? value : existing + ", " + value);
+                }
+                break;
+            case CHUNK_SIZE: {
+                final int semicolon = text.indexOf(';');
+                final String size = (semicolon < 0 ? text : text.substring(0, semicolon)).trim();
+                try {
+                    remaining = Long.parseLong(size, 16);
+                } catch (NumberFormatException nfe) {
+                    throw new IOException("Malformed chunk size: " + text, nfe);
+                }
+                state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                break;
+            }
+            case CHUNK_END:
+                if (!text.isEmpty()) {
+                    throw new IOException("Malformed chunk terminator");
+                }
+                state = State.CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                if (text.isEmpty()) {
+                    state = State.DONE;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected parser state " + state);
+        }
+    }
+
+    private void parseStatusLine(String statusLine) throws IOException {
+        final String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed HTTP status line: " + statusLine);
+        }
+        try {
+            this.statusCode = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Malformed HTTP status line: " + statusLine, nfe);
+        }
+        this.http11 = "HTTP/1.1".equals(parts[0]);
+        this.headers.clear();
+    }
+
+    private void headersComplete() throws IOException {
+        if (statusCode < 200 && statusCode != 101) {
+            // 1xx informational responses (e.g. 100 Continue) carry no body; the real response follows.
+            state = State.STATUS_LINE;
+            return;
+        }
+        final String transferEncoding = getHeader("Transfer-Encoding");
+        final String contentLength = getHeader("Content-Length");
+
+        if (statusCode == 204 || statusCode == 304) {
+            body = new ByteArrayOutputStream(0);
+            state = State.DONE;
+        } else if (null != transferEncoding && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+            body = new ByteArrayOutputStream(8192);
+            state = State.CHUNK_SIZE;
+        } else if (null != contentLength) {
+            try {
+                remaining = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Malformed Content-Length: " + contentLength, nfe);
+            }
+            body = new ByteArrayOutputStream((int) Math.min(remaining, 1024 * 1024));
+            state = remaining == 0 ? State.DONE : State.BODY;
+        } else {
+            body = new ByteArrayOutputStream(8192);
+            state = State.UNTIL_EOF;
+        }
+    }
+
+    private void write(ByteBuffer in, int length) {
+        if (in.hasArray()) {
+            body.write(in.array(), in.arrayOffset() + in.position(), length);
+            in.position(in.position() + length);
+        } else {
+            final byte[] bytes = new byte[length];
+            in.get(bytes);
+            body.write(bytes, 0, length);
+        }
+    }
+
+    /**
+     * @return true once any byte of a response has been received
+     */
+    boolean hasStarted() {
+        return started;
+    }
+
+    /**
+     * @return true if the connection may carry another request after this response
+     */
+    boolean isKeepAlive() {
+        if (state != State.DONE || null == body) {
+            return false;
+        }
+        final String transferEncoding = getHeader("Transfer-Encoding");
+        if (null == getHeader("Content-Length") && (null == transferEncoding || !transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked"))
+                && statusCode != 204 && statusCode != 304) {
+            return false;
+        }
+        final String connectionHeader = getHeader("Connection");
+        if (null == connectionHeader) {
+            return http11;
+        }
+        final String value = connectionHeader.toLowerCase(Locale.ENGLISH);
+        return http11 ? !value.contains("close") : value.contains("keep-alive");
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    byte[] getBody() {
+        return null == body ? new byte[0] : body.toByteArray();
+    }
+}
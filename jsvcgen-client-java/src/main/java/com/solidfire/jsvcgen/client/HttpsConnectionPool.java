@@ -0,0 +1,459 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of keep-alive HTTPS connections, partitioned by host and port.
+ * <p/>
+ * A pool is thread safe and is meant to be shared by many dispatchers (and therefore many services) talking to the same
+ * or different clusters. Each host gets at most {@link #getMaxConnectionsPerHost()} open connections; callers wait for a
+ * free connection when all of them are leased. Connections idle for longer than {@link #getIdleTimeout()} are closed
+ * by a background daemon thread.
+ */
+public class HttpsConnectionPool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpsConnectionPool.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    public static final long DEFAULT_VALIDATE_AFTER_INACTIVITY = 1000;
+
+    private static volatile HttpsConnectionPool sharedPool;
+
+    private final int maxConnectionsPerHost;
+    private final long idleTimeout;
+    private final TlsSocketFactory socketFactory;
+    private final HostnameVerifier hostnameVerifier;
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private volatile long validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+    private volatile boolean closed;
+
+    /**
+     * Create a pool with the default limits that uses the shared {@link TlsSocketFactory#getDefault() default socket
+     * factory} and the standard HTTPS host name check.
+     */
+    public HttpsConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Create a pool that uses the shared {@link TlsSocketFactory#getDefault() default socket factory} and the standard
+     * HTTPS host name check.
+     *
+     * @param maxConnectionsPerHost the maximum number of open connections to any single host
+     * @param idleTimeout           the time in milliseconds an unused connection is kept open
+     */
+    public HttpsConnectionPool(int maxConnectionsPerHost, long idleTimeout) {
+        this(maxConnectionsPerHost, idleTimeout, TlsSocketFactory.getDefault(), null);
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param maxConnectionsPerHost the maximum number of open connections to any single host
+     * @param idleTimeout           the time in milliseconds an unused connection is kept open
+     * @param socketFactory         the factory used to create TLS sockets, wrapped in a {@link TlsSocketFactory} unless
+     *                              it is one
+     * @param hostnameVerifier      the verifier applied to the server host name after each handshake, or null to apply
+     *                              the standard HTTPS host name check during the handshake
+     */
+    public HttpsConnectionPool(int maxConnectionsPerHost, long idleTimeout, SSLSocketFactory socketFactory, HostnameVerifier hostnameVerifier) {
+        if (maxConnectionsPerHost < 1) throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1");
+        if (idleTimeout < 0) throw new IllegalArgumentException("idleTimeout can not be negative");
+        if (null == socketFactory) throw new IllegalArgumentException("socketFactory is null");
+
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeout = idleTimeout;
+        this.socketFactory = socketFactory instanceof TlsSocketFactory ?
+                (TlsSocketFactory) socketFactory : new TlsSocketFactory(socketFactory);
+        this.hostnameVerifier = hostnameVerifier;
+
+        if (idleTimeout > 0) {
+            this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "jsvcgen-https-pool-evictor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            final long period = Math.max(idleTimeout / 2, 1000);
+            this.evictor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evictIdleConnections();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.evictor = null;
+        }
+    }
+
+    /**
+     * The process-wide pool used by dispatchers that are not given a pool of their own.
+     *
+     * @return the shared pool, created with the default limits on first use
+     */
+    public static HttpsConnectionPool getSharedPool() {
+        HttpsConnectionPool pool = sharedPool;
+        if (null == pool) {
+            synchronized (HttpsConnectionPool.class) {
+                pool = sharedPool;
+                if (null == pool) {
+                    pool = new HttpsConnectionPool();
+                    sharedPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Getter for property 'maxConnectionsPerHost'.
+     *
+     * @return Value for property 'maxConnectionsPerHost'.
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Getter for property 'idleTimeout'.
+     *
+     * @return Value for property 'idleTimeout', in milliseconds.
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Getter for property 'validateAfterInactivity'.
+     *
+     * @return Value for property 'validateAfterInactivity', in milliseconds.
+     */
+    public long getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    /**
+     * Sets how long a connection may sit idle before it is checked for a close by the server when it is leased again.
+     * A connection the server closed is replaced before any request is written to it. The check costs up to a
+     * millisecond, so connections that were used more recently are leased without it.
+     *
+     * @param validateAfterInactivity the idle time in milliseconds, or 0 to check every reused connection
+     */
+    public void setValidateAfterInactivity(long validateAfterInactivity) {
+        if (validateAfterInactivity < 0) throw new IllegalArgumentException("validateAfterInactivity can not be negative");
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    /**
+     * Opens connections to an endpoint ahead of time, so that the first requests do not pay for the TCP and TLS
+     * handshakes. Never opens more connections than the per-host limit allows.
+     *
+     * @param endpoint       the endpoint to connect to
+     * @param connections    the number of idle connections wanted
+     * @param connectTimeout the connect and handshake timeout in milliseconds
+     * @return the number of connections opened
+     * @throws IOException if a connection could not be established
+     */
+    public int prewarm(URL endpoint, int connections, int connectTimeout) throws IOException {
+        final Route route = routeFor(endpoint);
+        // Like a lease, every connection is held with a permit and a new one is only opened when none is idle, so
+        // concurrent prewarms and leases never open more than the per-host limit.
+        final List<PooledHttpsConnection> idle = new ArrayList<>();
+        final List<PooledHttpsConnection> opened = new ArrayList<>();
+        int permits = 0;
+        try {
+            while (permits < connections && route.permits.tryAcquire()) {
+                permits++;
+                final PooledHttpsConnection connection = route.idle.pollFirst();
+                if (null != connection) {
+                    idle.add(connection);
+                } else {
+                    opened.add(openConnection(route, connectTimeout, null));
+                }
+            }
+        } finally {
+            for (int i = idle.size() - 1; i >= 0; i--) {
+                offerIdle(route, idle.get(i));
+            }
+            for (PooledHttpsConnection connection : opened) {
+                offerIdle(route, connection);
+            }
+            route.permits.release(permits);
+        }
+        return opened.size();
+    }
+
+    /**
+     * Puts a connection held by {@link #prewarm} back, or closes it if the pool was closed meanwhile.
+     */
+    private void offerIdle(Route route, PooledHttpsConnection connection) {
+        if (closed) {
+            connection.close();
+            route.closed.incrementAndGet();
+        } else {
+            route.idle.offerFirst(connection);
+        }
+    }
+
+    /**
+     * Closes every connection that has been idle for longer than the idle timeout.
+     *
+     * @return the number of connections closed
+     */
+    public int evictIdleConnections() {
+        final long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Route route : routes.values()) {
+            final Iterator<PooledHttpsConnection> it = route.idle.iterator();
+            while (it.hasNext()) {
+                final PooledHttpsConnection connection = it.next();
+                if (isExpired(connection, now) && route.idle.removeFirstOccurrence(connection)) {
+                    connection.close();
+                    route.closed.incrementAndGet();
+                    route.evicted.incrementAndGet();
+                    evicted++;
+                }
+            }
+        }
+        if (evicted > 0) {
+            log.debug("Evicted {} idle connection(s)", evicted);
+        }
+        return evicted;
+    }
+
+    /**
+     * @return a snapshot of the counters of all hosts in this pool
+     */
+    public ConnectionPoolStatistics getStatistics() {
+        final List<ConnectionPoolStatistics> perRoute = new ArrayList<>();
+        for (Route route : routes.values()) {
+            perRoute.add(route.statistics());
+        }
+        return ConnectionPoolStatistics.sum(maxConnectionsPerHost, perRoute);
+    }
+
+    /**
+     * @param endpoint an endpoint served by this pool
+     * @return a snapshot of the counters for the host and port of the endpoint
+     */
+    public ConnectionPoolStatistics getStatistics(URL endpoint) {
+        final Route route = routes.get(Route.key(endpoint));
+        return null == route ? ConnectionPoolStatistics.sum(maxConnectionsPerHost, new ArrayList<ConnectionPoolStatistics>()) : route.statistics();
+    }
+
+    /**
+     * @return the handshakes made by the socket factory of this pool, which counts those of everything sharing it
+     */
+    public TlsStatistics getTlsStatistics() {
+        return socketFactory.getStatistics();
+    }
+
+    /**
+     * Closes all idle connections and stops the eviction thread. Leased connections are closed as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (null != evictor) {
+            evictor.shutdownNow();
+        }
+        for (Route route : routes.values()) {
+            PooledHttpsConnection connection;
+            while (null != (connection = route.idle.pollFirst())) {
+                connection.close();
+                route.closed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Leases a connection to the host and port of the endpoint, reusing an idle one if possible.
+     *
+     * @param endpoint       the endpoint to connect to
+     * @param connectTimeout the connect and handshake timeout, which also bounds the wait for a free connection
+     * @param watch          the watch that closes a new connection when its call is aborted, or null
+     * @return a connection that must be given back through {@link #release} or {@link #discard}
+     * @throws IOException if no connection could be obtained
+     */
+    PooledHttpsConnection lease(URL endpoint, int connectTimeout, CallWatch watch) throws IOException {
+        if (closed) throw new IOException("Connection pool is closed");
+
+        final Route route = routeFor(endpoint);
+        acquirePermit(route, connectTimeout);
+        try {
+            final long now = System.currentTimeMillis();
+            PooledHttpsConnection connection;
+            while (null != (connection = route.idle.pollFirst())) {
+                if (!isExpired(connection, now) && connection.isOpen()
+                        && (now - connection.getLastUsedAt() < validateAfterInactivity || !connection.isStale())) {
+                    route.reused.incrementAndGet();
+                    route.leased.incrementAndGet();
+                    return connection;
+                }
+                connection.close();
+                route.closed.incrementAndGet();
+                route.evicted.incrementAndGet();
+            }
+            connection = openConnection(route, connectTimeout, watch);
+            route.leased.incrementAndGet();
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            route.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a healthy connection to the pool for reuse.
+     */
+    void release(PooledHttpsConnection connection) {
+        final Route route = connection.getRoute();
+        connection.markUsed();
+        route.leased.decrementAndGet();
+        if (closed || idleTimeout == 0) {
+            connection.close();
+            route.closed.incrementAndGet();
+        } else {
+            route.idle.offerFirst(connection);
+        }
+        route.permits.release();
+    }
+
+    /**
+     * Closes a connection that can not be reused and frees its slot.
+     */
+    void discard(PooledHttpsConnection connection) {
+        final Route route = connection.getRoute();
+        connection.close();
+        route.leased.decrementAndGet();
+        route.closed.incrementAndGet();
+        route.permits.release();
+    }
+
+    private void acquirePermit(Route route, int timeout) throws IOException {
+        try {
+            if (timeout > 0) {
+                if (!route.permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    route.waitTimeouts.incrementAndGet();
+                    throw new IOException("Timed out after " + timeout + "ms waiting for a connection to " + route.getHostHeader()
+                            + " (max " + maxConnectionsPerHost + " per host)");
+                }
+            } else {
+                route.permits.acquire();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + route.getHostHeader(), ie);
+        }
+    }
+
+    private PooledHttpsConnection openConnection(Route route, int connectTimeout, CallWatch watch) throws IOException {
+        final PooledHttpsConnection connection = PooledHttpsConnection.open(route, socketFactory, hostnameVerifier, connectTimeout, watch);
+        route.created.incrementAndGet();
+        return connection;
+    }
+
+    private boolean isExpired(PooledHttpsConnection connection, long now) {
+        return now - connection.getLastUsedAt() > idleTimeout;
+    }
+
+    private Route routeFor(URL endpoint) {
+        final String key = Route.key(endpoint);
+        Route route = routes.get(key);
+        if (null == route) {
+            final Route created = new Route(this, endpoint.getHost(), port(endpoint), maxConnectionsPerHost);
+            route = routes.putIfAbsent(key, created);
+            if (null == route) {
+                route = created;
+            }
+        }
+        return route;
+    }
+
+    private static int port(URL endpoint) {
+        return endpoint.getPort() == -1 ? endpoint.getDefaultPort() : endpoint.getPort();
+    }
+
+    /**
+     * The connections and counters for one host and port.
+     */
+    static final class Route {
+        private final HttpsConnectionPool pool;
+        private final String host;
+        private final int port;
+        private final String hostHeader;
+        private final Semaphore permits;
+        private final BlockingDeque<PooledHttpsConnection> idle = new LinkedBlockingDeque<>();
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong reused = new AtomicLong();
+        private final AtomicLong closed = new AtomicLong();
+        private final AtomicLong evicted = new AtomicLong();
+        private final AtomicLong waitTimeouts = new AtomicLong();
+
+        private Route(HttpsConnectionPool pool, String host, int port, int maxConnections) {
+            this.pool = pool;
+            this.host = host;
+            this.port = port;
+            this.hostHeader = port == 443 ? host : host + ":" + port;
+            this.permits = new Semaphore(maxConnections, true);
+        }
+
+        static String key(URL endpoint) {
+            return endpoint.getHost().toLowerCase() + ":" + port(endpoint);
+        }
+
+        HttpsConnectionPool getPool() {
+            return pool;
+        }
+
+        String getHost() {
+            return host;
+        }
+
+        int getPort() {
+            return port;
+        }
+
+        String getHostHeader() {
+            return hostHeader;
+        }
+
+        private ConnectionPoolStatistics statistics() {
+            return new ConnectionPoolStatistics(pool.maxConnectionsPerHost, leased.get(), idle.size(), created.get(),
+                    reused.get(), closed.get(), evicted.get(), waitTimeouts.get());
+        }
+    }
+}
@@ -20,9 +20,13 @@ import com.solidfire.jsvcgen.javautil.Optional;
 import net.iharder.Base64;
 
 import javax.net.ssl.HttpsURLConnection;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.ProtocolException;
 import java.net.URL;
 import java.util.Scanner;
@@ -30,7 +34,7 @@ import java.util.Scanner;
 /**
  * A request dispatcher for dispatching JSON-RPC encoded requests to an Element OS cluster.
  */
-public class HttpsRequestDispatcher implements RequestDispatcher {
+public class HttpsRequestDispatcher implements StreamingRequestDispatcher, DescribedRequestDispatcher {
 
     public static final int DEFAULT_CONNECTION_TIMEOUT = 15000;
     public static final int DEFAULT_READ_TIMEOUT = 60000;
@@ -38,12 +42,11 @@ public class HttpsRequestDispatcher implements RequestDispatcher {
     private final URL endpoint;
     private final Optional<String> authenticationToken;
     private final String endpointVersion;
-    private int connectionTimeout;
-    private int readTimeout;
-
-    static {
-        System.setProperty("https.protocols", "TLSv1,TLSv1.1,TLSv1.2");
-    }
+    private final TransferCounters transferCounters = new TransferCounters();
+    private volatile int connectionTimeout;
+    private volatile int readTimeout;
+    private volatile boolean acceptCompressedResponses;
+    private volatile int requestCompressionThreshold = -1;
 
     private HttpsRequestDispatcher(URL endpoint, Optional<String> authenticationToken) {
         if (!endpoint.getProtocol().equals("https"))
@@ -92,23 +95,178 @@ public class HttpsRequestDispatcher implements RequestDispatcher {
      */
     @Override
     public String dispatchRequest(String input) throws IOException {
-        final byte[] encodedRequest = input.getBytes();
+        final byte[] body = input.getBytes(PooledHttpsRequestDispatcher.UTF_8);
+        final int threshold = requestCompressionThreshold;
+        final byte[] sent = threshold >= 0 && body.length >= threshold ? Compression.gzip(body, 0, body.length) : body;
+
+        final CallWatch watch = CallWatch.start();
+        try {
+            final HttpsURLConnection connection = openConnection(watch);
+            if (sent != body) {
+                connection.setRequestProperty("Content-Encoding", Compression.GZIP);
+            }
+            try (OutputStream out = getOutputStream(connection)) {
+                out.write(sent);
+                out.flush();
+            }
+
+            final InputStream response = getResponseStream(connection, body.length, sent.length, watch);
+            try {
+                final String decoded = decodeResponse(response);
+                if (null != watch) {
+                    // The scanner ends a response that was cut short by closing the connection without an error.
+                    watch.check();
+                }
+                return decoded;
+            } finally {
+                if (null != response) {
+                    response.close();
+                }
+            }
+        } catch (IOException e) {
+            throw null != watch ? watch.failure(e) : e;
+        } finally {
+            if (null != watch) {
+                watch.close();
+            }
+        }
+    }
+
+    /**
+     * Dispatch a request to the system, encoding it while it is sent, and return the UTF-8 response as soon as it
+     * starts to arrive. A request larger than {@value RequestOutputStream#BUFFER_SIZE} bytes is sent with chunked
+     * transfer encoding.
+     *
+     * Can throw java.net.SocketTimeoutException if the connection or read timeout occurs.
+     *
+     * @param request The request to send to the remote server.
+     * @return A reader of the server's response.
+     * @throws IOException if anything went wrong on the connection side of things.
+     */
+    @Override
+    public Reader dispatchRequestStream(RequestBody request) throws IOException {
+        final CallWatch watch = CallWatch.start();
+        try {
+            final InputStream response = dispatchRequestStream(request, watch);
+            if (null == response) {
+                if (null != watch) {
+                    watch.close();
+                }
+                return new StringReader("");
+            }
+            return new InputStreamReader(response, PooledHttpsRequestDispatcher.UTF_8);
+        } catch (IOException e) {
+            if (null == watch) {
+                throw e;
+            }
+            watch.close();
+            throw watch.failure(e);
+        } catch (RuntimeException e) {
+            if (null != watch) {
+                watch.close();
+            }
+            throw e;
+        }
+    }
+
+    private InputStream dispatchRequestStream(RequestBody request, CallWatch watch) throws IOException {
+        final HttpsURLConnection connection = openConnection(watch);
+        final RequestOutputStream out = new RequestOutputStream(requestCompressionThreshold) {
+            @Override
+            protected OutputStream openChunked() throws IOException {
+                if (isCompressed()) {
+                    connection.setRequestProperty("Content-Encoding", Compression.GZIP);
+                }
+                connection.setChunkedStreamingMode(RequestOutputStream.BUFFER_SIZE);
+                return getOutputStream(connection);
+            }
+
+            @Override
+            protected void sendFixedLength(byte[] body, int length) throws IOException {
+                if (isCompressed()) {
+                    connection.setRequestProperty("Content-Encoding", Compression.GZIP);
+                }
+                connection.setFixedLengthStreamingMode(length);
+                try (OutputStream connectionOut = getOutputStream(connection)) {
+                    connectionOut.write(body, 0, length);
+                }
+            }
+        };
+        try {
+            request.writeTo(out);
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            connection.disconnect();
+            throw e;
+        } finally {
+            out.abort();
+        }
+
+        return getResponseStream(connection, out.getBodyBytes(), out.getSentBytes(), watch);
+    }
+
+    /**
+     * @param watch the watch that disconnects the connection when the call is aborted, or null
+     */
+    private HttpsURLConnection openConnection(CallWatch watch) throws IOException {
         final HttpsURLConnection connection = (HttpsURLConnection) endpoint.openConnection();
         prepareConnection(connection);
+        if (null != watch) {
+            connection.setConnectTimeout(watch.timeout(connection.getConnectTimeout()));
+            connection.setReadTimeout(watch.readTimeout(connection.getReadTimeout()));
+            watch.attach(new Closeable() {
+                @Override
+                public void close() {
+                    connection.disconnect();
+                }
+            });
+        }
+        final CallTrace trace = CallTrace.current();
+        if (null != trace) {
+            connection.setRequestProperty(CallTrace.HEADER, trace.getTraceId());
+        }
+        return connection;
+    }
 
-        try (OutputStream out = connection.getOutputStream()) {
-            out.write(encodedRequest);
-            out.flush();
+    /**
+     * Connects, unless a kept-alive connection is reused, and records the time taken in the trace of the call.
+     *
+     * @return the stream to write the request body to
+     */
+    private static OutputStream getOutputStream(HttpsURLConnection connection) throws IOException {
+        final CallTrace trace = CallTrace.current();
+        if (null == trace) {
+            return connection.getOutputStream();
         }
+        final long start = System.nanoTime();
+        final OutputStream out = connection.getOutputStream();
+        // The connection does not tell the handshake apart from the connect, nor a reused connection from a new one.
+        trace.connected(System.nanoTime() - start, -1);
+        return out;
+    }
 
+    /**
+     * @param watch the watch of the call, ended when the body is closed, or null
+     * @return the decompressed response body, which records the call in the transfer statistics when it is closed
+     */
+    private InputStream getResponseStream(HttpsURLConnection connection, long requestBytes, long requestWireBytes,
+                                          CallWatch watch) throws IOException {
         // JSON-RPC...we don't actually care about the response code
-        final InputStream response = connection.getResponseCode() == 200 ? connection.getInputStream() : connection.getErrorStream();
+        final InputStream body = connection.getResponseCode() == 200 ? connection.getInputStream() : connection.getErrorStream();
+        final InputStream response = null != watch && null != body ? watch.guard(body) : body;
+        final CallTrace trace = CallTrace.current();
+        if (null != trace) {
+            trace.firstByte();
+        }
+        if (null == response) {
+            transferCounters.record(requestBytes, requestWireBytes, 0, 0);
+            return null;
+        }
         try {
-            return decodeResponse(response);
-        } finally {
-            if (null != response) {
-                response.close();
-            }
+            return Compression.decode(response, connection.getContentEncoding(), transferCounters, requestBytes, requestWireBytes);
+        } catch (IOException e) {
+            response.close();
+            throw e;
         }
     }
 
@@ -127,9 +285,13 @@ public class HttpsRequestDispatcher implements RequestDispatcher {
         }
 
         connection.addRequestProperty("Accept", "application/json");
+        if (acceptCompressedResponses) {
+            connection.addRequestProperty("Accept-Encoding", Compression.ACCEPT_ENCODING);
+        }
 
         connection.setConnectTimeout(this.connectionTimeout);
         connection.setReadTimeout(this.readTimeout);
+        connection.setSSLSocketFactory(getSocketFactory());
 
         authenticationToken.ifPresent(new Consumer<String>() {
             @Override
@@ -139,6 +301,24 @@ public class HttpsRequestDispatcher implements RequestDispatcher {
         });
     }
 
+    /**
+     * The factory is shared with every other dispatcher of the same class, so they share TLS sessions and
+     * kept-alive connections.
+     *
+     * @return the factory that creates the TLS sockets of this dispatcher
+     */
+    protected TlsSocketFactory getSocketFactory() {
+        return TlsSocketFactory.getDefault();
+    }
+
+    /**
+     * @return the handshakes made by the socket factory of this dispatcher, which counts those of every dispatcher
+     * sharing it
+     */
+    public TlsStatistics getTlsStatistics() {
+        return getSocketFactory().getStatistics();
+    }
+
     /**
      * Decodes a response stream into a string
      *
@@ -152,7 +332,7 @@ public class HttpsRequestDispatcher implements RequestDispatcher {
         }
     }
 
-    private static String createBasicAuthToken(String username, String password) {
+    static String createBasicAuthToken(String username, String password) {
         return "Basic " + Base64.encodeBytes((username + ":" + password).getBytes());
     }
 
@@ -181,6 +361,67 @@ public class HttpsRequestDispatcher implements RequestDispatcher {
         this.readTimeout = timeInMilliseconds;
     }
 
+    /**
+     * Getter for property 'acceptCompressedResponses'.
+     *
+     * @return Value for property 'acceptCompressedResponses'.
+     */
+    public boolean isAcceptCompressedResponses() {
+        return acceptCompressedResponses;
+    }
+
+    /**
+     * Asks the server to compress responses with gzip or deflate; they are decompressed while they are decoded.
+     *
+     * @param acceptCompressedResponses true to send {@code Accept-Encoding: gzip, deflate}
+     */
+    public void setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+        this.acceptCompressedResponses = acceptCompressedResponses;
+    }
+
+    /**
+     * Getter for property 'requestCompressionThreshold'.
+     *
+     * @return Value for property 'requestCompressionThreshold'.
+     */
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * Sends request bodies of at least the given size gzip compressed. The server must accept
+     * {@code Content-Encoding: gzip}. Disabled by default.
+     *
+     * @param bytes the smallest body size to compress, or a negative number to never compress requests
+     */
+    public void setRequestCompressionThreshold(int bytes) {
+        this.requestCompressionThreshold = bytes;
+    }
+
+    /**
+     * @return the byte counts, before and after compression, of all calls made through this dispatcher
+     */
+    public TransferStatistics getTransferStatistics() {
+        return transferCounters.snapshot();
+    }
+
+    /**
+     * Sets a listener that is told the byte counts of every call, or null to remove it.
+     *
+     * @param listener the listener
+     */
+    public void setTransferListener(TransferListener listener) {
+        transferCounters.setListener(listener);
+    }
+
+    /**
+     * @return the URL of the endpoint
+     */
+    @Override
+    public String describe() {
+        return endpoint.toString();
+    }
+
     /**
      * Getter for property 'endpoint'.
      *
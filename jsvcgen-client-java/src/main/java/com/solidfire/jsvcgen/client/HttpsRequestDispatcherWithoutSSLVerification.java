@@ -15,39 +15,22 @@
  */
 package com.solidfire.jsvcgen.client;
 
-import javax.net.ssl.*;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSession;
 import java.net.URL;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.X509Certificate;
 
 /**
  * A request dispatcher that completely disables SSL hostname and certificate verification.
  */
 public class HttpsRequestDispatcherWithoutSSLVerification extends HttpsRequestDispatcher {
 
-    private final HostnameVerifier hostnameAlwaysOkay = new HostnameVerifier() {
+    private static final HostnameVerifier hostnameAlwaysOkay = new HostnameVerifier() {
         @Override
         public boolean verify(String hostname, SSLSession session) {
             return true;
         }
     };
-    private final TrustManager[] trustAllCerts = new TrustManager[]{
-            new X509TrustManager() {
-                @Override
-                public X509Certificate[] getAcceptedIssuers() {
-                    return null;
-                }
-
-                @Override
-                public void checkClientTrusted(X509Certificate[] certs, String authType) {
-                }
-
-                @Override
-                public void checkServerTrusted(X509Certificate[] certs, String authType) {
-                }
-            }
-    };
 
     /**
      * Create a dispatcher using no authentication.
@@ -75,24 +58,14 @@ public class HttpsRequestDispatcherWithoutSSLVerification extends HttpsRequestDi
     @Override
     protected void prepareConnection(HttpsURLConnection connection) {
         super.prepareConnection(connection);
-        disableAllSSLVerification(connection);
-    }
-
-    private void disableAllSSLVerification(HttpsURLConnection connection) {
-        // Disable hostname verification
         connection.setHostnameVerifier(hostnameAlwaysOkay);
-
-        // Disable SSL certificate checking
-        final SSLContext sc;
-        try {
-            sc = SSLContext.getInstance("SSL");
-            sc.init(null, trustAllCerts, new java.security.SecureRandom());
-        } catch (NoSuchAlgorithmException nsae) {
-            throw new RuntimeException("Couldn't get SSL from SSLContext", nsae);
-        } catch (KeyManagementException kme) {
-            throw new RuntimeException("Failed to initialize SSLContext", kme);
-        }
-        connection.setSSLSocketFactory(sc.getSocketFactory());
     }
 
+    /**
+     * @return the shared factory that accepts any server certificate
+     */
+    @Override
+    protected TlsSocketFactory getSocketFactory() {
+        return TlsSocketFactory.getTrustingAll();
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.gson.JsonElement;
+import com.solidfire.gson.JsonParser;
+import com.solidfire.gson.stream.JsonReader;
+import com.solidfire.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the envelope of an encoded JSON-RPC request or response without decoding its parameters or result.
+ */
+final class JsonRpcRequests {
+
+    /**
+     * Methods named Get... or List... only read state, so sending one of them twice does no harm.
+     */
+    static final Pattern READ_ONLY_METHODS = Pattern.compile("(Get|List)[A-Z0-9].*");
+
+    private JsonRpcRequests() {
+    }
+
+    /**
+     * @return the id of a single request, or null if the input is not a single request with an id
+     */
+    static String id(String input) {
+        return member(input, "id");
+    }
+
+    /**
+     * @return the method of a single request, or null if the input is not a single request with a method
+     */
+    static String method(String input) {
+        return member(input, "method");
+    }
+
+    /**
+     * @return true if the input is a single request whose method matches the pattern
+     */
+    static boolean isMethodMatching(String input, Pattern methods) {
+        final String method = method(input);
+        return null != method && methods.matcher(method).matches();
+    }
+
+    /**
+     * @return the name of the error in a response, or null if the response is not an error with a name
+     */
+    static String errorName(String response) {
+        try {
+            final JsonReader reader = new JsonReader(new StringReader(response));
+            reader.setLenient(true);
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return null;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("error") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("name") && reader.peek() == JsonToken.STRING) {
+                            return reader.nextString();
+                        }
+                        reader.skipValue();
+                    }
+                    return null;
+                }
+                reader.skipValue();
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the envelope of a response up to its result or its error; a result is not read.
+     *
+     * @return the error of the response, or null if the response is not a single response with an error
+     */
+    static JsonElement error(String response) {
+        try {
+            final JsonReader reader = new JsonReader(new StringReader(response));
+            reader.setLenient(true);
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return null;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (name.equals("result")) {
+                    return null;
+                }
+                if (name.equals("error")) {
+                    return reader.peek() == JsonToken.NULL ? null : new JsonParser().parse(reader);
+                }
+                reader.skipValue();
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a top level string or number member of a single request, skipping everything before it.
+     *
+     * @return the value, or null if the input is not a single request with that member
+     */
+    private static String member(String input, String name) {
+        try {
+            final JsonReader reader = new JsonReader(new StringReader(input));
+            reader.setLenient(true);
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return null;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals(name)) {
+                    final JsonToken token = reader.peek();
+                    return token == JsonToken.STRING || token == JsonToken.NUMBER ? reader.nextString() : null;
+                }
+                reader.skipValue();
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
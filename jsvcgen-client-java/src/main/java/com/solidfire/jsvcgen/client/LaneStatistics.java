@@ -0,0 +1,145 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Serializable;
+
+/**
+ * A point-in-time snapshot of one lane of a {@link PriorityRequestDispatcher}.
+ */
+public final class LaneStatistics implements Serializable {
+
+    private static final long serialVersionUID = 5170385214873690125L;
+
+    private final String name;
+    private final int weight;
+    private final int maxConcurrency;
+    private final int inFlight;
+    private final int queued;
+    private final long dispatched;
+    private final long rejected;
+    private final long[] queueWaitBuckets;
+    private final long totalQueueWaitMicros;
+    private final long maxQueueWaitMicros;
+
+    LaneStatistics(String name, int weight, int maxConcurrency, int inFlight, int queued, long dispatched,
+                   long rejected, long[] queueWaitBuckets, long totalQueueWaitMicros, long maxQueueWaitMicros) {
+        this.name = name;
+        this.weight = weight;
+        this.maxConcurrency = maxConcurrency;
+        this.inFlight = inFlight;
+        this.queued = queued;
+        this.dispatched = dispatched;
+        this.rejected = rejected;
+        this.queueWaitBuckets = queueWaitBuckets;
+        this.totalQueueWaitMicros = totalQueueWaitMicros;
+        this.maxQueueWaitMicros = maxQueueWaitMicros;
+    }
+
+    /**
+     * Getter for property 'name'.
+     *
+     * @return Value for property 'name'.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter for property 'weight'.
+     *
+     * @return Value for property 'weight'.
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Getter for property 'maxConcurrency'.
+     *
+     * @return Value for property 'maxConcurrency'.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return the number of requests of the lane sent and not completed yet
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the number of requests of the lane waiting for a slot
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return the number of requests of the lane given a slot
+     */
+    public long getDispatched() {
+        return dispatched;
+    }
+
+    /**
+     * @return the number of requests of the lane refused because the queue was full or they waited too long
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the mean time in milliseconds a request waited for a slot, or 0 if none was given one
+     */
+    public double getMeanQueueWaitMillis() {
+        return dispatched == 0 ? 0 : totalQueueWaitMicros / 1000.0 / dispatched;
+    }
+
+    /**
+     * @return the longest time in milliseconds a request waited for a slot
+     */
+    public double getMaxQueueWaitMillis() {
+        return maxQueueWaitMicros / 1000.0;
+    }
+
+    /**
+     * The wait is read from a histogram and is within about 3% of the actual time.
+     *
+     * @param percentile between 0 and 100, as in 99.9
+     * @return the time in milliseconds a request waited for a slot at the percentile, or 0 if none was given one
+     */
+    public double getQueueWaitMillis(double percentile) {
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("percentile must be between 0 and 100");
+        return LatencyHistogram.percentile(queueWaitBuckets, percentile) / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "LaneStatistics{ name : " + name +
+                ", weight : " + weight +
+                ", maxConcurrency : " + maxConcurrency +
+                ", inFlight : " + inFlight +
+                ", queued : " + queued +
+                ", dispatched : " + dispatched +
+                ", rejected : " + rejected +
+                ", meanQueueWaitMillis : " + String.format("%.3f", getMeanQueueWaitMillis()) +
+                ", p99QueueWaitMillis : " + String.format("%.3f", getQueueWaitMillis(99)) +
+                ", maxQueueWaitMillis : " + String.format("%.3f", getMaxQueueWaitMillis()) + " }";
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts response times in buckets that grow with the time, each about 3% wide, from a microsecond to days, so that
+ * percentiles can be read with that precision without keeping the samples.
+ */
+final class LatencyHistogram {
+
+    // Values below 2^SUB_BITS microseconds get a bucket each; above, each doubling is split into 2^(SUB_BITS - 1).
+    private static final int SUB_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BITS + 1) * HALF;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final StripedCounter totalMicros = new StripedCounter();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void record(long nanos) {
+        final long micros = Math.max(0, nanos / 1000);
+        buckets.getAndIncrement(index(micros));
+        totalMicros.add(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    /**
+     * @return the number of samples in each bucket
+     */
+    long[] snapshot() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    long getTotalMicros() {
+        return totalMicros.sum();
+    }
+
+    long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        final int top = (int) (micros >>> (exponent - SUB_BITS + 1));
+        return SUB_BUCKETS + (exponent - SUB_BITS) * HALF + (top - HALF);
+    }
+
+    /**
+     * @return the smallest value counted in the bucket
+     */
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = (index - SUB_BUCKETS) / HALF + SUB_BITS;
+        final long top = HALF + (index - SUB_BUCKETS) % HALF;
+        return top << (exponent - SUB_BITS + 1);
+    }
+
+    /**
+     * @param counts     the counts of a {@link #snapshot}
+     * @param percentile between 0 and 100
+     * @return the value in microseconds at the percentile, the middle of its bucket, or 0 if there are no samples
+     */
+    static double percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                final long lower = lowerBound(i);
+                final long upper = i + 1 < counts.length ? lowerBound(i + 1) : lower;
+                return (lower + upper - 1) / 2.0;
+            }
+        }
+        return lowerBound(counts.length - 1);
+    }
+}
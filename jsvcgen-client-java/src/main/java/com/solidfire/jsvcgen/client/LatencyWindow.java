@@ -0,0 +1,73 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.util.Arrays;
+
+/**
+ * The most recent response times of one kind of call, from which percentiles are read.
+ */
+final class LatencyWindow {
+
+    private final long[] samples;
+    private final int minSamples;
+    private int count;
+    private int position;
+    private long[] sorted;
+    private int recordedSinceSort;
+
+    /**
+     * @param size       the number of most recent samples kept
+     * @param minSamples the number of samples needed before a percentile is reported
+     */
+    LatencyWindow(int size, int minSamples) {
+        this.samples = new long[size];
+        this.minSamples = minSamples;
+    }
+
+    synchronized void record(long nanos) {
+        samples[position] = nanos;
+        position = (position + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+        recordedSinceSort++;
+    }
+
+    /**
+     * The samples are sorted again once an eighth of the window has been replaced, so a percentile may lag a little
+     * behind the latest samples.
+     *
+     * @param percentile between 0 and 100
+     * @return the response time in nanoseconds at the percentile, or -1 if there are not enough samples yet
+     */
+    synchronized long percentile(double percentile) {
+        if (count < minSamples) {
+            return -1;
+        }
+        if (null == sorted || recordedSinceSort > Math.max(1, samples.length / 8)) {
+            sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            recordedSinceSort = 0;
+        }
+        final int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    synchronized int size() {
+        return count;
+    }
+}
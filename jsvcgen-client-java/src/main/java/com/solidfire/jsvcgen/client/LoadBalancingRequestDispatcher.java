@@ -0,0 +1,374 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A request dispatcher that spreads requests over several dispatchers for the same API version, such as the management
+ * addresses of one cluster or local proxies in front of it.
+ * <p/>
+ * Each request goes to the endpoint with the fewest requests in flight or, with {@link Strategy#LATENCY}, the lowest
+ * expected response time. An endpoint that fails {@code maxFailures} times in a row with an I/O error is ejected for
+ * {@code ejectionMillis}; after that a single probe request is let through, which puts it back in rotation if it
+ * succeeds and ejects it again if it fails. When every endpoint is ejected the one that is due back first is used.
+ * <p/>
+ * A request that fails with an I/O error is sent to the next endpoint if it is idempotent, see
+ * {@link #setIdempotentMethods(Pattern)}, or if the connection was refused before anything was sent.
+ */
+public class LoadBalancingRequestDispatcher implements DescribedRequestDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadBalancingRequestDispatcher.class);
+
+    public static final int DEFAULT_MAX_FAILURES = 3;
+    public static final long DEFAULT_EJECTION_MILLIS = 30000;
+
+    /**
+     * How the endpoint for a request is chosen.
+     */
+    public enum Strategy {
+        /**
+         * The endpoint with the fewest requests in flight.
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * The endpoint with the lowest moving average response time, weighted by its requests in flight.
+         */
+        LATENCY
+    }
+
+    private final List<Endpoint> endpoints;
+    private final String version;
+    private final Strategy strategy;
+    private final int maxFailures;
+    private final long ejectionNanos;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong failovers = new AtomicLong();
+    private volatile Pattern idempotentMethods = JsonRpcRequests.READ_ONLY_METHODS;
+
+    /**
+     * Create a dispatcher that sends each request to the endpoint with the fewest requests in flight.
+     *
+     * @param dispatchers the endpoints, all for the same API version
+     */
+    public LoadBalancingRequestDispatcher(List<? extends RequestDispatcher> dispatchers) {
+        this(dispatchers, Strategy.LEAST_OUTSTANDING, DEFAULT_MAX_FAILURES, DEFAULT_EJECTION_MILLIS);
+    }
+
+    /**
+     * @param dispatchers    the endpoints, all for the same API version
+     * @param strategy       how the endpoint for a request is chosen
+     * @param maxFailures    the number of consecutive I/O errors that eject an endpoint
+     * @param ejectionMillis how long an ejected endpoint is left alone before it is probed
+     */
+    public LoadBalancingRequestDispatcher(List<? extends RequestDispatcher> dispatchers, Strategy strategy,
+                                          int maxFailures, long ejectionMillis) {
+        if (null == dispatchers || dispatchers.isEmpty()) throw new IllegalArgumentException("dispatchers is empty");
+        if (null == strategy) throw new IllegalArgumentException("strategy is null");
+        if (maxFailures < 1) throw new IllegalArgumentException("maxFailures must be at least 1");
+        if (ejectionMillis < 0) throw new IllegalArgumentException("ejectionMillis can not be negative");
+
+        final List<Endpoint> endpoints = new ArrayList<>(dispatchers.size());
+        for (RequestDispatcher dispatcher : dispatchers) {
+            if (null == dispatcher) throw new IllegalArgumentException("dispatchers contains null");
+            endpoints.add(new Endpoint(dispatcher));
+        }
+        this.version = dispatchers.get(0).getVersion();
+        for (RequestDispatcher dispatcher : dispatchers) {
+            if (null == version ? null != dispatcher.getVersion() : !version.equals(dispatcher.getVersion())) {
+                throw new IllegalArgumentException("All dispatchers must have the same version, found \"" + version
+                        + "\" and \"" + dispatcher.getVersion() + "\"");
+            }
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.strategy = strategy;
+        this.maxFailures = maxFailures;
+        this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(ejectionMillis);
+    }
+
+    /**
+     * @return the version shared by all endpoints
+     */
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Dispatch an encoded request to one of the endpoints, failing over to the others where that is safe.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws IOException the last error if no endpoint could be reached; the earlier ones are suppressed in it
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        final boolean idempotent = JsonRpcRequests.isMethodMatching(input, idempotentMethods);
+        final List<Endpoint> tried = new ArrayList<>(endpoints.size());
+        // Ties are broken by rotating the starting point once per request.
+        final int start = (next.getAndIncrement() & Integer.MAX_VALUE) % endpoints.size();
+        IOException failure = null;
+        Endpoint endpoint;
+        while (null != (endpoint = select(start, tried))) {
+            tried.add(endpoint);
+            try {
+                return endpoint.dispatch(input);
+            } catch (IOException e) {
+                if (null != failure) {
+                    e.addSuppressed(failure);
+                }
+                failure = e;
+                if (!idempotent && !(e instanceof ConnectException)) {
+                    throw e;
+                }
+                if (tried.size() < endpoints.size()) {
+                    failovers.incrementAndGet();
+                    log.debug("Request to {} failed, failing over: {}", endpoint.description, e.toString());
+                }
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Picks an endpoint that has not been tried for this request yet.
+     *
+     * @return the endpoint, or null if all of them were tried
+     */
+    private Endpoint select(int start, List<Endpoint> tried) {
+        final long now = System.nanoTime();
+        final int size = endpoints.size();
+        Endpoint best = null;
+        double bestScore = 0;
+        Endpoint soonestBack = null;
+        for (int i = 0; i < size; i++) {
+            final Endpoint endpoint = endpoints.get((start + i) % size);
+            if (tried.contains(endpoint)) {
+                continue;
+            }
+            if (endpoint.isEjected()) {
+                if (endpoint.tryProbe(now)) {
+                    return endpoint;
+                }
+                if (null == soonestBack || endpoint.ejectedUntil() - soonestBack.ejectedUntil() < 0) {
+                    soonestBack = endpoint;
+                }
+                continue;
+            }
+            final double score = strategy == Strategy.LATENCY
+                    ? (endpoint.latencyNanos() + 1) * (endpoint.outstanding.get() + 1)
+                    : endpoint.outstanding.get();
+            if (null == best || score < bestScore) {
+                best = endpoint;
+                bestScore = score;
+            }
+        }
+        return null != best ? best : soonestBack;
+    }
+
+    private final class Endpoint {
+        private final RequestDispatcher dispatcher;
+        private final String description;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private long requests;
+        private long failures;
+        private long ejections;
+        private int consecutiveFailures;
+        private boolean ejected;
+        private boolean probing;
+        private long ejectedUntil;
+        private double latencyNanos;
+
+        private Endpoint(RequestDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+            this.description = RequestDispatchers.describe(dispatcher);
+        }
+
+        String dispatch(String input) throws IOException {
+            synchronized (this) {
+                requests++;
+            }
+            outstanding.incrementAndGet();
+            final long start = System.nanoTime();
+            try {
+                final String response = dispatcher.dispatchRequest(input);
+                succeeded(System.nanoTime() - start);
+                return response;
+            } catch (IOException e) {
+                failed();
+                throw e;
+            } catch (RuntimeException e) {
+                abandoned();
+                throw e;
+            } finally {
+                outstanding.decrementAndGet();
+            }
+        }
+
+        synchronized boolean isEjected() {
+            return ejected;
+        }
+
+        synchronized long ejectedUntil() {
+            return ejectedUntil;
+        }
+
+        synchronized double latencyNanos() {
+            return latencyNanos;
+        }
+
+        /**
+         * @return true if the ejection is over and the caller gets to send the one probe request
+         */
+        synchronized boolean tryProbe(long now) {
+            if (!ejected || probing || now - ejectedUntil < 0) {
+                return false;
+            }
+            probing = true;
+            return true;
+        }
+
+        private synchronized void succeeded(long nanos) {
+            consecutiveFailures = 0;
+            if (ejected) {
+                log.info("{} is back in rotation", description);
+            }
+            ejected = false;
+            probing = false;
+            latencyNanos = latencyNanos == 0 ? nanos : latencyNanos + (nanos - latencyNanos) * 0.2;
+        }
+
+        private synchronized void failed() {
+            failures++;
+            consecutiveFailures++;
+            if (probing || (!ejected && consecutiveFailures >= maxFailures)) {
+                if (!ejected) {
+                    ejections++;
+                    log.warn("Ejecting {} after {} consecutive failures", description, consecutiveFailures);
+                }
+                ejected = true;
+                probing = false;
+                ejectedUntil = System.nanoTime() + ejectionNanos;
+            }
+        }
+
+        /**
+         * A request ended without telling whether the endpoint works; a probe has to be sent again.
+         */
+        private synchronized void abandoned() {
+            probing = false;
+        }
+
+        synchronized EndpointStatistics snapshot() {
+            return new EndpointStatistics(description, outstanding.get(), requests, failures, ejections, ejected,
+                    latencyNanos);
+        }
+    }
+
+    /**
+     * @return the endpoints requests are spread over, in the order they were given
+     */
+    @Override
+    public String describe() {
+        final List<String> descriptions = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            descriptions.add(endpoint.description);
+        }
+        return descriptions.toString();
+    }
+
+    /**
+     * @return a snapshot of every endpoint, in the order they were given
+     */
+    public List<EndpointStatistics> getEndpointStatistics() {
+        final List<EndpointStatistics> statistics = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            statistics.add(endpoint.snapshot());
+        }
+        return statistics;
+    }
+
+    /**
+     * @return the number of times a failed request was sent to another endpoint
+     */
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    /**
+     * Getter for property 'idempotentMethods'.
+     *
+     * @return Value for property 'idempotentMethods'.
+     */
+    public Pattern getIdempotentMethods() {
+        return idempotentMethods;
+    }
+
+    /**
+     * Sets the methods that are safe to send again to another endpoint after a failure, by default the methods whose
+     * names start with Get or List.
+     *
+     * @param idempotentMethods a pattern the whole method name must match
+     */
+    public void setIdempotentMethods(Pattern idempotentMethods) {
+        if (null == idempotentMethods) throw new IllegalArgumentException("idempotentMethods is null");
+        this.idempotentMethods = idempotentMethods;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.dispatcher.setConnectionTimeout(timeInMilliseconds);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.dispatcher.setReadTimeout(timeInMilliseconds);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.dispatcher.setTimeoutToDefault();
+        }
+    }
+
+    /**
+     * Getter for property 'strategy'.
+     *
+     * @return Value for property 'strategy'.
+     */
+    public Strategy getStrategy() {
+        return strategy;
+    }
+}
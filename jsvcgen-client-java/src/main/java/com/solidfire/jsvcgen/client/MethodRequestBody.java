@@ -0,0 +1,49 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A streamed request to a single method, named so that the request dispatcher can tell whether it may send the request
+ * again.
+ */
+final class MethodRequestBody implements RequestBody {
+
+    private final String method;
+    private final RequestBody body;
+
+    MethodRequestBody(String method, RequestBody body) {
+        this.method = method;
+        this.body = body;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        body.writeTo(out);
+    }
+
+    /**
+     * Getter for property 'method'.
+     *
+     * @return Value for property 'method'.
+     */
+    String getMethod() {
+        return method;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A point-in-time snapshot of the calls a {@link MetricsRegistry} recorded for one method on one endpoint.
+ */
+public final class MethodStatistics implements Serializable {
+
+    private static final long serialVersionUID = -6179430921744823164L;
+
+    private final String endpoint;
+    private final String method;
+    private final long calls;
+    private final Map<String, Long> errors;
+    private final long requestBytes;
+    private final long responseBytes;
+    private final long[] latencyBuckets;
+    private final long totalLatencyMicros;
+    private final long maxLatencyMicros;
+
+    MethodStatistics(String endpoint, String method, long calls, Map<String, Long> errors, long requestBytes,
+                     long responseBytes, long[] latencyBuckets, long totalLatencyMicros, long maxLatencyMicros) {
+        this.endpoint = endpoint;
+        this.method = method;
+        this.calls = calls;
+        this.errors = Collections.unmodifiableMap(new TreeMap<>(errors));
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+        this.latencyBuckets = latencyBuckets;
+        this.totalLatencyMicros = totalLatencyMicros;
+        this.maxLatencyMicros = maxLatencyMicros;
+    }
+
+    /**
+     * Getter for property 'endpoint'.
+     *
+     * @return Value for property 'endpoint'.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Getter for property 'method'.
+     *
+     * @return Value for property 'method'.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the number of calls sent, including those that failed
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return the number of calls that failed
+     */
+    public long getErrorCount() {
+        long count = 0;
+        for (Long errors : this.errors.values()) {
+            count += errors;
+        }
+        return count;
+    }
+
+    /**
+     * The server errors are keyed by their name and code, as in {@code xVolumeIDDoesNotExist/500}; other failures by
+     * the simple name of the exception's cause, as in {@code SocketTimeoutException}.
+     *
+     * @return the number of failed calls by error
+     */
+    public Map<String, Long> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the UTF-8 encoded size of the requests sent
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * @return the UTF-8 encoded size of the responses received
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * @return the mean response time in milliseconds, or 0 if there were no calls
+     */
+    public double getMeanLatencyMillis() {
+        return calls == 0 ? 0 : totalLatencyMicros / 1000.0 / calls;
+    }
+
+    /**
+     * @return the longest response time in milliseconds
+     */
+    public double getMaxLatencyMillis() {
+        return maxLatencyMicros / 1000.0;
+    }
+
+    /**
+     * The response time is read from a histogram and is within about 3% of the actual time.
+     *
+     * @param percentile between 0 and 100, as in 99.9
+     * @return the response time in milliseconds at the percentile, or 0 if there were no calls
+     */
+    public double getLatencyMillis(double percentile) {
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("percentile must be between 0 and 100");
+        return LatencyHistogram.percentile(latencyBuckets, percentile) / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "MethodStatistics{ endpoint : " + endpoint +
+                ", method : " + method +
+                ", calls : " + calls +
+                ", errors : " + errors +
+                ", requestBytes : " + requestBytes +
+                ", responseBytes : " + responseBytes +
+                ", meanLatencyMillis : " + String.format("%.3f", getMeanLatencyMillis()) +
+                ", p50LatencyMillis : " + String.format("%.3f", getLatencyMillis(50)) +
+                ", p99LatencyMillis : " + String.format("%.3f", getLatencyMillis(99)) +
+                ", maxLatencyMillis : " + String.format("%.3f", getMaxLatencyMillis()) + " }";
+    }
+}
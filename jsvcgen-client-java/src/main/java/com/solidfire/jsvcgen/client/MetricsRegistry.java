@@ -0,0 +1,238 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records the calls services send, per endpoint and method: how many, how many failed and why, how long they took,
+ * and how large the requests and responses were. Set it on one or more services with
+ * {@link ServiceBase#setMetricsRegistry} and read it with {@link #getStatistics()}.
+ * <p/>
+ * Recording a call takes no lock and, once the method has been seen, allocates one small object. Calls answered by a
+ * {@link ResponseCache} or shared through a {@link SingleFlight} send nothing and are not recorded.
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentMap<String, ConcurrentMap<String, MethodMetrics>> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * @return a snapshot of every endpoint and method that has been called
+     */
+    public List<MethodStatistics> getStatistics() {
+        final List<MethodStatistics> statistics = new ArrayList<>();
+        for (Map.Entry<String, ConcurrentMap<String, MethodMetrics>> endpoint : endpoints.entrySet()) {
+            for (Map.Entry<String, MethodMetrics> method : endpoint.getValue().entrySet()) {
+                statistics.add(method.getValue().snapshot(endpoint.getKey(), method.getKey()));
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * @return a snapshot of one method on one endpoint, or null if it has not been called
+     */
+    public MethodStatistics getStatistics(String endpoint, String method) {
+        final ConcurrentMap<String, MethodMetrics> methods = endpoints.get(endpoint);
+        final MethodMetrics metrics = null != methods ? methods.get(method) : null;
+        return null != metrics ? metrics.snapshot(endpoint, method) : null;
+    }
+
+    /**
+     * Forgets every call recorded so far.
+     */
+    public void reset() {
+        endpoints.clear();
+    }
+
+    /**
+     * Starts timing a call; the caller has to report its outcome to the returned call.
+     */
+    Call start(String endpoint, String method) {
+        return new Call(metrics(endpoint, method));
+    }
+
+    MethodMetrics metrics(String endpoint, String method) {
+        ConcurrentMap<String, MethodMetrics> methods = endpoints.get(endpoint);
+        if (null == methods) {
+            final ConcurrentMap<String, MethodMetrics> created = new ConcurrentHashMap<>();
+            methods = endpoints.putIfAbsent(endpoint, created);
+            if (null == methods) {
+                methods = created;
+            }
+        }
+        MethodMetrics metrics = methods.get(method);
+        if (null == metrics) {
+            final MethodMetrics created = new MethodMetrics();
+            metrics = methods.putIfAbsent(method, created);
+            if (null == metrics) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the number of bytes the characters take in UTF-8
+     */
+    static long utf8Length(CharSequence chars) {
+        long bytes = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            bytes += utf8Length(chars.charAt(i));
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of bytes the character takes in UTF-8, counting half of a surrogate pair as two
+     */
+    private static int utf8Length(char c) {
+        return c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+    }
+
+    /**
+     * One call being timed, collecting the sizes of its request and response.
+     */
+    static final class Call {
+        private final MethodMetrics metrics;
+        private final long start = System.nanoTime();
+        private long requestBytes = -1;
+        private long responseBytes = -1;
+
+        private Call(MethodMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        void setRequestBytes(long requestBytes) {
+            this.requestBytes = requestBytes;
+        }
+
+        void setResponseBytes(long responseBytes) {
+            this.responseBytes = responseBytes;
+        }
+
+        /**
+         * @return the request body, counting the bytes it writes as the size of the request
+         */
+        RequestBody count(final RequestBody body) {
+            return new RequestBody() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    final Compression.CountingOutputStream counting = new Compression.CountingOutputStream(out);
+                    body.writeTo(counting);
+                    requestBytes = counting.getCount();
+                }
+            };
+        }
+
+        /**
+         * @return the response, counting the UTF-8 size of the characters read from it as the size of the response
+         */
+        Reader count(Reader response) {
+            responseBytes = 0;
+            return new FilterReader(response) {
+                @Override
+                public int read() throws IOException {
+                    final int c = super.read();
+                    if (c != -1) {
+                        responseBytes += utf8Length((char) c);
+                    }
+                    return c;
+                }
+
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    final int n = super.read(cbuf, off, len);
+                    for (int i = off; i < off + n; i++) {
+                        responseBytes += utf8Length(cbuf[i]);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        void succeeded() {
+            metrics.record(System.nanoTime() - start, null, requestBytes, responseBytes);
+        }
+
+        void failed(Throwable error) {
+            metrics.record(System.nanoTime() - start, error, requestBytes, responseBytes);
+        }
+    }
+
+    static final class MethodMetrics {
+        private final StripedCounter calls = new StripedCounter();
+        private final StripedCounter requestBytes = new StripedCounter();
+        private final StripedCounter responseBytes = new StripedCounter();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final ConcurrentMap<String, StripedCounter> errors = new ConcurrentHashMap<>();
+
+        /**
+         * @param error         the exception the call failed with, or null if it succeeded
+         * @param requestBytes  the size of the request, or -1 if it is not known
+         * @param responseBytes the size of the response, or -1 if it is not known
+         */
+        void record(long nanos, Throwable error, long requestBytes, long responseBytes) {
+            calls.increment();
+            latency.record(nanos);
+            if (requestBytes > 0) {
+                this.requestBytes.add(requestBytes);
+            }
+            if (responseBytes > 0) {
+                this.responseBytes.add(responseBytes);
+            }
+            if (null != error) {
+                final String key = errorKey(error);
+                StripedCounter count = errors.get(key);
+                if (null == count) {
+                    final StripedCounter created = new StripedCounter();
+                    count = errors.putIfAbsent(key, created);
+                    if (null == count) {
+                        count = created;
+                    }
+                }
+                count.increment();
+            }
+        }
+
+        MethodStatistics snapshot(String endpoint, String method) {
+            final Map<String, Long> errorCounts = new HashMap<>();
+            for (Map.Entry<String, StripedCounter> error : errors.entrySet()) {
+                errorCounts.put(error.getKey(), error.getValue().sum());
+            }
+            return new MethodStatistics(endpoint, method, calls.sum(), errorCounts, requestBytes.sum(),
+                    responseBytes.sum(), latency.snapshot(), latency.getTotalMicros(), latency.getMaxMicros());
+        }
+
+        static String errorKey(Throwable error) {
+            if (error instanceof ApiServerException) {
+                final ApiServerException server = (ApiServerException) error;
+                return server.getName() + "/" + server.getCode();
+            }
+            final Throwable cause = error instanceof ApiException && null != error.getCause() ? error.getCause() : error;
+            return cause.getClass().getSimpleName();
+        }
+    }
+}
@@ -0,0 +1,605 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small set of threads that each drive many non-blocking connections through a {@link Selector}.
+ * <p/>
+ * Every connection is bound to one event loop for its whole life, so its state is only ever touched by that loop's
+ * thread. Keep-alive connections stay with their loop while idle and are closed after the idle timeout, or as soon as
+ * the server closes them.
+ * <p/>
+ * Each route (server and TLS configuration) gets at most {@link #getMaxConnectionsPerRoute()} connections. Since a
+ * connection carries one request at a time, further requests to the route wait in line for a connection to finish, for
+ * no longer than their connect timeout.
+ * <p/>
+ * By default futures are completed on the event loop thread; callbacks attached to them must then not block. Supply a
+ * completion executor to run them elsewhere.
+ */
+public class NioEventLoopGroup implements Closeable {
+
+    public static final long DEFAULT_IDLE_TIMEOUT = HttpsConnectionPool.DEFAULT_IDLE_TIMEOUT;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 64;
+
+    private static volatile NioEventLoopGroup sharedGroup;
+
+    private final EventLoop[] loops;
+    private final Executor completionExecutor;
+    private final long idleTimeout;
+    private final int maxConnectionsPerRoute;
+    private final ConcurrentMap<Object, Route> routes = new ConcurrentHashMap<>();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Create a group with one event loop per available processor.
+     */
+    public NioEventLoopGroup() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a group that completes futures on its event loop threads.
+     *
+     * @param threads the number of event loops
+     */
+    public NioEventLoopGroup(int threads) {
+        this(threads, null, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Create a group with the default limit of connections per route.
+     *
+     * @param threads            the number of event loops
+     * @param completionExecutor the executor used to complete futures, or null to complete them on the event loop
+     * @param idleTimeout        the time in milliseconds an unused keep-alive connection is kept open
+     * @throws IllegalStateException if a selector could not be opened
+     */
+    public NioEventLoopGroup(int threads, Executor completionExecutor, long idleTimeout) {
+        this(threads, completionExecutor, idleTimeout, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    /**
+     * Create a group.
+     *
+     * @param threads                the number of event loops
+     * @param completionExecutor     the executor used to complete futures, or null to complete them on the event loop
+     * @param idleTimeout            the time in milliseconds an unused keep-alive connection is kept open
+     * @param maxConnectionsPerRoute the maximum number of open connections, and so of requests in flight, to any single
+     *                               route
+     * @throws IllegalStateException if a selector could not be opened
+     */
+    public NioEventLoopGroup(int threads, Executor completionExecutor, long idleTimeout, int maxConnectionsPerRoute) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be at least 1");
+        if (idleTimeout < 0) throw new IllegalArgumentException("idleTimeout can not be negative");
+        if (maxConnectionsPerRoute < 1) throw new IllegalArgumentException("maxConnectionsPerRoute must be at least 1");
+
+        this.completionExecutor = completionExecutor;
+        this.idleTimeout = idleTimeout;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.loops = new EventLoop[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                loops[i] = new EventLoop(i);
+            }
+        } catch (IOException e) {
+            close();
+            throw new IllegalStateException("Could not open a selector", e);
+        }
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * The process-wide group used by dispatchers that are not given a group of their own.
+     *
+     * @return the shared group, created on first use
+     */
+    public static NioEventLoopGroup getShared() {
+        NioEventLoopGroup group = sharedGroup;
+        if (null == group) {
+            synchronized (NioEventLoopGroup.class) {
+                group = sharedGroup;
+                if (null == group) {
+                    group = new NioEventLoopGroup();
+                    sharedGroup = group;
+                }
+            }
+        }
+        return group;
+    }
+
+    /**
+     * Picks the event loop for a new request.
+     */
+    EventLoop next() {
+        if (closed) throw new IllegalStateException("Event loop group is closed");
+        return roundRobin();
+    }
+
+    private EventLoop roundRobin() {
+        return loops[Math.abs(nextLoop.getAndIncrement() % loops.length)];
+    }
+
+    /**
+     * Takes a connection slot on the route for the waiter, or puts it in line for one. The waiter is granted the slot
+     * at once or later, from any thread, along with the loop to run on; the loop is one holding an idle connection to
+     * the route when there is one. A waiter still in line when the timeout passes is rejected.
+     *
+     * @param routeKey the route of the request
+     * @param waiter   the request
+     * @param timeout  the time in milliseconds the request may wait in line, or 0 to wait for as long as it takes
+     * @throws IllegalStateException if the group is closed
+     */
+    void acquire(final Object routeKey, final Waiter waiter, final int timeout) {
+        final Route route = routeFor(routeKey);
+        final EventLoop loop;
+        synchronized (route) {
+            if (closed) throw new IllegalStateException("Event loop group is closed");
+            if (route.inFlight < maxConnectionsPerRoute) {
+                route.inFlight++;
+                loop = route.pickLoop();
+            } else {
+                route.waiting.add(waiter);
+                loop = null;
+            }
+        }
+        if (null != loop) {
+            waiter.granted(loop);
+        } else if (timeout > 0) {
+            final EventLoop timerLoop = roundRobin();
+            timerLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    timerLoop.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (cancel(routeKey, waiter)) {
+                                waiter.rejected(new IOException("Timed out after " + timeout + "ms waiting for a connection to "
+                                        + routeKey + " (max " + maxConnectionsPerRoute + " per route)"));
+                            }
+                        }
+                    }, timeout, TimeUnit.MILLISECONDS);
+                }
+            });
+        }
+    }
+
+    /**
+     * Takes a waiter out of line.
+     *
+     * @return true if the waiter was still waiting, false if it was granted a slot or rejected already
+     */
+    boolean cancel(Object routeKey, Waiter waiter) {
+        final Route route = routes.get(routeKey);
+        if (null == route) {
+            return false;
+        }
+        synchronized (route) {
+            return route.waiting.remove(waiter);
+        }
+    }
+
+    /**
+     * Gives back a slot taken through {@link #acquire}, handing it to the next waiter in line if there is one.
+     */
+    void release(Object routeKey) {
+        final Route route = routes.get(routeKey);
+        final Waiter next;
+        final EventLoop loop;
+        synchronized (route) {
+            next = route.waiting.poll();
+            if (null == next) {
+                route.inFlight--;
+                loop = null;
+            } else {
+                loop = route.pickLoop();
+            }
+        }
+        if (null != next) {
+            next.granted(loop);
+        }
+    }
+
+    private Route routeFor(Object routeKey) {
+        Route route = routes.get(routeKey);
+        if (null == route) {
+            final Route created = new Route();
+            route = routes.putIfAbsent(routeKey, created);
+            if (null == route) {
+                route = created;
+            }
+        }
+        return route;
+    }
+
+    /**
+     * Runs the given completion on the completion executor, or in the current thread when there is none.
+     */
+    void complete(Runnable completion) {
+        if (null == completionExecutor) {
+            completion.run();
+        } else {
+            completionExecutor.execute(completion);
+        }
+    }
+
+    /**
+     * Getter for property 'idleTimeout'.
+     *
+     * @return Value for property 'idleTimeout'.
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Getter for property 'maxConnectionsPerRoute'.
+     *
+     * @return Value for property 'maxConnectionsPerRoute'.
+     */
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return the number of requests waiting in line for a connection, across all routes
+     */
+    public int getWaitingRequests() {
+        int waiting = 0;
+        for (Route route : routes.values()) {
+            synchronized (route) {
+                waiting += route.waiting.size();
+            }
+        }
+        return waiting;
+    }
+
+    /**
+     * Getter for property 'threadCount'.
+     *
+     * @return Value for property 'threadCount'.
+     */
+    public int getThreadCount() {
+        return loops.length;
+    }
+
+    /**
+     * @return the number of connections currently open across all event loops, busy or idle
+     */
+    public int getOpenConnections() {
+        int open = 0;
+        for (EventLoop loop : loops) {
+            if (null != loop) {
+                open += loop.openConnections.get();
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Stops every event loop. Open connections are closed and requests still in flight or in line fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (EventLoop loop : loops) {
+            if (null != loop) {
+                loop.shutdown();
+            }
+        }
+        for (Route route : routes.values()) {
+            final List<Waiter> waiters;
+            synchronized (route) {
+                waiters = new ArrayList<>(route.waiting);
+                route.waiting.clear();
+            }
+            for (Waiter waiter : waiters) {
+                waiter.rejected(new IOException("Event loop group was closed"));
+            }
+        }
+    }
+
+    /**
+     * A request waiting for a connection slot on its route.
+     */
+    interface Waiter {
+        /**
+         * Called, on any thread, once the request may use a connection. The request must run on the given loop and
+         * give the slot back through {@link #release} when it is done.
+         */
+        void granted(EventLoop loop);
+
+        /**
+         * Called instead of {@link #granted} when the request gave up waiting, or the group was closed.
+         */
+        void rejected(IOException cause);
+    }
+
+    /**
+     * The connection slots of one route, and the loops holding its idle connections.
+     */
+    private final class Route {
+        private int inFlight;
+        private final ArrayDeque<Waiter> waiting = new ArrayDeque<>();
+        private final ArrayDeque<EventLoop> idleLoops = new ArrayDeque<>();
+
+        /**
+         * @return the loop of the most recently idle connection, or the next loop in turn if there is none
+         */
+        private EventLoop pickLoop() {
+            final EventLoop loop = idleLoops.peekFirst();
+            return null != loop ? loop : roundRobin();
+        }
+
+        private synchronized void idle(EventLoop loop) {
+            idleLoops.addFirst(loop);
+        }
+
+        private synchronized void busy(EventLoop loop) {
+            idleLoops.removeFirstOccurrence(loop);
+        }
+    }
+
+    /**
+     * Something registered with an event loop's selector.
+     */
+    interface Handler {
+        /**
+         * Called on the event loop thread when the key is ready for its interest set.
+         */
+        void handle(SelectionKey key);
+
+        /**
+         * Called on the event loop thread when the loop shuts down.
+         */
+        void shutdown();
+    }
+
+    /**
+     * A task scheduled on an event loop; cancelling it before it is due stops it from running.
+     */
+    static final class Timer implements Comparable<Timer> {
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        private final long due;
+        private final long sequence = SEQUENCE.getAndIncrement();
+        private final Runnable task;
+        private boolean cancelled;
+
+        private Timer(long due, Runnable task) {
+            this.due = due;
+            this.task = task;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            if (due != other.due) return due < other.due ? -1 : 1;
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    /**
+     * One selector thread. All methods other than {@link #execute(Runnable)} must be called on the loop thread.
+     */
+    final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+        private int cancelledTimers;
+        private final Map<Object, ArrayDeque<NioHttpsConnection>> idle = new HashMap<>();
+        private final AtomicInteger openConnections = new AtomicInteger();
+        private volatile boolean running = true;
+
+        private EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "jsvcgen-nio-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        Selector selector() {
+            return selector;
+        }
+
+        NioEventLoopGroup group() {
+            return NioEventLoopGroup.this;
+        }
+
+        boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        /**
+         * Runs the task on the loop thread, in submission order.
+         */
+        void execute(Runnable task) {
+            if (!running) throw new IllegalStateException("Event loop group is closed");
+            tasks.add(task);
+            if (!inEventLoop()) {
+                selector.wakeup();
+            }
+        }
+
+        Timer schedule(Runnable task, long delay, TimeUnit unit) {
+            final Timer timer = new Timer(System.nanoTime() + unit.toNanos(delay), task);
+            timers.add(timer);
+            return timer;
+        }
+
+        /**
+         * Cancels the timer. Cancelled timers are dropped from the queue in bulk once they make up half of it.
+         */
+        void cancel(Timer timer) {
+            if (timer.cancelled) {
+                return;
+            }
+            timer.cancel();
+            if (++cancelledTimers > 256 && cancelledTimers > timers.size() / 2) {
+                final Iterator<Timer> pending = timers.iterator();
+                while (pending.hasNext()) {
+                    if (pending.next().cancelled) {
+                        pending.remove();
+                    }
+                }
+                cancelledTimers = 0;
+            }
+        }
+
+        void connectionOpened() {
+            openConnections.incrementAndGet();
+        }
+
+        void connectionClosed(NioHttpsConnection connection) {
+            openConnections.decrementAndGet();
+            final ArrayDeque<NioHttpsConnection> connections = idle.get(connection.getRouteKey());
+            if (null != connections && connections.remove(connection)) {
+                routeFor(connection.getRouteKey()).busy(this);
+            }
+        }
+
+        /**
+         * @return the most recently used idle connection to the route, or null if there is none
+         */
+        NioHttpsConnection pollIdle(Object routeKey) {
+            final ArrayDeque<NioHttpsConnection> connections = idle.get(routeKey);
+            while (null != connections && !connections.isEmpty()) {
+                final NioHttpsConnection connection = connections.pollFirst();
+                routeFor(routeKey).busy(this);
+                if (connection.isOpen()) {
+                    return connection;
+                }
+            }
+            return null;
+        }
+
+        void offerIdle(final NioHttpsConnection connection) {
+            if (!running || idleTimeout == 0) {
+                connection.close();
+                return;
+            }
+            ArrayDeque<NioHttpsConnection> connections = idle.get(connection.getRouteKey());
+            if (null == connections) {
+                connections = new ArrayDeque<>();
+                idle.put(connection.getRouteKey(), connections);
+            }
+            connections.addFirst(connection);
+            routeFor(connection.getRouteKey()).idle(this);
+            final long usedAt = connection.getLastUsedAt();
+            schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (connection.getLastUsedAt() == usedAt && connection.isIdle()) {
+                        connection.close();
+                    }
+                }
+            }, idleTimeout, TimeUnit.MILLISECONDS);
+        }
+
+        private void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(selectTimeout());
+                    final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        final SelectionKey key = selected.next();
+                        selected.remove();
+                        if (key.isValid()) {
+                            ((Handler) key.attachment()).handle(key);
+                        }
+                    }
+                    runTasks();
+                    runTimers();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                running = false;
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Handler) key.attachment()).shutdown();
+                }
+                runTasks();
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private long selectTimeout() {
+            if (!tasks.isEmpty()) {
+                return 1;
+            }
+            final Timer first = timers.peek();
+            if (null == first) {
+                return 0;
+            }
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(first.due - System.nanoTime()) + 1);
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while (null != (task = tasks.poll())) {
+                task.run();
+            }
+        }
+
+        private void runTimers() {
+            final long now = System.nanoTime();
+            Timer timer;
+            while (null != (timer = timers.peek()) && timer.due - now <= 0) {
+                timers.poll();
+                if (timer.cancelled) {
+                    cancelledTimers--;
+                } else {
+                    timer.cancelled = true;
+                    timer.task.run();
+                }
+            }
+        }
+    }
+}
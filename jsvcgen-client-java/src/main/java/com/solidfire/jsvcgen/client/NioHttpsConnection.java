@@ -0,0 +1,489 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A non-blocking HTTPS/1.1 connection driven by one {@link NioEventLoopGroup.EventLoop}.
+ * <p/>
+ * The connection pumps bytes between its channel and an {@link SSLEngine} whenever the selector reports it ready, and
+ * carries one {@link Exchange} at a time. Every method must be called on the owning event loop thread.
+ */
+final class NioHttpsConnection implements NioEventLoopGroup.Handler {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * One request/response round trip carried by a connection.
+     */
+    interface Exchange {
+        /**
+         * @return the complete encoded request, positioned at its first byte
+         */
+        ByteBuffer newRequest();
+
+        int getConnectTimeout();
+
+        int getReadTimeout();
+
+        /**
+         * Called once the complete response has been read.
+         */
+        void responseReceived(NioHttpsConnection connection, HttpResponseParser response);
+
+        /**
+         * Called when the exchange failed. A stale failure means a reused connection was closed by the server before
+         * any part of a response arrived; the server may have processed the request, so only an idempotent request may
+         * be sent again.
+         */
+        void failed(NioHttpsConnection connection, IOException cause, boolean stale);
+    }
+
+    private final NioEventLoopGroup.EventLoop loop;
+    private final Object routeKey;
+    private final String host;
+    private final SocketChannel channel;
+    private final TlsSocketFactory tls;
+    private final SSLEngine engine;
+    private final HostnameVerifier verifier;
+    private final SelectionKey key;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private ByteBuffer appOut;
+    private boolean connected;
+    private boolean handshaken;
+    private long handshakeStartedAt;
+    private long handshakeStartedMillis;
+    private boolean closed;
+    private Exchange exchange;
+    private HttpResponseParser response;
+    private int requestCount;
+    private long lastUsedAt;
+    private long deadline;
+    private NioEventLoopGroup.Timer timer;
+
+    private NioHttpsConnection(NioEventLoopGroup.EventLoop loop,
+                               Object routeKey,
+                               InetSocketAddress address,
+                               TlsSocketFactory tls,
+                               HostnameVerifier verifier) throws IOException {
+        this.loop = loop;
+        this.routeKey = routeKey;
+        this.host = address.getHostString();
+        this.tls = tls;
+        this.verifier = verifier;
+
+        this.engine = tls.createSSLEngine(host, address.getPort());
+        if (null == verifier) {
+            final SSLParameters parameters = engine.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(parameters);
+        }
+        this.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+
+        this.channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            this.connected = channel.connect(address);
+            this.key = channel.register(loop.selector(), connected ? 0 : SelectionKey.OP_CONNECT, this);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        loop.connectionOpened();
+        this.lastUsedAt = System.nanoTime();
+    }
+
+    /**
+     * Starts connecting to the given address. The TLS handshake runs once the first exchange is sent, and is recorded
+     * in the statistics of the factory that creates the engine.
+     */
+    static NioHttpsConnection open(NioEventLoopGroup.EventLoop loop,
+                                   Object routeKey,
+                                   InetSocketAddress address,
+                                   TlsSocketFactory tls,
+                                   HostnameVerifier verifier) throws IOException {
+        return new NioHttpsConnection(loop, routeKey, address, tls, verifier);
+    }
+
+    /**
+     * Sends the exchange's request. The connection must not be carrying another exchange.
+     */
+    void send(Exchange exchange) {
+        if (null != this.exchange) throw new IllegalStateException("Connection is busy");
+
+        this.exchange = exchange;
+        this.response = new HttpResponseParser();
+        this.appOut = exchange.newRequest();
+        this.requestCount++;
+        this.lastUsedAt = System.nanoTime();
+        armTimer(handshaken ? exchange.getReadTimeout() : exchange.getConnectTimeout());
+
+        if (closed) {
+            fail(new ClosedChannelException(), requestCount > 1);
+            return;
+        }
+        if (connected) {
+            if (!handshaken && requestCount == 1) {
+                beginHandshake();
+            }
+            pumpSafely();
+        }
+    }
+
+    /**
+     * Abandons the exchange if it is still in progress on this connection; the connection is closed since the state
+     * of the response stream is unknown.
+     */
+    void abort(Exchange exchange) {
+        if (this.exchange == exchange) {
+            this.exchange = null;
+            close();
+        }
+    }
+
+    @Override
+    public void handle(SelectionKey key) {
+        if (!connected && key.isConnectable()) {
+            try {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+                connected = true;
+                key.interestOps(0);
+                if (null != exchange) {
+                    beginHandshake();
+                }
+            } catch (IOException e) {
+                fail(e, false);
+                return;
+            }
+        }
+        pumpSafely();
+    }
+
+    @Override
+    public void shutdown() {
+        fail(new IOException("Event loop group was closed"), false);
+        close();
+    }
+
+    private void beginHandshake() {
+        handshakeStartedAt = System.nanoTime();
+        handshakeStartedMillis = System.currentTimeMillis();
+        try {
+            engine.beginHandshake();
+        } catch (SSLException e) {
+            fail(e, false);
+        }
+    }
+
+    private void pumpSafely() {
+        if (closed || !connected) {
+            return;
+        }
+        try {
+            pump();
+        } catch (IOException e) {
+            fail(e, isStale());
+        } catch (RuntimeException e) {
+            fail(new IOException(e), false);
+        }
+    }
+
+    /**
+     * Moves bytes in every possible direction until the connection can make no more progress without the network.
+     */
+    private void pump() throws IOException {
+        while (!closed) {
+            if (!flush()) {
+                interest(SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+                return;
+            }
+            final SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            switch (status) {
+                case NEED_TASK:
+                    Runnable task;
+                    while (null != (task = engine.getDelegatedTask())) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    wrap(EMPTY);
+                    break;
+                case NOT_HANDSHAKING:
+                case FINISHED:
+                    if (!handshaken && null != exchange) {
+                        handshakeComplete();
+                    }
+                    if (null != appOut && appOut.hasRemaining()) {
+                        wrap(appOut);
+                        break;
+                    }
+                    if (!unwrap()) {
+                        interest(SelectionKey.OP_READ);
+                        return;
+                    }
+                    break;
+                default:
+                    // NEED_UNWRAP, and NEED_UNWRAP_AGAIN on runtimes that have it
+                    if (!unwrap()) {
+                        interest(SelectionKey.OP_READ);
+                        return;
+                    }
+            }
+        }
+    }
+
+    private void handshakeComplete() throws IOException {
+        if (null != verifier && !verifier.verify(host, engine.getSession())) {
+            throw new SSLPeerUnverifiedException("Hostname " + host + " not verified");
+        }
+        handshaken = true;
+        tls.handshakeCompleted(System.nanoTime() - handshakeStartedAt, engine.getSession(), handshakeStartedMillis);
+        armTimer(exchange.getReadTimeout());
+    }
+
+    /**
+     * Writes pending TLS records to the channel.
+     *
+     * @return true if nothing is left to write
+     */
+    private boolean flush() throws IOException {
+        if (netOut.position() == 0) {
+            return true;
+        }
+        netOut.flip();
+        channel.write(netOut);
+        netOut.compact();
+        return netOut.position() == 0;
+    }
+
+    private void wrap(ByteBuffer source) throws IOException {
+        final SSLEngineResult result = engine.wrap(source, netOut);
+        switch (result.getStatus()) {
+            case OK:
+                break;
+            case BUFFER_OVERFLOW:
+                netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                break;
+            default:
+                throw new EOFException("TLS session closed while sending");
+        }
+    }
+
+    /**
+     * Reads and decrypts whatever is available, handing application data to the response parser.
+     *
+     * @return true if any progress was made
+     */
+    private boolean unwrap() throws IOException {
+        netIn.flip();
+        final SSLEngineResult result = engine.unwrap(netIn, appIn);
+        netIn.compact();
+
+        switch (result.getStatus()) {
+            case OK:
+                if (appIn.position() > 0) {
+                    deliver();
+                }
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            case BUFFER_OVERFLOW:
+                if (appIn.position() > 0) {
+                    deliver();
+                } else {
+                    appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                }
+                return true;
+            case BUFFER_UNDERFLOW: {
+                if (!netIn.hasRemaining()) {
+                    netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                }
+                final int read = channel.read(netIn);
+                if (read < 0) {
+                    endOfStream();
+                    return false;
+                }
+                return read > 0;
+            }
+            default:
+                endOfStream();
+                return false;
+        }
+    }
+
+    private void deliver() throws IOException {
+        appIn.flip();
+        try {
+            if (null == exchange) {
+                // A server must not send anything on an idle connection; whatever it is, the connection is unusable.
+                close();
+                return;
+            }
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(exchange.getReadTimeout());
+            if (response.feed(appIn)) {
+                complete();
+            }
+        } finally {
+            appIn.clear();
+        }
+    }
+
+    private void endOfStream() throws IOException {
+        try {
+            engine.closeInbound();
+        } catch (SSLException e) {
+            // The server did not send close_notify; a close-delimited body still ends here.
+        }
+        if (null != exchange && response.finishOnEof()) {
+            complete();
+        } else if (null != exchange) {
+            final boolean stale = isStale();
+            fail(stale
+                 ? new PooledHttpsConnection.StaleConnectionException("Connection closed by server before a response was received")
+                 : new EOFException("Connection closed by server before the response was complete"), stale);
+        }
+        close();
+    }
+
+    private boolean isStale() {
+        return null != response && requestCount > 1 && !response.hasStarted();
+    }
+
+    private void complete() {
+        final Exchange done = exchange;
+        final HttpResponseParser received = response;
+        exchange = null;
+        response = null;
+        appOut = null;
+        cancelTimer();
+        lastUsedAt = System.nanoTime();
+        if (received.isKeepAlive()) {
+            loop.offerIdle(this);
+        } else {
+            close();
+        }
+        done.responseReceived(this, received);
+    }
+
+    private void fail(IOException cause, boolean stale) {
+        final Exchange failed = exchange;
+        exchange = null;
+        close();
+        if (null != failed) {
+            failed.failed(this, cause, stale);
+        }
+    }
+
+    private void interest(int ops) {
+        if (key.isValid() && key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    private void armTimer(int timeout) {
+        cancelTimer();
+        if (timeout <= 0) {
+            return;
+        }
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        scheduleTimer(timeout);
+    }
+
+    private void scheduleTimer(long delay) {
+        timer = loop.schedule(new Runnable() {
+            @Override
+            public void run() {
+                timer = null;
+                if (null == exchange) {
+                    return;
+                }
+                final long left = deadline - System.nanoTime();
+                if (left > 0) {
+                    scheduleTimer(TimeUnit.NANOSECONDS.toMillis(left) + 1);
+                } else {
+                    fail(new SocketTimeoutException(handshaken ? "Read timed out" : "connect timed out"), false);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelTimer() {
+        if (null != timer) {
+            loop.cancel(timer);
+            timer = null;
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minimum) {
+        final ByteBuffer larger = ByteBuffer.allocate(Math.max(minimum, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    Object getRouteKey() {
+        return routeKey;
+    }
+
+    int getRequestCount() {
+        return requestCount;
+    }
+
+    long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    boolean isIdle() {
+        return null == exchange;
+    }
+
+    boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        cancelTimer();
+        key.cancel();
+        PooledHttpsConnection.closeQuietly(channel);
+        loop.connectionClosed(this);
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.jsvcgen.javautil.BiConsumer;
+import com.solidfire.jsvcgen.javautil.CompletableFuture;
+import com.solidfire.jsvcgen.javautil.Optional;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Pattern;
+
+import static com.solidfire.jsvcgen.client.HttpsRequestDispatcher.DEFAULT_CONNECTION_TIMEOUT;
+import static com.solidfire.jsvcgen.client.HttpsRequestDispatcher.DEFAULT_READ_TIMEOUT;
+
+/**
+ * An asynchronous request dispatcher that sends requests over non-blocking keep-alive connections driven by a
+ * {@link NioEventLoopGroup}.
+ * <p/>
+ * No thread waits on an outstanding request, so a handful of event loop threads can carry thousands of requests in
+ * flight. Each request occupies one connection until its response arrives; finished connections are kept open and
+ * reused by later requests. Requests beyond the group's limit of connections per route wait in line for one. The
+ * endpoint's host name is resolved once, when the dispatcher is created.
+ */
+public class NioHttpsRequestDispatcher implements AsyncRequestDispatcher, DescribedRequestDispatcher {
+
+    private final URL endpoint;
+    private final String endpointVersion;
+    private final String host;
+    private final int port;
+    // Resolved once here, since a lookup per request would block the caller of dispatchRequestAsync
+    private final InetSocketAddress address;
+    private final NioEventLoopGroup group;
+    private final TlsSocketFactory tlsSocketFactory;
+    private final HostnameVerifier hostnameVerifier;
+    private final Object routeKey;
+    private final byte[] requestHead;
+    private volatile int connectionTimeout;
+    private volatile int readTimeout;
+    private volatile Pattern idempotentMethods = JsonRpcRequests.READ_ONLY_METHODS;
+
+    private NioHttpsRequestDispatcher(URL endpoint,
+                                      Optional<String> authenticationToken,
+                                      NioEventLoopGroup group,
+                                      SSLContext sslContext,
+                                      HostnameVerifier hostnameVerifier) {
+        if (!endpoint.getProtocol().equals("https"))
+            throw new IllegalArgumentException("Unsupported endpoint protocol \"" + endpoint.getProtocol() + "\"." + "Only \"https\" is supported.");
+        if (null == group) throw new IllegalArgumentException("group is null");
+        if (null == sslContext) throw new IllegalArgumentException("sslContext is null");
+
+        this.endpointVersion = VersioningUtils.getVersionFromEndpoint(endpoint);
+        this.endpoint = endpoint;
+        this.host = endpoint.getHost();
+        this.port = endpoint.getPort() == -1 ? endpoint.getDefaultPort() : endpoint.getPort();
+        this.address = new InetSocketAddress(host, port);
+        this.group = group;
+        this.tlsSocketFactory = TlsSocketFactory.forContext(sslContext);
+        this.hostnameVerifier = hostnameVerifier;
+        this.routeKey = new RouteKey(host, port, sslContext, hostnameVerifier);
+
+        final StringBuilder head = new StringBuilder(256);
+        head.append("POST ").append(endpoint.getFile().isEmpty() ? "/" : endpoint.getFile()).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(host);
+        if (endpoint.getPort() != -1) {
+            head.append(':').append(port);
+        }
+        head.append("\r\n");
+        head.append("Accept: application/json\r\n");
+        head.append("Content-Type: application/json\r\n");
+        if (authenticationToken.isPresent()) {
+            head.append("Authorization: ").append(authenticationToken.get()).append("\r\n");
+        }
+        head.append("Content-Length: ");
+        this.requestHead = head.toString().getBytes(PooledHttpsConnection.ASCII);
+        this.setTimeoutToDefault();
+    }
+
+    /**
+     * Create a dispatcher using no authentication and the shared event loop group.
+     */
+    public NioHttpsRequestDispatcher(URL endpoint) {
+        this(endpoint, Optional.<String>empty(), NioEventLoopGroup.getShared(), defaultSslContext(), null);
+    }
+
+    /**
+     * Create a dispatcher using HTTP basic authentication and the shared event loop group.
+     *
+     * @param endpoint the hostname or IP address of the connection
+     * @param username username credential
+     * @param password password credential
+     */
+    public NioHttpsRequestDispatcher(URL endpoint, String username, String password) {
+        this(endpoint, username, password, NioEventLoopGroup.getShared());
+    }
+
+    /**
+     * Create a dispatcher using HTTP basic authentication.
+     *
+     * @param endpoint the hostname or IP address of the connection
+     * @param username username credential
+     * @param password password credential
+     * @param group    the event loops that drive the connections
+     */
+    public NioHttpsRequestDispatcher(URL endpoint, String username, String password, NioEventLoopGroup group) {
+        this(endpoint, Optional.of(HttpsRequestDispatcher.createBasicAuthToken(username, password)), group, defaultSslContext(), null);
+    }
+
+    /**
+     * Create a dispatcher using no authentication.
+     *
+     * @param endpoint         the hostname or IP address of the connection
+     * @param group            the event loops that drive the connections
+     * @param sslContext       the TLS configuration to use
+     * @param hostnameVerifier the verifier applied to the server host name after each handshake, or null to apply the
+     *                         standard HTTPS host name check during the handshake
+     */
+    public NioHttpsRequestDispatcher(URL endpoint, NioEventLoopGroup group, SSLContext sslContext, HostnameVerifier hostnameVerifier) {
+        this(endpoint, Optional.<String>empty(), group, sslContext, hostnameVerifier);
+    }
+
+    /**
+     * Create a dispatcher using HTTP basic authentication.
+     *
+     * @param endpoint         the hostname or IP address of the connection
+     * @param username         username credential
+     * @param password         password credential
+     * @param group            the event loops that drive the connections
+     * @param sslContext       the TLS configuration to use
+     * @param hostnameVerifier the verifier applied to the server host name after each handshake, or null to apply the
+     *                         standard HTTPS host name check during the handshake
+     */
+    public NioHttpsRequestDispatcher(URL endpoint, String username, String password, NioEventLoopGroup group,
+                                     SSLContext sslContext, HostnameVerifier hostnameVerifier) {
+        this(endpoint, Optional.of(HttpsRequestDispatcher.createBasicAuthToken(username, password)), group, sslContext, hostnameVerifier);
+    }
+
+    private static SSLContext defaultSslContext() {
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No default TLS context available", e);
+        }
+    }
+
+    /**
+     * @return the handshakes made by the connections of this dispatcher, and of every other one sharing its TLS context
+     */
+    public TlsStatistics getTlsStatistics() {
+        return tlsSocketFactory.getStatistics();
+    }
+
+    /**
+     * @return the version of the Element OS endpoint used in the connection
+     */
+    @Override
+    public String getVersion() {
+        return this.endpointVersion;
+    }
+
+    /**
+     * Dispatch an encoded request to the system and await some response.
+     *
+     * Can throw java.net.SocketTimeoutException if the connection or read timeout occurs.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws IOException if anything went wrong on the connection side of things.
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        return Futures.await(dispatchRequestAsync(input));
+    }
+
+    /**
+     * Dispatch an encoded request to the system without waiting for the response. Cancelling the returned future
+     * takes the request out of line, or closes the connection carrying it.
+     *
+     * @param input The input string to send to the remote server.
+     * @return A future holding the server's response.
+     */
+    @Override
+    public CompletableFuture<String> dispatchRequestAsync(String input) {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        if (address.isUnresolved()) {
+            future.completeExceptionally(new UnknownHostException(host));
+            return future;
+        }
+
+        final Call call = new Call(address, encode(input), future, connectionTimeout, readTimeout,
+                JsonRpcRequests.isMethodMatching(input, idempotentMethods));
+        try {
+            group.acquire(routeKey, call, connectionTimeout);
+        } catch (IllegalStateException e) {
+            future.completeExceptionally(new IOException(e.getMessage(), e));
+            return future;
+        }
+        future.whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String response, Throwable ex) {
+                if (ex instanceof CancellationException && !group.cancel(routeKey, call)) {
+                    // A call granted its slot but not yet started sees the cancellation when it starts.
+                    final NioEventLoopGroup.EventLoop loop = call.loop;
+                    if (null != loop) {
+                        try {
+                            loop.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    call.abort();
+                                }
+                            });
+                        } catch (IllegalStateException e) {
+                            // The loop is gone, and the connection with it
+                        }
+                    }
+                }
+            }
+        });
+        return future;
+    }
+
+    private ByteBuffer encode(String input) {
+        final byte[] body = input.getBytes(PooledHttpsRequestDispatcher.UTF_8);
+        final CallTrace trace = CallTrace.current();
+        final String traceHeader = null == trace ? "" : CallTrace.HEADER + ": " + trace.getTraceId() + "\r\n";
+        final byte[] length = (body.length + "\r\n" + traceHeader + "\r\n").getBytes(PooledHttpsConnection.ASCII);
+        final ByteBuffer request = ByteBuffer.allocate(requestHead.length + length.length + body.length);
+        request.put(requestHead).put(length).put(body);
+        request.flip();
+        return request.asReadOnlyBuffer();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        this.connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+        this.readTimeout = DEFAULT_READ_TIMEOUT;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        if (timeInMilliseconds < 0) {
+            throw new IllegalArgumentException("timeout can not be negative");
+        }
+        this.connectionTimeout = timeInMilliseconds;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        if (timeInMilliseconds < 0) {
+            throw new IllegalArgumentException("timeout can not be negative");
+        }
+        this.readTimeout = timeInMilliseconds;
+    }
+
+    /**
+     * Getter for property 'idempotentMethods'.
+     *
+     * @return Value for property 'idempotentMethods'.
+     */
+    public Pattern getIdempotentMethods() {
+        return idempotentMethods;
+    }
+
+    /**
+     * Sets the methods that are sent again on a fresh connection when a reused connection is closed before the response
+     * arrives, by default the methods whose names start with Get or List.
+     *
+     * @param idempotentMethods a pattern the whole method name must match
+     */
+    public void setIdempotentMethods(Pattern idempotentMethods) {
+        if (null == idempotentMethods) throw new IllegalArgumentException("idempotentMethods is null");
+        this.idempotentMethods = idempotentMethods;
+    }
+
+    /**
+     * @return the URL of the endpoint
+     */
+    @Override
+    public String describe() {
+        return endpoint.toString();
+    }
+
+    /**
+     * Getter for property 'endpoint'.
+     *
+     * @return Value for property 'endpoint'.
+     */
+    public URL getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Getter for property 'group'.
+     *
+     * @return Value for property 'group'.
+     */
+    public NioEventLoopGroup getGroup() {
+        return group;
+    }
+
+    /**
+     * A single request on its way through an event loop. Once it is granted a connection slot, everything runs on the
+     * loop thread.
+     */
+    private final class Call implements NioHttpsConnection.Exchange, NioEventLoopGroup.Waiter {
+        private final InetSocketAddress address;
+        private final ByteBuffer request;
+        private final CompletableFuture<String> future;
+        private final int connectTimeout;
+        private final int readTimeout;
+        private final boolean idempotent;
+        private volatile NioEventLoopGroup.EventLoop loop;
+        private NioHttpsConnection connection;
+        private boolean retried;
+        private boolean released;
+
+        private Call(InetSocketAddress address, ByteBuffer request, CompletableFuture<String> future,
+                     int connectTimeout, int readTimeout, boolean idempotent) {
+            this.address = address;
+            this.request = request;
+            this.future = future;
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+            this.idempotent = idempotent;
+        }
+
+        @Override
+        public void granted(NioEventLoopGroup.EventLoop loop) {
+            this.loop = loop;
+            try {
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        start(false);
+                    }
+                });
+            } catch (IllegalStateException e) {
+                group.release(routeKey);
+                rejected(new IOException(e.getMessage(), e));
+            }
+        }
+
+        @Override
+        public void rejected(final IOException cause) {
+            group.complete(new Runnable() {
+                @Override
+                public void run() {
+                    future.completeExceptionally(cause);
+                }
+            });
+        }
+
+        private void start(boolean fresh) {
+            if (future.isDone()) {
+                release();
+                return;
+            }
+            connection = fresh ? null : loop.pollIdle(routeKey);
+            if (null == connection) {
+                try {
+                    connection = NioHttpsConnection.open(loop, routeKey, address, tlsSocketFactory, hostnameVerifier);
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+            }
+            connection.send(this);
+        }
+
+        private void abort() {
+            if (null != connection) {
+                connection.abort(this);
+                connection = null;
+                release();
+            }
+        }
+
+        private void release() {
+            if (!released) {
+                released = true;
+                group.release(routeKey);
+            }
+        }
+
+        @Override
+        public ByteBuffer newRequest() {
+            return request.duplicate();
+        }
+
+        @Override
+        public int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        @Override
+        public int getReadTimeout() {
+            return readTimeout;
+        }
+
+        @Override
+        public void responseReceived(NioHttpsConnection connection, HttpResponseParser response) {
+            this.connection = null;
+            release();
+            // JSON-RPC...we don't actually care about the response code
+            final String body = new String(response.getBody(), PooledHttpsRequestDispatcher.UTF_8);
+            group.complete(new Runnable() {
+                @Override
+                public void run() {
+                    future.complete(body);
+                }
+            });
+        }
+
+        @Override
+        public void failed(NioHttpsConnection connection, IOException cause, boolean stale) {
+            this.connection = null;
+            if (stale && idempotent && !retried) {
+                retried = true;
+                start(true);
+                return;
+            }
+            fail(cause);
+        }
+
+        private void fail(final IOException cause) {
+            release();
+            group.complete(new Runnable() {
+                @Override
+                public void run() {
+                    future.completeExceptionally(cause);
+                }
+            });
+        }
+    }
+
+    /**
+     * Identifies connections that can be shared: same server, same TLS configuration.
+     */
+    private static final class RouteKey {
+        private final String host;
+        private final int port;
+        private final SSLContext sslContext;
+        private final HostnameVerifier hostnameVerifier;
+
+        private RouteKey(String host, int port, SSLContext sslContext, HostnameVerifier hostnameVerifier) {
+            this.host = host.toLowerCase(Locale.ENGLISH);
+            this.port = port;
+            this.sslContext = sslContext;
+            this.hostnameVerifier = hostnameVerifier;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RouteKey)) return false;
+            final RouteKey other = (RouteKey) o;
+            return port == other.port && host.equals(other.host) && sslContext == other.sslContext && hostnameVerifier == other.hostnameVerifier;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * host.hashCode() + port) + System.identityHashCode(sslContext);
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+}
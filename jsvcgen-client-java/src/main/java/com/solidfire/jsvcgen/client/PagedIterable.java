@@ -0,0 +1,116 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.jsvcgen.javautil.CompletableFuture;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The items of a list method, fetched a page at a time as they are iterated over. While the items of one page are
+ * handed out the next page is already being fetched, so at most two pages are held in memory and the time spent
+ * waiting for a page overlaps with the time spent on the items of the one before.
+ * <p/>
+ * A page with fewer items than the page size is the last one. Each iterator starts again from the first page.
+ * Iterating throws an {@link ApiException} where a call to the list method would.
+ *
+ * @param <TItem> the type of the items
+ */
+public abstract class PagedIterable<TItem> implements Iterable<TItem> {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final int pageSize;
+
+    /**
+     * @param pageSize the number of items asked for in each call
+     */
+    protected PagedIterable(int pageSize) {
+        if (pageSize < 1) throw new IllegalArgumentException("pageSize must be at least 1");
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Starts the call for a page.
+     *
+     * @param last     the last item of the page before, or null for the first page
+     * @param pageSize the number of items to ask for
+     * @return a future holding the items of the page
+     */
+    protected abstract CompletableFuture<TItem[]> fetchPage(TItem last, int pageSize);
+
+    /**
+     * Getter for property 'pageSize'.
+     *
+     * @return Value for property 'pageSize'.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Iterator<TItem> iterator() {
+        return new PageIterator();
+    }
+
+    private final class PageIterator implements Iterator<TItem> {
+        private TItem[] page;
+        private int index;
+        private CompletableFuture<TItem[]> next = fetchPage(null, pageSize);
+
+        @Override
+        public boolean hasNext() {
+            while ((null == page || index == page.length) && null != next) {
+                page = await(next);
+                index = 0;
+                next = null != page && page.length >= pageSize ? fetchPage(page[page.length - 1], pageSize) : null;
+            }
+            return null != page && index < page.length;
+        }
+
+        @Override
+        public TItem next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final TItem item = page[index];
+            page[index++] = null;
+            return item;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove");
+        }
+
+        private TItem[] await(CompletableFuture<TItem[]> future) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ApiException("Interrupted while waiting for a page", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new ApiException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,608 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A single keep-alive HTTP/1.1 connection over TLS, owned by a {@link HttpsConnectionPool}.
+ * <p/>
+ * Only the small subset of HTTP/1.1 needed for JSON-RPC is implemented: one request at a time, response bodies framed
+ * by Content-Length, chunked transfer coding, or connection close.
+ */
+final class PooledHttpsConnection implements Closeable {
+
+    static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] CRLF = "\r\n".getBytes(ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(ASCII);
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private final HttpsConnectionPool.Route route;
+    private final SSLSocket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final long createdAt;
+    private final long connectNanos;
+    private final long tlsHandshakeNanos;
+    private volatile long lastUsedAt;
+    private int requestCount;
+
+    private PooledHttpsConnection(HttpsConnectionPool.Route route, SSLSocket socket, long connectNanos,
+                                  long tlsHandshakeNanos) throws IOException {
+        this.route = route;
+        this.socket = socket;
+        this.connectNanos = connectNanos;
+        this.tlsHandshakeNanos = tlsHandshakeNanos;
+        this.in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = createdAt;
+    }
+
+    /**
+     * Opens a socket to the route, performs the TLS handshake and verifies the peer host name.
+     *
+     * @param route          the pool route (host and port) the connection belongs to
+     * @param socketFactory  the factory used to layer TLS over the plain socket
+     * @param verifier       the host name verifier applied after the handshake, or null to have the handshake itself
+     *                       check the host name against the server certificate
+     * @param connectTimeout the time in milliseconds allowed for both the TCP connect and the TLS handshake
+     * @param watch          the watch that closes the socket when the call opening it is aborted, or null
+     * @return an open connection, ready for its first request
+     * @throws IOException if the connection could not be established
+     */
+    static PooledHttpsConnection open(HttpsConnectionPool.Route route,
+                                      SSLSocketFactory socketFactory,
+                                      HostnameVerifier verifier,
+                                      int connectTimeout,
+                                      CallWatch watch) throws IOException {
+        final Socket plain = new Socket();
+        SSLSocket ssl = null;
+        if (null != watch) {
+            watch.attach(plain);
+        }
+        try {
+            plain.setTcpNoDelay(true);
+            plain.setKeepAlive(true);
+            final long start = System.nanoTime();
+            plain.connect(new InetSocketAddress(route.getHost(), route.getPort()), connectTimeout);
+            plain.setSoTimeout(connectTimeout);
+            final long connected = System.nanoTime();
+
+            ssl = (SSLSocket) socketFactory.createSocket(plain, route.getHost(), route.getPort(), true);
+            if (null == verifier) {
+                final SSLParameters parameters = ssl.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(parameters);
+            }
+            ssl.startHandshake();
+
+            if (null != verifier && !verifier.verify(route.getHost(), ssl.getSession())) {
+                throw new SSLPeerUnverifiedException("Hostname " + route.getHost() + " not verified");
+            }
+            return new PooledHttpsConnection(route, ssl, connected - start, System.nanoTime() - connected);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(null != ssl ? ssl : plain);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a POST request and reads the response status line and headers.
+     * <p/>
+     * The body of the returned response must be closed by the caller; closing it hands the connection back to the
+     * pool when the body was fully read and the server allows keep-alive, and closes the connection otherwise.
+     * <p/>
+     * A body that is not already encoded is written into a pooled buffer and sent with a Content-Length; when it does
+     * not fit the buffer it is sent with chunked transfer encoding instead.
+     *
+     * @param path                 the request target, including any query string
+     * @param headers              the request headers, not including Host, Content-Length, Transfer-Encoding or
+     *                             Content-Encoding
+     * @param body                 the request body
+     * @param compressionThreshold the body size from which the body is sent gzip compressed, or a negative number to
+     *                             never compress it
+     * @param readTimeout          the socket read timeout in milliseconds
+     * @return the response
+     * @throws IOException if anything went wrong on the connection side of things
+     */
+    Response post(final String path, final Map<String, String> headers, RequestBody body, int compressionThreshold, int readTimeout) throws IOException {
+        socket.setSoTimeout(readTimeout);
+        requestCount++;
+
+        final long requestBytes;
+        final long requestWireBytes;
+        if (body instanceof ByteArrayRequestBody) {
+            final byte[] bytes = ((ByteArrayRequestBody) body).getBytes();
+            final boolean compress = compressionThreshold >= 0 && bytes.length >= compressionThreshold;
+            final byte[] sent = compress ? Compression.gzip(bytes, 0, bytes.length) : bytes;
+            writeHead(path, headers, compress, "Content-Length: " + sent.length);
+            out.write(sent);
+            requestBytes = bytes.length;
+            requestWireBytes = sent.length;
+        } else {
+            final RequestOutputStream request = new RequestOutputStream(compressionThreshold) {
+                @Override
+                protected OutputStream openChunked() throws IOException {
+                    writeHead(path, headers, isCompressed(), "Transfer-Encoding: chunked");
+                    return new ChunkedOutputStream(out);
+                }
+
+                @Override
+                protected void sendFixedLength(byte[] bytes, int length) throws IOException {
+                    writeHead(path, headers, isCompressed(), "Content-Length: " + length);
+                    out.write(bytes, 0, length);
+                }
+            };
+            try {
+                body.writeTo(request);
+                request.close();
+            } finally {
+                request.abort();
+            }
+            requestBytes = request.getBodyBytes();
+            requestWireBytes = request.getSentBytes();
+        }
+        out.flush();
+
+        final Response response = readResponse();
+        response.requestBytes = requestBytes;
+        response.requestWireBytes = requestWireBytes;
+        return response;
+    }
+
+    private void writeHead(String path, Map<String, String> headers, boolean compressed, String framing) throws IOException {
+        final StringBuilder head = new StringBuilder(256);
+        head.append("POST ").append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(route.getHostHeader()).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (compressed) {
+            head.append("Content-Encoding: ").append(Compression.GZIP).append("\r\n");
+        }
+        head.append(framing).append("\r\n\r\n");
+
+        out.write(head.toString().getBytes(ASCII));
+    }
+
+    private Response readResponse() throws IOException {
+        String statusLine;
+        do {
+            statusLine = readLine();
+            if (null == statusLine) {
+                throw new StaleConnectionException("Connection closed by server before a response was received");
+            }
+            final Response interim = new Response(this, statusLine, readHeaders());
+            if (interim.statusCode >= 200 || interim.statusCode == 101) {
+                return interim.withBody();
+            }
+            // 1xx informational responses (e.g. 100 Continue) carry no body; the real response follows.
+        } while (true);
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while (null != (line = readLine()) && !line.isEmpty()) {
+            final int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Malformed HTTP header: " + line);
+            }
+            final String name = line.substring(0, colon).trim();
+            final String value = line.substring(colon + 1).trim();
+            final String existing = headers.get(name);
+            headers.put(name, null == existing ? value : existing + ", " + value);
+        }
+        return headers;
+    }
+
+    /**
+     * Reads a CRLF (or bare LF) terminated line.
+     *
+     * @return the line without its terminator, or null if the stream ended before any byte was read
+     */
+    String readLine() throws IOException {
+        final StringBuilder sb = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                final int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r') {
+                    sb.setLength(len - 1);
+                }
+                return sb.toString();
+            }
+            if (sb.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("HTTP header line exceeds " + MAX_LINE_LENGTH + " bytes");
+            }
+            sb.append((char) c);
+        }
+        if (sb.length() == 0) {
+            return null;
+        }
+        throw new EOFException("Unexpected end of stream while reading HTTP header");
+    }
+
+    InputStream getInputStream() {
+        return in;
+    }
+
+    HttpsConnectionPool.Route getRoute() {
+        return route;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    void markUsed() {
+        this.lastUsedAt = System.currentTimeMillis();
+    }
+
+    int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return the time taken to open the TCP connection
+     */
+    long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * @return the time taken by the TLS handshake and the host name verification
+     */
+    long getTlsHandshakeNanos() {
+        return tlsHandshakeNanos;
+    }
+
+    boolean isOpen() {
+        return !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+    }
+
+    /**
+     * Checks an idle connection for a close by the server, waiting at most a millisecond for the end of the stream.
+     *
+     * @return true if the server closed the connection or sent bytes nobody asked for
+     */
+    boolean isStale() {
+        try {
+            final int readTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            try {
+                // Either the end of the stream or an unexpected byte: the connection can not carry another request.
+                in.read();
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } finally {
+                socket.setSoTimeout(readTimeout);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        closeQuietly(socket);
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            if (null != closeable) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            // Intentionally left blank: nothing useful can be done about a failed close
+        }
+    }
+
+    /**
+     * Thrown when the server closes a connection before any byte of the response arrived. The request was sent, so
+     * the server may have processed it; only an idempotent request is safe to send again.
+     */
+    static final class StaleConnectionException extends IOException {
+        private static final long serialVersionUID = 2791652846237839563L;
+
+        StaleConnectionException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The status line, headers and body of a response read from a pooled connection.
+     */
+    static final class Response {
+        private final PooledHttpsConnection connection;
+        private final boolean http11;
+        private final int statusCode;
+        private final Map<String, String> headers;
+        private InputStream body;
+        private long requestBytes;
+        private long requestWireBytes;
+
+        private Response(PooledHttpsConnection connection, String statusLine, Map<String, String> headers) throws IOException {
+            final String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("Malformed HTTP status line: " + statusLine);
+            }
+            try {
+                this.statusCode = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Malformed HTTP status line: " + statusLine, nfe);
+            }
+            this.connection = connection;
+            this.http11 = "HTTP/1.1".equals(parts[0]);
+            this.headers = headers;
+        }
+
+        private Response withBody() {
+            final String transferEncoding = getHeader("Transfer-Encoding");
+            final String contentLength = getHeader("Content-Length");
+            final boolean reusable = isKeepAlive();
+
+            if (statusCode == 204 || statusCode == 304) {
+                body = new BodyInputStream(connection, new ContentLengthInputStream(connection.in, 0), reusable);
+            } else if (null != transferEncoding && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+                body = new BodyInputStream(connection, new ChunkedInputStream(connection), reusable);
+            } else if (null != contentLength) {
+                body = new BodyInputStream(connection, new ContentLengthInputStream(connection.in, Long.parseLong(contentLength.trim())), reusable);
+            } else {
+                body = new BodyInputStream(connection, connection.in, false);
+            }
+            return this;
+        }
+
+        private boolean isKeepAlive() {
+            final String connectionHeader = getHeader("Connection");
+            if (null == connectionHeader) {
+                return http11;
+            }
+            final String value = connectionHeader.toLowerCase(Locale.ENGLISH);
+            return http11 ? !value.contains("close") : value.contains("keep-alive");
+        }
+
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        /**
+         * @return the response body; closing it releases the underlying connection
+         */
+        InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * @return the size of the request body before compression
+         */
+        long getRequestBytes() {
+            return requestBytes;
+        }
+
+        /**
+         * @return the size of the request body as sent
+         */
+        long getRequestWireBytes() {
+            return requestWireBytes;
+        }
+    }
+
+    /**
+     * Wraps a framed body and returns the connection to its pool, or discards it, once the body is closed.
+     */
+    private static final class BodyInputStream extends FilterInputStream {
+        private final PooledHttpsConnection connection;
+        private final boolean reusable;
+        private boolean eof;
+        private boolean closed;
+
+        private BodyInputStream(PooledHttpsConnection connection, InputStream framed, boolean reusable) {
+            super(framed);
+            this.connection = connection;
+            this.reusable = reusable;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b == -1) eof = true;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n == -1) eof = true;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            final HttpsConnectionPool pool = connection.route.getPool();
+            boolean drained;
+            try {
+                drained = eof || reusable && super.read() == -1;
+            } catch (IOException e) {
+                // The connection was closed under the body, as when a call is aborted.
+                drained = false;
+            }
+            if (reusable && drained) {
+                pool.release(connection);
+            } else {
+                pool.discard(connection);
+            }
+        }
+    }
+
+    /**
+     * Writes a request body with chunked transfer encoding. Closing it writes the last chunk but leaves the
+     * connection open.
+     */
+    private static final class ChunkedOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        private ChunkedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            out.write((Integer.toHexString(len) + "\r\n").getBytes(ASCII));
+            out.write(b, off, len);
+            out.write(CRLF);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.write(LAST_CHUNK);
+        }
+    }
+
+    /**
+     * A body framed by a Content-Length header.
+     */
+    private static final class ContentLengthInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        private ContentLengthInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            final int b = in.read();
+            if (b == -1) throw new EOFException("Unexpected end of stream with " + remaining + " bytes of body left");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            final int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) throw new EOFException("Unexpected end of stream with " + remaining + " bytes of body left");
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // The underlying stream belongs to the connection
+        }
+    }
+
+    /**
+     * A body using the chunked transfer coding. Trailers, if any, are read and ignored.
+     */
+    private static final class ChunkedInputStream extends InputStream {
+        private final PooledHttpsConnection connection;
+        private long remaining;
+        private boolean done;
+
+        private ChunkedInputStream(PooledHttpsConnection connection) {
+            this.connection = connection;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (done) return false;
+            if (remaining == 0) {
+                String line = connection.readLine();
+                if (null != line && line.isEmpty()) {
+                    // CRLF terminating the previous chunk
+                    line = connection.readLine();
+                }
+                if (null == line) throw new EOFException("Unexpected end of stream in chunked body");
+                final int ext = line.indexOf(';');
+                try {
+                    remaining = Long.parseLong((ext >= 0 ? line.substring(0, ext) : line).trim(), 16);
+                } catch (NumberFormatException nfe) {
+                    throw new IOException("Malformed chunk size: " + line, nfe);
+                }
+                if (remaining == 0) {
+                    String trailer;
+                    while (null != (trailer = connection.readLine()) && !trailer.isEmpty()) {
+                        // Intentionally left blank: trailers are not used by JSON-RPC
+                    }
+                    done = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) return -1;
+            final int b = connection.in.read();
+            if (b == -1) throw new EOFException("Unexpected end of stream in chunked body");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!nextChunk()) return -1;
+            final int n = connection.in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) throw new EOFException("Unexpected end of stream in chunked body");
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // The underlying stream belongs to the connection
+        }
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.jsvcgen.javautil.Optional;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static com.solidfire.jsvcgen.client.HttpsRequestDispatcher.DEFAULT_CONNECTION_TIMEOUT;
+import static com.solidfire.jsvcgen.client.HttpsRequestDispatcher.DEFAULT_READ_TIMEOUT;
+
+/**
+ * A request dispatcher that sends JSON-RPC requests over keep-alive connections taken from a {@link HttpsConnectionPool}.
+ * <p/>
+ * Unlike {@link HttpsRequestDispatcher}, which relies on the hidden keep-alive cache of {@code HttpsURLConnection}, the
+ * number of connections, their reuse and their idle lifetime are explicit and observable through the pool. Dispatchers
+ * are thread safe; any number of dispatchers (and services) may share one pool.
+ */
+public class PooledHttpsRequestDispatcher implements StreamingRequestDispatcher, DescribedRequestDispatcher {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final URL endpoint;
+    private final String path;
+    private final String endpointVersion;
+    private final HttpsConnectionPool pool;
+    private final Map<String, String> headers;
+    private final Map<String, String> compressedResponseHeaders;
+    private final TransferCounters transferCounters = new TransferCounters();
+    private volatile int connectionTimeout;
+    private volatile int readTimeout;
+    private volatile boolean acceptCompressedResponses;
+    private volatile int requestCompressionThreshold = -1;
+    private volatile Pattern idempotentMethods = JsonRpcRequests.READ_ONLY_METHODS;
+
+    private PooledHttpsRequestDispatcher(URL endpoint, Optional<String> authenticationToken, HttpsConnectionPool pool) {
+        if (!endpoint.getProtocol().equals("https"))
+            throw new IllegalArgumentException("Unsupported endpoint protocol \"" + endpoint.getProtocol() + "\"." + "Only \"https\" is supported.");
+        if (null == pool) throw new IllegalArgumentException("pool is null");
+
+        this.endpointVersion = VersioningUtils.getVersionFromEndpoint(endpoint);
+        this.endpoint = endpoint;
+        this.path = endpoint.getFile().isEmpty() ? "/" : endpoint.getFile();
+        this.pool = pool;
+
+        final Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Accept", "application/json");
+        headers.put("Content-Type", "application/json");
+        if (authenticationToken.isPresent()) {
+            headers.put("Authorization", authenticationToken.get());
+        }
+        this.headers = headers;
+        this.compressedResponseHeaders = new LinkedHashMap<>(headers);
+        this.compressedResponseHeaders.put("Accept-Encoding", Compression.ACCEPT_ENCODING);
+        this.setTimeoutToDefault();
+    }
+
+    /**
+     * Create a dispatcher using no authentication and the shared connection pool.
+     */
+    public PooledHttpsRequestDispatcher(URL endpoint) {
+        this(endpoint, Optional.<String>empty(), HttpsConnectionPool.getSharedPool());
+    }
+
+    /**
+     * Create a dispatcher using no authentication.
+     *
+     * @param endpoint the hostname or IP address of the connection
+     * @param pool     the connection pool to take connections from
+     */
+    public PooledHttpsRequestDispatcher(URL endpoint, HttpsConnectionPool pool) {
+        this(endpoint, Optional.<String>empty(), pool);
+    }
+
+    /**
+     * Create a dispatcher using HTTP basic authentication and the shared connection pool.
+     *
+     * @param endpoint the hostname or IP address of the connection
+     * @param username username credential
+     * @param password password credential
+     */
+    public PooledHttpsRequestDispatcher(URL endpoint, String username, String password) {
+        this(endpoint, Optional.of(HttpsRequestDispatcher.createBasicAuthToken(username, password)), HttpsConnectionPool.getSharedPool());
+    }
+
+    /**
+     * Create a dispatcher using HTTP basic authentication using the supplied username and password.
+     *
+     * @param endpoint the hostname or IP address of the connection
+     * @param username username credential
+     * @param password password credential
+     * @param pool     the connection pool to take connections from
+     */
+    public PooledHttpsRequestDispatcher(URL endpoint, String username, String password, HttpsConnectionPool pool) {
+        this(endpoint, Optional.of(HttpsRequestDispatcher.createBasicAuthToken(username, password)), pool);
+    }
+
+    /**
+     * @return the version of the Element OS endpoint used in the connection
+     */
+    @Override
+    public String getVersion() {
+        return this.endpointVersion;
+    }
+
+    /**
+     * Dispatch an encoded request to the system and await some response.
+     *
+     * Can throw java.net.SocketTimeoutException if the connection or read timeout occurs.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws IOException if anything went wrong on the connection side of things.
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        final CallWatch watch = CallWatch.start();
+        try {
+            final PooledHttpsConnection.Response response = execute(new ByteArrayRequestBody(input.getBytes(UTF_8)), watch,
+                    JsonRpcRequests.isMethodMatching(input, idempotentMethods));
+            // JSON-RPC...we don't actually care about the response code
+            try (InputStream body = decodeBody(response, watch)) {
+                return readFully(body);
+            }
+        } catch (IOException e) {
+            throw null != watch ? watch.failure(e) : e;
+        } finally {
+            if (null != watch) {
+                watch.close();
+            }
+        }
+    }
+
+    /**
+     * Dispatch a request to the system, encoding it while it is sent, and return the response as soon as it starts to
+     * arrive. The connection goes back to the pool when the reader is closed. A request {@link ServiceBase} names the
+     * method of is sent again as {@link #dispatchRequest} sends it, by writing the body once more.
+     *
+     * Can throw java.net.SocketTimeoutException if the connection or read timeout occurs.
+     *
+     * @param request The request to send to the remote server.
+     * @return A reader of the server's response.
+     * @throws IOException if anything went wrong on the connection side of things.
+     */
+    @Override
+    public Reader dispatchRequestStream(RequestBody request) throws IOException {
+        final CallWatch watch = CallWatch.start();
+        try {
+            return new InputStreamReader(decodeBody(execute(request, watch, isIdempotent(request)), watch), UTF_8);
+        } catch (IOException e) {
+            if (null == watch) {
+                throw e;
+            }
+            watch.close();
+            throw watch.failure(e);
+        } catch (RuntimeException e) {
+            if (null != watch) {
+                watch.close();
+            }
+            throw e;
+        }
+    }
+
+    private boolean isIdempotent(RequestBody request) {
+        return request instanceof MethodRequestBody && idempotentMethods.matcher(((MethodRequestBody) request).getMethod()).matches();
+    }
+
+    /**
+     * @param watch the watch of the call, ended when the body is closed, or null
+     */
+    private InputStream decodeBody(PooledHttpsConnection.Response response, CallWatch watch) throws IOException {
+        final InputStream body = null != watch ? watch.guard(response.getBody()) : response.getBody();
+        try {
+            return Compression.decode(body, response.getHeader("Content-Encoding"), transferCounters,
+                    response.getRequestBytes(), response.getRequestWireBytes());
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the request over a pooled connection. The pool replaces connections the server closed while they sat idle
+     * before they are leased, but the server may still close one just as the request goes out. When that happens on a
+     * reused connection the request is sent once more on a fresh connection, provided it is idempotent: the server may
+     * have processed it before closing. The body is written again for that, as {@link RequestBody} allows.
+     *
+     * @param watch      the watch that closes the connection when the call is aborted, or null
+     * @param idempotent true if the request may safely be sent twice
+     */
+    PooledHttpsConnection.Response execute(RequestBody body, CallWatch watch, boolean idempotent) throws IOException {
+        final CallTrace trace = CallTrace.current();
+        Map<String, String> headers = acceptCompressedResponses ? compressedResponseHeaders : this.headers;
+        if (null != trace) {
+            headers = new LinkedHashMap<>(headers);
+            headers.put(CallTrace.HEADER, trace.getTraceId());
+        }
+        int attempts = 0;
+        while (true) {
+            final PooledHttpsConnection connection = pool.lease(endpoint,
+                    null != watch ? watch.timeout(connectionTimeout) : connectionTimeout, watch);
+            final boolean reused = connection.getRequestCount() > 0;
+            if (null != watch) {
+                watch.attach(connection);
+            }
+            try {
+                if (null != trace) {
+                    trace.connected(reused ? 0 : connection.getConnectNanos(), reused ? 0 : connection.getTlsHandshakeNanos());
+                }
+                final PooledHttpsConnection.Response response = connection.post(path, headers, body,
+                        requestCompressionThreshold, null != watch ? watch.readTimeout(readTimeout) : readTimeout);
+                if (null != trace) {
+                    trace.firstByte();
+                }
+                return response;
+            } catch (PooledHttpsConnection.StaleConnectionException | java.net.SocketException e) {
+                pool.discard(connection);
+                if (!idempotent || !reused || ++attempts > 1 || null != watch && watch.isAborted()) {
+                    throw e;
+                }
+            } catch (IOException | RuntimeException e) {
+                pool.discard(connection);
+                throw e;
+            }
+        }
+    }
+
+    static String readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        this.connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+        this.readTimeout = DEFAULT_READ_TIMEOUT;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        if (timeInMilliseconds < 0) {
+            throw new IllegalArgumentException("timeout can not be negative");
+        }
+        this.connectionTimeout = timeInMilliseconds;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        if (timeInMilliseconds < 0) {
+            throw new IllegalArgumentException("timeout can not be negative");
+        }
+        this.readTimeout = timeInMilliseconds;
+    }
+
+    /**
+     * Getter for property 'acceptCompressedResponses'.
+     *
+     * @return Value for property 'acceptCompressedResponses'.
+     */
+    public boolean isAcceptCompressedResponses() {
+        return acceptCompressedResponses;
+    }
+
+    /**
+     * Asks the server to compress responses with gzip or deflate; they are decompressed while they are decoded.
+     *
+     * @param acceptCompressedResponses true to send {@code Accept-Encoding: gzip, deflate}
+     */
+    public void setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+        this.acceptCompressedResponses = acceptCompressedResponses;
+    }
+
+    /**
+     * Getter for property 'requestCompressionThreshold'.
+     *
+     * @return Value for property 'requestCompressionThreshold'.
+     */
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * Sends request bodies of at least the given size gzip compressed. The server must accept
+     * {@code Content-Encoding: gzip}. Disabled by default.
+     *
+     * @param bytes the smallest body size to compress, or a negative number to never compress requests
+     */
+    public void setRequestCompressionThreshold(int bytes) {
+        this.requestCompressionThreshold = bytes;
+    }
+
+    /**
+     * Getter for property 'idempotentMethods'.
+     *
+     * @return Value for property 'idempotentMethods'.
+     */
+    public Pattern getIdempotentMethods() {
+        return idempotentMethods;
+    }
+
+    /**
+     * Sets the methods that are sent again on a fresh connection when a reused connection is closed before the response
+     * arrives, by default the methods whose names start with Get or List. A request sent as a stream is only sent again
+     * when {@link ServiceBase} named its method.
+     *
+     * @param idempotentMethods a pattern the whole method name must match
+     */
+    public void setIdempotentMethods(Pattern idempotentMethods) {
+        if (null == idempotentMethods) throw new IllegalArgumentException("idempotentMethods is null");
+        this.idempotentMethods = idempotentMethods;
+    }
+
+    /**
+     * @return the byte counts, before and after compression, of all calls made through this dispatcher
+     */
+    public TransferStatistics getTransferStatistics() {
+        return transferCounters.snapshot();
+    }
+
+    /**
+     * Sets a listener that is told the byte counts of every call, or null to remove it.
+     *
+     * @param listener the listener
+     */
+    public void setTransferListener(TransferListener listener) {
+        transferCounters.setListener(listener);
+    }
+
+    /**
+     * @return the URL of the endpoint
+     */
+    @Override
+    public String describe() {
+        return endpoint.toString();
+    }
+
+    /**
+     * Getter for property 'endpoint'.
+     *
+     * @return Value for property 'endpoint'.
+     */
+    public URL getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Getter for property 'pool'.
+     *
+     * @return Value for property 'pool'.
+     */
+    public HttpsConnectionPool getPool() {
+        return pool;
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A request dispatcher that sends requests through priority lanes, so that bulk traffic such as an inventory sweep
+ * does not hold up control-plane calls sent from the same process. Share one instance between all the services that
+ * talk to the same cluster.
+ * <p/>
+ * Each method is assigned to a lane, see {@link #assign(String, String...)}; batches and methods not assigned go to
+ * the {@value #DEFAULT_LANE} lane. At most {@link #getMaxConcurrency()} requests are in flight in all lanes together,
+ * and at most the cap of its lane in each lane. When a slot frees up and requests are waiting, the slot goes to the
+ * lanes in proportion to their weights (stride scheduling, a form of weighted fair queuing): a lane with weight 4
+ * gets four slots for every one of a lane with weight 1 while both have requests waiting, and a lane that was idle
+ * does not get to catch up. Requests wait up to {@link #setMaxQueueWaitMillis(long)}, or until the deadline of their
+ * {@link CallOptions}, and at most {@link #setMaxQueueSize(int)} of them wait at a time; others are refused with a
+ * {@link RequestRejectedException}.
+ */
+public class PriorityRequestDispatcher implements RequestDispatcher, DescribedRequestDispatcher {
+
+    public static final String DEFAULT_LANE = "default";
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 1024;
+    public static final long DEFAULT_MAX_QUEUE_WAIT_MILLIS = 30000;
+
+    // The pass of a lane advances by STRIDE / weight for each request it sends.
+    static final long STRIDE = 1L << 20;
+
+    private final RequestDispatcher delegate;
+    private final int maxConcurrency;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentMap<String, Lane> methodLanes = new ConcurrentHashMap<>();
+
+    // Guarded by lock.
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+    private int inFlight;
+    private int queued;
+    private long virtualTime;
+
+    private volatile int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    private volatile long maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_QUEUE_WAIT_MILLIS);
+
+    /**
+     * Create a dispatcher allowing {@value #DEFAULT_MAX_CONCURRENCY} requests in flight.
+     *
+     * @param delegate the dispatcher that sends the requests
+     */
+    public PriorityRequestDispatcher(RequestDispatcher delegate) {
+        this(delegate, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * @param delegate       the dispatcher that sends the requests
+     * @param maxConcurrency the most requests in flight in all lanes together
+     */
+    public PriorityRequestDispatcher(RequestDispatcher delegate, int maxConcurrency) {
+        if (null == delegate) throw new IllegalArgumentException("delegate is null");
+        if (maxConcurrency < 1) throw new IllegalArgumentException("maxConcurrency must be at least 1");
+
+        this.delegate = delegate;
+        this.maxConcurrency = maxConcurrency;
+        this.lanes.put(DEFAULT_LANE, new Lane(DEFAULT_LANE, 1, maxConcurrency));
+    }
+
+    /**
+     * Adds a lane, or changes the weight and cap of an existing one.
+     *
+     * @param name           the name of the lane
+     * @param weight         the share of the free slots the lane gets while other lanes have requests waiting
+     * @param maxConcurrency the most requests of the lane in flight
+     */
+    public void addLane(String name, int weight, int maxConcurrency) {
+        if (null == name || name.isEmpty()) throw new IllegalArgumentException("name is null or empty");
+        if (weight < 1) throw new IllegalArgumentException("weight must be at least 1");
+        if (maxConcurrency < 1) throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        lock.lock();
+        try {
+            final Lane lane = lanes.get(name);
+            if (null == lane) {
+                lanes.put(name, new Lane(name, weight, maxConcurrency));
+            } else {
+                lane.weight = weight;
+                lane.maxConcurrency = maxConcurrency;
+                schedule();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the requests of the methods through a lane.
+     *
+     * @param lane    the name of a lane added before
+     * @param methods the method names, as in {@code ListVolumes}
+     */
+    public void assign(String lane, String... methods) {
+        final Lane assigned;
+        lock.lock();
+        try {
+            assigned = lanes.get(lane);
+        } finally {
+            lock.unlock();
+        }
+        if (null == assigned) throw new IllegalArgumentException("No lane named \"" + lane + "\"");
+        for (String method : methods) {
+            methodLanes.put(method, assigned);
+        }
+    }
+
+    /**
+     * @param method the method name
+     * @return the name of the lane the requests of the method are sent through
+     */
+    public String getLane(String method) {
+        final Lane lane = null == method ? null : methodLanes.get(method);
+        return null == lane ? DEFAULT_LANE : lane.name;
+    }
+
+    /**
+     * @return the version of the wrapped dispatcher
+     */
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    /**
+     * Dispatch an encoded request once its lane is given a slot.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws RequestRejectedException if the queue is full or the request waited too long in it
+     * @throws IOException              if anything went wrong on the connection side of things.
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        final Lane lane = laneOf(JsonRpcRequests.method(input));
+        acquire(lane);
+        try {
+            return delegate.dispatchRequest(input);
+        } finally {
+            lock.lock();
+            try {
+                lane.inFlight--;
+                inFlight--;
+                schedule();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Lane laneOf(String method) {
+        final Lane lane = null == method ? null : methodLanes.get(method);
+        if (null != lane) {
+            return lane;
+        }
+        lock.lock();
+        try {
+            return lanes.get(DEFAULT_LANE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire(Lane lane) throws IOException {
+        final long start = System.nanoTime();
+        final CallWatch watch = CallWatch.start();
+        final Waiter waiter;
+        lock.lock();
+        try {
+            if (queued >= maxQueueSize && !(inFlight < maxConcurrency && lane.inFlight < lane.maxConcurrency)) {
+                lane.rejected++;
+                throw new RequestRejectedException("Too many requests waiting: " + queued + " queued, "
+                        + inFlight + " in flight");
+            }
+            waiter = new Waiter(lock.newCondition());
+            if (lane.waiters.isEmpty()) {
+                // A lane that was idle starts level with the others instead of catching up.
+                lane.pass = Math.max(lane.pass, virtualTime);
+            }
+            lane.waiters.add(waiter);
+            queued++;
+            schedule();
+        } finally {
+            lock.unlock();
+        }
+
+        if (null != watch) {
+            watch.attach(new Closeable() {
+                @Override
+                public void close() {
+                    lock.lock();
+                    try {
+                        waiter.condition.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+        }
+        lock.lock();
+        try {
+            long remaining = maxQueueWaitNanos;
+            while (!waiter.granted) {
+                if (null != watch && watch.isAborted()) {
+                    abandon(lane, waiter);
+                    watch.check();
+                }
+                if (remaining <= 0) {
+                    abandon(lane, waiter);
+                    lane.rejected++;
+                    throw new RequestRejectedException("Request waited longer than "
+                            + TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos) + " ms in lane " + lane.name);
+                }
+                remaining = waiter.condition.awaitNanos(remaining);
+            }
+            lane.queueWait.record(System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            if (waiter.granted) {
+                lane.inFlight--;
+                inFlight--;
+                schedule();
+            } else {
+                abandon(lane, waiter);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send a request");
+        } finally {
+            lock.unlock();
+            if (null != watch) {
+                watch.close();
+            }
+        }
+    }
+
+    /**
+     * Takes a request that gave up waiting out of its lane. Must be called with the lock held.
+     */
+    private void abandon(Lane lane, Waiter waiter) {
+        lane.waiters.remove(waiter);
+        queued--;
+    }
+
+    /**
+     * Hands the free slots to the waiting requests, the lane with the lowest pass first. Must be called with the
+     * lock held.
+     */
+    private void schedule() {
+        while (inFlight < maxConcurrency) {
+            Lane next = null;
+            for (Lane lane : lanes.values()) {
+                if (!lane.waiters.isEmpty() && lane.inFlight < lane.maxConcurrency
+                        && (null == next || lane.pass < next.pass)) {
+                    next = lane;
+                }
+            }
+            if (null == next) {
+                return;
+            }
+            final Waiter waiter = next.waiters.poll();
+            queued--;
+            next.inFlight++;
+            next.dispatched++;
+            inFlight++;
+            virtualTime = next.pass;
+            next.pass += STRIDE / next.weight;
+            waiter.granted = true;
+            waiter.condition.signal();
+        }
+    }
+
+    /**
+     * @return a snapshot of every lane, in the order they were added
+     */
+    public List<LaneStatistics> getStatistics() {
+        lock.lock();
+        try {
+            final List<LaneStatistics> statistics = new ArrayList<>(lanes.size());
+            for (Lane lane : lanes.values()) {
+                statistics.add(lane.snapshot());
+            }
+            return statistics;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param lane the name of the lane
+     * @return a snapshot of the lane, or null if there is no such lane
+     */
+    public LaneStatistics getStatistics(String lane) {
+        lock.lock();
+        try {
+            final Lane found = lanes.get(lane);
+            return null == found ? null : found.snapshot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests sent and not completed yet, in all lanes
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for property 'maxConcurrency'.
+     *
+     * @return Value for property 'maxConcurrency'.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Getter for property 'maxQueueSize'.
+     *
+     * @return Value for property 'maxQueueSize'.
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * Sets the number of requests that may wait for a slot, in all lanes together.
+     *
+     * @param maxQueueSize the number of requests, or 0 to refuse every request that can not be sent at once
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        if (maxQueueSize < 0) throw new IllegalArgumentException("maxQueueSize can not be negative");
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Getter for property 'maxQueueWaitMillis'.
+     *
+     * @return Value for property 'maxQueueWaitMillis'.
+     */
+    public long getMaxQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos);
+    }
+
+    /**
+     * Sets how long a request may wait for a slot before it is refused.
+     *
+     * @param maxQueueWaitMillis the time in milliseconds
+     */
+    public void setMaxQueueWaitMillis(long maxQueueWaitMillis) {
+        if (maxQueueWaitMillis < 0) throw new IllegalArgumentException("maxQueueWaitMillis can not be negative");
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMillis);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        delegate.setConnectionTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        delegate.setReadTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        delegate.setTimeoutToDefault();
+    }
+
+    /**
+     * @return the endpoint of the wrapped dispatcher
+     */
+    @Override
+    public String describe() {
+        return RequestDispatchers.describe(delegate);
+    }
+
+    /**
+     * Getter for property 'delegate'.
+     *
+     * @return Value for property 'delegate'.
+     */
+    public RequestDispatcher getDelegate() {
+        return delegate;
+    }
+
+    private static final class Waiter {
+        private final Condition condition;
+        private boolean granted;
+
+        private Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    private static final class Lane {
+        private final String name;
+        private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+        private final LatencyHistogram queueWait = new LatencyHistogram();
+        private int weight;
+        private int maxConcurrency;
+        private int inFlight;
+        private long pass;
+        private long dispatched;
+        private long rejected;
+
+        private Lane(String name, int weight, int maxConcurrency) {
+            this.name = name;
+            this.weight = weight;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        private LaneStatistics snapshot() {
+            return new LaneStatistics(name, weight, maxConcurrency, inFlight, waiters.size(), dispatched, rejected,
+                    queueWait.snapshot(), queueWait.getTotalMicros(), queueWait.getMaxMicros());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A request dispatcher that appends every request it sends, with the response and the time it took, to a recording
+ * file that a {@link ReplayRequestDispatcher} can serve the responses from later.
+ * <p/>
+ * The file starts with a header holding the version of the wrapped dispatcher, followed by one record per call:
+ * the request length, the response length, the response time in nanoseconds and then the UTF-8 request and
+ * response. Only calls answered by the server are recorded, errors included; calls that fail with an exception are
+ * not. An existing recording is appended to, after dropping a last record cut short by a crash. Records are
+ * buffered, so {@link #close()} the dispatcher, or {@link #flush()} it, before reading the file.
+ */
+public class RecordingRequestDispatcher implements RequestDispatcher, Closeable, Flushable, DescribedRequestDispatcher {
+
+    static final int MAGIC = 0x4a535652;
+    static final short FORMAT_VERSION = 1;
+    static final int RECORD_HEADER_SIZE = 16;
+
+    private final RequestDispatcher delegate;
+    private final DataOutputStream out;
+    private long records;
+    private boolean closed;
+
+    /**
+     * @param delegate  the dispatcher that sends the requests
+     * @param recording the file to append the calls to; it is created if it does not exist
+     * @throws IOException if the file can not be written, or is not a recording
+     */
+    public RecordingRequestDispatcher(RequestDispatcher delegate, File recording) throws IOException {
+        if (null == delegate) throw new IllegalArgumentException("delegate is null");
+        if (null == recording) throw new IllegalArgumentException("recording is null");
+
+        this.delegate = delegate;
+        final boolean exists = recording.length() > 0;
+        if (exists) {
+            this.records = truncateTorn(recording);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recording, true), 64 * 1024));
+        if (!exists) {
+            writeHeader(out, delegate.getVersion());
+        }
+    }
+
+    /**
+     * @return the version of the wrapped dispatcher
+     */
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    /**
+     * Dispatch an encoded request and record it with the response.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws IOException if anything went wrong on the connection side of things, or writing the record failed.
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        final long start = System.nanoTime();
+        final String response = delegate.dispatchRequest(input);
+        final long elapsed = System.nanoTime() - start;
+
+        final byte[] request = input.getBytes(PooledHttpsRequestDispatcher.UTF_8);
+        final byte[] body = response.getBytes(PooledHttpsRequestDispatcher.UTF_8);
+        synchronized (out) {
+            if (closed) {
+                throw new IOException("The recording is closed");
+            }
+            out.writeInt(request.length);
+            out.writeInt(body.length);
+            out.writeLong(elapsed);
+            out.write(request);
+            out.write(body);
+            records++;
+        }
+        return response;
+    }
+
+    /**
+     * @return the number of calls in the recording, including those recorded before it was opened
+     */
+    public long getRecordCount() {
+        synchronized (out) {
+            return records;
+        }
+    }
+
+    /**
+     * Writes the buffered records to the file.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (out) {
+            if (!closed) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered records and closes the file; calls sent afterwards fail.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (out) {
+            if (!closed) {
+                closed = true;
+                out.close();
+            }
+        }
+    }
+
+    static void writeHeader(DataOutput out, String version) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeUTF(null == version ? "" : version);
+    }
+
+    /**
+     * @return the version of the dispatcher the recording was made with
+     * @throws IOException if the input is not a recording
+     */
+    static String readHeader(DataInput in) throws IOException {
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a request recording");
+            }
+            final short format = in.readShort();
+            if (format != FORMAT_VERSION) {
+                throw new IOException("Unsupported request recording format " + format);
+            }
+            return in.readUTF();
+        } catch (EOFException e) {
+            throw new IOException("Not a request recording", e);
+        }
+    }
+
+    /**
+     * Drops a last record that was cut short, so that the records appended follow a whole one.
+     *
+     * @return the number of whole records
+     */
+    private static long truncateTorn(File recording) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(recording, "rw")) {
+            readHeader(file);
+            final long length = file.length();
+            long position = file.getFilePointer();
+            long records = 0;
+            while (position + RECORD_HEADER_SIZE <= length) {
+                file.seek(position);
+                final long next = position + RECORD_HEADER_SIZE + (file.readInt() & 0xffffffffL) + (file.readInt() & 0xffffffffL);
+                if (next > length) {
+                    break;
+                }
+                position = next;
+                records++;
+            }
+            if (position < length) {
+                file.setLength(position);
+            }
+            return records;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        delegate.setConnectionTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        delegate.setReadTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        delegate.setTimeoutToDefault();
+    }
+
+    /**
+     * @return the endpoint of the wrapped dispatcher
+     */
+    @Override
+    public String describe() {
+        return RequestDispatchers.describe(delegate);
+    }
+
+    /**
+     * Getter for property 'delegate'.
+     *
+     * @return Value for property 'delegate'.
+     */
+    public RequestDispatcher getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.gson.JsonArray;
+import com.solidfire.gson.JsonElement;
+import com.solidfire.gson.JsonNull;
+import com.solidfire.gson.JsonObject;
+import com.solidfire.gson.JsonParseException;
+import com.solidfire.gson.JsonParser;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A request dispatcher that answers requests with the responses of a recording made by a
+ * {@link RecordingRequestDispatcher}, without a cluster.
+ * <p/>
+ * A request is matched by its method and parameters, whatever the order of their members and whatever its id; the
+ * response is handed back with the id of the request. A request recorded more than once is answered with its
+ * responses in the order they were recorded, starting over after the last. The recording is memory-mapped and only
+ * the requests are read when it is opened; each response is read and prepared the first time it is served.
+ * <p/>
+ * By default the responses are handed back at once; with {@link #setReproduceLatency(boolean)} each takes as long as
+ * it did when it was recorded. A request that was not recorded fails with an {@link IOException}.
+ */
+public class ReplayRequestDispatcher implements RequestDispatcher {
+
+    private final String version;
+    private final MappedByteBuffer recording;
+    private final Map<String, Responses> responses;
+    private final int recordCount;
+    private volatile boolean reproduceLatency;
+
+    /**
+     * @param recording a file written by a {@link RecordingRequestDispatcher}
+     * @throws IOException if the file can not be read, or is not a recording
+     */
+    public ReplayRequestDispatcher(File recording) throws IOException {
+        if (null == recording) throw new IllegalArgumentException("recording is null");
+
+        final long start;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(recording))) {
+            this.version = RecordingRequestDispatcher.readHeader(in);
+            start = 4 + 2 + 2 + modifiedUtf8Length(version);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(recording, "r")) {
+            final long size = file.length() - start;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("A recording larger than 2 GB can not be replayed; record into several files");
+            }
+            this.recording = file.getChannel().map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+
+        final Map<String, List<Response>> index = new HashMap<>();
+        final ByteBuffer buffer = this.recording.duplicate();
+        int records = 0;
+        while (buffer.remaining() >= RecordingRequestDispatcher.RECORD_HEADER_SIZE) {
+            final int requestLength = buffer.getInt();
+            final int responseLength = buffer.getInt();
+            final long elapsedNanos = buffer.getLong();
+            if (requestLength < 0 || responseLength < 0 || (long) requestLength + responseLength > buffer.remaining()) {
+                // The last record was cut short.
+                break;
+            }
+            final String request = decode(buffer, buffer.position(), requestLength);
+            final int responseOffset = buffer.position() + requestLength;
+            buffer.position(responseOffset + responseLength);
+            records++;
+
+            final String key;
+            try {
+                key = key(new JsonParser().parse(request));
+            } catch (JsonParseException e) {
+                continue;
+            }
+            List<Response> recorded = index.get(key);
+            if (null == recorded) {
+                recorded = new ArrayList<>(1);
+                index.put(key, recorded);
+            }
+            recorded.add(new Response(responseOffset, responseLength, elapsedNanos));
+        }
+        this.recordCount = records;
+        this.responses = new HashMap<>(index.size() * 2);
+        for (Map.Entry<String, List<Response>> entry : index.entrySet()) {
+            this.responses.put(entry.getKey(), new Responses(entry.getValue().toArray(new Response[entry.getValue().size()])));
+        }
+    }
+
+    /**
+     * @return the version of the dispatcher the recording was made with
+     */
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Answer a request with a recorded response.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The recorded response, with the id of the request.
+     * @throws IOException if the request was not recorded.
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        final JsonElement request;
+        try {
+            request = new JsonParser().parse(input);
+        } catch (JsonParseException e) {
+            throw new IOException("Unable to parse the request", e);
+        }
+        final Responses recorded = responses.get(key(request));
+        if (null == recorded) {
+            throw new IOException("No response recorded for " + describe(request));
+        }
+        final Response response = recorded.next();
+        if (reproduceLatency) {
+            pause(response.elapsedNanos);
+        }
+        final JsonElement id = request.isJsonObject() ? request.getAsJsonObject().get("id") : null;
+        return response.withId(null == id || id.isJsonNull() ? null : id.toString());
+    }
+
+    /**
+     * @return the method and parameters of a request, or of every request of a batch, with the members of every
+     * object in name order
+     */
+    static String key(JsonElement request) {
+        if (request.isJsonArray()) {
+            final StringBuilder key = new StringBuilder("[");
+            for (JsonElement element : request.getAsJsonArray()) {
+                key.append(key(element)).append('\n');
+            }
+            return key.append(']').toString();
+        }
+        if (!request.isJsonObject()) {
+            return request.toString();
+        }
+        final JsonObject object = request.getAsJsonObject();
+        final JsonElement method = object.get("method");
+        final JsonElement params = object.get("params");
+        return (null == method ? "" : method.toString()) + ' ' + canonical(null == params ? JsonNull.INSTANCE : params);
+    }
+
+    private static String canonical(JsonElement element) {
+        return sorted(element).toString();
+    }
+
+    private static JsonElement sorted(JsonElement element) {
+        if (element.isJsonObject()) {
+            final Map<String, JsonElement> members = new TreeMap<>();
+            for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                members.put(member.getKey(), sorted(member.getValue()));
+            }
+            final JsonObject object = new JsonObject();
+            for (Map.Entry<String, JsonElement> member : members.entrySet()) {
+                object.add(member.getKey(), member.getValue());
+            }
+            return object;
+        }
+        if (element.isJsonArray()) {
+            final JsonArray array = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                array.add(sorted(item));
+            }
+            return array;
+        }
+        return element;
+    }
+
+    private static String describe(JsonElement request) {
+        if (request.isJsonObject() && request.getAsJsonObject().has("method")) {
+            return request.getAsJsonObject().get("method").toString();
+        }
+        return request.isJsonArray() ? "a batch" : "the request";
+    }
+
+    private static void pause(long nanos) throws InterruptedIOException {
+        final long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reproducing the latency of a response");
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.get(bytes);
+        return new String(bytes, PooledHttpsRequestDispatcher.UTF_8);
+    }
+
+    private static int modifiedUtf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007f ? 1 : c > 0x07ff ? 3 : 2;
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of calls in the recording
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return the number of different requests in the recording
+     */
+    public int getRequestCount() {
+        return responses.size();
+    }
+
+    /**
+     * Getter for property 'reproduceLatency'.
+     *
+     * @return Value for property 'reproduceLatency'.
+     */
+    public boolean isReproduceLatency() {
+        return reproduceLatency;
+    }
+
+    /**
+     * @param reproduceLatency true to hand back each response after the time it took when it was recorded
+     */
+    public void setReproduceLatency(boolean reproduceLatency) {
+        this.reproduceLatency = reproduceLatency;
+    }
+
+    /**
+     * Does nothing; a replay does not connect.
+     */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+    }
+
+    /**
+     * Does nothing; a replay does not read from a connection.
+     */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+    }
+
+    /**
+     * Does nothing; a replay has no timeouts.
+     */
+    @Override
+    public void setTimeoutToDefault() {
+    }
+
+    /**
+     * The responses recorded for one request.
+     */
+    private static final class Responses {
+        private final Response[] responses;
+        private final AtomicInteger next = new AtomicInteger();
+
+        private Responses(Response[] responses) {
+            this.responses = responses;
+        }
+
+        private Response next() {
+            if (responses.length == 1) {
+                return responses[0];
+            }
+            return responses[(next.getAndIncrement() & Integer.MAX_VALUE) % responses.length];
+        }
+    }
+
+    private final class Response {
+        private final int offset;
+        private final int length;
+        private final long elapsedNanos;
+        // Read on first use: the response as recorded, and what follows its id once the id is moved to the front.
+        private volatile String recorded;
+        private volatile String afterId;
+
+        private Response(int offset, int length, long elapsedNanos) {
+            this.offset = offset;
+            this.length = length;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @param id the id of the request as JSON, or null
+         * @return the response with the id, or as recorded if the request has no id or the response is not a single
+         * response
+         */
+        private String withId(String id) {
+            String recorded = this.recorded;
+            if (null == recorded) {
+                prepare();
+                recorded = this.recorded;
+            }
+            final String afterId = this.afterId;
+            if (null == id || null == afterId) {
+                return recorded;
+            }
+            return "{\"id\":" + id + afterId;
+        }
+
+        private void prepare() {
+            final String response = decode(recording, offset, length);
+            String afterId = null;
+            try {
+                final JsonElement parsed = new JsonParser().parse(response);
+                if (parsed.isJsonObject()) {
+                    final JsonObject object = parsed.getAsJsonObject();
+                    object.remove("id");
+                    final String rest = object.toString();
+                    afterId = rest.length() > 2 ? "," + rest.substring(1) : "}";
+                }
+            } catch (JsonParseException e) {
+                // Handed back as recorded.
+            }
+            this.afterId = afterId;
+            this.recorded = response;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A request that is encoded while it is sent, rather than being built as a string first.
+ */
+public interface RequestBody {
+    /**
+     * Writes the UTF-8 encoded request. It may be called again if the request has to be sent once more, and must write
+     * the same request each time. The stream must not be closed.
+     *
+     * @param out the stream the request is sent through
+     * @throws IOException if anything went wrong on the connection side of things.
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+/**
+ * Helpers shared by the request dispatchers.
+ */
+final class RequestDispatchers {
+
+    private RequestDispatchers() {
+    }
+
+    /**
+     * @return the endpoint the dispatcher names, or the dispatcher itself as a string if it names none
+     */
+    static String describe(RequestDispatcher dispatcher) {
+        if (dispatcher instanceof DescribedRequestDispatcher) {
+            return ((DescribedRequestDispatcher) dispatcher).describe();
+        }
+        return String.valueOf(dispatcher);
+    }
+}
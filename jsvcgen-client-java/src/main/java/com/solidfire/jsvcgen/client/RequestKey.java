@@ -0,0 +1,109 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.gson.JsonArray;
+import com.solidfire.gson.JsonElement;
+import com.solidfire.gson.JsonObject;
+import com.solidfire.gson.JsonPrimitive;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Identifies a call by the dispatcher it is sent through, its method and its parameters, so that calls asking for the
+ * same thing compare equal.
+ */
+final class RequestKey {
+
+    private final Object scope;
+    private final String method;
+    private final String params;
+
+    private RequestKey(Object scope, String method, String params) {
+        this.scope = scope;
+        this.method = method;
+        this.params = params;
+    }
+
+    /**
+     * @param scope  the dispatcher the call is sent through, compared by identity
+     * @param method the api method name
+     * @param params the request parameters as JSON
+     */
+    static RequestKey of(Object scope, String method, JsonElement params) {
+        final StringBuilder canonical = new StringBuilder();
+        appendCanonical(canonical, params);
+        return new RequestKey(scope, method, canonical.toString());
+    }
+
+    Object getScope() {
+        return scope;
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    /**
+     * Writes JSON with the members of every object sorted by name, so that equal parameters give equal keys.
+     */
+    static void appendCanonical(StringBuilder out, JsonElement element) {
+        if (element.isJsonObject()) {
+            final Map<String, JsonElement> sorted = new TreeMap<>();
+            for (Map.Entry<String, JsonElement> member : ((JsonObject) element).entrySet()) {
+                sorted.put(member.getKey(), member.getValue());
+            }
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<String, JsonElement> member : sorted.entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                out.append(new JsonPrimitive(member.getKey())).append(':');
+                appendCanonical(out, member.getValue());
+            }
+            out.append('}');
+        } else if (element.isJsonArray()) {
+            out.append('[');
+            boolean first = true;
+            for (JsonElement item : (JsonArray) element) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                appendCanonical(out, item);
+            }
+            out.append(']');
+        } else {
+            out.append(element);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RequestKey)) return false;
+        final RequestKey key = (RequestKey) o;
+        return scope == key.scope && method.equals(key.method) && params.equals(key.params);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * System.identityHashCode(scope) + method.hashCode()) + params.hashCode();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Collects a request body in a pooled buffer. A body that fits is sent with a known length when the stream is closed;
+ * once the body outgrows the buffer, the collected bytes are handed to a chunked stream and the rest of the body is
+ * written through without buffering.
+ * <p/>
+ * With a compression threshold, a body of at least that many bytes, and any body that outgrows the buffer, is
+ * compressed with gzip; the subclass then has to send {@code Content-Encoding: gzip}, see {@link #isCompressed()}.
+ */
+abstract class RequestOutputStream extends OutputStream {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(16);
+
+    private final int compressionThreshold;
+    private byte[] buffer = takeBuffer();
+    private int count;
+    private OutputStream chunked;
+    private Compression.CountingOutputStream sent;
+    private boolean compressed;
+    private boolean closed;
+    private long bodyBytes;
+    private long sentBytes;
+
+    RequestOutputStream() {
+        this(-1);
+    }
+
+    /**
+     * @param compressionThreshold the body size from which the body is compressed, or a negative number to never
+     *                             compress it
+     */
+    RequestOutputStream(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Called once, when the body no longer fits the buffer.
+     *
+     * @return the stream the body is written to with chunked transfer encoding; it is closed to end the body
+     */
+    protected abstract OutputStream openChunked() throws IOException;
+
+    /**
+     * Called on close when the whole body fit the buffer.
+     *
+     * @param body   the buffer holding the body
+     * @param length the length of the body
+     */
+    protected abstract void sendFixedLength(byte[] body, int length) throws IOException;
+
+    /**
+     * @return true if the body handed to {@link #openChunked()} or {@link #sendFixedLength} is gzip compressed
+     */
+    protected final boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return the number of bytes written to this stream
+     */
+    long getBodyBytes() {
+        return bodyBytes;
+    }
+
+    /**
+     * @return the number of body bytes sent, after compression and not counting chunk framing
+     */
+    long getSentBytes() {
+        return null != sent ? sent.getCount() : sentBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!closed && null == chunked && count < buffer.length) {
+            buffer[count++] = (byte) b;
+            bodyBytes++;
+        } else {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        bodyBytes += len;
+        if (null == chunked && count + len <= buffer.length) {
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+            return;
+        }
+        if (null == chunked) {
+            compressed = compressionThreshold >= 0;
+            sent = new Compression.CountingOutputStream(openChunked());
+            chunked = compressed ? new GZIPOutputStream(sent, 8192) : sent;
+            chunked.write(buffer, 0, count);
+            release();
+        }
+        chunked.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // The body is sent on close; a chunked body is flushed by its own stream as it fills.
+    }
+
+    /**
+     * Sends the body, or ends a chunked body.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (null != chunked) {
+                chunked.close();
+            } else if (compressionThreshold >= 0 && count >= compressionThreshold) {
+                compressed = true;
+                final byte[] body = Compression.gzip(buffer, 0, count);
+                sentBytes = body.length;
+                sendFixedLength(body, body.length);
+            } else {
+                sentBytes = count;
+                sendFixedLength(buffer, count);
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Returns the buffer to the pool without sending anything; used when writing the body failed.
+     */
+    void abort() {
+        closed = true;
+        release();
+    }
+
+    private void release() {
+        if (null != buffer) {
+            buffers.offer(buffer);
+            buffer = null;
+            count = 0;
+        }
+    }
+
+    private static byte[] takeBuffer() {
+        final byte[] buffer = buffers.poll();
+        return null != buffer ? buffer : new byte[BUFFER_SIZE];
+    }
+}
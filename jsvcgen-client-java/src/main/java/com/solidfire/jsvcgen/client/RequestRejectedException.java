@@ -0,0 +1,31 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a dispatcher that refuses to send a request, for example because too many requests are already waiting.
+ * Nothing was sent to the server.
+ */
+public class RequestRejectedException extends IOException {
+
+    private static final long serialVersionUID = 3419735513328436107L;
+
+    public RequestRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the decoded results of read-only calls for a while, so that a service asked for the same thing again within
+ * that time answers without a round trip. Set it on a service with {@link ServiceBase#setResponseCache}; services
+ * that share the cache and their request dispatcher share results.
+ * <p/>
+ * Only the methods given a time to live with {@link #setTtl} are cached, keyed by method and parameters. The least
+ * recently used result is dropped when the cache is full. A call to any other method that is not read-only (not named
+ * Get... or List...) drops the results it may have changed: those of the methods given to {@link #setInvalidations}
+ * for it, or all results of its dispatcher if it has no such rule.
+ * <p/>
+ * A cached result is not copied: every caller that asks for it is handed the same instance, so it must not be
+ * modified. Calls sent in a batch, and calls a {@link CoalescingRequestDispatcher} merges into one, drop results just
+ * as calls sent on their own do.
+ */
+public class ResponseCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final int maxEntries;
+    private final Map<String, Long> ttlNanos = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> invalidations = new ConcurrentHashMap<>();
+
+    // Guarded by this.
+    private final LinkedHashMap<RequestKey, Entry> entries;
+    private long stamp;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidated;
+
+    /**
+     * Create a cache holding up to {@value #DEFAULT_MAX_ENTRIES} results.
+     */
+    public ResponseCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries the number of results held before the least recently used one is dropped
+     */
+    public ResponseCache(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be at least 1");
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Caches the results of a method.
+     *
+     * @param method    the api method name
+     * @param ttlMillis how long a result is used, or 0 to stop caching the method
+     */
+    public void setTtl(String method, long ttlMillis) {
+        if (null == method || method.trim().isEmpty()) throw new IllegalArgumentException("method is null or empty");
+        if (ttlMillis < 0) throw new IllegalArgumentException("ttlMillis can not be negative");
+        if (ttlMillis == 0) {
+            ttlNanos.remove(method);
+        } else {
+            ttlNanos.put(method, TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+        }
+    }
+
+    /**
+     * Limits the results dropped after a call to a method to those of the given methods.
+     *
+     * @param method        the api method name of the call that changes something
+     * @param cachedMethods the cached methods whose results it may change, none to drop nothing
+     */
+    public void setInvalidations(String method, String... cachedMethods) {
+        if (null == method || method.trim().isEmpty()) throw new IllegalArgumentException("method is null or empty");
+        invalidations.put(method, Collections.unmodifiableSet(new HashSet<>(Arrays.asList(cachedMethods))));
+    }
+
+    /**
+     * Drops every result.
+     */
+    public synchronized void invalidateAll() {
+        stamp++;
+        invalidated += entries.size();
+        entries.clear();
+    }
+
+    /**
+     * @return the counters of this cache
+     */
+    public synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(entries.size(), hits, misses, evictions, expirations, invalidated);
+    }
+
+    /**
+     * Getter for property 'maxEntries'.
+     *
+     * @return Value for property 'maxEntries'.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    boolean isCached(String method) {
+        return ttlNanos.containsKey(method);
+    }
+
+    /**
+     * @return the cached instance of the result, shared with every other caller, or null if it is not cached or has
+     * expired
+     */
+    synchronized <TResult> TResult get(RequestKey key, Class<TResult> resultClass) {
+        final Entry entry = entries.get(key);
+        if (null != entry && System.nanoTime() - entry.expires >= 0) {
+            entries.remove(key);
+            expirations++;
+        } else if (null != entry && resultClass.isInstance(entry.result)) {
+            hits++;
+            return resultClass.cast(entry.result);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * @return a stamp to hand to {@link #put} once the result of a call started now has arrived
+     */
+    synchronized long stamp() {
+        return stamp;
+    }
+
+    /**
+     * Caches a result, unless results were dropped since the call was started, as the result may already be out of
+     * date.
+     */
+    synchronized void put(RequestKey key, Object result, long stampAtStart) {
+        final Long ttl = ttlNanos.get(key.getMethod());
+        if (null == result || null == ttl || stampAtStart != stamp) {
+            return;
+        }
+        entries.put(key, new Entry(result, System.nanoTime() + ttl));
+        final Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops the results a call to a method may have changed, if the method is not read-only.
+     *
+     * @param scope the dispatcher the call was sent through
+     */
+    void called(Object scope, String method) {
+        if (isCached(method) || JsonRpcRequests.READ_ONLY_METHODS.matcher(method).matches()) {
+            return;
+        }
+        final Set<String> affected = invalidations.get(method);
+        if (null != affected && affected.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            stamp++;
+            final Iterator<RequestKey> keys = entries.keySet().iterator();
+            while (keys.hasNext()) {
+                final RequestKey key = keys.next();
+                if (key.getScope() == scope && (null == affected || affected.contains(key.getMethod()))) {
+                    keys.remove();
+                    invalidated++;
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Object result;
+        private final long expires;
+
+        private Entry(Object result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+}
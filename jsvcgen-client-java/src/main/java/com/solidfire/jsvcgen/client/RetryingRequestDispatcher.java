@@ -0,0 +1,384 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A request dispatcher that retries failed requests with exponential backoff and full jitter, and sends a duplicate
+ * of a slow read-only request to take whichever response comes first.
+ * <p/>
+ * A request is retried, up to {@code maxAttempts} attempts in total, when
+ * <ul>
+ * <li>it fails with an I/O error and its method is read-only, see {@link #setReadOnlyMethods(Pattern)},</li>
+ * <li>the connection was refused before anything was sent, whatever its method, or</li>
+ * <li>the server answers with an error whose name is in {@link #setRetryableErrorNames(Set)}; the last such answer
+ * is returned when the attempts run out.</li>
+ * </ul>
+ * A read-only request that has not been answered within the 95th percentile of the recent response times of its
+ * method is sent again, up to {@link #setMaxHedges(int)} times, and the first response wins. The slower attempts are
+ * left to finish in the background and their responses are dropped.
+ */
+public class RetryingRequestDispatcher implements RequestDispatcher, DescribedRequestDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(RetryingRequestDispatcher.class);
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 2000;
+    public static final int DEFAULT_MAX_HEDGES = 1;
+
+    static final int LATENCY_WINDOW = 256;
+    static final int MIN_LATENCY_SAMPLES = 20;
+    static final double HEDGE_PERCENTILE = 95;
+
+    private static final ExecutorService hedgeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicLong threads = new AtomicLong();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "jsvcgen-hedge-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final RequestDispatcher delegate;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final ConcurrentMap<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private volatile Pattern readOnlyMethods = JsonRpcRequests.READ_ONLY_METHODS;
+    private volatile Set<String> retryableErrorNames = Collections.emptySet();
+    private volatile int maxHedges = DEFAULT_MAX_HEDGES;
+
+    /**
+     * Create a dispatcher that makes up to {@value #DEFAULT_MAX_ATTEMPTS} attempts per request.
+     *
+     * @param delegate the dispatcher that sends the requests
+     */
+    public RetryingRequestDispatcher(RequestDispatcher delegate) {
+        this(delegate, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param delegate        the dispatcher that sends the requests
+     * @param maxAttempts     the number of attempts per request, including the first one
+     * @param baseDelayMillis the longest wait before the first retry; it doubles with every retry
+     * @param maxDelayMillis  the longest wait before any retry
+     */
+    public RetryingRequestDispatcher(RequestDispatcher delegate, int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (null == delegate) throw new IllegalArgumentException("delegate is null");
+        if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be at least 1");
+        if (baseDelayMillis < 0) throw new IllegalArgumentException("baseDelayMillis can not be negative");
+        if (maxDelayMillis < baseDelayMillis) throw new IllegalArgumentException("maxDelayMillis can not be less than baseDelayMillis");
+
+        this.delegate = delegate;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return the version of the wrapped dispatcher
+     */
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    /**
+     * Dispatch an encoded request, retrying and hedging it as described above.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws IOException the error of the last attempt; the errors of the earlier attempts are suppressed in it
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        final String method = JsonRpcRequests.method(input);
+        final boolean readOnly = null != method && readOnlyMethods.matcher(method).matches();
+        final Set<String> retryableErrors = retryableErrorNames;
+        IOException failure = null;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                final String response = readOnly ? dispatchHedged(input, method) : delegate.dispatchRequest(input);
+                final String error = retryableErrors.isEmpty() ? null : JsonRpcRequests.errorName(response);
+                if (null == error || !retryableErrors.contains(error) || attempt >= maxAttempts) {
+                    return response;
+                }
+                log.debug("Retrying {} after server error {}", method, error);
+            } catch (IOException e) {
+                if (null != failure) {
+                    e.addSuppressed(failure);
+                }
+                failure = e;
+                if (attempt >= maxAttempts || !(readOnly || e instanceof ConnectException)
+                        || e instanceof DeadlineExceededException || e instanceof CallCancelledException) {
+                    throw e;
+                }
+                log.debug("Retrying {} after {}", method, e.toString());
+            }
+            retries.incrementAndGet();
+            backOff(attempt);
+        }
+    }
+
+    /**
+     * Sends a read-only request, and again each time the hedge delay of its method passes without a response.
+     */
+    private String dispatchHedged(final String input, String method) throws IOException {
+        LatencyWindow window = latencies.get(method);
+        if (null == window) {
+            final LatencyWindow created = new LatencyWindow(LATENCY_WINDOW, MIN_LATENCY_SAMPLES);
+            window = latencies.putIfAbsent(method, created);
+            if (null == window) {
+                window = created;
+            }
+        }
+        final long hedgeDelay = maxHedges > 0 ? window.percentile(HEDGE_PERCENTILE) : -1;
+        if (hedgeDelay < 0) {
+            final long start = System.nanoTime();
+            final String response = delegate.dispatchRequest(input);
+            window.record(System.nanoTime() - start);
+            return response;
+        }
+
+        final BlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+        int started = 0;
+        int finished = 0;
+        IOException failure = null;
+        submit(input, started++, completed);
+        try {
+            while (true) {
+                final Attempt attempt;
+                if (started <= maxHedges) {
+                    attempt = completed.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+                    if (null == attempt) {
+                        hedges.incrementAndGet();
+                        submit(input, started++, completed);
+                        continue;
+                    }
+                } else {
+                    attempt = completed.take();
+                }
+                finished++;
+                if (null == attempt.failure) {
+                    window.record(attempt.nanos);
+                    if (attempt.index > 0) {
+                        hedgeWins.incrementAndGet();
+                    }
+                    return attempt.response;
+                }
+                if (null != failure) {
+                    attempt.failure.addSuppressed(failure);
+                }
+                failure = attempt.failure;
+                if (finished == started) {
+                    throw failure;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + method);
+        }
+    }
+
+    private void submit(final String input, final int index, final BlockingQueue<Attempt> completed) {
+        final CallOptions options = CallOptions.current();
+        hedgeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final CallOptions previous = CallOptions.enter(options);
+                final long start = System.nanoTime();
+                try {
+                    completed.add(new Attempt(index, delegate.dispatchRequest(input), null, System.nanoTime() - start));
+                } catch (IOException e) {
+                    completed.add(new Attempt(index, null, e, 0));
+                } catch (RuntimeException e) {
+                    completed.add(new Attempt(index, null, new IOException(e), 0));
+                } finally {
+                    CallOptions.exit(previous);
+                }
+            }
+        });
+    }
+
+    private void backOff(int attempt) throws InterruptedIOException {
+        final long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        if (ceiling <= 0) {
+            return;
+        }
+        final CallOptions options = CallOptions.current();
+        final long remaining = null != options ? options.getRemaining(TimeUnit.MILLISECONDS) : Long.MAX_VALUE;
+        try {
+            // Past the deadline of the call, the next attempt fails right away.
+            Thread.sleep(Math.min(remaining, ThreadLocalRandom.current().nextLong(ceiling + 1)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    private static final class Attempt {
+        private final int index;
+        private final String response;
+        private final IOException failure;
+        private final long nanos;
+
+        private Attempt(int index, String response, IOException failure, long nanos) {
+            this.index = index;
+            this.response = response;
+            this.failure = failure;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * @return the number of attempts made after a failed one
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @return the number of duplicate requests sent because the first one was slow
+     */
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    /**
+     * @return the number of requests answered by a duplicate before the original
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Getter for property 'readOnlyMethods'.
+     *
+     * @return Value for property 'readOnlyMethods'.
+     */
+    public Pattern getReadOnlyMethods() {
+        return readOnlyMethods;
+    }
+
+    /**
+     * Sets the methods that may be sent more than once, by default the methods whose names start with Get or List.
+     *
+     * @param readOnlyMethods a pattern the whole method name must match
+     */
+    public void setReadOnlyMethods(Pattern readOnlyMethods) {
+        if (null == readOnlyMethods) throw new IllegalArgumentException("readOnlyMethods is null");
+        this.readOnlyMethods = readOnlyMethods;
+    }
+
+    /**
+     * Getter for property 'retryableErrorNames'.
+     *
+     * @return Value for property 'retryableErrorNames'.
+     */
+    public Set<String> getRetryableErrorNames() {
+        return retryableErrorNames;
+    }
+
+    /**
+     * Sets the server errors, by {@link ApiServerException#getName()}, after which any request is sent again. None by
+     * default.
+     *
+     * @param names the error names
+     */
+    public void setRetryableErrorNames(Set<String> names) {
+        this.retryableErrorNames = null == names ? Collections.<String>emptySet() : Collections.unmodifiableSet(new HashSet<>(names));
+    }
+
+    /**
+     * Getter for property 'maxHedges'.
+     *
+     * @return Value for property 'maxHedges'.
+     */
+    public int getMaxHedges() {
+        return maxHedges;
+    }
+
+    /**
+     * Sets the number of duplicates that may be sent for a slow read-only request.
+     *
+     * @param maxHedges the number of duplicates, or 0 to never send one
+     */
+    public void setMaxHedges(int maxHedges) {
+        if (maxHedges < 0) throw new IllegalArgumentException("maxHedges can not be negative");
+        this.maxHedges = maxHedges;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        delegate.setConnectionTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        delegate.setReadTimeout(timeInMilliseconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        delegate.setTimeoutToDefault();
+    }
+
+    /**
+     * @return the endpoint of the wrapped dispatcher
+     */
+    @Override
+    public String describe() {
+        return RequestDispatchers.describe(delegate);
+    }
+
+    /**
+     * Getter for property 'delegate'.
+     *
+     * @return Value for property 'delegate'.
+     */
+    public RequestDispatcher getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link TimingSink} that keeps the timing of the most recent calls in memory, dropping the oldest once full.
+ */
+public class RingBufferTimingSink implements TimingSink {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final CallTiming[] timings;
+    private long recorded;
+
+    /**
+     * Create a sink keeping the last {@value #DEFAULT_CAPACITY} calls.
+     */
+    public RingBufferTimingSink() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of calls to keep
+     */
+    public RingBufferTimingSink(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        this.timings = new CallTiming[capacity];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void record(CallTiming timing) {
+        timings[(int) (recorded++ % timings.length)] = timing;
+    }
+
+    /**
+     * @return the calls kept, oldest first
+     */
+    public synchronized List<CallTiming> getTimings() {
+        final int size = (int) Math.min(recorded, timings.length);
+        final List<CallTiming> list = new ArrayList<>(size);
+        for (long i = recorded - size; i < recorded; i++) {
+            list.add(timings[(int) (i % timings.length)]);
+        }
+        return list;
+    }
+
+    /**
+     * @return the number of calls recorded since the sink was created or cleared, including those dropped
+     */
+    public synchronized long getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * Getter for property 'capacity'.
+     *
+     * @return Value for property 'capacity'.
+     */
+    public int getCapacity() {
+        return timings.length;
+    }
+
+    /**
+     * Drops every call kept.
+     */
+    public synchronized void clear() {
+        Arrays.fill(timings, null);
+        recorded = 0;
+    }
+}
@@ -17,6 +17,10 @@ package com.solidfire.jsvcgen.client;
 
 import com.solidfire.gson.*;
 import com.solidfire.gson.stream.JsonReader;
+import com.solidfire.gson.stream.JsonWriter;
+import com.solidfire.gson.stream.MalformedJsonException;
+import com.solidfire.jsvcgen.javautil.BiConsumer;
+import com.solidfire.jsvcgen.javautil.CompletableFuture;
 import com.solidfire.jsvcgen.serialization.ArrayAdaptorUtils;
 import com.solidfire.jsvcgen.serialization.GsonUtil;
 import com.solidfire.jsvcgen.serialization.OptionalAdaptorUtils;
@@ -26,11 +30,30 @@ import org.slf4j.LoggerFactory;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSession;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PushbackReader;
+import java.io.Reader;
 import java.io.StringReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -58,6 +81,14 @@ public class ServiceBase {
 
     private final RequestDispatcher requestDispatcher;
     private final GsonBuilder gsonBuilder = GsonUtil.getDefaultBuilder();
+    private volatile Executor asyncExecutor;
+    private volatile ResponseCache responseCache;
+    private volatile SingleFlight singleFlight;
+    private volatile MetricsRegistry metricsRegistry;
+    private volatile TimingSink timingSink;
+    private volatile String endpointName;
+    private volatile ServiceInterceptor[] interceptors = new ServiceInterceptor[0];
+    private final boolean streamable;
 
     /**
      * Create a service with the given connection.
@@ -66,6 +97,23 @@ public class ServiceBase {
      */
     protected ServiceBase(RequestDispatcher requestDispatcher) {
         this.requestDispatcher = requestDispatcher;
+        this.streamable = !overrides(getClass(), "encodeRequest", String.class, Object.class, Class.class)
+                && !overrides(getClass(), "decodeResponse", String.class, Class.class);
+    }
+
+    /**
+     * @return true if a subclass of ServiceBase between the given class and ServiceBase declares the method
+     */
+    private static boolean overrides(Class<?> type, String name, Class<?>... parameterTypes) {
+        for (Class<?> c = type; c != ServiceBase.class && null != c; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(name, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Not declared here; look further up
+            }
+        }
+        return false;
     }
 
     /**
@@ -98,6 +146,741 @@ public class ServiceBase {
                                                    TRequest requestParams,
                                                    Class<TRequest> requestParamsClass,
                                                    Class<TResult> resultParamsClass) {
+        validateRequest(method, requestParams, requestParamsClass, resultParamsClass);
+        requestParams = beforeEncode(method, requestParams);
+
+        final ResponseCache cache = responseCache;
+        if (null == cache) {
+            return sendShared(null, method, requestParams, requestParamsClass, resultParamsClass);
+        }
+        final RequestKey key = cache.isCached(method) ? requestKey(method, requestParams, requestParamsClass) : null;
+        if (null != key) {
+            final TResult cached = cache.get(key, resultParamsClass);
+            if (null != cached) {
+                return cached;
+            }
+        }
+        final long stamp = cache.stamp();
+        try {
+            final TResult result = sendShared(key, method, requestParams, requestParamsClass, resultParamsClass);
+            if (null != key) {
+                cache.put(key, result, stamp);
+            }
+            return result;
+        } finally {
+            cache.called(getRequestDispatcher(), method);
+        }
+    }
+
+    /**
+     * Send the request to the remote system within the deadline of the options, see {@link CallOptions}.
+     *
+     * @param method             the api method name
+     * @param requestParams      the object containing the request parameters
+     * @param requestParamsClass the class (type) of the request object
+     * @param resultParamsClass  the class (type) of the results object
+     * @param options            the deadline and cancellation handle of the call
+     * @return the result (response) of the the API call
+     */
+    public <TResult, TRequest> TResult sendRequest(String method,
+                                                   TRequest requestParams,
+                                                   Class<TRequest> requestParamsClass,
+                                                   Class<TResult> resultParamsClass,
+                                                   CallOptions options) {
+        if (null == options) throw new IllegalArgumentException("options is null");
+        final CallOptions.Scope scope = options.makeCurrent();
+        try {
+            return sendRequest(method, requestParams, requestParamsClass, resultParamsClass);
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Sends an encoded JSON-RPC request as it is and returns the response as it was received, for a proxy that
+     * forwards calls without decoding them. Only the envelopes are read: the method of the request, for the metrics,
+     * the timing and the interceptors, and whether the response is an error, which is recorded as a failed call but
+     * returned all the same. The result is neither decoded, cached nor shared with identical calls, but a call to a
+     * method that is not read-only still drops the results it may have changed from the {@link ResponseCache}. A
+     * batch is sent without metrics, timing or interceptors.
+     *
+     * @param request the JSON-RPC request, or a batch of them
+     * @return the JSON-RPC response
+     */
+    public String sendRawRequest(String request) {
+        return sendRawRequest(request, null);
+    }
+
+    /**
+     * Sends an encoded JSON-RPC request as it is, see {@link #sendRawRequest(String)}, unless the request was written
+     * for a later version of the API than the one of the request dispatcher.
+     *
+     * @param request    the JSON-RPC request, or a batch of them
+     * @param apiVersion the version of the API the request was written for, as in {@code 8.0}, or null to send it to
+     *                   any version
+     * @return the JSON-RPC response
+     */
+    public String sendRawRequest(String request, String apiVersion) {
+        if (null == request || request.trim().isEmpty()) throw new IllegalArgumentException("request is null or empty");
+        checkRawVersion(apiVersion);
+
+        final String method = JsonRpcRequests.method(request);
+        final MetricsRegistry registry = null != method ? metricsRegistry : null;
+        final TimingSink sink = null != method ? timingSink : null;
+        final MetricsRegistry.Call call = null != registry ? registry.start(getEndpointName(), method) : null;
+        final CallTrace trace = null != sink ? new CallTrace(getEndpointName(), method) : null;
+        final CallTrace previous = null != trace ? CallTrace.enter(trace) : null;
+        try {
+            final String response = dispatchRawRequest(method, request, call, trace);
+            final JsonElement error = null != method ? JsonRpcRequests.error(response) : null;
+            final ApiServerException failure = null != error ? extractRawError(error) : null;
+            if (null != call) {
+                if (null == failure) {
+                    call.succeeded();
+                } else {
+                    call.failed(failure);
+                }
+            }
+            record(sink, trace, failure);
+            final ResponseCache cache = responseCache;
+            if (null != cache && null != method) {
+                cache.called(getRequestDispatcher(), method);
+            }
+            return response;
+        } catch (RuntimeException | Error e) {
+            if (null != call) {
+                call.failed(e);
+            }
+            record(sink, trace, e);
+            throw e;
+        } finally {
+            if (null != trace) {
+                CallTrace.exit(previous);
+            }
+        }
+    }
+
+    /**
+     * Sends a JSON-RPC request as it is, see {@link #sendRawRequest(String)}, and returns the response as it arrives.
+     * Through a {@link StreamingRequestDispatcher} the request is written while it is sent and the response is read
+     * straight from the connection; otherwise, or when the service has interceptors, both are buffered as strings.
+     * <p/>
+     * A streamed call is recorded in the metrics and the timing once the reader is closed, and an error response is
+     * not told apart from a result.
+     *
+     * @param method     the method of the request
+     * @param request    the JSON-RPC request, a single call to the method
+     * @param apiVersion the version of the API the request was written for, as in {@code 8.0}, or null to send it to
+     *                   any version
+     * @return a reader of the JSON-RPC response, which must be closed
+     */
+    public Reader sendRawRequest(final String method, RequestBody request, String apiVersion) {
+        if (null == method || method.trim().isEmpty()) throw new IllegalArgumentException("method is null or empty");
+        if (null == request) throw new IllegalArgumentException("request is null");
+        checkRawVersion(apiVersion);
+
+        final RequestDispatcher dispatcher = getRequestDispatcher();
+        if (!(dispatcher instanceof StreamingRequestDispatcher) || interceptors.length > 0) {
+            final ByteArrayOutputStream buffered = new ByteArrayOutputStream(1024);
+            try {
+                request.writeTo(buffered);
+            } catch (IOException ioe) {
+                throw new ApiException(ioe);
+            }
+            return new StringReader(sendRawRequest(new String(buffered.toByteArray(), PooledHttpsRequestDispatcher.UTF_8), apiVersion));
+        }
+
+        final MetricsRegistry registry = metricsRegistry;
+        final TimingSink sink = timingSink;
+        final MetricsRegistry.Call call = null != registry ? registry.start(getEndpointName(), method) : null;
+        final CallTrace trace = null != sink ? new CallTrace(getEndpointName(), method) : null;
+        final CallTrace previous = null != trace ? CallTrace.enter(trace) : null;
+        try {
+            final CallOptions options = CallOptions.current();
+            if (null != options) {
+                options.check();
+            }
+            if (null != trace) {
+                trace.dispatching();
+            }
+            final Reader stream = ((StreamingRequestDispatcher) dispatcher).dispatchRequestStream(
+                    new MethodRequestBody(method, null != call ? call.count(request) : request));
+            final ResponseCache cache = responseCache;
+            if (null != cache) {
+                cache.called(dispatcher, method);
+            }
+            return new FilterReader(null != call ? call.count(stream) : stream) {
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    super.close();
+                    if (null != trace) {
+                        trace.received();
+                    }
+                    if (null != call) {
+                        call.succeeded();
+                    }
+                    record(sink, trace, null);
+                }
+            };
+        } catch (IOException ioe) {
+            final ApiException e = new ApiException(ioe);
+            if (null != call) {
+                call.failed(e);
+            }
+            record(sink, trace, e);
+            throw e;
+        } catch (RuntimeException | Error e) {
+            if (null != call) {
+                call.failed(e);
+            }
+            record(sink, trace, e);
+            throw e;
+        } finally {
+            if (null != trace) {
+                CallTrace.exit(previous);
+            }
+        }
+    }
+
+    /**
+     * @throws ApiException if the request was written for a later version of the API than the one of the dispatcher
+     */
+    private void checkRawVersion(String apiVersion) {
+        if (null == apiVersion) {
+            return;
+        }
+        if (!isVersionString(apiVersion)) throw new IllegalArgumentException("\"" + apiVersion + "\" is not an API version");
+
+        final String endpointVersion = requestDispatcher.getVersion();
+        if (isVersionString(endpointVersion) && isVersionGreater(endpointVersion, apiVersion)) {
+            throw new ApiException("The request is for version " + apiVersion + " of the API, which is later than version " + endpointVersion + " of the endpoint");
+        }
+    }
+
+    /**
+     * @param method the method of the request, or null for a batch
+     * @param call   the call to record the sizes of the request and response in, or null
+     * @param trace  the trace to mark the phases of the call in, or null
+     */
+    private String dispatchRawRequest(final String method, String request, MetricsRegistry.Call call, final CallTrace trace) {
+        final RequestDispatcher dispatcher = getRequestDispatcher();
+        final ServiceInterceptor[] chain = interceptors;
+        final CallOptions options = CallOptions.current();
+        try {
+            if (null != options) {
+                options.check();
+            }
+            logRequest(trace, request);
+            if (null != call) {
+                call.setRequestBytes(MetricsRegistry.utf8Length(request));
+            }
+
+            final String response;
+            if (chain.length == 0 || null == method) {
+                response = dispatchRequest(dispatcher, request, trace);
+            } else {
+                response = await(dispatchThrough(chain, 0, method, request, new ServiceInterceptor.Dispatch() {
+                    @Override
+                    public CompletableFuture<String> proceed(String next) {
+                        try {
+                            return CompletableFuture.completedFuture(dispatchRequest(dispatcher, next, trace));
+                        } catch (IOException | RuntimeException e) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                    }
+                }));
+            }
+            if (null != call) {
+                call.setResponseBytes(MetricsRegistry.utf8Length(response));
+            }
+            if (null != options) {
+                options.check();
+            }
+            return response;
+        } catch (IOException ioe) {
+            throw new ApiException(ioe);
+        }
+    }
+
+    /**
+     * @return the error of a raw response, or a generic one if it can not be decoded
+     */
+    private ApiServerException extractRawError(JsonElement error) {
+        try {
+            final ApiServerException extracted = extractApiError(error);
+            if (null != extracted) {
+                return extracted;
+            }
+        } catch (RuntimeException e) {
+            log.debug("Unable to decode the error of a raw response: {}", error);
+        }
+        return new ApiServerException(null, null, error.toString());
+    }
+
+    /**
+     * Sends the call, or waits for an identical call in flight when the method is eligible for single-flight. A call
+     * with {@link CallOptions} is always sent on its own, bound by its own deadline.
+     *
+     * @param key the key of the call, or null to compute it when needed
+     */
+    private <TResult, TRequest> TResult sendShared(RequestKey key,
+                                                   String method,
+                                                   TRequest requestParams,
+                                                   Class<TRequest> requestParamsClass,
+                                                   Class<TResult> resultParamsClass) {
+        final SingleFlight flights = singleFlight;
+        final SingleFlight.Flight flight = null == flights || !flights.isEligible(method) || null != CallOptions.current() ? null :
+                flights.join(null != key ? key : requestKey(method, requestParams, requestParamsClass), resultParamsClass);
+        if (null == flight) {
+            return dispatchRequest(method, requestParams, requestParamsClass, resultParamsClass);
+        }
+        if (!flight.isLeader()) {
+            return flight.await(resultParamsClass);
+        }
+        try {
+            final TResult result = dispatchRequest(method, requestParams, requestParamsClass, resultParamsClass);
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.fail(e);
+            throw e;
+        }
+    }
+
+    private <TResult, TRequest> TResult dispatchRequest(String method,
+                                                        TRequest requestParams,
+                                                        Class<TRequest> requestParamsClass,
+                                                        Class<TResult> resultParamsClass) {
+        final MetricsRegistry registry = metricsRegistry;
+        final TimingSink sink = timingSink;
+        if (null == registry && null == sink) {
+            return dispatchRequest(method, requestParams, requestParamsClass, resultParamsClass, null, null);
+        }
+        final MetricsRegistry.Call call = null != registry ? registry.start(getEndpointName(), method) : null;
+        final CallTrace trace = null != sink ? new CallTrace(getEndpointName(), method) : null;
+        final CallTrace previous = null != trace ? CallTrace.enter(trace) : null;
+        try {
+            final TResult result = dispatchRequest(method, requestParams, requestParamsClass, resultParamsClass, call, trace);
+            if (null != call) {
+                call.succeeded();
+            }
+            record(sink, trace, null);
+            return result;
+        } catch (RuntimeException | Error e) {
+            if (null != call) {
+                call.failed(e);
+            }
+            record(sink, trace, e);
+            throw e;
+        } finally {
+            if (null != trace) {
+                CallTrace.exit(previous);
+            }
+        }
+    }
+
+    /**
+     * @param call  the call to record the sizes of the request and response in, or null
+     * @param trace the trace to mark the phases of the call in, or null
+     */
+    private <TResult, TRequest> TResult dispatchRequest(String method,
+                                                        TRequest requestParams,
+                                                        Class<TRequest> requestParamsClass,
+                                                        Class<TResult> resultParamsClass,
+                                                        MetricsRegistry.Call call,
+                                                        final CallTrace trace) {
+        final RequestDispatcher dispatcher = getRequestDispatcher();
+        final ServiceInterceptor[] chain = interceptors;
+        final CallOptions options = CallOptions.current();
+        try {
+            if (null != options) {
+                options.check();
+            }
+            // Streaming bypasses encodeRequest and decodeResponse, so a subclass overriding either gets the string path.
+            if (dispatcher instanceof StreamingRequestDispatcher && streamable && chain.length == 0) {
+                final boolean debug = log.isDebugEnabled();
+                final RequestBody encoded = encodeRequestBody(method, requestParams, requestParamsClass);
+                final RequestBody body = debug ? logged(encoded, trace) : encoded;
+                final RequestBody request = new MethodRequestBody(method, null != call ? call.count(body) : body);
+                if (null != trace) {
+                    trace.dispatching();
+                }
+                final Reader stream = ((StreamingRequestDispatcher) dispatcher).dispatchRequestStream(request);
+                final long decodeStart = System.nanoTime();
+                final LoggedReader logged = debug ? new LoggedReader(stream) : null;
+                final Reader counted = null != call ? call.count(null != logged ? logged : stream) : null != logged ? logged : stream;
+                try (Reader response = new AttributesNormalizingReader(counted)) {
+                    final TResult result;
+                    try {
+                        result = decodeResponseStream(response, resultParamsClass);
+                    } finally {
+                        if (null != logged) {
+                            log.debug("Response: {}", logged.text());
+                        }
+                    }
+                    if (null != trace) {
+                        trace.decoded(System.nanoTime() - decodeStart);
+                    }
+                    if (null != options) {
+                        options.check();
+                    }
+                    return result;
+                }
+            }
+
+            final String jsonRequest = encodeRequest(method, requestParams, requestParamsClass);
+            logRequest(trace, jsonRequest);
+            if (null != call) {
+                call.setRequestBytes(MetricsRegistry.utf8Length(jsonRequest));
+            }
+
+            final String response;
+            if (chain.length == 0) {
+                response = dispatchRequest(dispatcher, jsonRequest, trace);
+            } else {
+                response = await(dispatchThrough(chain, 0, method, jsonRequest, new ServiceInterceptor.Dispatch() {
+                    @Override
+                    public CompletableFuture<String> proceed(String request) {
+                        try {
+                            return CompletableFuture.completedFuture(dispatchRequest(dispatcher, request, trace));
+                        } catch (IOException | RuntimeException e) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                    }
+                }));
+            }
+            if (null != call) {
+                call.setResponseBytes(MetricsRegistry.utf8Length(response));
+            }
+
+            final TResult result = afterDecode(chain, method, decodeRawResponse(response, resultParamsClass, trace));
+            if (null != options) {
+                options.check();
+            }
+            return result;
+        } catch (IOException ioe) {
+            throw new ApiException(ioe);
+        }
+    }
+
+    /**
+     * Sends the request with the trace current, so that the request dispatcher can mark the phases of the call.
+     */
+    private static String dispatchRequest(RequestDispatcher dispatcher, String jsonRequest, CallTrace trace) throws IOException {
+        if (null == trace) {
+            return dispatcher.dispatchRequest(jsonRequest);
+        }
+        final CallTrace previous = CallTrace.enter(trace);
+        try {
+            trace.dispatching();
+            final String response = dispatcher.dispatchRequest(jsonRequest);
+            trace.received();
+            return response;
+        } finally {
+            CallTrace.exit(previous);
+        }
+    }
+
+    /**
+     * Waits for the response of a blocking call sent through the interceptors.
+     */
+    private static String await(CompletableFuture<String> response) throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException("Interrupted while waiting for the response", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ApiException(cause);
+        }
+    }
+
+    /**
+     * Send the request to the remote system without waiting for the response.
+     * <p/>
+     * When the request dispatcher is an {@link AsyncRequestDispatcher} no thread is held while the request is in
+     * flight; otherwise the blocking call is made on the async executor. The returned future fails with an
+     * {@link ApiException} (or {@link ApiServerException}) where {@link #sendRequest} would throw one.
+     *
+     * @param method             the api method name
+     * @param requestParams      the object containing the request parameters
+     * @param requestParamsClass the class (type) of the request object
+     * @param resultParamsClass  the class (type) of the results object
+     * @return a future holding the result (response) of the the API call
+     */
+    public <TResult, TRequest> CompletableFuture<TResult> sendRequestAsync(final String method,
+                                                                           TRequest requestParams,
+                                                                           Class<TRequest> requestParamsClass,
+                                                                           final Class<TResult> resultParamsClass) {
+        validateRequest(method, requestParams, requestParamsClass, resultParamsClass);
+        requestParams = beforeEncode(method, requestParams);
+
+        final ResponseCache cache = responseCache;
+        if (null == cache) {
+            return sendSharedAsync(null, method, requestParams, requestParamsClass, resultParamsClass);
+        }
+        final RequestKey key = cache.isCached(method) ? requestKey(method, requestParams, requestParamsClass) : null;
+        if (null != key) {
+            final TResult cached = cache.get(key, resultParamsClass);
+            if (null != cached) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        final long stamp = cache.stamp();
+        final RequestDispatcher dispatcher = getRequestDispatcher();
+        final CompletableFuture<TResult> sent = sendSharedAsync(key, method, requestParams, requestParamsClass, resultParamsClass);
+        // The caller sees the result only once the cache is up to date, so its next call can not read a dropped result.
+        final CompletableFuture<TResult> result = new CompletableFuture<>();
+        sent.whenComplete(new BiConsumer<TResult, Throwable>() {
+            @Override
+            public void accept(TResult value, Throwable ex) {
+                if (null != key && null == ex) {
+                    cache.put(key, value, stamp);
+                }
+                cache.called(dispatcher, method);
+                if (null == ex) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(ex);
+                }
+            }
+        });
+        result.whenComplete(new BiConsumer<TResult, Throwable>() {
+            @Override
+            public void accept(TResult ignored, Throwable ex) {
+                if (ex instanceof CancellationException) {
+                    sent.cancel(true);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Send the request to the remote system within the deadline of the options, without waiting for the response,
+     * see {@link CallOptions}. Cancelling the returned future also aborts the request.
+     *
+     * @param method             the api method name
+     * @param requestParams      the object containing the request parameters
+     * @param requestParamsClass the class (type) of the request object
+     * @param resultParamsClass  the class (type) of the results object
+     * @param options            the deadline and cancellation handle of the call
+     * @return a future holding the result (response) of the the API call
+     */
+    public <TResult, TRequest> CompletableFuture<TResult> sendRequestAsync(String method,
+                                                                           TRequest requestParams,
+                                                                           Class<TRequest> requestParamsClass,
+                                                                           Class<TResult> resultParamsClass,
+                                                                           CallOptions options) {
+        if (null == options) throw new IllegalArgumentException("options is null");
+        final CallOptions.Scope scope = options.makeCurrent();
+        try {
+            return sendRequestAsync(method, requestParams, requestParamsClass, resultParamsClass);
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Sends the call, or joins an identical call in flight when the method is eligible for single-flight. A call
+     * with {@link CallOptions} is always sent on its own, bound by its own deadline.
+     *
+     * @param key the key of the call, or null to compute it when needed
+     */
+    private <TResult, TRequest> CompletableFuture<TResult> sendSharedAsync(RequestKey key,
+                                                                           String method,
+                                                                           TRequest requestParams,
+                                                                           Class<TRequest> requestParamsClass,
+                                                                           Class<TResult> resultParamsClass) {
+        final SingleFlight flights = singleFlight;
+        final SingleFlight.Flight flight = null == flights || !flights.isEligible(method) || null != CallOptions.current() ? null :
+                flights.join(null != key ? key : requestKey(method, requestParams, requestParamsClass), resultParamsClass);
+        if (null == flight) {
+            return dispatchRequestAsync(method, requestParams, requestParamsClass, resultParamsClass);
+        }
+        if (flight.isLeader()) {
+            dispatchRequestAsync(method, requestParams, requestParamsClass, resultParamsClass)
+                    .whenComplete(new BiConsumer<TResult, Throwable>() {
+                        @Override
+                        public void accept(TResult value, Throwable ex) {
+                            if (null != ex) {
+                                flight.fail(ex);
+                            } else {
+                                flight.complete(value);
+                            }
+                        }
+                    });
+        }
+        return flight.future(resultParamsClass);
+    }
+
+    private <TResult, TRequest> CompletableFuture<TResult> dispatchRequestAsync(final String method,
+                                                                                TRequest requestParams,
+                                                                                Class<TRequest> requestParamsClass,
+                                                                                final Class<TResult> resultParamsClass) {
+        final CallOptions options = CallOptions.current();
+        final CallWatch watch;
+        try {
+            watch = CallWatch.start(options);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new ApiException(e));
+        }
+        final MetricsRegistry registry = metricsRegistry;
+        final MetricsRegistry.Call call = null != registry ? registry.start(getEndpointName(), method) : null;
+        final TimingSink sink = timingSink;
+        final CallTrace trace = null != sink ? new CallTrace(getEndpointName(), method) : null;
+        final String jsonRequest = encodeRequest(method, requestParams, requestParamsClass);
+        logRequest(trace, jsonRequest);
+        if (null != call) {
+            call.setRequestBytes(MetricsRegistry.utf8Length(jsonRequest));
+        }
+
+        final ServiceInterceptor[] chain = interceptors;
+        final CompletableFuture<String> response;
+        if (chain.length == 0) {
+            response = dispatchRequestAsync(jsonRequest, trace, options);
+        } else {
+            response = dispatchThrough(chain, 0, method, jsonRequest, new ServiceInterceptor.Dispatch() {
+                @Override
+                public CompletableFuture<String> proceed(String request) {
+                    return dispatchRequestAsync(request, trace, options);
+                }
+            });
+        }
+        if (null != watch) {
+            // Cancelling the response aborts its request, and fails the result below.
+            watch.attach(new Closeable() {
+                @Override
+                public void close() {
+                    response.cancel(true);
+                }
+            });
+        }
+        final CompletableFuture<TResult> result = new CompletableFuture<>();
+        response.whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String raw, Throwable ex) {
+                if (null != trace) {
+                    trace.received();
+                }
+                TResult value = null;
+                Throwable failure = ex instanceof IOException ? new ApiException(ex) : ex;
+                if (null != watch && watch.isAborted()) {
+                    failure = new ApiException(watch.failure(ex instanceof IOException ? (IOException) ex : null));
+                }
+                if (null == failure) {
+                    try {
+                        value = afterDecode(chain, method, decodeRawResponse(raw, resultParamsClass, trace));
+                        if (null != watch) {
+                            watch.check();
+                        }
+                    } catch (IOException e) {
+                        failure = new ApiException(e);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                if (null != watch) {
+                    watch.close();
+                }
+                if (null != call) {
+                    if (null != raw) {
+                        call.setResponseBytes(MetricsRegistry.utf8Length(raw));
+                    }
+                    if (null == failure) {
+                        call.succeeded();
+                    } else {
+                        call.failed(failure);
+                    }
+                }
+                record(sink, trace, failure);
+                if (null == failure) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            }
+        });
+        result.whenComplete(new BiConsumer<TResult, Throwable>() {
+            @Override
+            public void accept(TResult ignored, Throwable ex) {
+                if (ex instanceof CancellationException) {
+                    response.cancel(true);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param trace   the trace to make current while the request is handed to the request dispatcher, or null
+     * @param options the options to make current while the request is handed to the request dispatcher, or null
+     */
+    private CompletableFuture<String> dispatchRequestAsync(final String jsonRequest,
+                                                           final CallTrace trace,
+                                                           final CallOptions options) {
+        final RequestDispatcher dispatcher = getRequestDispatcher();
+        if (dispatcher instanceof AsyncRequestDispatcher) {
+            if (null == trace && null == options) {
+                return ((AsyncRequestDispatcher) dispatcher).dispatchRequestAsync(jsonRequest);
+            }
+            final CallTrace previousTrace = CallTrace.enter(trace);
+            final CallOptions previousOptions = CallOptions.enter(options);
+            try {
+                if (null != trace) {
+                    trace.dispatching();
+                }
+                return ((AsyncRequestDispatcher) dispatcher).dispatchRequestAsync(jsonRequest);
+            } finally {
+                CallOptions.exit(previousOptions);
+                CallTrace.exit(previousTrace);
+            }
+        }
+
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        try {
+            getAsyncExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (response.isDone()) {
+                        return;
+                    }
+                    final CallOptions previous = CallOptions.enter(options);
+                    try {
+                        response.complete(dispatchRequest(dispatcher, jsonRequest, trace));
+                    } catch (IOException | RuntimeException e) {
+                        response.completeExceptionally(e);
+                    } finally {
+                        CallOptions.exit(previous);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.completeExceptionally(new ApiException("The async executor rejected the request", e));
+        }
+        return response;
+    }
+
+    private <TResult, TRequest> void validateRequest(String method,
+                                                     TRequest requestParams,
+                                                     Class<TRequest> requestParamsClass,
+                                                     Class<TResult> resultParamsClass) {
         if (null == method || method.trim().isEmpty()) throw new IllegalArgumentException("method is null or empty");
         if (null == requestParams) throw new IllegalArgumentException("request params is null");
         if (null == requestParamsClass) throw new IllegalArgumentException("request params class is null");
@@ -111,23 +894,310 @@ public class ServiceBase {
                 throw new ApiException("The following parameters(s) are not applicable to this version of the API. " + methodParametersToString(valuesOfMethodsWithGreaterVersion.keySet()));
             }
         }
+    }
 
-        final String jsonRequest = encodeRequest(method, requestParams, requestParamsClass);
-        log.debug("Request: {}", jsonRequest);
+    /**
+     * The server reports an empty attributes object as an empty string; make it null so it decodes as a map.
+     */
+    private static String normalizeAttributes(String response) {
+        return response.replaceAll("\"attributes\":\"\"", "\"attributes\":null");
+    }
+
+    private <TResult> TResult decodeRawResponse(String response, Class<TResult> resultParamsClass) {
+        return decodeResponse(normalizeAttributes(response), resultParamsClass);
+    }
+
+    /**
+     * Decodes the response with the trace current, recording the time taken in it.
+     */
+    private <TResult> TResult decodeRawResponse(String response, Class<TResult> resultParamsClass, CallTrace trace) {
+        if (null == trace) {
+            return decodeRawResponse(response, resultParamsClass);
+        }
+        final CallTrace previous = CallTrace.enter(trace);
         try {
-            final String response;
-            response = getRequestDispatcher()
-                    .dispatchRequest(jsonRequest)
-                    .replaceAll("\"attributes\":\"\"", "\"attributes\":null");
+            final long start = System.nanoTime();
+            final TResult result = decodeRawResponse(response, resultParamsClass);
+            trace.decoded(System.nanoTime() - start);
+            return result;
+        } finally {
+            CallTrace.exit(previous);
+        }
+    }
 
-            return decodeResponse(response, resultParamsClass);
-        } catch (IOException ioe) {
-            throw new ApiException(ioe);
+    private static void logRequest(CallTrace trace, String jsonRequest) {
+        if (null == trace) {
+            log.debug("Request: {}", jsonRequest);
+        } else {
+            log.debug("Request {}: {}", trace.getTraceId(), jsonRequest);
+        }
+    }
+
+    /**
+     * Logs a streamed request each time it is written, as the string path logs the encoded request.
+     */
+    private static RequestBody logged(final RequestBody body, final CallTrace trace) {
+        return new RequestBody() {
+            @Override
+            public void writeTo(final OutputStream out) throws IOException {
+                final ByteArrayOutputStream copy = new ByteArrayOutputStream(1024);
+                body.writeTo(new FilterOutputStream(out) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        copy.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                        copy.write(b, off, len);
+                    }
+                });
+                logRequest(trace, new String(copy.toByteArray(), PooledHttpsRequestDispatcher.UTF_8));
+            }
+        };
+    }
+
+    /**
+     * Keeps a copy of a streamed response for the debug log.
+     */
+    private static final class LoggedReader extends FilterReader {
+        private final StringBuilder text = new StringBuilder(1024);
+
+        private LoggedReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int c = super.read();
+            if (c != -1) {
+                text.append((char) c);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) throws IOException {
+            final int n = super.read(buffer, off, len);
+            if (n > 0) {
+                text.append(buffer, off, n);
+            }
+            return n;
+        }
+
+        private String text() {
+            return text.toString();
         }
     }
 
     /**
-     * Constructs the JSON-RPC request.
+     * Hands the timing of a traced call to the sink.
+     *
+     * @param error the exception the call failed with, or null if it succeeded
+     */
+    private static void record(TimingSink sink, CallTrace trace, Throwable error) {
+        if (null == trace) {
+            return;
+        }
+        final CallTiming timing = trace.finish(error);
+        log.debug("Timing: {}", timing);
+        try {
+            sink.record(timing);
+        } catch (RuntimeException e) {
+            log.warn("The timing sink failed to record call {}", timing.getTraceId(), e);
+        }
+    }
+
+    /**
+     * Getter for property 'asyncExecutor'.
+     *
+     * @return Value for property 'asyncExecutor'.
+     */
+    public Executor getAsyncExecutor() {
+        final Executor executor = asyncExecutor;
+        return null != executor ? executor : DefaultAsyncExecutor.INSTANCE;
+    }
+
+    /**
+     * Sets the executor that runs blocking requests for {@link #sendRequestAsync} when the request dispatcher is not an
+     * {@link AsyncRequestDispatcher}. By default a shared pool of daemon threads is used.
+     *
+     * @param asyncExecutor the executor to use, or null to use the default
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Getter for property 'responseCache'.
+     *
+     * @return Value for property 'responseCache'.
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets the cache that answers repeated read-only calls, see {@link ResponseCache}. Results handed out from the
+     * cache are shared between callers and must not be modified.
+     *
+     * @param responseCache the cache to use, or null to send every call
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Getter for property 'singleFlight'.
+     *
+     * @return Value for property 'singleFlight'.
+     */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Sets what lets identical calls in flight at the same time share one request, see {@link SingleFlight}.
+     *
+     * @param singleFlight the single-flight to use, or null to send every call
+     */
+    public void setSingleFlight(SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    /**
+     * Adds an interceptor to the end of the chain every call passes, see {@link ServiceInterceptor}.
+     *
+     * @param interceptor the interceptor to add
+     */
+    public synchronized void addInterceptor(ServiceInterceptor interceptor) {
+        if (null == interceptor) throw new IllegalArgumentException("interceptor is null");
+        final ServiceInterceptor[] chain = Arrays.copyOf(interceptors, interceptors.length + 1);
+        chain[chain.length - 1] = interceptor;
+        interceptors = chain;
+    }
+
+    /**
+     * @param interceptor the interceptor to take out of the chain
+     * @return true if it was in the chain
+     */
+    public synchronized boolean removeInterceptor(ServiceInterceptor interceptor) {
+        final List<ServiceInterceptor> chain = new ArrayList<>(Arrays.asList(interceptors));
+        final boolean removed = chain.remove(interceptor);
+        interceptors = chain.toArray(new ServiceInterceptor[chain.size()]);
+        return removed;
+    }
+
+    /**
+     * @return the interceptors every call passes, in order
+     */
+    public List<ServiceInterceptor> getInterceptors() {
+        return Collections.unmodifiableList(Arrays.asList(interceptors));
+    }
+
+    private <TRequest> TRequest beforeEncode(String method, TRequest requestParams) {
+        TRequest params = requestParams;
+        for (ServiceInterceptor interceptor : interceptors) {
+            params = interceptor.beforeEncode(method, params);
+            if (null == params) throw new IllegalStateException(interceptor + " returned null request params");
+        }
+        return params;
+    }
+
+    private static <TResult> TResult afterDecode(ServiceInterceptor[] chain, String method, TResult result) {
+        TResult value = result;
+        for (int i = chain.length - 1; i >= 0; i--) {
+            value = chain[i].afterDecode(method, value);
+        }
+        return value;
+    }
+
+    /**
+     * Sends a request through the interceptors from the given one on, and through the terminal dispatch after the
+     * last one.
+     */
+    private static CompletableFuture<String> dispatchThrough(final ServiceInterceptor[] chain,
+                                                             final int index,
+                                                             final String method,
+                                                             final String request,
+                                                             final ServiceInterceptor.Dispatch terminal) {
+        if (index == chain.length) {
+            return terminal.proceed(request);
+        }
+        try {
+            final CompletableFuture<String> response = chain[index].aroundDispatch(method, request, new ServiceInterceptor.Dispatch() {
+                @Override
+                public CompletableFuture<String> proceed(String next) {
+                    return dispatchThrough(chain, index + 1, method, next, terminal);
+                }
+            });
+            if (null == response) throw new IllegalStateException(chain[index] + " returned no response");
+            return response;
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Getter for property 'metricsRegistry'.
+     *
+     * @return Value for property 'metricsRegistry'.
+     */
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Sets the registry that records the calls this service sends, see {@link MetricsRegistry}.
+     *
+     * @param metricsRegistry the registry to use, or null to record nothing
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Getter for property 'timingSink'.
+     *
+     * @return Value for property 'timingSink'.
+     */
+    public TimingSink getTimingSink() {
+        return timingSink;
+    }
+
+    /**
+     * Sets the sink that receives the phase timing of every call this service sends, see {@link CallTiming}. While
+     * a sink is set, each call is given a trace id that is sent in the {@code X-Request-ID} request header and
+     * logged with the request.
+     *
+     * @param timingSink the sink to use, or null to time nothing
+     */
+    public void setTimingSink(TimingSink timingSink) {
+        this.timingSink = timingSink;
+    }
+
+    /**
+     * @return the endpoint the calls of this service are recorded under, as named by the request dispatcher when it
+     * is a {@link DescribedRequestDispatcher}
+     */
+    private String getEndpointName() {
+        String name = endpointName;
+        if (null == name) {
+            name = endpointName = RequestDispatchers.describe(getRequestDispatcher());
+        }
+        return name;
+    }
+
+    private <TRequest> RequestKey requestKey(String method, TRequest requestParams, Class<TRequest> requestParamsClass) {
+        final JsonElement params = getGsonBuilder().create().toJsonTree(requestParams, requestParamsClass);
+        return RequestKey.of(getRequestDispatcher(), method, params);
+    }
+
+    /**
+     * Constructs the JSON-RPC request. A service that overrides it sends every request as a string, even through a
+     * {@link StreamingRequestDispatcher}.
      *
      * @param method             the api method name
      * @param requestParams      the object containing the request parameters
@@ -142,17 +1212,57 @@ public class ServiceBase {
         if (null == requestParamsClass) throw new IllegalArgumentException("request params class is null");
 
         final Gson gson = getGsonBuilder().create();
+        return gson.toJson(encodeRequestObject(gson, method, requestParams, requestParamsClass));
+    }
+
+    /**
+     * Constructs the JSON-RPC request as a body that writes the envelope and the request parameters straight to the
+     * connection, producing the same JSON as {@link #encodeRequest}.
+     */
+    private <TRequest> RequestBody encodeRequestBody(final String method,
+                                                     final TRequest requestParams,
+                                                     final Class<TRequest> requestParamsClass) {
+        final Gson gson = getGsonBuilder().create();
+        final long id = sessionId.incrementAndGet();
+        return new RequestBody() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                final JsonWriter writer = gson.newJsonWriter(new OutputStreamWriter(out, PooledHttpsRequestDispatcher.UTF_8));
+                writer.beginObject();
+                writer.name("id").value(id);
+                writer.name("method").value(method);
+                writer.name("json-rpc").value("2.0");
+                writer.name("params");
+                try {
+                    gson.toJson(requestParams, requestParamsClass, writer);
+                } catch (JsonIOException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw e;
+                }
+                writer.endObject();
+                writer.flush();
+            }
+        };
+    }
+
+    private <TRequest> JsonObject encodeRequestObject(Gson gson,
+                                                      String method,
+                                                      TRequest requestParams,
+                                                      Class<TRequest> requestParamsClass) {
         final JsonObject requestObj = new JsonObject();
         requestObj.addProperty("id", sessionId.incrementAndGet());
         requestObj.addProperty("method", method);
         requestObj.addProperty("json-rpc", "2.0");
         requestObj.add("params", gson.toJsonTree(requestParams, requestParamsClass));
-        return gson.toJson(requestObj);
+        return requestObj;
     }
 
 
     /**
-     * Decodes the JSON-RPC response.
+     * Decodes the JSON-RPC response. A service that overrides it reads every response as a string, even through a
+     * {@link StreamingRequestDispatcher}.
      *
      * @param response          the JSON encoded response
      * @param resultParamsClass the class (type) of the result object returned
@@ -173,12 +1283,7 @@ public class ServiceBase {
 
             checkForError(resultObj);
 
-            TResult result = gson.fromJson(resultObj.get("result"), resultParamsClass);
-
-            OptionalAdaptorUtils.initializeAllNullOptionalFieldsAsEmpty(result);
-            ArrayAdaptorUtils.convertAllArrayListsToArrays(result);
-
-            return result;
+            return convertResult(gson, resultObj.get("result"), resultParamsClass);
         } catch (ClassCastException e) {
             final Pattern pattern = Pattern.compile("<p> (.*?)</p>");
             final Matcher matcher = pattern.matcher(response);
@@ -193,6 +1298,323 @@ public class ServiceBase {
         }
     }
 
+    /**
+     * Decodes the JSON-RPC response in a single pass while it is read, binding the result straight to its type.
+     * <p/>
+     * A response that is not a JSON object, such as the HTML page of a "404 Not Found", is read into a string and
+     * decoded by {@link #decodeResponse(String, Class)}.
+     *
+     * @param response          the JSON encoded response
+     * @param resultParamsClass the class (type) of the result object returned
+     * @return the result (response) object
+     * @throws IOException if reading the response failed
+     */
+    protected <TResult> TResult decodeResponseStream(Reader response, Class<TResult> resultParamsClass) throws IOException {
+        final PushbackReader in = new PushbackReader(response, 1);
+        int first;
+        do {
+            first = in.read();
+        } while (first == ' ' || first == '\t' || first == '\r' || first == '\n');
+        if (first != '{') {
+            final StringBuilder text = new StringBuilder();
+            if (first != -1) {
+                text.append((char) first);
+            }
+            final char[] buffer = new char[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                text.append(buffer, 0, n);
+            }
+            return decodeResponse(text.toString(), resultParamsClass);
+        }
+        in.unread(first);
+
+        final Gson gson = getGsonBuilder().create();
+        final JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        try {
+            final JsonObject errorObj = new JsonObject();
+            TResult result = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if ("result".equals(name)) {
+                    result = gson.fromJson(reader, resultParamsClass);
+                } else if ("error".equals(name)) {
+                    errorObj.add("error", gson.<JsonElement>fromJson(reader, JsonElement.class));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            // Reading to the end lets a pooled connection be reused.
+            while (in.read() != -1) {
+            }
+
+            checkForError(errorObj);
+
+            return initializeResult(result);
+        } catch (MalformedJsonException | NullPointerException | IllegalStateException | JsonParseException e) {
+            throw new ApiException(format("There was a problem parsing the response from the server. ( %s )", reader), e);
+        }
+    }
+
+    private <TResult> TResult convertResult(Gson gson, JsonElement resultElem, Class<TResult> resultParamsClass) {
+        return initializeResult(gson.fromJson(resultElem, resultParamsClass));
+    }
+
+    private static <TResult> TResult initializeResult(TResult result) {
+        final CallTrace trace = CallTrace.current();
+        final long start = null != trace ? System.nanoTime() : 0;
+        OptionalAdaptorUtils.initializeAllNullOptionalFieldsAsEmpty(result);
+        ArrayAdaptorUtils.convertAllArrayListsToArrays(result);
+        if (null != trace) {
+            trace.adapted(System.nanoTime() - start);
+        }
+
+        return result;
+    }
+
+    /**
+     * Create a batch that sends several calls to this service in one JSON-RPC batch request.
+     *
+     * @return an empty batch
+     */
+    public BatchBase newBatch() {
+        return new BatchBase(this);
+    }
+
+    /**
+     * Validates and encodes one call of a batch.
+     */
+    <TResult, TRequest> BatchResult<TResult> newBatchCall(String method,
+                                                          TRequest requestParams,
+                                                          Class<TRequest> requestParamsClass,
+                                                          Class<TResult> resultParamsClass) {
+        validateRequest(method, requestParams, requestParamsClass, resultParamsClass);
+        final TRequest params = beforeEncode(method, requestParams);
+
+        final JsonObject requestObj = encodeRequestObject(getGsonBuilder().create(), method, params, requestParamsClass);
+        return new BatchResult<>(method, requestObj.get("id").getAsString(), requestObj, resultParamsClass);
+    }
+
+    /**
+     * Sends the calls as one JSON-RPC batch request and stores each call's outcome in its handle. Each call is
+     * recorded in the {@link MetricsRegistry} under its own method, with the latency of the whole batch; the sizes of
+     * the request and response are those of the batch, so they are not recorded per call.
+     *
+     * @throws ApiException if the batch as a whole failed
+     */
+    void sendBatchRequest(List<BatchResult<?>> calls) {
+        final String jsonRequest = encodeBatchRequest(calls);
+        log.debug("Request: {}", jsonRequest);
+        final RequestDispatcher dispatcher = getRequestDispatcher();
+        final ServiceInterceptor[] chain = interceptors;
+        final MetricsRegistry.Call[] recorded = startBatchCalls(calls);
+        Throwable thrown = null;
+        try {
+            final String response;
+            try {
+                if (chain.length == 0) {
+                    response = dispatcher.dispatchRequest(jsonRequest);
+                } else {
+                    response = await(dispatchThrough(chain, 0, ServiceInterceptor.BATCH, jsonRequest, new ServiceInterceptor.Dispatch() {
+                        @Override
+                        public CompletableFuture<String> proceed(String request) {
+                            try {
+                                return CompletableFuture.completedFuture(dispatcher.dispatchRequest(request));
+                            } catch (IOException | RuntimeException e) {
+                                return CompletableFuture.failedFuture(e);
+                            }
+                        }
+                    }));
+                }
+            } catch (IOException | RuntimeException e) {
+                throw failAll(calls, e instanceof ApiException ? (ApiException) e : new ApiException(e));
+            } finally {
+                batchCalled(dispatcher, calls);
+            }
+            decodeBatchResponse(normalizeAttributes(response), calls, chain);
+        } catch (RuntimeException | Error e) {
+            thrown = e;
+            throw e;
+        } finally {
+            finishBatchCalls(recorded, calls, thrown);
+        }
+    }
+
+    /**
+     * Sends the calls as one JSON-RPC batch request without waiting for the response, see {@link #sendBatchRequest}.
+     */
+    CompletableFuture<Void> sendBatchRequestAsync(final List<BatchResult<?>> calls) {
+        final String jsonRequest = encodeBatchRequest(calls);
+        log.debug("Request: {}", jsonRequest);
+
+        final RequestDispatcher dispatcher = getRequestDispatcher();
+        final ServiceInterceptor[] chain = interceptors;
+        final MetricsRegistry.Call[] recorded = startBatchCalls(calls);
+        final CompletableFuture<String> response;
+        if (chain.length == 0) {
+            response = dispatchRequestAsync(jsonRequest, null, null);
+        } else {
+            response = dispatchThrough(chain, 0, ServiceInterceptor.BATCH, jsonRequest, new ServiceInterceptor.Dispatch() {
+                @Override
+                public CompletableFuture<String> proceed(String request) {
+                    return dispatchRequestAsync(request, null, null);
+                }
+            });
+        }
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        response.whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String raw, Throwable ex) {
+                batchCalled(dispatcher, calls);
+                Throwable failure = null;
+                if (null != ex) {
+                    failure = failAll(calls, ex instanceof ApiException ? (ApiException) ex : new ApiException(ex));
+                } else {
+                    try {
+                        decodeBatchResponse(normalizeAttributes(raw), calls, chain);
+                    } catch (RuntimeException | Error e) {
+                        failure = e;
+                    }
+                }
+                finishBatchCalls(recorded, calls, failure);
+                if (null != failure) {
+                    done.completeExceptionally(failure);
+                } else {
+                    done.complete(null);
+                }
+            }
+        });
+        return done;
+    }
+
+    /**
+     * @return the metrics of each call of a batch, or null when the service records none
+     */
+    private MetricsRegistry.Call[] startBatchCalls(List<BatchResult<?>> calls) {
+        final MetricsRegistry registry = metricsRegistry;
+        if (null == registry) {
+            return null;
+        }
+        final String endpoint = getEndpointName();
+        final MetricsRegistry.Call[] recorded = new MetricsRegistry.Call[calls.size()];
+        for (int i = 0; i < recorded.length; i++) {
+            recorded[i] = registry.start(endpoint, calls.get(i).getMethod());
+        }
+        return recorded;
+    }
+
+    /**
+     * Records the outcome of each call of a batch, or the failure of the batch for a call that has none.
+     */
+    private static void finishBatchCalls(MetricsRegistry.Call[] recorded, List<BatchResult<?>> calls, Throwable thrown) {
+        if (null == recorded) {
+            return;
+        }
+        for (int i = 0; i < recorded.length; i++) {
+            final BatchResult<?> call = calls.get(i);
+            if (call.isDone() && call.isSuccessful()) {
+                recorded[i].succeeded();
+            } else {
+                recorded[i].failed(call.isDone() ? call.getError() : thrown);
+            }
+        }
+    }
+
+    /**
+     * Drops the cached results the calls of a batch may have changed, as {@link #sendRequest} does for a single call.
+     */
+    private void batchCalled(RequestDispatcher dispatcher, List<BatchResult<?>> calls) {
+        final ResponseCache cache = responseCache;
+        if (null != cache) {
+            for (BatchResult<?> call : calls) {
+                cache.called(dispatcher, call.getMethod());
+            }
+        }
+    }
+
+    private String encodeBatchRequest(List<BatchResult<?>> calls) {
+        final JsonArray batch = new JsonArray();
+        for (BatchResult<?> call : calls) {
+            batch.add(call.getRequest());
+        }
+        return getGsonBuilder().create().toJson(batch);
+    }
+
+    /**
+     * Decodes a JSON-RPC batch response, matching each response element to its call by id.
+     *
+     * @param response the JSON encoded response
+     * @param calls    the calls that were sent in the batch
+     * @throws ApiException if the response is not a batch response, in which case every call reports the same error
+     */
+    protected void decodeBatchResponse(String response, List<BatchResult<?>> calls) {
+        decodeBatchResponse(response, calls, interceptors);
+    }
+
+    private void decodeBatchResponse(String response, List<BatchResult<?>> calls, ServiceInterceptor[] chain) {
+        log.debug("Response: {}", response);
+
+        final Gson gson = getGsonBuilder().create();
+        final JsonElement responseElem;
+        try {
+            final JsonReader reader = new JsonReader(new StringReader(response));
+            reader.setLenient(true);
+            responseElem = gson.fromJson(reader, JsonElement.class);
+        } catch (JsonParseException e) {
+            throw failAll(calls, new ApiException(format("There was a problem parsing the response from the server. ( response=%s )", response), e));
+        }
+
+        if (null != responseElem && responseElem.isJsonObject() && responseElem.getAsJsonObject().has("error")) {
+            // The server rejected the batch as a whole, e.g. because it could not parse it.
+            throw failAll(calls, extractApiError(responseElem.getAsJsonObject().get("error")));
+        }
+        if (null == responseElem || !responseElem.isJsonArray()) {
+            throw failAll(calls, new ApiException(format("There was a problem parsing the response from the server. ( response=%s )", response)));
+        }
+
+        final Map<String, JsonObject> responsesById = new HashMap<>();
+        for (JsonElement elem : responseElem.getAsJsonArray()) {
+            if (elem.isJsonObject() && elem.getAsJsonObject().has("id") && !elem.getAsJsonObject().get("id").isJsonNull()) {
+                responsesById.put(elem.getAsJsonObject().get("id").getAsString(), elem.getAsJsonObject());
+            }
+        }
+        for (BatchResult<?> call : calls) {
+            decodeBatchElement(gson, call, responsesById.get(call.getId()), chain);
+        }
+    }
+
+    private <TResult> void decodeBatchElement(Gson gson, BatchResult<TResult> call, JsonObject responseObj, ServiceInterceptor[] chain) {
+        if (null == responseObj) {
+            call.fail(new ApiException(format("The server sent no response for \"%s\" ( id=%s )", call.getMethod(), call.getId())));
+        } else if (responseObj.has("error")) {
+            call.fail(extractApiError(responseObj.get("error")));
+        } else {
+            final TResult result;
+            try {
+                result = convertResult(gson, responseObj.get("result"), call.getResultParamsClass());
+            } catch (NullPointerException | ClassCastException | JsonParseException e) {
+                call.fail(new ApiException(format("There was a problem parsing the response from the server. ( response=%s )", responseObj), e));
+                return;
+            }
+            try {
+                call.complete(afterDecode(chain, call.getMethod(), result));
+            } catch (RuntimeException e) {
+                call.fail(e instanceof ApiException ? (ApiException) e : new ApiException(e));
+            }
+        }
+    }
+
+    private static ApiException failAll(List<BatchResult<?>> calls, ApiException error) {
+        for (BatchResult<?> call : calls) {
+            call.fail(error);
+        }
+        return error;
+    }
+
     protected void checkForError(JsonObject resultObj) throws ApiServerException {
         if (resultObj.has("error")) {
             throw extractApiError(resultObj.get("error"));
@@ -208,5 +1630,21 @@ public class ServiceBase {
     protected ApiServerException extractApiError(JsonElement errorElem) {
         return getGsonBuilder().create().fromJson(errorElem, ApiServerException.class);
     }
+
+    /**
+     * Lazily created so that services which never call {@link #sendRequestAsync} never start a thread.
+     */
+    static final class DefaultAsyncExecutor {
+        static final Executor INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "jsvcgen-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
 }
 
@@ -0,0 +1,81 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.jsvcgen.javautil.CompletableFuture;
+
+/**
+ * Hooks into the calls of a {@link ServiceBase}, added with {@link ServiceBase#addInterceptor}. Each call passes the
+ * interceptors in the order they were added on its way out, and in the reverse order on its way back:
+ * <ol>
+ * <li>{@link #beforeEncode} may look at or replace the request parameters,</li>
+ * <li>{@link #aroundDispatch} wraps sending the encoded request and receiving the raw response,</li>
+ * <li>{@link #afterDecode} may look at or replace the decoded result.</li>
+ * </ol>
+ * The same hooks serve {@link ServiceBase#sendRequest} and {@link ServiceBase#sendRequestAsync}; for a blocking call
+ * the future handed back by {@link Dispatch#proceed} is already complete. A {@link RuntimeException} thrown by a hook
+ * fails the call. Each call of a {@link BatchBase} passes {@link #beforeEncode} and {@link #afterDecode} on its own,
+ * while the batch request is sent through {@link #aroundDispatch} once, with {@link #BATCH} as its method. Extend
+ * {@link ServiceInterceptorAdapter} to implement only some of the hooks.
+ */
+public interface ServiceInterceptor {
+
+    /**
+     * The method {@link #aroundDispatch} is called with for a JSON-RPC batch request.
+     */
+    String BATCH = "batch";
+
+    /**
+     * Called before the request is encoded, and before it is looked up in a {@link ResponseCache}.
+     *
+     * @param method        the api method name
+     * @param requestParams the request parameters
+     * @return the request parameters to send, of the same class
+     */
+    <TRequest> TRequest beforeEncode(String method, TRequest requestParams);
+
+    /**
+     * Sends the encoded request by calling {@code next.proceed}, possibly changing the request or the response,
+     * sending it again, or answering without sending it.
+     *
+     * @param method  the api method name
+     * @param request the JSON-RPC request
+     * @param next    the rest of the chain, ending in the request dispatcher
+     * @return a future holding the JSON-RPC response; an {@link java.io.IOException} it fails with is thrown as an
+     * {@link ApiException}
+     */
+    CompletableFuture<String> aroundDispatch(String method, String request, Dispatch next);
+
+    /**
+     * Called with the result decoded from a successful response.
+     *
+     * @param method the api method name
+     * @param result the decoded result
+     * @return the result to hand to the caller
+     */
+    <TResult> TResult afterDecode(String method, TResult result);
+
+    /**
+     * The rest of an interceptor chain.
+     */
+    interface Dispatch {
+        /**
+         * @param request the JSON-RPC request to send
+         * @return a future holding the JSON-RPC response
+         */
+        CompletableFuture<String> proceed(String request);
+    }
+}
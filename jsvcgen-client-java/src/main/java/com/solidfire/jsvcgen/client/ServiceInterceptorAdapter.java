@@ -0,0 +1,42 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.jsvcgen.javautil.CompletableFuture;
+
+/**
+ * A {@link ServiceInterceptor} whose hooks pass everything through unchanged.
+ */
+public abstract class ServiceInterceptorAdapter implements ServiceInterceptor {
+
+    /** {@inheritDoc} */
+    @Override
+    public <TRequest> TRequest beforeEncode(String method, TRequest requestParams) {
+        return requestParams;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<String> aroundDispatch(String method, String request, Dispatch next) {
+        return next.proceed(request);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <TResult> TResult afterDecode(String method, TResult result) {
+        return result;
+    }
+}
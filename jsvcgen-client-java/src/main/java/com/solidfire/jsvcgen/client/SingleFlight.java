@@ -0,0 +1,220 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.jsvcgen.javautil.BiConsumer;
+import com.solidfire.jsvcgen.javautil.CompletableFuture;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets identical calls that are in flight at the same time share one request. Set it on a service with
+ * {@link ServiceBase#setSingleFlight}; a call to an eligible method made while the same call, with equal parameters and
+ * through the same request dispatcher, is waiting for its response does not send a request but gets the result (or
+ * the exception) of the call already in flight.
+ * <p/>
+ * Only the methods made eligible are coalesced, and these should not change anything on the server. Results are
+ * handed to every caller that waited for them, so they must not be modified. Cancelling the future of a coalesced
+ * {@link ServiceBase#sendRequestAsync} call only stops that caller from waiting; the request is still sent for the
+ * others.
+ */
+public class SingleFlight {
+
+    private final Set<String> methods = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<RequestKey, Shared> flights = new ConcurrentHashMap<>();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param methods the api method names whose calls are coalesced
+     */
+    public SingleFlight(String... methods) {
+        for (String method : methods) {
+            addMethod(method);
+        }
+    }
+
+    /**
+     * Makes the calls of a method eligible for coalescing.
+     *
+     * @param method the api method name
+     */
+    public void addMethod(String method) {
+        if (null == method || method.trim().isEmpty()) throw new IllegalArgumentException("method is null or empty");
+        methods.add(method);
+    }
+
+    /**
+     * @param method the api method name
+     */
+    public void removeMethod(String method) {
+        methods.remove(method);
+    }
+
+    /**
+     * Getter for property 'methods'.
+     *
+     * @return Value for property 'methods'.
+     */
+    public Set<String> getMethods() {
+        return Collections.unmodifiableSet(methods);
+    }
+
+    /**
+     * @return the number of eligible calls that sent a request
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * @return the number of calls that shared the request of another call instead of sending their own
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the number of requests in flight that calls can join
+     */
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    boolean isEligible(String method) {
+        return methods.contains(method);
+    }
+
+    /**
+     * Joins the call in flight with the given key, or starts one. The caller that started the flight has to send the
+     * request and hand its outcome to {@link Flight#complete} or {@link Flight#fail}.
+     *
+     * @return the flight, or null if a call with the same key but another result class is in flight
+     */
+    Flight join(RequestKey key, Class<?> resultClass) {
+        final Shared started = new Shared(resultClass);
+        final Shared shared = flights.putIfAbsent(key, started);
+        if (null == shared) {
+            sent.incrementAndGet();
+            return new Flight(key, started, true);
+        }
+        if (shared.resultClass != resultClass) {
+            return null;
+        }
+        coalesced.incrementAndGet();
+        return new Flight(key, shared, false);
+    }
+
+    @Override
+    public String toString() {
+        return "SingleFlight{ methods : " + Arrays.toString(methods.toArray()) +
+                ", sent : " + sent.get() +
+                ", coalesced : " + coalesced.get() +
+                ", inFlight : " + flights.size() + " }";
+    }
+
+    private static final class Shared {
+        private final Class<?> resultClass;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        private Shared(Class<?> resultClass) {
+            this.resultClass = resultClass;
+        }
+    }
+
+    /**
+     * One caller's part in a shared call.
+     */
+    final class Flight {
+        private final RequestKey key;
+        private final Shared shared;
+        private final boolean leader;
+
+        private Flight(RequestKey key, Shared shared, boolean leader) {
+            this.key = key;
+            this.shared = shared;
+            this.leader = leader;
+        }
+
+        /**
+         * @return true if this caller has to send the request
+         */
+        boolean isLeader() {
+            return leader;
+        }
+
+        void complete(Object result) {
+            flights.remove(key, shared);
+            shared.result.complete(result);
+        }
+
+        void fail(Throwable ex) {
+            flights.remove(key, shared);
+            shared.result.completeExceptionally(ex);
+        }
+
+        /**
+         * Waits for the call in flight.
+         *
+         * @return its result
+         * @throws RuntimeException the exception the call in flight failed with
+         */
+        <TResult> TResult await(Class<TResult> resultClass) {
+            try {
+                return resultClass.cast(shared.result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ApiException("Interrupted while waiting for an identical call in flight", e);
+            } catch (ExecutionException e) {
+                throw asRuntimeException(e.getCause());
+            }
+        }
+
+        /**
+         * @return a future completed with the outcome of the call in flight
+         */
+        <TResult> CompletableFuture<TResult> future(final Class<TResult> resultClass) {
+            final CompletableFuture<TResult> result = new CompletableFuture<>();
+            shared.result.whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(Object value, Throwable ex) {
+                    if (null != ex) {
+                        result.completeExceptionally(ex);
+                    } else {
+                        result.complete(resultClass.cast(value));
+                    }
+                }
+            });
+            return result;
+        }
+    }
+
+    private static RuntimeException asRuntimeException(Throwable ex) {
+        if (ex instanceof RuntimeException) {
+            return (RuntimeException) ex;
+        }
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        return new ApiException(ex);
+    }
+}
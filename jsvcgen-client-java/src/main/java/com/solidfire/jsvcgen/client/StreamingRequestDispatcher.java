@@ -0,0 +1,35 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A request dispatcher that encodes a request while sending it and hands out the response while it is still being
+ * received, so that neither has to be held in memory as a string.
+ */
+public interface StreamingRequestDispatcher extends RequestDispatcher {
+    /**
+     * Dispatch a request to the system and return the response as soon as it starts to arrive. The caller must close
+     * the returned reader.
+     *
+     * @param request The request to send to the remote server.
+     * @return A reader of the server's response.
+     * @throws IOException if anything went wrong on the connection side of things.
+     */
+    Reader dispatchRequestStream(RequestBody request) throws IOException;
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that threads add to without contending with each other: each thread adds to one of several cells, each on
+ * its own cache line, and reading the counter sums the cells.
+ */
+final class StripedCounter {
+
+    private static final int STRIPES = stripes();
+    // Longs per 64 byte cache line.
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long x) {
+        cells.getAndAdd(((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING, x);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private static int stripes() {
+        final int wanted = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+        return Integer.highestOneBit(Math.max(1, wanted - 1)) << 1;
+    }
+}
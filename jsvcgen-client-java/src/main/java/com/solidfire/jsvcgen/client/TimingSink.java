@@ -0,0 +1,28 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+/**
+ * Receives the phase timing of every call a service sends, see {@link ServiceBase#setTimingSink(TimingSink)}.
+ */
+public interface TimingSink {
+    /**
+     * Called on the thread that completes the call, before the caller sees its result; it should not block.
+     *
+     * @param timing the timing of a finished call
+     */
+    void record(CallTiming timing);
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.lang.ref.WeakReference;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * An SSL socket factory meant to be shared by every connection with the same trust configuration, so that they share
+ * one TLS session cache and a connection to a host it has already talked to resumes the session instead of running
+ * a full handshake.
+ * <p/>
+ * Sockets keep the protocols the runtime enables by default, less SSLv3 and TLSv1, so TLSv1.3 is used wherever both
+ * ends have it. Every handshake is counted and timed, see {@link #getStatistics()}. Sockets are only made connected, or
+ * over a connected socket, so that the time of a handshake does not include the TCP connect. A factory made from an
+ * {@link SSLContext} also creates the engines of non-blocking connections, which count towards the same statistics.
+ */
+public final class TlsSocketFactory extends SSLSocketFactory {
+
+    private static final List<String> LEGACY_PROTOCOLS = Arrays.asList("SSLv2Hello", "SSLv3", "TLSv1");
+
+    // The factory refers to its context, so the map only holds it weakly; it lives as long as a dispatcher uses it.
+    private static final Map<SSLContext, WeakReference<TlsSocketFactory>> contextFactories = new WeakHashMap<>();
+    private static volatile TlsSocketFactory defaultFactory;
+
+    private final SSLSocketFactory delegate;
+    private final SSLContext context;
+
+    private long sockets;
+    private long handshakes;
+    private long resumedHandshakes;
+    private long totalHandshakeNanos;
+    private long maxHandshakeNanos;
+
+    /**
+     * Wraps a socket factory. Each instance keeps its own statistics; share one instance rather than wrapping the same
+     * factory again.
+     *
+     * @param delegate the factory that creates the sockets
+     */
+    public TlsSocketFactory(SSLSocketFactory delegate) {
+        if (null == delegate) throw new IllegalArgumentException("delegate is null");
+        this.delegate = delegate;
+        this.context = null;
+    }
+
+    /**
+     * Wraps the socket factory of a TLS context, and creates engines from the context as well. Prefer
+     * {@link #forContext(SSLContext)}, which shares one instance per context.
+     *
+     * @param context the TLS configuration
+     */
+    public TlsSocketFactory(SSLContext context) {
+        if (null == context) throw new IllegalArgumentException("context is null");
+        this.delegate = context.getSocketFactory();
+        this.context = context;
+    }
+
+    /**
+     * @return the shared factory over {@link HttpsURLConnection#getDefaultSSLSocketFactory()}, which verifies
+     * certificates against the default trust store; a new one is made when the default factory is replaced
+     */
+    public static TlsSocketFactory getDefault() {
+        final SSLSocketFactory platformDefault = HttpsURLConnection.getDefaultSSLSocketFactory();
+        TlsSocketFactory factory = defaultFactory;
+        if (null == factory || factory.delegate != platformDefault) {
+            synchronized (TlsSocketFactory.class) {
+                factory = defaultFactory;
+                if (null == factory || factory.delegate != platformDefault) {
+                    factory = defaultFactory = new TlsSocketFactory(platformDefault);
+                }
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * @param context the TLS configuration
+     * @return the factory shared by everything using the given context
+     */
+    public static TlsSocketFactory forContext(SSLContext context) {
+        if (null == context) throw new IllegalArgumentException("context is null");
+        synchronized (contextFactories) {
+            final WeakReference<TlsSocketFactory> reference = contextFactories.get(context);
+            TlsSocketFactory factory = null != reference ? reference.get() : null;
+            if (null == factory) {
+                factory = new TlsSocketFactory(context);
+                contextFactories.put(context, new WeakReference<>(factory));
+            }
+            return factory;
+        }
+    }
+
+    /**
+     * @return the shared factory that accepts any server certificate
+     */
+    public static TlsSocketFactory getTrustingAll() {
+        return TrustingAll.INSTANCE;
+    }
+
+    /**
+     * @return the handshakes made by sockets from this factory
+     */
+    public synchronized TlsStatistics getStatistics() {
+        return new TlsStatistics(sockets, handshakes, resumedHandshakes, totalHandshakeNanos, maxHandshakeNanos);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    /**
+     * Unconnected sockets are not made, as the handshake of one would be timed from before its connect.
+     * {@link HttpsURLConnection} then connects a plain socket and layers a socket from this factory over it.
+     *
+     * @throws SocketException always, caused by an {@link UnsupportedOperationException}
+     */
+    @Override
+    public Socket createSocket() throws IOException {
+        final SocketException e = new SocketException("Unconnected sockets not implemented");
+        e.initCause(new UnsupportedOperationException());
+        throw e;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+        return configure(delegate.createSocket(socket, host, port, autoClose));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return configure(delegate.createSocket(host, port));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return configure(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return configure(delegate.createSocket(host, port));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return configure(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    /**
+     * Creates the client engine of a non-blocking connection; the connection reports the end of its handshake with
+     * {@link #handshakeCompleted}.
+     *
+     * @throws IllegalStateException if the factory was not made from an {@link SSLContext}
+     */
+    SSLEngine createSSLEngine(String host, int port) {
+        if (null == context) throw new IllegalStateException("The factory was not made from an SSLContext");
+        final SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        engine.setEnabledProtocols(withoutLegacyProtocols(engine.getEnabledProtocols()));
+        synchronized (this) {
+            sockets++;
+        }
+        return engine;
+    }
+
+    /**
+     * Records the handshake of an engine from {@link #createSSLEngine}.
+     *
+     * @param nanos         the time the handshake took
+     * @param session       the session it established
+     * @param startedMillis the wall clock time at which it began
+     */
+    void handshakeCompleted(long nanos, SSLSession session, long startedMillis) {
+        // A resumed session was created by an earlier handshake.
+        recordHandshake(nanos, session.getCreationTime() < startedMillis);
+    }
+
+    private Socket configure(Socket socket) {
+        if (!(socket instanceof SSLSocket)) {
+            return socket;
+        }
+        final SSLSocket ssl = (SSLSocket) socket;
+        ssl.setEnabledProtocols(withoutLegacyProtocols(ssl.getEnabledProtocols()));
+
+        // The socket is connected, so its handshake starts now: explicitly or with the first read or write.
+        final long createdNanos = System.nanoTime();
+        final long createdMillis = System.currentTimeMillis();
+        ssl.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+            @Override
+            public void handshakeCompleted(HandshakeCompletedEvent event) {
+                // A resumed session was created by an earlier handshake.
+                recordHandshake(System.nanoTime() - createdNanos, event.getSession().getCreationTime() < createdMillis);
+            }
+        });
+        synchronized (this) {
+            sockets++;
+        }
+        return ssl;
+    }
+
+    private synchronized void recordHandshake(long nanos, boolean resumed) {
+        handshakes++;
+        if (resumed) {
+            resumedHandshakes++;
+        }
+        totalHandshakeNanos += nanos;
+        maxHandshakeNanos = Math.max(maxHandshakeNanos, nanos);
+    }
+
+    /**
+     * @return the enabled protocols less SSLv3, TLSv1 and the SSLv2 hello, or all of them if nothing else is enabled
+     */
+    static String[] withoutLegacyProtocols(String[] enabledProtocols) {
+        final List<String> list = new ArrayList<>();
+        for (String protocol : enabledProtocols) {
+            if (!LEGACY_PROTOCOLS.contains(protocol)) {
+                list.add(protocol);
+            }
+        }
+        return list.isEmpty() ? enabledProtocols : list.toArray(new String[list.size()]);
+    }
+
+    private static final class TrustingAll {
+        static final TlsSocketFactory INSTANCE = new TlsSocketFactory(createContext());
+
+        private static SSLContext createContext() {
+            final TrustManager[] trustAllCerts = new TrustManager[]{
+                    new X509TrustManager() {
+                        @Override
+                        public X509Certificate[] getAcceptedIssuers() {
+                            return new X509Certificate[0];
+                        }
+
+                        @Override
+                        public void checkClientTrusted(X509Certificate[] certs, String authType) {
+                        }
+
+                        @Override
+                        public void checkServerTrusted(X509Certificate[] certs, String authType) {
+                        }
+                    }
+            };
+            try {
+                final SSLContext sc = SSLContext.getInstance("TLS");
+                sc.init(null, trustAllCerts, new SecureRandom());
+                return sc;
+            } catch (NoSuchAlgorithmException nsae) {
+                throw new RuntimeException("Couldn't get TLS from SSLContext", nsae);
+            } catch (KeyManagementException kme) {
+                throw new RuntimeException("Failed to initialize SSLContext", kme);
+            }
+        }
+    }
+}
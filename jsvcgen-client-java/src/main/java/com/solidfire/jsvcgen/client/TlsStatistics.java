@@ -0,0 +1,93 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point-in-time snapshot of the TLS handshakes made through a {@link TlsSocketFactory}.
+ */
+public final class TlsStatistics implements Serializable {
+
+    private static final long serialVersionUID = -2871361050278391547L;
+
+    private final long sockets;
+    private final long handshakes;
+    private final long resumedHandshakes;
+    private final long totalHandshakeNanos;
+    private final long maxHandshakeNanos;
+
+    TlsStatistics(long sockets, long handshakes, long resumedHandshakes, long totalHandshakeNanos, long maxHandshakeNanos) {
+        this.sockets = sockets;
+        this.handshakes = handshakes;
+        this.resumedHandshakes = resumedHandshakes;
+        this.totalHandshakeNanos = totalHandshakeNanos;
+        this.maxHandshakeNanos = maxHandshakeNanos;
+    }
+
+    /**
+     * @return the number of TLS sockets created
+     */
+    public long getSockets() {
+        return sockets;
+    }
+
+    /**
+     * @return the number of handshakes completed, including the resumed ones
+     */
+    public long getHandshakes() {
+        return handshakes;
+    }
+
+    /**
+     * @return the number of handshakes that resumed a cached session instead of negotiating a new one
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes;
+    }
+
+    /**
+     * @return the number of handshakes that negotiated a new session
+     */
+    public long getFullHandshakes() {
+        return handshakes - resumedHandshakes;
+    }
+
+    /**
+     * @return the average time in milliseconds from creating a socket to completing its handshake, or 0 if no
+     * handshake completed
+     */
+    public double getAverageHandshakeMillis() {
+        return handshakes == 0 ? 0 : (double) totalHandshakeNanos / handshakes / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the longest time in milliseconds from creating a socket to completing its handshake
+     */
+    public double getMaxHandshakeMillis() {
+        return (double) maxHandshakeNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "TlsStatistics{ sockets : " + sockets +
+                ", handshakes : " + handshakes +
+                ", resumedHandshakes : " + resumedHandshakes +
+                ", averageHandshakeMillis : " + String.format("%.3f", getAverageHandshakeMillis()) +
+                ", maxHandshakeMillis : " + String.format("%.3f", getMaxHandshakeMillis()) + " }";
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The running byte counts of a dispatcher, and the listener told about each call.
+ */
+final class TransferCounters {
+
+    private static final Logger log = LoggerFactory.getLogger(TransferCounters.class);
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong requestWireBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong responseWireBytes = new AtomicLong();
+    private volatile TransferListener listener;
+
+    void record(long requestBytes, long requestWireBytes, long responseBytes, long responseWireBytes) {
+        this.calls.incrementAndGet();
+        this.requestBytes.addAndGet(requestBytes);
+        this.requestWireBytes.addAndGet(requestWireBytes);
+        this.responseBytes.addAndGet(responseBytes);
+        this.responseWireBytes.addAndGet(responseWireBytes);
+
+        final TransferListener listener = this.listener;
+        if (null != listener) {
+            try {
+                listener.transferCompleted(new TransferStatistics(1, requestBytes, requestWireBytes, responseBytes, responseWireBytes));
+            } catch (RuntimeException e) {
+                log.warn("Transfer listener failed", e);
+            }
+        }
+    }
+
+    TransferStatistics snapshot() {
+        return new TransferStatistics(calls.get(), requestBytes.get(), requestWireBytes.get(), responseBytes.get(), responseWireBytes.get());
+    }
+
+    void setListener(TransferListener listener) {
+        this.listener = listener;
+    }
+}
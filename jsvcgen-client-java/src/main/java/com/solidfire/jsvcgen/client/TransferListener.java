@@ -0,0 +1,29 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+/**
+ * Receives the byte counts of every request a dispatcher completes.
+ */
+public interface TransferListener {
+    /**
+     * Called once the response of a request has been read. Called on the thread that read the response, so it should
+     * return quickly.
+     *
+     * @param call the byte counts of the request and its response
+     */
+    void transferCompleted(TransferStatistics call);
+}
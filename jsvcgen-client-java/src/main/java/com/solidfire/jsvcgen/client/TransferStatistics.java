@@ -0,0 +1,92 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import java.io.Serializable;
+
+/**
+ * The number of bytes sent and received by a dispatcher, before and after compression. Describes either a single call
+ * or, as a point-in-time snapshot, all calls of a dispatcher.
+ */
+public final class TransferStatistics implements Serializable {
+
+    private static final long serialVersionUID = 6503521918042238147L;
+
+    private final long calls;
+    private final long requestBytes;
+    private final long requestWireBytes;
+    private final long responseBytes;
+    private final long responseWireBytes;
+
+    TransferStatistics(long calls, long requestBytes, long requestWireBytes, long responseBytes, long responseWireBytes) {
+        this.calls = calls;
+        this.requestBytes = requestBytes;
+        this.requestWireBytes = requestWireBytes;
+        this.responseBytes = responseBytes;
+        this.responseWireBytes = responseWireBytes;
+    }
+
+    /**
+     * @return the number of completed calls
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return the number of request body bytes before compression
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * @return the number of request body bytes sent, after compression
+     */
+    public long getRequestWireBytes() {
+        return requestWireBytes;
+    }
+
+    /**
+     * @return the number of response body bytes after decompression
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * @return the number of response body bytes received, before decompression
+     */
+    public long getResponseWireBytes() {
+        return responseWireBytes;
+    }
+
+    /**
+     * @return the number of body bytes compression kept off the wire, in both directions
+     */
+    public long getSavedBytes() {
+        return requestBytes - requestWireBytes + responseBytes - responseWireBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferStatistics{ calls : " + calls +
+                ", requestBytes : " + requestBytes +
+                ", requestWireBytes : " + requestWireBytes +
+                ", responseBytes : " + responseBytes +
+                ", responseWireBytes : " + responseWireBytes + " }";
+    }
+}
@@ -56,6 +56,25 @@ public class VersioningUtils {
                 && possibleVersion.matches("^\\d{1,3}.\\d{1,2}$");
     }
 
+    /**
+     * Compares two versions by their major and then their minor number, so that 10.0 comes after 9.0. Strings that are
+     * not versions, see {@link #isVersionString(String)}, are compared as strings.
+     *
+     * @param version      the version to compare
+     * @param otherVersion the version to compare it to
+     * @return a negative number, zero or a positive number as the version is less than, equal to or greater than the
+     * other version
+     */
+    public static int compareVersions(final String version, final String otherVersion) {
+        if (!isVersionString(version) || !isVersionString(otherVersion)) {
+            return version.compareTo(otherVersion);
+        }
+        final String[] parts = version.split("\\D", 2);
+        final String[] otherParts = otherVersion.split("\\D", 2);
+        final int major = Integer.parseInt(parts[0]) - Integer.parseInt(otherParts[0]);
+        return major != 0 ? major : Integer.parseInt(parts[1]) - Integer.parseInt(otherParts[1]);
+    }
+
     /**
      * Confirms a version string is greater than a base version string
      *
@@ -64,7 +83,7 @@ public class VersioningUtils {
      * @return true if the checked version is greater than the base version, otherwise false
      */
     public static boolean isVersionGreater(final String baseVersion, final String checkedVersion) {
-        return baseVersion.compareTo(checkedVersion) < 0;
+        return compareVersions(baseVersion, checkedVersion) < 0;
     }
 
     /**
@@ -75,7 +94,7 @@ public class VersioningUtils {
      * @return true if the checked version is greater than  or equal to the base version, otherwise false
      */
     public static boolean isVersionGreaterOrEqual(final String baseVersion, final String checkedVersion) {
-        return baseVersion.compareTo(checkedVersion) <= 0;
+        return compareVersions(baseVersion, checkedVersion) <= 0;
     }
 
     /**
@@ -86,7 +105,7 @@ public class VersioningUtils {
      * @return true if the checked version is less than the base version, otherwise false
      */
     public static boolean isVersionLess(final String baseVersion, final String checkedVersion) {
-        return baseVersion.compareTo(checkedVersion) > 0;
+        return compareVersions(baseVersion, checkedVersion) > 0;
     }
 
     /**
@@ -97,7 +116,7 @@ public class VersioningUtils {
      * @return true if the checked version is less than or equal to the base version, otherwise false
      */
     public static boolean isVersionLessOrEqual(final String baseVersion, final String checkedVersion) {
-        return baseVersion.compareTo(checkedVersion) >= 0;
+        return compareVersions(baseVersion, checkedVersion) >= 0;
     }
 
     /**
@@ -0,0 +1,31 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.javautil;
+
+/**
+ * An operation that accepts two input arguments and returns no result.
+ *
+ * @param <T> The type of the first input.
+ * @param <U> The type of the second input.
+ */
+public interface BiConsumer<T, U> {
+    /**
+     * Performs this operation on the given arguments.
+     * @param t the first input argument
+     * @param u the second input argument
+     */
+    void accept(T t, U u);
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.javautil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A subset of the Java 8 CompletableFuture type: a Future that is completed explicitly and runs dependent actions
+ * when it completes.
+ * <p/>
+ * Dependent actions run on the thread that completes the future, or on the calling thread if the future is already
+ * complete when they are added.
+ *
+ * @param <T> The result type.
+ */
+public class CompletableFuture<T> implements Future<T> {
+
+    private final Object lock = new Object();
+    private List<Runnable> actions = new ArrayList<>(2);
+    private boolean done;
+    private T value;
+    private Throwable failure;
+
+    /**
+     * Creates a new incomplete CompletableFuture.
+     */
+    public CompletableFuture() {
+    }
+
+    /**
+     * Returns a new CompletableFuture that is already completed with the given value.
+     *
+     * @param value the value
+     * @param <U>   the type of the value
+     * @return the completed CompletableFuture
+     */
+    public static <U> CompletableFuture<U> completedFuture(U value) {
+        final CompletableFuture<U> future = new CompletableFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    /**
+     * Returns a new CompletableFuture that is already completed exceptionally with the given exception.
+     *
+     * @param ex  the exception
+     * @param <U> the type of the value
+     * @return the exceptionally completed CompletableFuture
+     */
+    public static <U> CompletableFuture<U> failedFuture(Throwable ex) {
+        final CompletableFuture<U> future = new CompletableFuture<>();
+        future.completeExceptionally(ex);
+        return future;
+    }
+
+    /**
+     * If not already completed, sets the value returned by get() and related methods to the given value.
+     *
+     * @param value the result value
+     * @return true if this invocation caused this CompletableFuture to transition to a completed state, else false
+     */
+    public boolean complete(T value) {
+        return finish(value, null);
+    }
+
+    /**
+     * If not already completed, causes invocations of get() and related methods to throw the given exception.
+     *
+     * @param ex the exception
+     * @return true if this invocation caused this CompletableFuture to transition to a completed state, else false
+     */
+    public boolean completeExceptionally(Throwable ex) {
+        if (ex == null)
+            throw new NullPointerException("ex cannot be null");
+        return finish(null, ex);
+    }
+
+    /**
+     * If not already completed, completes this CompletableFuture with a CancellationException.
+     *
+     * @param mayInterruptIfRunning this value has no effect in this implementation
+     * @return true if this task is now cancelled
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException()) || isCancelled();
+    }
+
+    private boolean finish(T value, Throwable failure) {
+        final List<Runnable> toRun;
+        synchronized (lock) {
+            if (done)
+                return false;
+            this.value = value;
+            this.failure = failure;
+            this.done = true;
+            toRun = actions;
+            actions = null;
+            lock.notifyAll();
+        }
+        for (Runnable action : toRun) {
+            action.run();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (lock) {
+            return failure instanceof CancellationException;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (lock) {
+            return done;
+        }
+    }
+
+    /**
+     * Returns true if this CompletableFuture completed exceptionally, in any way, including cancellation.
+     *
+     * @return true if this CompletableFuture completed exceptionally
+     */
+    public boolean isCompletedExceptionally() {
+        synchronized (lock) {
+            return failure != null;
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (lock) {
+            while (!done) {
+                lock.wait();
+            }
+            return report();
+        }
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (!done) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    throw new TimeoutException();
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            return report();
+        }
+    }
+
+    /**
+     * Returns the result value (or throws any encountered exception) if completed, else returns the given valueIfAbsent.
+     *
+     * @param valueIfAbsent the value to return if not completed
+     * @return the result value, if completed, else the given valueIfAbsent
+     * @throws ExecutionException if this future completed exceptionally
+     */
+    public T getNow(T valueIfAbsent) throws ExecutionException {
+        synchronized (lock) {
+            return done ? report() : valueIfAbsent;
+        }
+    }
+
+    private T report() throws ExecutionException {
+        if (failure instanceof CancellationException)
+            throw (CancellationException) failure;
+        if (failure != null)
+            throw new ExecutionException(failure);
+        return value;
+    }
+
+    /**
+     * Returns a new CompletableFuture that, when this one completes normally, is completed with the result of the
+     * given function applied to this future's result. If this future, or the function, fails then the returned future
+     * fails with the same exception.
+     *
+     * @param fn  the function to use to compute the value of the returned CompletableFuture
+     * @param <U> the function's return type
+     * @return the new CompletableFuture
+     */
+    public <U> CompletableFuture<U> thenApply(final Function<? super T, ? extends U> fn) {
+        if (fn == null)
+            throw new NullPointerException("fn cannot be null");
+
+        final CompletableFuture<U> dependent = new CompletableFuture<>();
+        whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable ex) {
+                if (ex != null) {
+                    dependent.completeExceptionally(ex);
+                    return;
+                }
+                try {
+                    dependent.complete(fn.apply(result));
+                } catch (Throwable t) {
+                    dependent.completeExceptionally(t);
+                }
+            }
+        });
+        return dependent;
+    }
+
+    /**
+     * Returns a new CompletableFuture that, when this one completes exceptionally, is completed with the result of
+     * the given function applied to the exception. Otherwise it completes with this future's result.
+     *
+     * @param fn the function to use to compute the value of the returned CompletableFuture if this one failed
+     * @return the new CompletableFuture
+     */
+    public CompletableFuture<T> exceptionally(final Function<Throwable, ? extends T> fn) {
+        if (fn == null)
+            throw new NullPointerException("fn cannot be null");
+
+        final CompletableFuture<T> dependent = new CompletableFuture<>();
+        whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable ex) {
+                if (ex == null) {
+                    dependent.complete(result);
+                    return;
+                }
+                try {
+                    dependent.complete(fn.apply(ex));
+                } catch (Throwable t) {
+                    dependent.completeExceptionally(t);
+                }
+            }
+        });
+        return dependent;
+    }
+
+    /**
+     * Performs the given action with the result (or null if none) and the exception (or null if none) of this
+     * future when it completes.
+     *
+     * @param action the action to perform
+     * @return this CompletableFuture
+     */
+    public CompletableFuture<T> whenComplete(final BiConsumer<? super T, ? super Throwable> action) {
+        if (action == null)
+            throw new NullPointerException("action cannot be null");
+
+        final Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                final T result;
+                final Throwable ex;
+                synchronized (lock) {
+                    result = value;
+                    ex = failure;
+                }
+                action.accept(result, ex);
+            }
+        };
+        synchronized (lock) {
+            if (!done) {
+                actions.add(runnable);
+                return this;
+            }
+        }
+        runnable.run();
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            final String state = !done ? "Incomplete" : failure != null ? "Completed exceptionally" : "Completed normally";
+            return super.toString() + "[" + state + "]";
+        }
+    }
+}
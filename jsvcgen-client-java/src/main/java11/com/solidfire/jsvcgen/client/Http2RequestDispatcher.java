@@ -0,0 +1,475 @@
+/*
+ * Copyright &copy 2014-2016 NetApp, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.solidfire.jsvcgen.client;
+
+import com.solidfire.jsvcgen.javautil.Optional;
+
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import static com.solidfire.jsvcgen.client.HttpsRequestDispatcher.DEFAULT_CONNECTION_TIMEOUT;
+import static com.solidfire.jsvcgen.client.HttpsRequestDispatcher.DEFAULT_READ_TIMEOUT;
+
+/**
+ * A request dispatcher that multiplexes concurrent requests over a shared HTTP/2 connection.
+ * <p/>
+ * This is the JDK 11 version of a multi-release class, built on {@code java.net.http.HttpClient}. Every dispatcher
+ * using the same TLS configuration and connection timeout shares one client, so any number of threads (including
+ * virtual threads) and services talking to a cluster share a handful of sockets. HTTP/2 is negotiated through ALPN; when
+ * the server does not offer it the client falls back to HTTP/1.1 with keep-alive.
+ * <p/>
+ * Host names are always verified by {@code HttpClient}, independently of the default {@code HostnameVerifier}.
+ * <p/>
+ * The deadline of the current {@link CallOptions} becomes the timeout of the request, and a call that is cancelled
+ * or runs out of time stops waiting for the response right away. As with the Java 7 version, the trace ID of the
+ * current {@link CallTrace} is sent along, and bodies are compressed as configured.
+ */
+public class Http2RequestDispatcher implements StreamingRequestDispatcher, DescribedRequestDispatcher {
+
+    private static final ConcurrentMap<ClientKey, HttpClient> clients = new ConcurrentHashMap<>();
+
+    private final URI endpoint;
+    private final Optional<String> authenticationToken;
+    private final String endpointVersion;
+    private final SSLContext sslContext;
+    private final TransferCounters transferCounters = new TransferCounters();
+    private volatile int connectionTimeout;
+    private volatile int readTimeout;
+    private volatile boolean acceptCompressedResponses;
+    private volatile int requestCompressionThreshold = -1;
+
+    private Http2RequestDispatcher(URL endpoint, Optional<String> authenticationToken, SSLContext sslContext) {
+        if (!endpoint.getProtocol().equals("https"))
+            throw new IllegalArgumentException("Unsupported endpoint protocol \"" + endpoint.getProtocol() + "\"." + "Only \"https\" is supported.");
+
+        this.endpointVersion = VersioningUtils.getVersionFromEndpoint(endpoint);
+        try {
+            this.endpoint = endpoint.toURI();
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid endpoint " + endpoint, e);
+        }
+        this.authenticationToken = authenticationToken;
+        this.sslContext = sslContext;
+        this.setTimeoutToDefault();
+    }
+
+    /**
+     * Create a dispatcher using no authentication.
+     */
+    public Http2RequestDispatcher(URL endpoint) {
+        this(endpoint, Optional.<String>empty(), defaultContext());
+    }
+
+    /**
+     * Create a dispatcher using HTTP basic authentication using the supplied username and password.
+     *
+     * @param endpoint the hostname or IP address of the connection
+     * @param username username credential
+     * @param password password credential
+     */
+    public Http2RequestDispatcher(URL endpoint, String username, String password) {
+        this(endpoint, Optional.of(HttpsRequestDispatcher.createBasicAuthToken(username, password)), defaultContext());
+    }
+
+    /**
+     * Create a dispatcher using no authentication that trusts the certificates configured in the given context.
+     *
+     * @param endpoint   the hostname or IP address of the connection
+     * @param sslContext the TLS configuration to use
+     */
+    public Http2RequestDispatcher(URL endpoint, SSLContext sslContext) {
+        this(endpoint, Optional.<String>empty(), sslContext);
+    }
+
+    /**
+     * Create a dispatcher using HTTP basic authentication that trusts the certificates configured in the given context.
+     *
+     * @param endpoint   the hostname or IP address of the connection
+     * @param username   username credential
+     * @param password   password credential
+     * @param sslContext the TLS configuration to use
+     */
+    public Http2RequestDispatcher(URL endpoint, String username, String password, SSLContext sslContext) {
+        this(endpoint, Optional.of(HttpsRequestDispatcher.createBasicAuthToken(username, password)), sslContext);
+    }
+
+    /**
+     * @return true if requests are multiplexed over HTTP/2 on this runtime, false if every request uses HTTP/1.1
+     */
+    public static boolean isMultiplexingSupported() {
+        return true;
+    }
+
+    /**
+     * @return the version of the Element OS endpoint used in the connection
+     */
+    @Override
+    public String getVersion() {
+        return this.endpointVersion;
+    }
+
+    /**
+     * Dispatch an encoded request to the system and await some response.
+     *
+     * Can throw java.net.http.HttpTimeoutException if the connection or read timeout occurs.
+     *
+     * @param input The input string to send to the remote server.
+     * @return The server's response.
+     * @throws IOException if anything went wrong on the connection side of things.
+     */
+    @Override
+    public String dispatchRequest(String input) throws IOException {
+        final byte[] body = input.getBytes(StandardCharsets.UTF_8);
+        final int threshold = requestCompressionThreshold;
+        final byte[] sent = threshold >= 0 && body.length >= threshold ? Compression.gzip(body, 0, body.length) : body;
+
+        final CallWatch watch = CallWatch.start();
+        try {
+            try (InputStream response = send(HttpRequest.BodyPublishers.ofByteArray(sent), sent != body, body.length,
+                    sent.length, watch)) {
+                return PooledHttpsRequestDispatcher.readFully(response);
+            }
+        } catch (IOException e) {
+            throw null != watch ? watch.failure(e) : e;
+        } finally {
+            if (null != watch) {
+                watch.close();
+            }
+        }
+    }
+
+    /**
+     * Dispatch a request to the system and return the response as soon as it starts to arrive. The request is encoded
+     * into a pooled buffer rather than a string; one that outgrows the buffer is sent without a Content-Length, which
+     * over HTTP/1.1 means chunked.
+     *
+     * Can throw java.net.http.HttpTimeoutException if the connection or read timeout occurs.
+     *
+     * @param request The request to send to the remote server.
+     * @return A reader of the server's response.
+     * @throws IOException if anything went wrong on the connection side of things.
+     */
+    @Override
+    public Reader dispatchRequestStream(RequestBody request) throws IOException {
+        final HttpRequest.BodyPublisher[] publisher = new HttpRequest.BodyPublisher[1];
+        final ByteArrayOutputStream spilled = new ByteArrayOutputStream();
+        final RequestOutputStream out = new RequestOutputStream(requestCompressionThreshold) {
+            @Override
+            protected OutputStream openChunked() {
+                return spilled;
+            }
+
+            @Override
+            protected void sendFixedLength(byte[] body, int length) {
+                publisher[0] = HttpRequest.BodyPublishers.ofByteArray(Arrays.copyOf(body, length));
+            }
+        };
+        try {
+            request.writeTo(out);
+            out.close();
+        } finally {
+            out.abort();
+        }
+        if (null == publisher[0]) {
+            publisher[0] = HttpRequest.BodyPublishers.ofByteArrays(Collections.singletonList(spilled.toByteArray()));
+        }
+
+        final CallWatch watch = CallWatch.start();
+        try {
+            return new InputStreamReader(send(publisher[0], out.isCompressed(), out.getBodyBytes(), out.getSentBytes(),
+                    watch), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            if (null == watch) {
+                throw e;
+            }
+            watch.close();
+            throw watch.failure(e);
+        } catch (RuntimeException e) {
+            if (null != watch) {
+                watch.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param compressed       true if the body is gzip compressed
+     * @param requestBytes     the request body size before compression
+     * @param requestWireBytes the request body size as sent
+     * @param watch            the watch that cancels the exchange when the call is aborted, ended when the response
+     *                         is closed, or null
+     * @return the decompressed response body, which records the call in the transfer statistics when it is closed
+     */
+    private InputStream send(HttpRequest.BodyPublisher body, boolean compressed, long requestBytes,
+                             long requestWireBytes, CallWatch watch) throws IOException {
+        final HttpRequest.Builder request = HttpRequest.newBuilder(endpoint)
+                .POST(body)
+                .header("Accept", "application/json")
+                .header("Content-Type", "application/json");
+        final int timeout = null == watch ? readTimeout : watch.readTimeout(readTimeout);
+        if (timeout > 0) {
+            request.timeout(Duration.ofMillis(timeout));
+        }
+        if (compressed) {
+            request.header("Content-Encoding", Compression.GZIP);
+        }
+        if (acceptCompressedResponses) {
+            request.header("Accept-Encoding", Compression.ACCEPT_ENCODING);
+        }
+        if (authenticationToken.isPresent()) {
+            request.header("Authorization", authenticationToken.get());
+        }
+        final CallTrace trace = CallTrace.current();
+        if (null != trace) {
+            request.header(CallTrace.HEADER, trace.getTraceId());
+        }
+
+        // JSON-RPC...we don't actually care about the response code
+        final HttpResponse<InputStream> response = await(client().sendAsync(request.build(), HttpResponse.BodyHandlers.ofInputStream()), watch);
+        if (null != trace) {
+            // The client does not tell when it connected, nor whether it reused a connection.
+            trace.firstByte();
+        }
+        InputStream received = response.body();
+        if (null != watch) {
+            // Once the headers are in, aborting the call closes the body rather than cancelling the exchange.
+            watch.attach(received);
+            received = watch.guard(received);
+        }
+        try {
+            return Compression.decode(received, response.headers().firstValue("Content-Encoding").orElse(null),
+                    transferCounters, requestBytes, requestWireBytes);
+        } catch (IOException e) {
+            received.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param watch the watch that cancels the exchange when the call is aborted, or null
+     * @return the response, once its headers are received
+     */
+    private static <T> HttpResponse<T> await(final CompletableFuture<HttpResponse<T>> response, CallWatch watch)
+            throws IOException {
+        if (null != watch) {
+            watch.attach(new Closeable() {
+                @Override
+                public void close() {
+                    response.cancel(true);
+                }
+            });
+        }
+        try {
+            return response.get();
+        } catch (InterruptedException ie) {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            final InterruptedIOException iioe = new InterruptedIOException("Interrupted while waiting for a response");
+            iioe.initCause(ie);
+            throw iioe;
+        } catch (CancellationException ce) {
+            throw new IOException("Request cancelled", ce);
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private HttpClient client() {
+        final ClientKey key = new ClientKey(sslContext, connectionTimeout);
+        HttpClient client = clients.get(key);
+        if (null == client) {
+            final HttpClient.Builder builder = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .sslContext(sslContext);
+            if (connectionTimeout > 0) {
+                builder.connectTimeout(Duration.ofMillis(connectionTimeout));
+            }
+            final HttpClient created = builder.build();
+            client = clients.putIfAbsent(key, created);
+            if (null == client) {
+                client = created;
+            }
+        }
+        return client;
+    }
+
+    private static SSLContext defaultContext() {
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException("Couldn't get the default SSLContext", nsae);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeoutToDefault() {
+        this.connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+        this.readTimeout = DEFAULT_READ_TIMEOUT;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConnectionTimeout(int timeInMilliseconds) {
+        if (timeInMilliseconds < 0) {
+            throw new IllegalArgumentException("timeout can not be negative");
+        }
+        this.connectionTimeout = timeInMilliseconds;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setReadTimeout(int timeInMilliseconds) {
+        if (timeInMilliseconds < 0) {
+            throw new IllegalArgumentException("timeout can not be negative");
+        }
+        this.readTimeout = timeInMilliseconds;
+    }
+
+    /**
+     * Getter for property 'acceptCompressedResponses'.
+     *
+     * @return Value for property 'acceptCompressedResponses'.
+     */
+    public boolean isAcceptCompressedResponses() {
+        return acceptCompressedResponses;
+    }
+
+    /**
+     * Asks the server to compress responses with gzip or deflate; they are decompressed while they are decoded.
+     *
+     * @param acceptCompressedResponses true to send {@code Accept-Encoding: gzip, deflate}
+     */
+    public void setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+        this.acceptCompressedResponses = acceptCompressedResponses;
+    }
+
+    /**
+     * Getter for property 'requestCompressionThreshold'.
+     *
+     * @return Value for property 'requestCompressionThreshold'.
+     */
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * Sends request bodies of at least the given size gzip compressed. The server must accept
+     * {@code Content-Encoding: gzip}. Disabled by default.
+     *
+     * @param bytes the smallest body size to compress, or a negative number to never compress requests
+     */
+    public void setRequestCompressionThreshold(int bytes) {
+        this.requestCompressionThreshold = bytes;
+    }
+
+    /**
+     * @return the byte counts, before and after compression, of all calls made through this dispatcher
+     */
+    public TransferStatistics getTransferStatistics() {
+        return transferCounters.snapshot();
+    }
+
+    /**
+     * Sets a listener that is told the byte counts of every call, or null to remove it.
+     *
+     * @param listener the listener
+     */
+    public void setTransferListener(TransferListener listener) {
+        transferCounters.setListener(listener);
+    }
+
+    /**
+     * @return the URL of the endpoint
+     */
+    @Override
+    public String describe() {
+        return endpoint.toString();
+    }
+
+    /**
+     * Getter for property 'endpoint'.
+     *
+     * @return Value for property 'endpoint'.
+     */
+    public URL getEndpoint() {
+        try {
+            return endpoint.toURL();
+        } catch (java.net.MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Clients are shared by TLS configuration and connection timeout, the two settings fixed at client creation.
+     */
+    private static final class ClientKey {
+        private final SSLContext sslContext;
+        private final int connectionTimeout;
+
+        private ClientKey(SSLContext sslContext, int connectionTimeout) {
+            this.sslContext = sslContext;
+            this.connectionTimeout = connectionTimeout;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ClientKey)) return false;
+            final ClientKey that = (ClientKey) o;
+            return sslContext == that.sslContext && connectionTimeout == that.connectionTimeout;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(sslContext), connectionTimeout);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.solidfire.jsvcgen.client
+
+import java.net.SocketTimeoutException
+import java.util.concurrent.TimeUnit
+
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.{verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+import scala.collection.JavaConversions._
+
+class AdaptiveTimeoutRequestDispatcherSuite extends WordSpec with MockitoSugar with Matchers {
+
+  def request( method: String ) = "{\"id\":1,\"method\":\"" + method + "\",\"params\":{}}"
+
+  /** Answers after the delay, recording the options current when each request is sent. */
+  class Recorder( delayMillis: Long = 0 ) {
+    @volatile var options: CallOptions = null
+    val delegate = mock[RequestDispatcher]
+    when( delegate.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+      override def answer( invocation: InvocationOnMock ): String = {
+        options = CallOptions.current( )
+        if (delayMillis > 0) Thread.sleep( delayMillis )
+        "{\"result\":{}}"
+      }
+    } )
+
+    def readTimeout = if (null == options) 0L else options.getReadTimeout( TimeUnit.MILLISECONDS )
+  }
+
+  "dispatchRequest" should {
+
+    "use the read timeout of the delegate until a method has enough calls" in {
+      val recorder = new Recorder
+      val dispatcher = new AdaptiveTimeoutRequestDispatcher( recorder.delegate )
+
+      dispatcher.dispatchRequest( request( "GetAccount" ) )
+
+      recorder.options shouldBe null
+      dispatcher.getTimeout( "GetAccount" ) shouldBe 0
+      dispatcher.getTimeouts shouldBe empty
+    }
+
+    "derive the timeout from the response times of the method" in {
+      val recorder = new Recorder( 2 )
+      val dispatcher = new AdaptiveTimeoutRequestDispatcher( recorder.delegate )
+      dispatcher.setTimeoutBounds( 1, 60000 )
+
+      ( 1 to AdaptiveTimeoutRequestDispatcher.MIN_LATENCY_SAMPLES ).foreach( _ => dispatcher.dispatchRequest( request( "GetAccount" ) ) )
+
+      val timeout = dispatcher.getTimeout( "GetAccount" )
+      timeout should ( be >= 6 and be < 1000 )
+      dispatcher.dispatchRequest( request( "GetAccount" ) )
+      recorder.readTimeout shouldBe timeout
+      dispatcher.getTimeout( "ListVolumes" ) shouldBe 0
+    }
+
+    "keep the timeout within the bounds" in {
+      val recorder = new Recorder
+      val dispatcher = new AdaptiveTimeoutRequestDispatcher( recorder.delegate )
+
+      ( 1 to AdaptiveTimeoutRequestDispatcher.MIN_LATENCY_SAMPLES ).foreach( _ => dispatcher.dispatchRequest( request( "GetAccount" ) ) )
+
+      dispatcher.getTimeout( "GetAccount" ) shouldBe AdaptiveTimeoutRequestDispatcher.DEFAULT_MIN_TIMEOUT_MILLIS
+    }
+
+    "send a method with its seeded timeout" in {
+      val recorder = new Recorder
+      val dispatcher = new AdaptiveTimeoutRequestDispatcher( recorder.delegate )
+      dispatcher.seedTimeouts( Map[String, Integer]( "GetAccount" -> 2500, "ListVolumes" -> 600000 ) )
+
+      dispatcher.dispatchRequest( request( "GetAccount" ) )
+
+      recorder.readTimeout shouldBe 2500
+      dispatcher.getTimeouts.toMap shouldBe Map( "GetAccount" -> 2500, "ListVolumes" -> AdaptiveTimeoutRequestDispatcher.DEFAULT_MAX_TIMEOUT_MILLIS )
+    }
+
+    "keep the deadline of the call" in {
+      val recorder = new Recorder
+      val dispatcher = new AdaptiveTimeoutRequestDispatcher( recorder.delegate )
+      dispatcher.seedTimeouts( Map[String, Integer]( "GetAccount" -> 2500 ) )
+
+      val previous = CallOptions.enter( new CallOptions( 5, TimeUnit.SECONDS ) )
+      try {
+        dispatcher.dispatchRequest( request( "GetAccount" ) )
+      } finally {
+        CallOptions.exit( previous )
+      }
+
+      recorder.readTimeout shouldBe 2500
+      recorder.options.getRemaining( TimeUnit.MILLISECONDS ) should ( be > 0L and be <= 5000L )
+      CallOptions.current( ) shouldBe null
+    }
+
+    "leave a read timeout set by the caller" in {
+      val recorder = new Recorder
+      val dispatcher = new AdaptiveTimeoutRequestDispatcher( recorder.delegate )
+      dispatcher.seedTimeouts( Map[String, Integer]( "GetAccount" -> 2500 ) )
+
+      val options = new CallOptions( 5, TimeUnit.SECONDS ).withReadTimeout( 77, TimeUnit.MILLISECONDS )
+      val previous = CallOptions.enter( options )
+      try {
+        dispatcher.dispatchRequest( request( "GetAccount" ) )
+      } finally {
+        CallOptions.exit( previous )
+      }
+
+      recorder.options shouldBe options
+    }
+
+    "send batches unchanged" in {
+      val recorder = new Recorder
+      val dispatcher = new AdaptiveTimeoutRequestDispatcher( recorder.delegate )
+
+      dispatcher.dispatchRequest( "[" + request( "GetAccount" ) + "]" )
+
+      recorder.options shouldBe null
+    }
+
+    "lengthen the timeout of a method that times out" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          Thread.sleep( CallOptions.current( ).getReadTimeout( TimeUnit.MILLISECONDS ) )
+          throw new SocketTimeoutException( "Read timed out" )
+        }
+      } )
+      val dispatcher = new AdaptiveTimeoutRequestDispatcher( delegate )
+      dispatcher.setTimeoutBounds( 1, 60000 )
+      dispatcher.setPercentile( 50 )
+      dispatcher.seedTimeouts( Map[String, Integer]( "GetAccount" -> 1 ) )
+
+      ( 1 to AdaptiveTimeoutRequestDispatcher.MIN_LATENCY_SAMPLES ).foreach( _ =>
+        a[SocketTimeoutException] should be thrownBy dispatcher.dispatchRequest( request( "GetAccount" ) ) )
+
+      dispatcher.getTimeout( "GetAccount" ) should be >= 3
+    }
+  }
+
+  "AdaptiveTimeoutRequestDispatcher" should {
+
+    "reject bounds out of order" in {
+      an[IllegalArgumentException] should be thrownBy new AdaptiveTimeoutRequestDispatcher( mock[RequestDispatcher] ).setTimeoutBounds( 100, 10 )
+    }
+
+    "reject a multiplier below one" in {
+      an[IllegalArgumentException] should be thrownBy new AdaptiveTimeoutRequestDispatcher( mock[RequestDispatcher] ).setMultiplier( 0.5 )
+    }
+
+    "reject a seeded timeout under a millisecond" in {
+      an[IllegalArgumentException] should be thrownBy new AdaptiveTimeoutRequestDispatcher( mock[RequestDispatcher] ).seedTimeouts( Map[String, Integer]( "GetAccount" -> 0 ) )
+    }
+
+    "delegate timeouts" in {
+      val delegate = mock[RequestDispatcher]
+      val dispatcher = new AdaptiveTimeoutRequestDispatcher( delegate )
+
+      dispatcher.setReadTimeout( 42 )
+      dispatcher.setConnectionTimeout( 43 )
+
+      verify( delegate ).setReadTimeout( 42 )
+      verify( delegate ).setConnectionTimeout( 43 )
+    }
+  }
+}
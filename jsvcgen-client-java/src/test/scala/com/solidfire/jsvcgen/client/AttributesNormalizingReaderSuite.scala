@@ -0,0 +1,48 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.{Reader, StringReader}
+
+import org.scalatest.{Matchers, WordSpec}
+
+class AttributesNormalizingReaderSuite extends WordSpec with Matchers {
+
+  def normalize( input: String, chunk: Int = 4096 ): String = {
+    val reader: Reader = new AttributesNormalizingReader( new StringReader( input ) )
+    val out = new StringBuilder
+    val buffer = new Array[Char]( chunk )
+    var n = reader.read( buffer )
+    while (n != -1) {
+      out.appendAll( buffer, 0, n )
+      n = reader.read( buffer )
+    }
+    out.toString
+  }
+
+  "AttributesNormalizingReader" should {
+
+    "replace empty attributes with null" in {
+      normalize( "{\"attributes\":\"\",\"name\":\"\"}" ) shouldBe "{\"attributes\":null,\"name\":\"\"}"
+    }
+
+    "leave other attributes alone" in {
+      normalize( "{\"attributes\":{},\"x\":\"attributes\"}" ) shouldBe "{\"attributes\":{},\"x\":\"attributes\"}"
+    }
+
+    "replace a match at the end of the input" in {
+      normalize( "\"attributes\":\"\"" ) shouldBe "\"attributes\":null"
+    }
+
+    "match the string replacement on input longer than its buffer" in {
+      val input = ( 1 to 2000 ).map( i => "{\"id\":" + i + ",\"attributes\":\"\"}" ).mkString( "[", ",", "]" )
+      val expected = input.replaceAll( "\"attributes\":\"\"", "\"attributes\":null" )
+
+      normalize( input ) shouldBe expected
+      normalize( input, 7 ) shouldBe expected
+    }
+
+    "read single characters" in {
+      val reader = new AttributesNormalizingReader( new StringReader( "\"attributes\":\"\"" ) )
+      Iterator.continually( reader.read( ) ).takeWhile( _ != -1 ).map( _.toChar ).mkString shouldBe "\"attributes\":null"
+    }
+  }
+}
@@ -0,0 +1,245 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.Closeable
+import java.util.concurrent.{CountDownLatch, ExecutionException, Executors, TimeUnit}
+
+import com.solidfire.gson.internal.LinkedTreeMap
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.{never, verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+class CallOptionsSuite extends WordSpec with MockitoSugar with Matchers {
+
+  type Result = LinkedTreeMap[String, Object]
+
+  def call( service: ServiceBase, options: CallOptions ) =
+    service.sendRequest( "GetClusterInfo", new Object, classOf[Object], classOf[Result], options )
+
+  def callAsync( service: ServiceBase, options: CallOptions ) =
+    service.sendRequestAsync( "GetClusterInfo", new Object, classOf[Object], classOf[Result], options )
+
+  /** Answers once the latch is released, ignoring interrupts. */
+  def blockedUntil( latch: CountDownLatch ) = new Answer[String] {
+    override def answer( invocation: InvocationOnMock ): String = {
+      while (!latch.await( 10, TimeUnit.SECONDS )) {}
+      "{\"result\":{}}"
+    }
+  }
+
+  "sendRequest" should {
+
+    "fail without sending once the deadline passed" in {
+      val dispatcher = mock[RequestDispatcher]
+
+      val thrown = the[ApiException] thrownBy call( new ServiceBase( dispatcher ), new CallOptions( 0, TimeUnit.MILLISECONDS ) )
+
+      thrown.getCause shouldBe a[DeadlineExceededException]
+      val _ = verify( dispatcher, never( ) ).dispatchRequest( anyString )
+    }
+
+    "fail without sending once cancelled" in {
+      val dispatcher = mock[RequestDispatcher]
+      val cancellation = new Cancellation
+      cancellation.cancel( )
+
+      val thrown = the[ApiException] thrownBy call( new ServiceBase( dispatcher ), new CallOptions( cancellation ) )
+
+      thrown.getCause shouldBe a[CallCancelledException]
+      val _ = verify( dispatcher, never( ) ).dispatchRequest( anyString )
+    }
+
+    "fail when the deadline passes before the response is decoded" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          Thread.sleep( 50 )
+          "{\"result\":{}}"
+        }
+      } )
+
+      val thrown = the[ApiException] thrownBy call( new ServiceBase( dispatcher ), new CallOptions( 20, TimeUnit.MILLISECONDS ) )
+
+      thrown.getCause shouldBe a[DeadlineExceededException]
+    }
+
+    "make the options current while the request is dispatched" in {
+      val dispatcher = mock[RequestDispatcher]
+      val options = new CallOptions( 10, TimeUnit.SECONDS )
+      when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String =
+          if (CallOptions.current( ) eq options) "{\"result\":{}}" else "{\"error\":{\"name\":\"xNoOptions\",\"code\":500}}"
+      } )
+
+      call( new ServiceBase( dispatcher ), options ) shouldBe empty
+      CallOptions.current( ) shouldBe null
+    }
+
+    "apply the options made current to every call" in {
+      val dispatcher = mock[RequestDispatcher]
+      val service = new ServiceBase( dispatcher )
+      val scope = new CallOptions( 0, TimeUnit.MILLISECONDS ).makeCurrent( )
+      try {
+        an[ApiException] should be thrownBy { val _ = service.sendRequest( "GetClusterInfo", new Object, classOf[Object], classOf[Result] ) }
+      } finally {
+        scope.close( )
+      }
+      CallOptions.current( ) shouldBe null
+      val _ = verify( dispatcher, never( ) ).dispatchRequest( anyString )
+    }
+
+    "reject null options" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = call( new ServiceBase( mock[RequestDispatcher] ), null ) }
+    }
+  }
+
+  "sendRequestAsync" should {
+
+    "fail the result when the deadline passes while the request is in flight" in {
+      val dispatcher = mock[RequestDispatcher]
+      val latch = new CountDownLatch( 1 )
+      when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( blockedUntil( latch ) )
+      val executor = Executors.newSingleThreadExecutor( )
+      val service = new ServiceBase( dispatcher )
+      service.setAsyncExecutor( executor )
+      try {
+        val result = callAsync( service, new CallOptions( 50, TimeUnit.MILLISECONDS ) )
+
+        val thrown = the[ExecutionException] thrownBy result.get( 5, TimeUnit.SECONDS )
+        thrown.getCause shouldBe an[ApiException]
+        thrown.getCause.getCause shouldBe a[DeadlineExceededException]
+      } finally {
+        latch.countDown( )
+        executor.shutdown( )
+      }
+    }
+
+    "fail the result when cancelled while the request is in flight" in {
+      val dispatcher = mock[RequestDispatcher]
+      val latch = new CountDownLatch( 1 )
+      when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( blockedUntil( latch ) )
+      val executor = Executors.newSingleThreadExecutor( )
+      val service = new ServiceBase( dispatcher )
+      service.setAsyncExecutor( executor )
+      val cancellation = new Cancellation
+      try {
+        val result = callAsync( service, new CallOptions( 10, TimeUnit.SECONDS, cancellation ) )
+        cancellation.cancel( )
+
+        val thrown = the[ExecutionException] thrownBy result.get( 5, TimeUnit.SECONDS )
+        thrown.getCause.getCause shouldBe a[CallCancelledException]
+      } finally {
+        latch.countDown( )
+        executor.shutdown( )
+      }
+    }
+
+    "complete normally within the deadline" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{\"result\":{}}" )
+      val executor = Executors.newSingleThreadExecutor( )
+      val service = new ServiceBase( dispatcher )
+      service.setAsyncExecutor( executor )
+      try {
+        callAsync( service, new CallOptions( 10, TimeUnit.SECONDS ) ).get( 5, TimeUnit.SECONDS ) shouldBe empty
+      } finally {
+        executor.shutdown( )
+      }
+    }
+  }
+
+  "CallWatch" should {
+
+    "close the attached connection when the deadline passes" in {
+      val connection = mock[Closeable]
+      val latch = new CountDownLatch( 1 )
+      val watch = CallWatch.start( new CallOptions( 20, TimeUnit.MILLISECONDS ) )
+      watch.attach( new Closeable {
+        override def close( ): Unit = {
+          connection.close( )
+          latch.countDown( )
+        }
+      } )
+
+      latch.await( 5, TimeUnit.SECONDS ) shouldBe true
+      watch.isAborted shouldBe true
+      watch.failure( new java.net.SocketException( "Socket closed" ) ) shouldBe a[DeadlineExceededException]
+    }
+
+    "close a connection attached after the call was cancelled" in {
+      val connection = mock[Closeable]
+      val cancellation = new Cancellation
+      val watch = CallWatch.start( new CallOptions( cancellation ) )
+      cancellation.cancel( )
+      watch.attach( connection )
+
+      verify( connection ).close( )
+    }
+
+    "leave the connection open once closed" in {
+      val connection = mock[Closeable]
+      val cancellation = new Cancellation
+      val watch = CallWatch.start( new CallOptions( cancellation ) )
+      watch.attach( connection )
+      watch.close( )
+      cancellation.cancel( )
+
+      verify( connection, never( ) ).close( )
+      watch.isAborted shouldBe false
+    }
+
+    "shorten a timeout to the time left" in {
+      val watch = CallWatch.start( new CallOptions( 1, TimeUnit.SECONDS ) )
+      try {
+        watch.timeout( 0 ) should ( be > 0 and be <= 1000 )
+        watch.timeout( 10 ) shouldBe 10
+        watch.timeout( 60000 ) should be <= 1000
+      } finally {
+        watch.close( )
+      }
+    }
+
+    "replace the read timeout with the one of the options" in {
+      val watch = CallWatch.start( new CallOptions( 1, TimeUnit.SECONDS ).withReadTimeout( 20, TimeUnit.MILLISECONDS ) )
+      try {
+        watch.readTimeout( 60000 ) shouldBe 20
+        watch.timeout( 60000 ) should ( be > 20 and be <= 1000 )
+      } finally {
+        watch.close( )
+      }
+    }
+
+    "not watch a call without options" in {
+      CallWatch.start( null ) shouldBe null
+    }
+  }
+
+  "CallOptions" should {
+
+    "reject a negative timeout" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new CallOptions( -1, TimeUnit.SECONDS ) }
+    }
+
+    "have no deadline with only a cancellation handle" in {
+      val options = new CallOptions( new Cancellation )
+      options.hasDeadline shouldBe false
+      options.getRemaining( TimeUnit.MILLISECONDS ) shouldBe Long.MaxValue
+      options.isDone shouldBe false
+    }
+
+    "keep the deadline and cancellation when given a read timeout" in {
+      val cancellation = new Cancellation
+      val options = new CallOptions( 1, TimeUnit.SECONDS, cancellation ).withReadTimeout( 2, TimeUnit.SECONDS )
+      options.getReadTimeout( TimeUnit.MILLISECONDS ) shouldBe 2000
+      options.getRemaining( TimeUnit.MILLISECONDS ) should be <= 1000L
+      options.getCancellation shouldBe cancellation
+      new CallOptions( cancellation ).getReadTimeout( TimeUnit.MILLISECONDS ) shouldBe 0
+    }
+
+    "reject a read timeout under a millisecond" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new CallOptions( new Cancellation ).withReadTimeout( 0, TimeUnit.SECONDS ) }
+    }
+  }
+}
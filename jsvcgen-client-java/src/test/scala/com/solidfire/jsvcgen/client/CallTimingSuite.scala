@@ -0,0 +1,217 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.{Reader, StringReader}
+import java.net.SocketTimeoutException
+import java.util.concurrent.{Executors, TimeUnit}
+
+import com.solidfire.gson.internal.LinkedTreeMap
+import com.solidfire.jsvcgen.javautil.CompletableFuture
+import org.mockito.Matchers.{any, anyString}
+import org.mockito.Mockito.when
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+import scala.collection.JavaConversions._
+
+class CallTimingSuite extends WordSpec with MockitoSugar with Matchers {
+
+  type Result = LinkedTreeMap[String, Object]
+
+  def service( dispatcher: RequestDispatcher, sink: TimingSink ) = {
+    val service = new ServiceBase( dispatcher )
+    service.setTimingSink( sink )
+    service
+  }
+
+  def call( service: ServiceBase, method: String ) =
+    service.sendRequest( method, new Object, classOf[Object], classOf[Result] )
+
+  /** Answers with the id of the trace current while the request is dispatched. */
+  val traceIdAnswer = new Answer[String] {
+    override def answer( invocation: InvocationOnMock ): String = {
+      val trace = CallTrace.current( )
+      "{\"result\":{\"traceId\":\"" + ( if (null == trace) "" else trace.getTraceId ) + "\"}}"
+    }
+  }
+
+  "sendRequest" should {
+
+    "record the phases of each call" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{\"result\":{\"name\":\"n\"}}" )
+      val sink = new RingBufferTimingSink
+      val s = service( dispatcher, sink )
+
+      call( s, "GetClusterInfo" )
+      call( s, "ListVolumes" )
+
+      sink.getTimings.map( _.getMethod ) shouldBe Seq( "GetClusterInfo", "ListVolumes" )
+      val timing = sink.getTimings.head
+      timing.getEndpoint shouldBe dispatcher.toString
+      timing.getError shouldBe null
+      timing.getConnectNanos shouldBe -1
+      timing.getTimeToFirstByteNanos shouldBe -1
+      timing.getParseNanos should be >= 0L
+      timing.getAdaptNanos should be >= 0L
+      timing.getTotalNanos should be >= timing.getParseNanos + timing.getAdaptNanos
+      sink.getTimings.map( _.getTraceId ).distinct should have size 2
+    }
+
+    "make the trace current while the request is dispatched" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( traceIdAnswer )
+      val sink = new RingBufferTimingSink
+      val s = service( dispatcher, sink )
+
+      call( s, "GetClusterInfo" ).get( "traceId" ) shouldBe sink.getTimings.head.getTraceId
+      CallTrace.current( ) shouldBe null
+    }
+
+    "not trace calls without a sink" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( traceIdAnswer )
+
+      call( new ServiceBase( dispatcher ), "GetClusterInfo" ).get( "traceId" ) shouldBe ""
+    }
+
+    "record the error of a failed call" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) )
+        .thenReturn( "{\"error\":{\"name\":\"xVolumeIDDoesNotExist\",\"code\":500,\"message\":\"no such volume\"}}" )
+        .thenThrow( new SocketTimeoutException( "Read timed out" ) )
+      val sink = new RingBufferTimingSink
+      val s = service( dispatcher, sink )
+
+      an[ApiServerException] should be thrownBy { val _ = call( s, "DeleteVolume" ) }
+      an[ApiException] should be thrownBy { val _ = call( s, "DeleteVolume" ) }
+
+      sink.getTimings.map( _.getError ) shouldBe Seq( "xVolumeIDDoesNotExist/500", "SocketTimeoutException" )
+      sink.getTimings( )( 1 ).getParseNanos shouldBe -1
+    }
+
+    "time a streamed response" in {
+      val dispatcher = mock[StreamingRequestDispatcher]
+      when( dispatcher.dispatchRequestStream( any[RequestBody] ) ).thenAnswer( new Answer[Reader] {
+        override def answer( invocation: InvocationOnMock ): Reader = {
+          CallTrace.current( ).firstByte( )
+          new StringReader( "{\"result\":{}}" )
+        }
+      } )
+      val sink = new RingBufferTimingSink
+      val s = service( dispatcher, sink )
+
+      call( s, "GetClusterInfo" )
+
+      val timing = sink.getTimings.head
+      timing.getTimeToFirstByteNanos should be >= 0L
+      timing.getDownloadNanos shouldBe -1
+      timing.getParseNanos should be >= 0L
+    }
+
+    "keep calling when the sink fails" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{\"result\":{}}" )
+      val s = service( dispatcher, new TimingSink {
+        override def record( timing: CallTiming ): Unit = throw new IllegalStateException( "full" )
+      } )
+
+      call( s, "GetClusterInfo" ) shouldBe empty
+    }
+  }
+
+  "sendRequestAsync" should {
+
+    "record the call before the result completes" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( traceIdAnswer )
+      val sink = new RingBufferTimingSink
+      val s = service( dispatcher, sink )
+      val executor = Executors.newSingleThreadExecutor( )
+      s.setAsyncExecutor( executor )
+      try {
+        val result = s.sendRequestAsync( "GetClusterInfo", new Object, classOf[Object], classOf[Result] ).get( 5, TimeUnit.SECONDS )
+
+        sink.getRecorded shouldBe 1
+        val timing = sink.getTimings.head
+        result.get( "traceId" ) shouldBe timing.getTraceId
+        timing.getParseNanos should be >= 0L
+        timing.getAdaptNanos should be >= 0L
+      } finally {
+        executor.shutdown( )
+      }
+    }
+
+    "make the trace current while an async dispatcher is called" in {
+      val dispatcher = mock[AsyncRequestDispatcher]
+      when( dispatcher.dispatchRequestAsync( anyString ) ).thenAnswer( new Answer[CompletableFuture[String]] {
+        override def answer( invocation: InvocationOnMock ): CompletableFuture[String] =
+          CompletableFuture.completedFuture( traceIdAnswer.answer( invocation ) )
+      } )
+      val sink = new RingBufferTimingSink
+      val s = service( dispatcher, sink )
+
+      val result = s.sendRequestAsync( "GetClusterInfo", new Object, classOf[Object], classOf[Result] ).get( 5, TimeUnit.SECONDS )
+
+      result.get( "traceId" ) shouldBe sink.getTimings.head.getTraceId
+    }
+  }
+
+  "CallTrace" should {
+
+    "measure the time to first byte from the connection being ready" in {
+      val trace = new CallTrace( "endpoint", "m" )
+      trace.dispatching( )
+      trace.connected( 5, 7 )
+      trace.firstByte( )
+      trace.received( )
+      trace.decoded( 100 )
+      trace.adapted( 40 )
+
+      val timing = trace.finish( null )
+      timing.getConnectNanos shouldBe 5
+      timing.getTlsHandshakeNanos shouldBe 7
+      timing.getTimeToFirstByteNanos should be >= 0L
+      timing.getDownloadNanos should be >= 0L
+      timing.getParseNanos shouldBe 60
+      timing.getAdaptNanos shouldBe 40
+    }
+
+    "restore the trace that was current" in {
+      val outer = new CallTrace( "endpoint", "outer" )
+      val previous = CallTrace.enter( outer )
+      val inner = CallTrace.enter( new CallTrace( "endpoint", "inner" ) )
+      CallTrace.exit( inner )
+      CallTrace.current( ) shouldBe outer
+      CallTrace.exit( previous )
+      CallTrace.current( ) shouldBe null
+    }
+  }
+
+  "RingBufferTimingSink" should {
+
+    def timing( method: String ) = new CallTiming( "id", "endpoint", method, 0, -1, -1, -1, -1, -1, -1, 0, null )
+
+    "keep the most recent calls, oldest first" in {
+      val sink = new RingBufferTimingSink( 2 )
+      Seq( "a", "b", "c" ).foreach( m => sink.record( timing( m ) ) )
+
+      sink.getTimings.map( _.getMethod ) shouldBe Seq( "b", "c" )
+      sink.getRecorded shouldBe 3
+    }
+
+    "drop every call when cleared" in {
+      val sink = new RingBufferTimingSink( 2 )
+      sink.record( timing( "a" ) )
+      sink.clear( )
+
+      sink.getTimings shouldBe empty
+      sink.getRecorded shouldBe 0
+    }
+
+    "reject a capacity below one" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new RingBufferTimingSink( 0 ) }
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.IOException
+import java.net.ConnectException
+
+import com.solidfire.jsvcgen.client.CircuitBreakingRequestDispatcher.State
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.{reset, times, verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+class CircuitBreakingRequestDispatcherSuite extends WordSpec with MockitoSugar with Matchers {
+
+  val request = "{\"id\":1,\"method\":\"GetAccount\",\"params\":{}}"
+
+  class Recording extends CircuitBreakerListener {
+    var changes = Vector[( State, State )]( )
+
+    override def stateChanged( dispatcher: CircuitBreakingRequestDispatcher, from: State, to: State ): Unit = changes :+= (( from, to ))
+  }
+
+  def breaker( delegate: RequestDispatcher, openMillis: Long = 60000, probes: Int = 2 ) =
+    new CircuitBreakingRequestDispatcher( delegate, 4, 4, 50, 100, 1000, openMillis, probes )
+
+  def attempt( dispatcher: RequestDispatcher ): String =
+    try dispatcher.dispatchRequest( request ) catch {
+      case e: CircuitOpenException => "open"
+      case e: IOException => "failed"
+    }
+
+  "the circuit" should {
+
+    "open once the failure rate reaches the threshold" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenReturn( "ok", "ok" ).thenThrow( new ConnectException( "refused" ) )
+      val dispatcher = breaker( delegate )
+      val listener = new Recording
+      dispatcher.setListener( listener )
+
+      ( 1 to 6 ).map( _ => attempt( dispatcher ) ) shouldBe Seq( "ok", "ok", "failed", "failed", "open", "open" )
+
+      dispatcher.getState shouldBe State.OPEN
+      dispatcher.getFailureRate shouldBe 50.0
+      dispatcher.getRejected shouldBe 2
+      listener.changes shouldBe Vector( ( State.CLOSED, State.OPEN ) )
+      val _ = verify( delegate, times( 4 ) ).dispatchRequest( anyString )
+    }
+
+    "not open before the minimum number of calls" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new ConnectException( "refused" ) )
+      val dispatcher = breaker( delegate )
+
+      ( 1 to 3 ).map( _ => attempt( dispatcher ) ) shouldBe Seq( "failed", "failed", "failed" )
+      dispatcher.getState shouldBe State.CLOSED
+      dispatcher.getFailureRate shouldBe 0.0
+    }
+
+    "open when calls are slow" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          Thread.sleep( 5 )
+          "ok"
+        }
+      } )
+      val dispatcher = new CircuitBreakingRequestDispatcher( delegate, 4, 4, 50, 100, 1, 60000, 1 )
+
+      ( 1 to 5 ).map( _ => attempt( dispatcher ) ) shouldBe Seq( "ok", "ok", "ok", "ok", "open" )
+      dispatcher.getSlowCallRate shouldBe 100.0
+    }
+
+    "not count server errors as failures" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenReturn( "{\"error\":{\"name\":\"xUnknown\"}}" )
+      val dispatcher = breaker( delegate )
+
+      ( 1 to 10 ).foreach( _ => dispatcher.dispatchRequest( request ) )
+      dispatcher.getState shouldBe State.CLOSED
+    }
+
+    "not count requests rejected by the wrapped dispatcher" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new RequestRejectedException( "busy" ) )
+      val dispatcher = breaker( delegate )
+
+      ( 1 to 10 ).map( _ => attempt( dispatcher ) ).distinct shouldBe Seq( "failed" )
+      dispatcher.getState shouldBe State.CLOSED
+    }
+
+    "not count calls their callers cancelled" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new CallCancelledException( "Call cancelled" ) )
+      val dispatcher = breaker( delegate )
+
+      ( 1 to 10 ).map( _ => attempt( dispatcher ) ).distinct shouldBe Seq( "failed" )
+      dispatcher.getState shouldBe State.CLOSED
+    }
+
+    "close again once the probes succeed" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new ConnectException( "refused" ) )
+      val dispatcher = breaker( delegate, openMillis = 0 )
+      val listener = new Recording
+      dispatcher.setListener( listener )
+      ( 1 to 4 ).foreach( _ => attempt( dispatcher ) )
+      dispatcher.getState shouldBe State.OPEN
+
+      reset( delegate )
+      when( delegate.dispatchRequest( anyString ) ).thenReturn( "ok" )
+      ( 1 to 2 ).map( _ => attempt( dispatcher ) ) shouldBe Seq( "ok", "ok" )
+
+      dispatcher.getState shouldBe State.CLOSED
+      dispatcher.getFailureRate shouldBe 0.0
+      listener.changes shouldBe Vector( ( State.CLOSED, State.OPEN ), ( State.OPEN, State.HALF_OPEN ), ( State.HALF_OPEN, State.CLOSED ) )
+    }
+
+    "open again when a probe fails" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new ConnectException( "refused" ) )
+      val dispatcher = breaker( delegate, openMillis = 50 )
+      ( 1 to 4 ).foreach( _ => attempt( dispatcher ) )
+      attempt( dispatcher ) shouldBe "open"
+      Thread.sleep( 60 )
+
+      attempt( dispatcher ) shouldBe "failed"
+      dispatcher.getState shouldBe State.OPEN
+      attempt( dispatcher ) shouldBe "open"
+      val _ = verify( delegate, times( 5 ) ).dispatchRequest( anyString )
+    }
+
+    "let only the allowed number of probes through" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new ConnectException( "refused" ) )
+      val dispatcher = breaker( delegate, openMillis = 0, probes = 1 )
+      ( 1 to 4 ).foreach( _ => attempt( dispatcher ) )
+
+      reset( delegate )
+      val inside = new java.util.concurrent.CountDownLatch( 1 )
+      val release = new java.util.concurrent.CountDownLatch( 1 )
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          inside.countDown( )
+          release.await( )
+          "ok"
+        }
+      } )
+      val probe = new Thread( new Runnable {
+        override def run( ): Unit = { val _ = dispatcher.dispatchRequest( request ) }
+      } )
+      probe.start( )
+      inside.await( )
+
+      val thrown = the[CircuitOpenException] thrownBy dispatcher.dispatchRequest( request )
+      thrown.getRetryAfterMillis shouldBe 0
+      release.countDown( )
+      probe.join( 5000 )
+      dispatcher.getState shouldBe State.CLOSED
+    }
+
+    "report how long it stays open" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new ConnectException( "refused" ) )
+      val dispatcher = breaker( delegate, openMillis = 60000 )
+      ( 1 to 4 ).foreach( _ => attempt( dispatcher ) )
+
+      val thrown = the[CircuitOpenException] thrownBy dispatcher.dispatchRequest( request )
+      thrown.getRetryAfterMillis should ( be > 50000L and be <= 60000L )
+      val _ = verify( delegate, times( 4 ) ).dispatchRequest( anyString )
+    }
+  }
+
+  "CircuitBreakingRequestDispatcher" should {
+
+    "reject a minimum above the window size" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new CircuitBreakingRequestDispatcher( mock[RequestDispatcher], 4, 5, 50, 100, 1000, 1000, 1 ) }
+    }
+
+    "keep running when a listener fails" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new ConnectException( "refused" ) )
+      val dispatcher = breaker( delegate )
+      dispatcher.setListener( new CircuitBreakerListener {
+        override def stateChanged( dispatcher: CircuitBreakingRequestDispatcher, from: State, to: State ): Unit = throw new IllegalStateException
+      } )
+
+      ( 1 to 5 ).map( _ => attempt( dispatcher ) ).last shouldBe "open"
+    }
+  }
+}
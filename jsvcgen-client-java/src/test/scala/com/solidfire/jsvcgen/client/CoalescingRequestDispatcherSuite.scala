@@ -0,0 +1,195 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.IOException
+import java.util.concurrent.{ExecutionException, TimeUnit}
+
+import com.solidfire.gson.internal.LinkedTreeMap
+import com.solidfire.gson.JsonParser
+import org.mockito.ArgumentCaptor
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.{times, verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+import scala.collection.JavaConversions._
+
+class CoalescingRequestDispatcherSuite extends WordSpec with MockitoSugar with Matchers {
+
+  /** Answers a batch with the responses in reverse order, each echoing its request id as the result. */
+  val echoBatch = new Answer[String] {
+    override def answer( invocation: InvocationOnMock ): String = {
+      val input = new JsonParser( ).parse( invocation.getArguments( )( 0 ).asInstanceOf[String] )
+      def echo( id: String ) = "{\"id\":" + id + ",\"result\":{\"echo\":" + id + "}}"
+      if (input.isJsonArray)
+        input.getAsJsonArray.map( _.getAsJsonObject.get( "id" ).toString ).toSeq.reverse.map( echo( _ ) ).mkString( "[", ",", "]" )
+      else
+        echo( input.getAsJsonObject.get( "id" ).toString )
+    }
+  }
+
+  def request( id: Int ) = "{\"id\":" + id + ",\"method\":\"m\",\"params\":{}}"
+
+  def echoOf( response: String ) = new JsonParser( ).parse( response ).getAsJsonObject.getAsJsonObject( "result" ).get( "echo" ).getAsInt
+
+  "dispatchRequestAsync" should {
+
+    "send requests as one batch when the batch is full" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( echoBatch )
+      val dispatcher = new CoalescingRequestDispatcher( delegate, 10000, 3 )
+
+      val futures = ( 1 to 3 ).map( i => dispatcher.dispatchRequestAsync( request( i ) ) )
+
+      futures.map( f => echoOf( f.get( 5, TimeUnit.SECONDS ) ) ) shouldBe Seq( 1, 2, 3 )
+      val captor = ArgumentCaptor.forClass( classOf[String] )
+      verify( delegate, times( 1 ) ).dispatchRequest( captor.capture( ) )
+      new JsonParser( ).parse( captor.getValue ).getAsJsonArray.size( ) shouldBe 3
+      dispatcher.getStatistics.getFlushesBySize shouldBe 1
+      dispatcher.getStatistics.getLargestBatch shouldBe 3
+    }
+
+    "send held requests when the window runs out" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( echoBatch )
+      val dispatcher = new CoalescingRequestDispatcher( delegate, 20, 10 )
+
+      val first = dispatcher.dispatchRequestAsync( request( 1 ) )
+      val second = dispatcher.dispatchRequestAsync( request( 2 ) )
+
+      echoOf( first.get( 5, TimeUnit.SECONDS ) ) shouldBe 1
+      echoOf( second.get( 5, TimeUnit.SECONDS ) ) shouldBe 2
+      verify( delegate, times( 1 ) ).dispatchRequest( anyString )
+      dispatcher.getStatistics.getFlushesByWindow shouldBe 1
+      dispatcher.getStatistics.getAverageBatchSize shouldBe 2.0
+      dispatcher.getStatistics.getMaxWaitMillis should be >= 0.0
+    }
+
+    "send a lone request unchanged" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( echoBatch )
+      val dispatcher = new CoalescingRequestDispatcher( delegate, 1, 10 )
+
+      echoOf( dispatcher.dispatchRequest( request( 7 ) ) ) shouldBe 7
+      val _ = verify( delegate ).dispatchRequest( request( 7 ) )
+    }
+
+    "pass through requests without an id" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenReturn( "{}" )
+      val dispatcher = new CoalescingRequestDispatcher( delegate, 10000, 10 )
+
+      dispatcher.dispatchRequestAsync( "{\"method\":\"m\"}" ).get( 5, TimeUnit.SECONDS ) shouldBe "{}"
+      dispatcher.dispatchRequestAsync( "[" + request( 1 ) + "]" ).get( 5, TimeUnit.SECONDS ) shouldBe "{}"
+      dispatcher.getStatistics.getPassedThrough shouldBe 2
+      dispatcher.getStatistics.getBatches shouldBe 0
+    }
+
+    "not put two requests with the same id in one batch" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( echoBatch )
+      val dispatcher = new CoalescingRequestDispatcher( delegate, 10000, 2 )
+
+      val first = dispatcher.dispatchRequestAsync( request( 1 ) )
+      val second = dispatcher.dispatchRequestAsync( request( 1 ) )
+      val third = dispatcher.dispatchRequestAsync( request( 2 ) )
+
+      echoOf( first.get( 5, TimeUnit.SECONDS ) ) shouldBe 1
+      echoOf( second.get( 5, TimeUnit.SECONDS ) ) shouldBe 1
+      echoOf( third.get( 5, TimeUnit.SECONDS ) ) shouldBe 2
+      val _ = verify( delegate, times( 2 ) ).dispatchRequest( anyString )
+    }
+
+    "fail a request missing from the batch response" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenReturn( "[{\"id\":1,\"result\":{}}]" )
+      val dispatcher = new CoalescingRequestDispatcher( delegate, 10000, 2 )
+
+      val first = dispatcher.dispatchRequestAsync( request( 1 ) )
+      val second = dispatcher.dispatchRequestAsync( request( 2 ) )
+
+      first.get( 5, TimeUnit.SECONDS ) shouldBe "{\"id\":1,\"result\":{}}"
+      ( the[ExecutionException] thrownBy second.get( 5, TimeUnit.SECONDS ) ).getCause shouldBe an[IOException]
+    }
+
+    "fail every request in the batch when the batch fails" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new IOException( "refused" ) )
+      val dispatcher = new CoalescingRequestDispatcher( delegate, 10000, 2 )
+
+      dispatcher.dispatchRequestAsync( request( 1 ) )
+      the[IOException] thrownBy dispatcher.dispatchRequest( request( 2 ) ) should have message "refused"
+    }
+
+    "send requests one by one when the server does not answer batches" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          val input = invocation.getArguments( )( 0 ).asInstanceOf[String]
+          if (input.startsWith( "[" )) "{\"error\":{\"message\":\"batches are not supported\"}}" else echoBatch.answer( invocation )
+        }
+      } )
+      val dispatcher = new CoalescingRequestDispatcher( delegate, 10000, 2 )
+
+      val first = dispatcher.dispatchRequestAsync( request( 1 ) )
+      val second = dispatcher.dispatchRequestAsync( request( 2 ) )
+
+      echoOf( first.get( 5, TimeUnit.SECONDS ) ) shouldBe 1
+      echoOf( second.get( 5, TimeUnit.SECONDS ) ) shouldBe 2
+      echoOf( dispatcher.dispatchRequest( request( 3 ) ) ) shouldBe 3
+      verify( delegate, times( 4 ) ).dispatchRequest( anyString )
+      dispatcher.getStatistics.getFallbacks shouldBe 1
+      dispatcher.getStatistics.getPassedThrough shouldBe 1
+    }
+
+    "hand each service call its own result" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( echoBatch )
+      val service = new ServiceBase( new CoalescingRequestDispatcher( delegate, 10000, 2 ) )
+
+      val first = service.sendRequestAsync( "aMethod", new Object, classOf[Object], classOf[LinkedTreeMap[String, Object]] )
+      val second = service.sendRequestAsync( "aMethod", new Object, classOf[Object], classOf[LinkedTreeMap[String, Object]] )
+
+      val echoes = Seq( first, second ).map( _.get( 5, TimeUnit.SECONDS ).get( "echo" ).asInstanceOf[Number].intValue )
+      echoes.distinct should have size 2
+      echoes(0) should be < echoes(1)
+      val _ = verify( delegate, times( 1 ) ).dispatchRequest( anyString )
+    }
+  }
+
+  "CoalescingRequestDispatcher" should {
+
+    "reject a batch size below one" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new CoalescingRequestDispatcher( mock[RequestDispatcher], 1, 0 ) }
+    }
+
+    "reject a negative window" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new CoalescingRequestDispatcher( mock[RequestDispatcher], -1, 2 ) }
+    }
+
+    "delegate timeouts" in {
+      val delegate = mock[RequestDispatcher]
+      val dispatcher = new CoalescingRequestDispatcher( delegate )
+
+      dispatcher.setReadTimeout( 42 )
+      dispatcher.setConnectionTimeout( 43 )
+
+      verify( delegate ).setReadTimeout( 42 )
+      verify( delegate ).setConnectionTimeout( 43 )
+    }
+  }
+
+  "requestId" should {
+
+    "read the id of a request" in {
+      CoalescingRequestDispatcher.requestId( "{\"method\":\"m\",\"params\":{\"id\":5},\"id\":12}" ) shouldBe "12"
+    }
+
+    "return null for a batch or a notification" in {
+      CoalescingRequestDispatcher.requestId( "[{\"id\":1}]" ) shouldBe null
+      CoalescingRequestDispatcher.requestId( "{\"method\":\"m\"}" ) shouldBe null
+      CoalescingRequestDispatcher.requestId( "{\"id\":null}" ) shouldBe null
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, IOException, InputStream}
+import java.util.zip.{Deflater, DeflaterOutputStream, GZIPInputStream}
+
+import org.scalatest.{Matchers, WordSpec}
+
+class CompressionSuite extends WordSpec with Matchers {
+
+  val json = ( 1 to 500 ).map( i => "{\"volumeID\":" + i + ",\"attributes\":{}}" ).mkString( "{\"result\":{\"volumes\":[", ",", "]}}" )
+
+  def readAll( in: InputStream ): String = {
+    val out = new ByteArrayOutputStream( )
+    val buffer = new Array[Byte]( 1000 )
+    var n = in.read( buffer )
+    while (n != -1) {
+      out.write( buffer, 0, n )
+      n = in.read( buffer )
+    }
+    in.close( )
+    new String( out.toByteArray, "UTF-8" )
+  }
+
+  def deflate( body: Array[Byte], raw: Boolean ): Array[Byte] = {
+    val out = new ByteArrayOutputStream( )
+    val deflater = new DeflaterOutputStream( out, new Deflater( Deflater.DEFAULT_COMPRESSION, raw ) )
+    deflater.write( body )
+    deflater.close( )
+    out.toByteArray
+  }
+
+  "decode" should {
+
+    "pass an uncompressed body through" in {
+      readAll( Compression.decode( new ByteArrayInputStream( json.getBytes( "UTF-8" ) ), null ) ) shouldBe json
+      readAll( Compression.decode( new ByteArrayInputStream( json.getBytes( "UTF-8" ) ), "identity" ) ) shouldBe json
+    }
+
+    "decompress gzip" in {
+      val body = Compression.gzip( json.getBytes( "UTF-8" ), 0, json.length )
+      readAll( Compression.decode( new ByteArrayInputStream( body ), "GZIP" ) ) shouldBe json
+    }
+
+    "decompress zlib wrapped and raw deflate" in {
+      readAll( Compression.decode( new ByteArrayInputStream( deflate( json.getBytes( "UTF-8" ), raw = false ) ), "deflate" ) ) shouldBe json
+      readAll( Compression.decode( new ByteArrayInputStream( deflate( json.getBytes( "UTF-8" ), raw = true ) ), "deflate" ) ) shouldBe json
+    }
+
+    "reject an unknown content coding" in {
+      an[IOException] should be thrownBy { val _ = Compression.decode( new ByteArrayInputStream( Array[Byte]( ) ), "br" ) }
+    }
+
+    "record the call once the body is closed" in {
+      val counters = new TransferCounters
+      var calls = List[TransferStatistics]( )
+      counters.setListener( new TransferListener {
+        override def transferCompleted( call: TransferStatistics ): Unit = calls = call :: calls
+      } )
+      val body = Compression.gzip( json.getBytes( "UTF-8" ), 0, json.length )
+
+      val in = Compression.decode( new ByteArrayInputStream( body ), "gzip", counters, 100, 40 )
+      readAll( in )
+      in.close( )
+
+      calls should have size 1
+      calls.head.getResponseBytes shouldBe json.length
+      calls.head.getResponseWireBytes shouldBe body.length
+      calls.head.getSavedBytes shouldBe 60 + json.length - body.length
+      counters.snapshot( ).getCalls shouldBe 1
+      counters.snapshot( ).getRequestWireBytes shouldBe 40
+    }
+  }
+
+  "gzip" should {
+
+    "compress a slice of a buffer" in {
+      val body = ( "xx" + json + "yy" ).getBytes( "UTF-8" )
+      readAll( new GZIPInputStream( new ByteArrayInputStream( Compression.gzip( body, 2, json.length ) ) ) ) shouldBe json
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package com.solidfire.jsvcgen.client
+
+import java.net.SocketTimeoutException
+import java.util.concurrent.{Callable, CountDownLatch, Executors, TimeUnit}
+
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.{verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+class ConcurrencyLimitingRequestDispatcherSuite extends WordSpec with MockitoSugar with Matchers {
+
+  val request = "{\"id\":1,\"method\":\"GetAccount\",\"params\":{}}"
+
+  def answering( f: => String ): RequestDispatcher = {
+    val delegate = mock[RequestDispatcher]
+    when( delegate.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+      override def answer( invocation: InvocationOnMock ): String = f
+    } )
+    delegate
+  }
+
+  def inBackground( dispatcher: RequestDispatcher ) = {
+    val executor = Executors.newSingleThreadExecutor( )
+    val future = executor.submit( new Callable[String] {
+      override def call( ): String = dispatcher.dispatchRequest( request )
+    } )
+    executor.shutdown( )
+    future
+  }
+
+  def eventually( condition: => Boolean ): Unit = {
+    val deadline = System.nanoTime( ) + TimeUnit.SECONDS.toNanos( 5 )
+    while (!condition && System.nanoTime( ) < deadline) Thread.sleep( 1 )
+    condition shouldBe true
+  }
+
+  "the limit" should {
+
+    "grow while fast requests use it" in {
+      val dispatcher = new ConcurrencyLimitingRequestDispatcher( answering( "ok" ), 1, 10 )
+
+      ( 1 to 20 ).foreach( _ => dispatcher.dispatchRequest( request ) )
+
+      // One request at a time only ever uses a limit of two.
+      dispatcher.getLimit shouldBe 3
+    }
+
+    "shrink when a request fails" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new SocketTimeoutException( "slow" ) )
+      val dispatcher = new ConcurrencyLimitingRequestDispatcher( delegate, 20, 20 )
+
+      a[SocketTimeoutException] should be thrownBy dispatcher.dispatchRequest( request )
+
+      dispatcher.getLimit shouldBe 18
+      dispatcher.getInFlight shouldBe 0
+    }
+
+    "shrink when a request is much slower than the fastest" in {
+      @volatile var delay = 0L
+      val dispatcher = new ConcurrencyLimitingRequestDispatcher( answering( {
+        Thread.sleep( delay )
+        "ok"
+      } ), 20, 20 )
+      ( 1 to 5 ).foreach( _ => dispatcher.dispatchRequest( request ) )
+      val before = dispatcher.getLimit
+
+      delay = 20
+      dispatcher.dispatchRequest( request )
+
+      dispatcher.getLimit should be < before
+    }
+
+    "never exceed the maximum" in {
+      val dispatcher = new ConcurrencyLimitingRequestDispatcher( answering( "ok" ), 2, 2 )
+
+      ( 1 to 20 ).foreach( _ => dispatcher.dispatchRequest( request ) )
+
+      dispatcher.getLimit shouldBe 2
+    }
+  }
+
+  "requests over the limit" should {
+
+    "be refused at once without a queue" in {
+      val release = new CountDownLatch( 1 )
+      val delegate = answering( {
+        release.await( 5, TimeUnit.SECONDS )
+        "ok"
+      } )
+      val dispatcher = new ConcurrencyLimitingRequestDispatcher( delegate, 1, 1 )
+      dispatcher.setMaxQueueSize( 0 )
+
+      val first = inBackground( dispatcher )
+      eventually( dispatcher.getInFlight == 1 )
+      a[RequestRejectedException] should be thrownBy dispatcher.dispatchRequest( request )
+      release.countDown( )
+
+      first.get( 5, TimeUnit.SECONDS ) shouldBe "ok"
+      dispatcher.getRejected shouldBe 1
+    }
+
+    "wait in line for a slot" in {
+      val release = new CountDownLatch( 1 )
+      val dispatcher = new ConcurrencyLimitingRequestDispatcher( answering( {
+        release.await( 5, TimeUnit.SECONDS )
+        "ok"
+      } ), 1, 1 )
+
+      val first = inBackground( dispatcher )
+      eventually( dispatcher.getInFlight == 1 )
+      val second = inBackground( dispatcher )
+      eventually( dispatcher.getQueueDepth == 1 )
+      dispatcher.getInFlight shouldBe 1
+      release.countDown( )
+
+      first.get( 5, TimeUnit.SECONDS ) shouldBe "ok"
+      second.get( 5, TimeUnit.SECONDS ) shouldBe "ok"
+      dispatcher.getQueueDepth shouldBe 0
+      dispatcher.getRejected shouldBe 0
+    }
+
+    "be refused after waiting too long" in {
+      val release = new CountDownLatch( 1 )
+      val dispatcher = new ConcurrencyLimitingRequestDispatcher( answering( {
+        release.await( 5, TimeUnit.SECONDS )
+        "ok"
+      } ), 1, 1 )
+      dispatcher.setMaxQueueWaitMillis( 20 )
+
+      val first = inBackground( dispatcher )
+      eventually( dispatcher.getInFlight == 1 )
+      a[RequestRejectedException] should be thrownBy dispatcher.dispatchRequest( request )
+      release.countDown( )
+
+      first.get( 5, TimeUnit.SECONDS ) shouldBe "ok"
+      dispatcher.getQueueDepth shouldBe 0
+    }
+  }
+
+  "ConcurrencyLimitingRequestDispatcher" should {
+
+    "reject a maximum below the initial limit" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new ConcurrencyLimitingRequestDispatcher( mock[RequestDispatcher], 4, 2 ) }
+    }
+
+    "delegate timeouts" in {
+      val delegate = mock[RequestDispatcher]
+      new ConcurrencyLimitingRequestDispatcher( delegate ).setReadTimeout( 42 )
+      verify( delegate ).setReadTimeout( 42 )
+    }
+  }
+}
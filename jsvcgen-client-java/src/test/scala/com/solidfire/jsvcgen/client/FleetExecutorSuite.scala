@@ -0,0 +1,190 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch, TimeUnit}
+
+import com.solidfire.gson.internal.LinkedTreeMap
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.when
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+import scala.collection.JavaConversions._
+
+class FleetExecutorSuite extends WordSpec with MockitoSugar with Matchers {
+
+  /** Counts the calls in flight, in all and by service, and remembers the most seen at once. */
+  class Tracking( sleepMillis: Long ) extends FleetCall[String, String] {
+    val inFlight = new AtomicInteger( )
+    val maxInFlight = new AtomicInteger( )
+    val byService = new ConcurrentHashMap[String, AtomicInteger]( )
+    val maxByService = new AtomicInteger( )
+
+    override def call( service: String ): String = {
+      byService.putIfAbsent( service, new AtomicInteger( ) )
+      val forService = byService.get( service ).incrementAndGet( )
+      maxByService.synchronized( maxByService.set( math.max( maxByService.get, forService ) ) )
+      val all = inFlight.incrementAndGet( )
+      maxInFlight.synchronized( maxInFlight.set( math.max( maxInFlight.get, all ) ) )
+      try {
+        Thread.sleep( sleepMillis )
+        service.toUpperCase
+      } finally {
+        inFlight.decrementAndGet( )
+        val _ = byService.get( service ).decrementAndGet( )
+      }
+    }
+  }
+
+  val clusters = ( 1 to 20 ).map( "cluster" + _ )
+
+  "run" should {
+
+    "run the call against every service and hand out every result" in {
+      val executor = new FleetExecutor( 4, 1 )
+      try {
+        val run = executor.run[String, String]( clusters, new Tracking( 1 ) )
+
+        val results = run.iterator.toList
+        results.map( _.getResult ).sorted shouldBe clusters.map( _.toUpperCase ).sorted
+        results.forall( _.isSuccess ) shouldBe true
+        run.isDone shouldBe true
+        run.getSucceeded shouldBe 20
+        run.poll( 1, TimeUnit.MILLISECONDS ) shouldBe null
+      } finally {
+        executor.close( )
+      }
+    }
+
+    "bound the calls in flight in all and per cluster" in {
+      val executor = new FleetExecutor( 3, 2 )
+      try {
+        val call = new Tracking( 5 )
+        val run = executor.run[String, String]( clusters ++ Seq.fill( 6 )( "busy" ), call )
+
+        run.await( 5, TimeUnit.SECONDS ) shouldBe true
+        call.maxInFlight.get should ( be > 1 and be <= 3 )
+        call.maxByService.get shouldBe 2
+        val deadline = System.nanoTime( ) + TimeUnit.SECONDS.toNanos( 5 )
+        while (executor.getActive > 0 && System.nanoTime( ) < deadline) Thread.sleep( 1 )
+        executor.getActive shouldBe 0
+      } finally {
+        executor.close( )
+      }
+    }
+
+    "report the failures alongside the results" in {
+      val executor = new FleetExecutor( )
+      try {
+        val run = executor.run[String, String]( clusters, new FleetCall[String, String] {
+          override def call( service: String ): String =
+            if (service.endsWith( "7" )) throw new ApiException( "unreachable" ) else service
+        } )
+
+        run.await( 5, TimeUnit.SECONDS ) shouldBe true
+        run.getSucceeded shouldBe 18
+        run.getFailures.map( _.getService ).sorted shouldBe Seq( "cluster17", "cluster7" )
+        run.getFailures.head.getFailure should have message "unreachable"
+        run.iterator.size shouldBe 20
+      } finally {
+        executor.close( )
+      }
+    }
+
+    "fail the calls not started when the deadline passes" in {
+      val executor = new FleetExecutor( 1, 1 )
+      try {
+        val run = executor.run[String, String]( clusters, new Tracking( 30 ), 100, TimeUnit.MILLISECONDS )
+
+        run.await( 5, TimeUnit.SECONDS ) shouldBe true
+        run.getSucceeded should ( be > 0 and be < 20 )
+        run.getFailures.map( _.getFailure.getCause ).foreach( _ shouldBe a[DeadlineExceededException] )
+      } finally {
+        executor.close( )
+      }
+    }
+
+    "fail the calls not started once cancelled" in {
+      val executor = new FleetExecutor( 1, 1 )
+      try {
+        val started = new CountDownLatch( 1 )
+        val release = new CountDownLatch( 1 )
+        val run = executor.run[String, String]( clusters, new FleetCall[String, String] {
+          override def call( service: String ): String = {
+            started.countDown( )
+            release.await( 5, TimeUnit.SECONDS )
+            service
+          }
+        } )
+        started.await( 5, TimeUnit.SECONDS )
+        run.cancel( )
+        release.countDown( )
+
+        run.await( 5, TimeUnit.SECONDS ) shouldBe true
+        run.getSucceeded shouldBe 1
+        run.getFailures.map( _.getFailure.getCause ).foreach( _ shouldBe a[CallCancelledException] )
+      } finally {
+        executor.close( )
+      }
+    }
+
+    "make the options of the run current for each call" in {
+      val executor = new FleetExecutor( )
+      try {
+        val run = executor.run[String, java.lang.Boolean]( clusters, new FleetCall[String, java.lang.Boolean] {
+          override def call( service: String ): java.lang.Boolean = CallOptions.current( ).hasDeadline
+        }, 5, TimeUnit.SECONDS )
+
+        run.iterator.map( _.getResult.booleanValue ).toSet shouldBe Set( true )
+      } finally {
+        executor.close( )
+      }
+    }
+
+    "send service calls and hand back their typed results" in {
+      type Result = LinkedTreeMap[String, Object]
+      val services = ( 1 to 5 ).map( i => {
+        val dispatcher = mock[RequestDispatcher]
+        when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{\"result\":{\"cluster\":" + i + "}}" )
+        new ServiceBase( dispatcher )
+      } )
+      val executor = new FleetExecutor( )
+      try {
+        val run = executor.run[ServiceBase, Result]( services, new FleetCall[ServiceBase, Result] {
+          override def call( service: ServiceBase ): Result =
+            service.sendRequest( "GetClusterInfo", new Object, classOf[Object], classOf[Result] )
+        } )
+
+        run.iterator.map( _.getResult.get( "cluster" ).asInstanceOf[Number].intValue ).toSet shouldBe ( 1 to 5 ).toSet
+      } finally {
+        executor.close( )
+      }
+    }
+
+    "hand out an empty run for no services" in {
+      val executor = new FleetExecutor( )
+      try {
+        val run = executor.run[String, String]( Seq[String]( ), new Tracking( 0 ) )
+        run.isDone shouldBe true
+        run.iterator.hasNext shouldBe false
+      } finally {
+        executor.close( )
+      }
+    }
+  }
+
+  "FleetExecutor" should {
+
+    "reject a concurrency below one" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new FleetExecutor( 0, 1 ) }
+      an[IllegalArgumentException] should be thrownBy { val _ = new FleetExecutor( 1, 0 ) }
+    }
+
+    "refuse a run once closed" in {
+      val executor = new FleetExecutor( )
+      executor.close( )
+      an[IllegalStateException] should be thrownBy { val _ = executor.run[String, String]( clusters, new Tracking( 0 ) ) }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.{IOException, Reader}
+import java.util.concurrent.TimeUnit
+
+import com.solidfire.jsvcgen.client.LocalTlsServer._
+import org.scalatest.{Matchers, WordSpec}
+
+/**
+ * Runs against the Java 7 class, or against the JDK 11 class of the multi-release jar when the build's testJava11
+ * task puts META-INF/versions/11 first on the classpath and sets jsvcgen.test.java11.
+ */
+class Http2RequestDispatcherSuite extends WordSpec with Matchers {
+
+  def withDispatcher[T]( handler: Request => Reply )( body: ( LocalTlsServer, Http2RequestDispatcher ) => T ): T =
+    withServer( handler ) { server =>
+      body( server, new Http2RequestDispatcher( server.url( ), trustingContext ) )
+    }
+
+  def stream( dispatcher: Http2RequestDispatcher, method: String ): Reader =
+    dispatcher.dispatchRequestStream( new ByteArrayRequestBody( request( method ).getBytes( "UTF-8" ) ) )
+
+  def readAll( reader: Reader ): String =
+    try Stream.continually( reader.read( ) ).takeWhile( _ != -1 ).map( _.toChar ).mkString finally reader.close( )
+
+  private def traced[T]( body: CallTrace => T ): T = {
+    val trace = new CallTrace( "GetClusterInfo", null )
+    val previous = CallTrace.enter( trace )
+    try body( trace ) finally CallTrace.exit( previous )
+  }
+
+  def within[T]( options: CallOptions )( body: => T ): T = {
+    val scope = options.makeCurrent( )
+    try body finally scope.close( )
+  }
+
+  "Http2RequestDispatcher" should {
+
+    "be the implementation the runtime is tested with" in {
+      Http2RequestDispatcher.isMultiplexingSupported shouldBe java.lang.Boolean.getBoolean( "jsvcgen.test.java11" )
+    }
+
+    "send a request and return the response" in withDispatcher( echo ) { ( server, dispatcher ) =>
+      dispatcher.dispatchRequest( request( "GetClusterInfo" ) ) should include( "\"method\":\"GetClusterInfo\"" )
+      server.requests.head.header( "Accept-Encoding" ) shouldBe None
+    }
+
+    "stream a request and its response" in withDispatcher( echo ) { ( server, dispatcher ) =>
+      readAll( stream( dispatcher, "ListVolumes" ) ) should include( "\"method\":\"ListVolumes\"" )
+      dispatcher.getTransferStatistics.getCalls shouldBe 1
+    }
+
+    "send the trace id of the current call" in withDispatcher( echo ) { ( server, dispatcher ) =>
+      val ids = traced { trace =>
+        dispatcher.dispatchRequest( request( "GetClusterInfo" ) )
+        readAll( stream( dispatcher, "ListVolumes" ) )
+        trace.getTraceId
+      }
+      server.requests.map( _.header( CallTrace.HEADER ) ) shouldBe List( Some( ids ), Some( ids ) )
+    }
+
+    "ask for compressed responses when told to" in withDispatcher( echo ) { ( server, dispatcher ) =>
+      dispatcher.setAcceptCompressedResponses( true )
+      dispatcher.isAcceptCompressedResponses shouldBe true
+      dispatcher.dispatchRequest( request( "GetClusterInfo" ) )
+      server.requests.head.header( "Accept-Encoding" ) shouldBe Some( Compression.ACCEPT_ENCODING )
+    }
+
+    "compress requests from the threshold on and count the bytes saved" in withDispatcher( echo ) { ( server, dispatcher ) =>
+      val large = "{\"method\":\"ListVolumes\",\"params\":{\"names\":[" + Seq.fill( 200 )( "\"volume\"" ).mkString( "," ) + "]},\"id\":1}"
+      dispatcher.setRequestCompressionThreshold( 256 )
+      dispatcher.dispatchRequest( request( "GetClusterInfo" ) )
+      dispatcher.dispatchRequest( large )
+      readAll( dispatcher.dispatchRequestStream( new ByteArrayRequestBody( large.getBytes( "UTF-8" ) ) ) )
+
+      server.requests.map( _.header( "Content-Encoding" ) ) shouldBe List( None, Some( "gzip" ), Some( "gzip" ) )
+      server.requests.map( _.method ) shouldBe List( "GetClusterInfo", "ListVolumes", "ListVolumes" )
+      val statistics = dispatcher.getTransferStatistics
+      statistics.getCalls shouldBe 3
+      statistics.getRequestWireBytes should be < statistics.getRequestBytes
+    }
+
+    "tell the transfer listener about every call" in withDispatcher( echo ) { ( server, dispatcher ) =>
+      var calls = 0L
+      dispatcher.setTransferListener( new TransferListener {
+        override def transferCompleted( statistics: TransferStatistics ): Unit = calls += statistics.getCalls
+      } )
+      dispatcher.dispatchRequest( request( "GetClusterInfo" ) )
+      calls shouldBe 1
+    }
+
+    "give up when the deadline of the call passes" in withDispatcher( _ => Stall( 5000 ) ) { ( server, dispatcher ) =>
+      val start = System.nanoTime( )
+      a[DeadlineExceededException] should be thrownBy within( new CallOptions( 200, TimeUnit.MILLISECONDS ) ) {
+        dispatcher.dispatchRequest( request( "GetClusterInfo" ) )
+      }
+      TimeUnit.NANOSECONDS.toMillis( System.nanoTime( ) - start ) should be < 3000L
+    }
+
+    "stop reading a streamed response when the call is cancelled" in withDispatcher( _ => Respond( "HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n{\"id\":1" ) ) { ( server, dispatcher ) =>
+      val cancellation = new Cancellation
+      val reader = within( new CallOptions( cancellation ) )( stream( dispatcher, "ListVolumes" ) )
+      cancellation.cancel( )
+      an[IOException] should be thrownBy { val _ = readAll( reader ) }
+    }
+  }
+}
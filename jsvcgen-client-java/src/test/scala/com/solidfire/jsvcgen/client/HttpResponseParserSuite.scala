@@ -0,0 +1,138 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.IOException
+import java.nio.ByteBuffer
+
+import org.scalatest.{Matchers, WordSpec}
+
+class HttpResponseParserSuite extends WordSpec with Matchers {
+
+  def bytes( text: String ) = text.getBytes( "UTF-8" )
+
+  /** Feeds the response in pieces of the given sizes, the last piece taking whatever is left. */
+  def parse( response: String, pieces: Int* ): ( HttpResponseParser, Boolean ) = {
+    val parser = new HttpResponseParser
+    val all = bytes( response )
+    var offset = 0
+    var done = false
+    for (size <- pieces :+ all.length) {
+      val n = math.min( size, all.length - offset )
+      done = parser.feed( ByteBuffer.wrap( all, offset, n ) )
+      offset += n
+    }
+    ( parser, done )
+  }
+
+  private def body( parser: HttpResponseParser ) = new String( parser.getBody, "UTF-8" )
+
+  val chunked = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" +
+    "a;name=value\r\n{\"result\":\r\n" + "3\r\n{}}\r\n" + "0\r\nX-Trailer: ignored\r\n\r\n"
+
+  "HttpResponseParser" should {
+
+    "read a body framed by Content-Length" in {
+      val ( parser, done ) = parse( "HTTP/1.1 200 OK\r\nContent-Length: 13\r\nContent-Type: application/json\r\n\r\n{\"result\":{}}" )
+      done shouldBe true
+      parser.getStatusCode shouldBe 200
+      parser.getHeader( "content-type" ) shouldBe "application/json"
+      body( parser ) shouldBe "{\"result\":{}}"
+      parser.isKeepAlive shouldBe true
+    }
+
+    "read a response split at every possible byte" in {
+      val response = "HTTP/1.1 200 OK\r\nContent-Length: 13\r\n\r\n{\"result\":{}}"
+      for (split <- 0 to response.length) {
+        val ( parser, done ) = parse( response, split )
+        withClue( "split at " + split ) {
+          done shouldBe true
+          body( parser ) shouldBe "{\"result\":{}}"
+        }
+      }
+    }
+
+    "read a response one byte at a time" in {
+      val ( parser, done ) = parse( chunked, Seq.fill( chunked.length - 1 )( 1 ): _* )
+      done shouldBe true
+      body( parser ) shouldBe "{\"result\":{}}"
+    }
+
+    "read a chunked body split at every possible byte, ignoring extensions and trailers" in {
+      for (split <- 0 to chunked.length) {
+        val ( parser, done ) = parse( chunked, split )
+        withClue( "split at " + split ) {
+          done shouldBe true
+          body( parser ) shouldBe "{\"result\":{}}"
+          parser.isKeepAlive shouldBe true
+        }
+      }
+    }
+
+    "not complete before the last chunk" in {
+      val ( parser, done ) = parse( chunked.substring( 0, chunked.indexOf( "0\r\n" ) ) )
+      done shouldBe false
+      parser.hasStarted shouldBe true
+      parser.finishOnEof shouldBe false
+    }
+
+    "skip interim responses" in {
+      val ( parser, done ) = parse( "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n{}", 10 )
+      done shouldBe true
+      parser.getStatusCode shouldBe 200
+      body( parser ) shouldBe "{}"
+    }
+
+    "read a body ended by the close of the connection" in {
+      val ( parser, done ) = parse( "HTTP/1.0 200 OK\r\n\r\n{\"result\":", 20 )
+      done shouldBe false
+      parser.finishOnEof shouldBe true
+      body( parser ) shouldBe "{\"result\":"
+      parser.isKeepAlive shouldBe false
+    }
+
+    "read a response without a body" in {
+      val ( parser, done ) = parse( "HTTP/1.1 204 No Content\r\n\r\n" )
+      done shouldBe true
+      parser.getBody shouldBe empty
+      parser.isKeepAlive shouldBe true
+    }
+
+    "honour the Connection header" in {
+      parse( "HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 0\r\n\r\n" )._1.isKeepAlive shouldBe false
+      parse( "HTTP/1.0 200 OK\r\nContent-Length: 0\r\n\r\n" )._1.isKeepAlive shouldBe false
+      parse( "HTTP/1.0 200 OK\r\nConnection: Keep-Alive\r\nContent-Length: 0\r\n\r\n" )._1.isKeepAlive shouldBe true
+    }
+
+    "join repeated headers" in {
+      parse( "HTTP/1.1 200 OK\r\nVia: a\r\nVIA: b\r\nContent-Length: 0\r\n\r\n" )._1.getHeader( "Via" ) shouldBe "a, b"
+    }
+
+    "not have started before any byte arrived" in {
+      new HttpResponseParser( ).hasStarted shouldBe false
+      new HttpResponseParser( ).finishOnEof shouldBe false
+    }
+
+    "reject a malformed status line" in {
+      the[IOException] thrownBy parse( "HTTP/1.1 OK\r\n\r\n" ) should have message "Malformed HTTP status line: HTTP/1.1 OK"
+      an[IOException] should be thrownBy { val _ = parse( "SSH-2.0-OpenSSH\r\n\r\n" ) }
+    }
+
+    "reject a header without a name" in {
+      the[IOException] thrownBy parse( "HTTP/1.1 200 OK\r\nContent-Length 2\r\n\r\n{}" ) should have message
+        "Malformed HTTP header: Content-Length 2"
+      an[IOException] should be thrownBy { val _ = parse( "HTTP/1.1 200 OK\r\n: value\r\n\r\n" ) }
+    }
+
+    "reject a header line that is too long" in {
+      an[IOException] should be thrownBy { val _ = parse( "HTTP/1.1 200 OK\r\nX-Long: " + "x" * 8192 + "\r\n\r\n" ) }
+    }
+
+    "reject a malformed Content-Length" in {
+      an[IOException] should be thrownBy { val _ = parse( "HTTP/1.1 200 OK\r\nContent-Length: ten\r\n\r\n" ) }
+    }
+
+    "reject a malformed chunk" in {
+      an[IOException] should be thrownBy { val _ = parse( "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n" ) }
+      an[IOException] should be thrownBy { val _ = parse( "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n2\r\n{}}\r\n0\r\n\r\n" ) }
+    }
+  }
+}
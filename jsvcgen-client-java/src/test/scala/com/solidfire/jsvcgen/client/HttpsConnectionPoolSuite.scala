@@ -0,0 +1,147 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.IOException
+import java.util.concurrent.{Callable, Executors, TimeUnit}
+
+import com.solidfire.jsvcgen.client.LocalTlsServer._
+import org.scalatest.{Matchers, WordSpec}
+
+class HttpsConnectionPoolSuite extends WordSpec with Matchers {
+
+  "HttpsConnectionPool" should {
+
+    "reuse a keep-alive connection" in withServer( echo ) { server =>
+      val pool = trustingPool( )
+      try {
+        val dispatcher = new PooledHttpsRequestDispatcher( server.url( ), pool )
+        dispatcher.dispatchRequest( request( "GetClusterInfo", 1 ) ) should include( "\"connection\":1" )
+        dispatcher.dispatchRequest( request( "GetClusterInfo", 2 ) ) should include( "\"connection\":1" )
+        server.connections shouldBe 1
+        val stats = pool.getStatistics( server.url( ) )
+        stats.getCreated shouldBe 1
+        stats.getReused shouldBe 1
+        stats.getIdle shouldBe 1
+        stats.getLeased shouldBe 0
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "replace a connection the server closed while it sat idle before sending on it" in withServer( r => echo( r ) match {
+      case Respond( raw, _ ) => Respond( raw, closeAfter = true )
+      case other => other
+    } ) { server =>
+      val pool = trustingPool( )
+      pool.setValidateAfterInactivity( 0 )
+      try {
+        val dispatcher = new PooledHttpsRequestDispatcher( server.url( ), pool )
+        dispatcher.dispatchRequest( request( "CreateVolume", 1 ) ) should include( "\"connection\":1" )
+        Thread.sleep( 100 )
+        dispatcher.dispatchRequest( request( "CreateVolume", 2 ) ) should include( "\"connection\":2" )
+        server.requests.map( _.method ) shouldBe List( "CreateVolume", "CreateVolume" )
+        pool.getStatistics( server.url( ) ).getEvicted shouldBe 1
+        pool.getStatistics( server.url( ) ).getReused shouldBe 0
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "time out waiting for a free connection" in withServer( echo ) { server =>
+      val pool = trustingPool( maxConnectionsPerHost = 1 )
+      try {
+        val leased = pool.lease( server.url( ), 1000, null )
+        val thrown = the[IOException] thrownBy pool.lease( server.url( ), 100, null )
+        thrown.getMessage should include( "waiting for a connection" )
+        pool.getStatistics( server.url( ) ).getWaitTimeouts shouldBe 1
+        pool.release( leased )
+        pool.release( pool.lease( server.url( ), 100, null ) )
+        pool.getStatistics( server.url( ) ).getReused shouldBe 1
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "hand a returned connection to a waiting caller" in withServer( echo ) { server =>
+      val pool = trustingPool( maxConnectionsPerHost = 1 )
+      try {
+        val leased = pool.lease( server.url( ), 1000, null )
+        val waiter = new Thread( new Runnable {
+          override def run( ): Unit = pool.release( pool.lease( server.url( ), 5000, null ) )
+        } )
+        waiter.start( )
+        Thread.sleep( 100 )
+        pool.getStatistics( server.url( ) ).getLeased shouldBe 1
+        pool.release( leased )
+        waiter.join( 5000 )
+        server.connections shouldBe 1
+        pool.getStatistics( server.url( ) ).getReused shouldBe 1
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "evict connections idle for longer than the idle timeout" in withServer( echo ) { server =>
+      val pool = trustingPool( idleTimeout = 50 )
+      try {
+        val dispatcher = new PooledHttpsRequestDispatcher( server.url( ), pool )
+        dispatcher.dispatchRequest( request( "GetClusterInfo" ) )
+        pool.evictIdleConnections( ) shouldBe 0
+        Thread.sleep( 100 )
+        pool.evictIdleConnections( ) shouldBe 1
+        pool.getStatistics( server.url( ) ).getIdle shouldBe 0
+        pool.getStatistics( server.url( ) ).getEvicted shouldBe 1
+        dispatcher.dispatchRequest( request( "GetClusterInfo" ) ) should include( "\"connection\":2" )
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "open connections ahead of time within the per-host limit" in withServer( echo ) { server =>
+      val pool = trustingPool( maxConnectionsPerHost = 2 )
+      try {
+        pool.prewarm( server.url( ), 3, 1000 ) shouldBe 2
+        pool.getStatistics( server.url( ) ).getIdle shouldBe 2
+        new PooledHttpsRequestDispatcher( server.url( ), pool ).dispatchRequest( request( "GetClusterInfo" ) )
+        pool.getStatistics( server.url( ) ).getReused shouldBe 1
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "stay within the per-host limit when prewarms and leases race" in withServer( echo ) { server =>
+      val pool = trustingPool( maxConnectionsPerHost = 3 )
+      val executor = Executors.newFixedThreadPool( 8 )
+      try {
+        val warming = ( 1 to 8 ).map( i => executor.submit( new Callable[Int] {
+          override def call( ): Int =
+            if (i % 2 == 0) pool.prewarm( server.url( ), 3, 5000 )
+            else {
+              pool.release( pool.lease( server.url( ), 5000, null ) )
+              0
+            }
+        } ) )
+        warming.foreach( _.get( 10, TimeUnit.SECONDS ) )
+        pool.getStatistics( server.url( ) ).getCreated should be <= 3L
+        pool.getStatistics( server.url( ) ).getIdle should be <= 3
+        server.connections should be <= 3
+      } finally {
+        executor.shutdown( )
+        pool.close( )
+      }
+    }
+
+    "refuse leases once closed" in withServer( echo ) { server =>
+      val pool = trustingPool( )
+      new PooledHttpsRequestDispatcher( server.url( ), pool ).dispatchRequest( request( "GetClusterInfo" ) )
+      pool.close( )
+      pool.getStatistics( server.url( ) ).getIdle shouldBe 0
+      an[IOException] should be thrownBy { val _ = pool.lease( server.url( ), 100, null ) }
+    }
+
+    "reject invalid limits" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new HttpsConnectionPool( 0, 1000 ) }
+      an[IllegalArgumentException] should be thrownBy { val _ = new HttpsConnectionPool( 1, -1 ) }
+      an[IllegalArgumentException] should be thrownBy new HttpsConnectionPool( ).setValidateAfterInactivity( -1 )
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.IOException
+import java.net.{ConnectException, SocketTimeoutException}
+import java.util.concurrent.{CountDownLatch, Executors, TimeUnit}
+import java.util.regex.Pattern
+
+import com.solidfire.jsvcgen.client.LoadBalancingRequestDispatcher.Strategy
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.{never, times, verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+import scala.collection.JavaConversions._
+
+class LoadBalancingRequestDispatcherSuite extends WordSpec with MockitoSugar with Matchers {
+
+  def request( method: String ) = "{\"id\":1,\"method\":\"" + method + "\",\"params\":{}}"
+
+  def endpoint( response: String ): RequestDispatcher = {
+    val dispatcher = mock[RequestDispatcher]
+    when( dispatcher.getVersion ).thenReturn( "9.0" )
+    when( dispatcher.dispatchRequest( anyString ) ).thenReturn( response )
+    dispatcher
+  }
+
+  def failing( e: IOException ): RequestDispatcher = {
+    val dispatcher = mock[RequestDispatcher]
+    when( dispatcher.getVersion ).thenReturn( "9.0" )
+    when( dispatcher.dispatchRequest( anyString ) ).thenThrow( e )
+    dispatcher
+  }
+
+  "dispatchRequest" should {
+
+    "spread requests over idle endpoints" in {
+      val a = endpoint( "a" )
+      val b = endpoint( "b" )
+      val dispatcher = new LoadBalancingRequestDispatcher( List( a, b ) )
+
+      ( 1 to 10 ).map( _ => dispatcher.dispatchRequest( request( "GetAccount" ) ) ).groupBy( identity ).mapValues( _.size ) shouldBe Map( "a" -> 5, "b" -> 5 )
+    }
+
+    "prefer the endpoint with fewer requests in flight" in {
+      val started = new CountDownLatch( 1 )
+      val release = new CountDownLatch( 1 )
+      val busy = mock[RequestDispatcher]
+      when( busy.getVersion ).thenReturn( "9.0" )
+      when( busy.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          started.countDown( )
+          release.await( 5, TimeUnit.SECONDS )
+          "busy"
+        }
+      } )
+      val idle = endpoint( "idle" )
+      val dispatcher = new LoadBalancingRequestDispatcher( List( busy, idle ) )
+      val executor = Executors.newSingleThreadExecutor( )
+      try {
+        // Both are idle, so keep sending until one request sticks to the busy endpoint.
+        var pending = executor.submit( new java.util.concurrent.Callable[String] {
+          override def call( ): String = dispatcher.dispatchRequest( request( "GetAccount" ) )
+        } )
+        if (!started.await( 100, TimeUnit.MILLISECONDS )) {
+          pending.get( ) shouldBe "idle"
+          pending = executor.submit( new java.util.concurrent.Callable[String] {
+            override def call( ): String = dispatcher.dispatchRequest( request( "GetAccount" ) )
+          } )
+          started.await( 5, TimeUnit.SECONDS ) shouldBe true
+        }
+
+        ( 1 to 5 ).map( _ => dispatcher.dispatchRequest( request( "GetAccount" ) ) ).distinct shouldBe Seq( "idle" )
+        dispatcher.getEndpointStatistics.get( 0 ).getOutstanding shouldBe 1
+        release.countDown( )
+        pending.get( 5, TimeUnit.SECONDS ) shouldBe "busy"
+      } finally {
+        release.countDown( )
+        executor.shutdown( )
+      }
+    }
+
+    "send more requests to the faster endpoint" in {
+      val slow = mock[RequestDispatcher]
+      when( slow.getVersion ).thenReturn( "9.0" )
+      when( slow.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          Thread.sleep( 20 )
+          "slow"
+        }
+      } )
+      val dispatcher = new LoadBalancingRequestDispatcher( List( slow, endpoint( "fast" ) ), Strategy.LATENCY, 3, 1000 )
+
+      val responses = ( 1 to 20 ).map( _ => dispatcher.dispatchRequest( request( "GetAccount" ) ) )
+
+      responses.count( _ == "fast" ) should be >= 18
+      dispatcher.getEndpointStatistics.get( 0 ).getAverageLatencyMillis should be >= 20.0
+    }
+
+    "fail an idempotent request over to another endpoint" in {
+      val dispatcher = new LoadBalancingRequestDispatcher( List( failing( new SocketTimeoutException( "timed out" ) ), endpoint( "ok" ) ) )
+
+      ( 1 to 4 ).map( _ => dispatcher.dispatchRequest( request( "ListVolumes" ) ) ).distinct shouldBe Seq( "ok" )
+      dispatcher.getFailovers shouldBe 2
+    }
+
+    "not send a request that may have been received again" in {
+      val timingOut = failing( new SocketTimeoutException( "timed out" ) )
+      val ok = endpoint( "ok" )
+      val dispatcher = new LoadBalancingRequestDispatcher( List( timingOut, ok ) )
+
+      val outcomes = ( 1 to 4 ).map( _ => try dispatcher.dispatchRequest( request( "CreateVolume" ) ) catch {
+        case e: SocketTimeoutException => "timed out"
+      } )
+
+      outcomes.count( _ == "timed out" ) shouldBe 2
+      verify( ok, times( 2 ) ).dispatchRequest( anyString )
+      dispatcher.getFailovers shouldBe 0
+    }
+
+    "fail any request over when the connection was refused" in {
+      val dispatcher = new LoadBalancingRequestDispatcher( List( failing( new ConnectException( "refused" ) ), endpoint( "ok" ) ) )
+
+      ( 1 to 4 ).map( _ => dispatcher.dispatchRequest( request( "CreateVolume" ) ) ).distinct shouldBe Seq( "ok" )
+    }
+
+    "use the configured idempotent methods" in {
+      val dispatcher = new LoadBalancingRequestDispatcher( List( failing( new SocketTimeoutException( "timed out" ) ), endpoint( "ok" ) ) )
+      dispatcher.setIdempotentMethods( Pattern.compile( "CreateVolume" ) )
+
+      ( 1 to 4 ).map( _ => dispatcher.dispatchRequest( request( "CreateVolume" ) ) ).distinct shouldBe Seq( "ok" )
+    }
+
+    "throw the last error with the others suppressed when every endpoint fails" in {
+      val dispatcher = new LoadBalancingRequestDispatcher( List( failing( new ConnectException( "first" ) ), failing( new ConnectException( "second" ) ) ) )
+
+      val thrown = the[ConnectException] thrownBy dispatcher.dispatchRequest( request( "GetAccount" ) )
+      thrown.getSuppressed should have length 1
+      Set( thrown.getMessage, thrown.getSuppressed( )( 0 ).getMessage ) shouldBe Set( "first", "second" )
+    }
+  }
+
+  "ejection" should {
+
+    "take a failing endpoint out of rotation" in {
+      val down = failing( new ConnectException( "refused" ) )
+      val up = endpoint( "up" )
+      val dispatcher = new LoadBalancingRequestDispatcher( List( down, up ), Strategy.LEAST_OUTSTANDING, 2, 60000 )
+
+      ( 1 to 10 ).foreach( _ => dispatcher.dispatchRequest( request( "GetAccount" ) ) )
+
+      verify( down, times( 2 ) ).dispatchRequest( anyString )
+      dispatcher.getEndpointStatistics.get( 0 ).isEjected shouldBe true
+      dispatcher.getEndpointStatistics.get( 0 ).getEjections shouldBe 1
+      dispatcher.getEndpointStatistics.get( 1 ).getRequests shouldBe 10
+    }
+
+    "probe an ejected endpoint and bring it back" in {
+      val flaky = mock[RequestDispatcher]
+      when( flaky.getVersion ).thenReturn( "9.0" )
+      when( flaky.dispatchRequest( anyString ) ).thenThrow( new ConnectException( "refused" ) ).thenReturn( "flaky" )
+      val dispatcher = new LoadBalancingRequestDispatcher( List( flaky, endpoint( "steady" ) ), Strategy.LEAST_OUTSTANDING, 1, 20 )
+
+      while (dispatcher.getEndpointStatistics.get( 0 ).getFailures == 0) dispatcher.dispatchRequest( request( "GetAccount" ) )
+      dispatcher.getEndpointStatistics.get( 0 ).isEjected shouldBe true
+      Thread.sleep( 40 )
+
+      dispatcher.dispatchRequest( request( "GetAccount" ) ) shouldBe "flaky"
+      dispatcher.getEndpointStatistics.get( 0 ).isEjected shouldBe false
+    }
+
+    "use the endpoint that is due back first when all are ejected" in {
+      val down = failing( new ConnectException( "refused" ) )
+      val dispatcher = new LoadBalancingRequestDispatcher( List( down ), Strategy.LEAST_OUTSTANDING, 1, 60000 )
+
+      an[ConnectException] should be thrownBy { val _ = dispatcher.dispatchRequest( request( "GetAccount" ) ) }
+      an[ConnectException] should be thrownBy { val _ = dispatcher.dispatchRequest( request( "GetAccount" ) ) }
+      verify( down, times( 2 ) ).dispatchRequest( anyString )
+      dispatcher.getEndpointStatistics.get( 0 ).getEjections shouldBe 1
+    }
+  }
+
+  "LoadBalancingRequestDispatcher" should {
+
+    "reject endpoints of different versions" in {
+      val other = endpoint( "x" )
+      when( other.getVersion ).thenReturn( "8.0" )
+      an[IllegalArgumentException] should be thrownBy { val _ = new LoadBalancingRequestDispatcher( List( endpoint( "x" ), other ) ) }
+    }
+
+    "reject an empty list of endpoints" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new LoadBalancingRequestDispatcher( List[RequestDispatcher]( ) ) }
+    }
+
+    "pass timeouts to every endpoint" in {
+      val a = endpoint( "a" )
+      val b = endpoint( "b" )
+      val dispatcher = new LoadBalancingRequestDispatcher( List( a, b ) )
+
+      dispatcher.setReadTimeout( 42 )
+      dispatcher.getVersion shouldBe "9.0"
+
+      verify( a ).setReadTimeout( 42 )
+      verify( b ).setReadTimeout( 42 )
+      verify( a, never( ) ).setConnectionTimeout( 42 )
+    }
+
+    "describe its endpoints by the names they describe themselves with" in {
+      val named = mock[DescribedRequestDispatcher]
+      when( named.getVersion ).thenReturn( "9.0" )
+      when( named.describe( ) ).thenReturn( "https://10.0.0.1/json-rpc/9.0" )
+      val decorated = new RetryingRequestDispatcher( named )
+
+      new LoadBalancingRequestDispatcher( List( decorated, named ) ).describe( ) shouldBe
+        "[https://10.0.0.1/json-rpc/9.0, https://10.0.0.1/json-rpc/9.0]"
+    }
+  }
+}
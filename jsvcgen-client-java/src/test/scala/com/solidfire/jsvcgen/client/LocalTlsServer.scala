@@ -0,0 +1,213 @@
+package com.solidfire.jsvcgen.client
+
+import java.io._
+import java.net.{InetAddress, Socket, SocketException, URL}
+import java.security.KeyStore
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import javax.net.ssl._
+
+import scala.collection.JavaConverters._
+
+/**
+ * A small HTTP/1.1 server over TLS on the loopback interface, for testing the dispatchers against real sockets.
+ * Every request is answered by the handler; the server certificate is issued to localhost and is not trusted.
+ */
+class LocalTlsServer( handler: LocalTlsServer.Request => LocalTlsServer.Reply ) extends Closeable {
+
+  import LocalTlsServer._
+
+  private val serverSocket = serverContext.getServerSocketFactory
+    .createServerSocket( 0, 50, InetAddress.getByName( "127.0.0.1" ) ).asInstanceOf[SSLServerSocket]
+  private val sockets = new ConcurrentLinkedQueue[Socket]( )
+  private val connectionCount = new AtomicInteger( )
+  private val received = new ConcurrentLinkedQueue[Request]( )
+  @volatile private var closed = false
+
+  private val acceptor = daemon( "local-tls-server-" + serverSocket.getLocalPort ) {
+    try {
+      while (!closed) {
+        val socket = serverSocket.accept( )
+        sockets.add( socket )
+        val connection = connectionCount.incrementAndGet( )
+        daemon( "local-tls-connection-" + connection )( serve( socket, connection ) )
+      }
+    } catch {
+      case e: IOException => // closed
+    }
+  }
+
+  def port: Int = serverSocket.getLocalPort
+
+  def url( path: String = "/json-rpc/8.0" ): URL = new URL( "https://localhost:" + port + path )
+
+  /** The number of connections accepted so far. */
+  def connections: Int = connectionCount.get
+
+  /** The requests received so far, in order. */
+  def requests: List[Request] = received.asScala.toList
+
+  override def close( ): Unit = {
+    closed = true
+    serverSocket.close( )
+    sockets.asScala.foreach( s => try s.close( ) catch { case e: IOException => } )
+  }
+
+  private def serve( socket: Socket, connection: Int ): Unit = {
+    val in = new BufferedInputStream( socket.getInputStream )
+    val out = socket.getOutputStream
+    try {
+      var index = 0
+      var open = true
+      while (open) {
+        readRequest( in, connection, index ) match {
+          case None => open = false
+          case Some( request ) =>
+            received.add( request )
+            index += 1
+            handler( request ) match {
+              case Respond( raw, closeAfter ) =>
+                out.write( raw.getBytes( "UTF-8" ) )
+                out.flush( )
+                open = !closeAfter
+              case Hangup =>
+                open = false
+              case Stall( millis ) =>
+                Thread.sleep( millis )
+                open = false
+            }
+        }
+      }
+    } catch {
+      case e: IOException => // the client went away
+    } finally {
+      socket.close( )
+    }
+  }
+}
+
+object LocalTlsServer {
+
+  case class Request( connection: Int, index: Int, requestLine: String, headers: Map[String, String], body: String ) {
+    def header( name: String ): Option[String] = headers.get( name.toLowerCase )
+
+    def method: String = JsonRpcRequests.method( body )
+  }
+
+  sealed trait Reply
+
+  /** Writes the raw response, then closes the connection if asked to, whatever the response headers say. */
+  case class Respond( raw: String, closeAfter: Boolean = false ) extends Reply
+
+  /** Closes the connection without answering. */
+  case object Hangup extends Reply
+
+  /** Sends nothing for a while, then closes the connection. */
+  case class Stall( millis: Long ) extends Reply
+
+  def ok( body: String, headers: String = "" ): Respond =
+    Respond( "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.getBytes( "UTF-8" ).length + "\r\n" + headers + "\r\n" + body )
+
+  def chunked( parts: String* ): Respond =
+    Respond( parts.map( p => Integer.toHexString( p.getBytes( "UTF-8" ).length ) + ";ext=1\r\n" + p + "\r\n" )
+      .mkString( "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nTransfer-Encoding: chunked\r\n\r\n", "", "0\r\nX-Trailer: t\r\n\r\n" ) )
+
+  /** Answers each request with its id and method, on a connection that is kept alive. */
+  def echo( request: Request ): Reply =
+    ok( "{\"id\":" + JsonRpcRequests.id( request.body ) + ",\"result\":{\"method\":\"" + request.method + "\",\"connection\":"
+      + request.connection + "}}" )
+
+  def withServer[T]( handler: Request => Reply )( body: LocalTlsServer => T ): T = {
+    val server = new LocalTlsServer( handler )
+    try body( server ) finally server.close( )
+  }
+
+  def request( method: String, id: Int = 1 ): String = "{\"method\":\"" + method + "\",\"params\":{},\"id\":" + id + "}"
+
+  /** A pool that trusts the self-signed certificate of the server. */
+  def trustingPool( maxConnectionsPerHost: Int = HttpsConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST,
+                    idleTimeout: Long = HttpsConnectionPool.DEFAULT_IDLE_TIMEOUT ): HttpsConnectionPool =
+    new HttpsConnectionPool( maxConnectionsPerHost, idleTimeout, TlsSocketFactory.getTrustingAll, trustingVerifier )
+
+  /** A TLS context that accepts any server certificate. */
+  lazy val trustingContext: SSLContext = newTrustingContext( )
+
+  /** A new TLS context that accepts any server certificate, with a session cache of its own. */
+  def newTrustingContext( ): SSLContext = {
+    val context = SSLContext.getInstance( "TLS" )
+    context.init( null, Array[TrustManager]( new X509TrustManager {
+      override def checkClientTrusted( chain: Array[java.security.cert.X509Certificate], authType: String ): Unit = ()
+
+      override def checkServerTrusted( chain: Array[java.security.cert.X509Certificate], authType: String ): Unit = ()
+
+      override def getAcceptedIssuers: Array[java.security.cert.X509Certificate] = Array( )
+    } ), null )
+    context
+  }
+
+  val trustingVerifier: HostnameVerifier = new HostnameVerifier {
+    override def verify( hostname: String, session: SSLSession ): Boolean = true
+  }
+
+  lazy val serverContext: SSLContext = {
+    val keyStore = KeyStore.getInstance( "JKS" )
+    val in = getClass.getResourceAsStream( "/localhost.jks" )
+    try keyStore.load( in, "changeit".toCharArray ) finally in.close( )
+    val keyManagers = KeyManagerFactory.getInstance( KeyManagerFactory.getDefaultAlgorithm )
+    keyManagers.init( keyStore, "changeit".toCharArray )
+    val context = SSLContext.getInstance( "TLS" )
+    context.init( keyManagers.getKeyManagers, null, null )
+    context
+  }
+
+  private def daemon( name: String )( body: => Unit ): Thread = {
+    val thread = new Thread( new Runnable {
+      override def run( ): Unit = body
+    }, name )
+    thread.setDaemon( true )
+    thread.start( )
+    thread
+  }
+
+  private def readLine( in: InputStream ): String = {
+    val line = new StringBuilder
+    var c = in.read( )
+    if (c == -1) return null
+    while (c != -1 && c != '\n') {
+      if (c != '\r') line.append( c.toChar )
+      c = in.read( )
+    }
+    line.toString
+  }
+
+  private def readRequest( in: InputStream, connection: Int, index: Int ): Option[Request] = {
+    val requestLine = try readLine( in ) catch {
+      case e: SocketException => null
+      case e: SSLException => null
+    }
+    if (null == requestLine || requestLine.isEmpty) return None
+    var headers = Map[String, String]( )
+    var line = readLine( in )
+    while (null != line && !line.isEmpty) {
+      val colon = line.indexOf( ':' )
+      headers += line.substring( 0, colon ).trim.toLowerCase -> line.substring( colon + 1 ).trim
+      line = readLine( in )
+    }
+    val bytes = new ByteArrayOutputStream( )
+    if (headers.get( "transfer-encoding" ).exists( _.contains( "chunked" ) )) {
+      var size = Integer.parseInt( readLine( in ).trim, 16 )
+      while (size > 0) {
+        ( 1 to size ).foreach( _ => bytes.write( in.read( ) ) )
+        readLine( in )
+        size = Integer.parseInt( readLine( in ).trim, 16 )
+      }
+      readLine( in )
+    } else {
+      ( 1 to headers.getOrElse( "content-length", "0" ).toInt ).foreach( _ => bytes.write( in.read( ) ) )
+    }
+    val body = if (headers.get( "content-encoding" ).exists( _ == "gzip" ))
+      PooledHttpsRequestDispatcher.readFully( new java.util.zip.GZIPInputStream( new ByteArrayInputStream( bytes.toByteArray ) ) )
+    else new String( bytes.toByteArray, "UTF-8" )
+    Some( Request( connection, index, requestLine, headers, body ) )
+  }
+}
@@ -0,0 +1,235 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.{IOException, StringReader, Reader}
+import java.net.SocketTimeoutException
+import java.util.concurrent.{ExecutionException, Executors, TimeUnit}
+
+import com.solidfire.gson.JsonParser
+import com.solidfire.gson.internal.LinkedTreeMap
+import org.mockito.Matchers.{any, anyString}
+import org.mockito.Mockito.when
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+import scala.collection.JavaConversions._
+
+class MetricsRegistrySuite extends WordSpec with MockitoSugar with Matchers {
+
+  type Result = LinkedTreeMap[String, Object]
+
+  def service( dispatcher: RequestDispatcher, registry: MetricsRegistry ) = {
+    val service = new ServiceBase( dispatcher )
+    service.setMetricsRegistry( registry )
+    service
+  }
+
+  def call( service: ServiceBase, method: String ) =
+    service.sendRequest( method, new Object, classOf[Object], classOf[Result] )
+
+  "sendRequest" should {
+
+    "record calls, sizes and latency per method" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{\"result\":{\"name\":\"\u00e9\"}}" )
+      val registry = new MetricsRegistry
+      val s = service( dispatcher, registry )
+
+      call( s, "GetClusterInfo" )
+      call( s, "GetClusterInfo" )
+      call( s, "ListVolumes" )
+
+      val stats = registry.getStatistics( dispatcher.toString, "GetClusterInfo" )
+      stats.getCalls shouldBe 2
+      stats.getErrorCount shouldBe 0
+      stats.getRequestBytes should be > 0L
+      stats.getResponseBytes shouldBe 2 * 24
+      stats.getLatencyMillis( 50 ) should be <= stats.getMaxLatencyMillis * 1.05
+      registry.getStatistics.map( _.getMethod ).toSet shouldBe Set( "GetClusterInfo", "ListVolumes" )
+    }
+
+    "count errors by server error name and code, and by cause" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) )
+        .thenReturn( "{\"error\":{\"name\":\"xVolumeIDDoesNotExist\",\"code\":500,\"message\":\"no such volume\"}}" )
+        .thenThrow( new SocketTimeoutException( "Read timed out" ) )
+        .thenReturn( "{\"result\":{}}" )
+      val registry = new MetricsRegistry
+      val s = service( dispatcher, registry )
+
+      an[ApiServerException] should be thrownBy { val _ = call( s, "DeleteVolume" ) }
+      an[ApiException] should be thrownBy { val _ = call( s, "DeleteVolume" ) }
+      call( s, "DeleteVolume" )
+
+      val stats = registry.getStatistics( dispatcher.toString, "DeleteVolume" )
+      stats.getCalls shouldBe 3
+      stats.getErrorCount shouldBe 2
+      stats.getErrors.toMap shouldBe Map( "xVolumeIDDoesNotExist/500" -> 1L, "SocketTimeoutException" -> 1L )
+    }
+
+    "count the streamed request and response" in {
+      val dispatcher = mock[StreamingRequestDispatcher]
+      when( dispatcher.dispatchRequestStream( any[RequestBody] ) ).thenAnswer( new Answer[Reader] {
+        override def answer( invocation: InvocationOnMock ): Reader = {
+          invocation.getArguments( )( 0 ).asInstanceOf[RequestBody].writeTo( new java.io.ByteArrayOutputStream( ) )
+          new StringReader( "{\"result\":{}}" )
+        }
+      } )
+      val registry = new MetricsRegistry
+      val s = service( dispatcher, registry )
+
+      call( s, "GetClusterInfo" )
+
+      val stats = registry.getStatistics( dispatcher.toString, "GetClusterInfo" )
+      stats.getRequestBytes should be > 0L
+      stats.getResponseBytes shouldBe 13
+    }
+
+    "not record anything without a registry" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{\"result\":{}}" )
+      val registry = new MetricsRegistry
+
+      call( new ServiceBase( dispatcher ), "GetClusterInfo" )
+
+      registry.getStatistics shouldBe empty
+    }
+  }
+
+  "ServiceBase" should {
+
+    "record calls under the endpoint the decorated dispatcher names" in {
+      val transport = mock[DescribedRequestDispatcher]
+      when( transport.describe( ) ).thenReturn( "https://10.0.0.1/json-rpc/7.0" )
+      when( transport.dispatchRequest( anyString ) ).thenReturn( "{\"result\":{}}" )
+      val registry = new MetricsRegistry
+
+      call( service( new RetryingRequestDispatcher( transport ), registry ), "ListVolumes" )
+
+      registry.getStatistics.map( _.getEndpoint ).toList shouldBe List( "https://10.0.0.1/json-rpc/7.0" )
+    }
+  }
+
+  "sendRequestAsync" should {
+
+    "record calls and failures" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) )
+        .thenReturn( "{\"result\":{}}" )
+        .thenThrow( new IOException( "refused" ) )
+      val registry = new MetricsRegistry
+      val s = service( dispatcher, registry )
+
+      s.sendRequestAsync( "ListVolumes", new Object, classOf[Object], classOf[Result] ).get( 5, TimeUnit.SECONDS )
+      an[ExecutionException] should be thrownBy {
+        val _ = s.sendRequestAsync( "ListVolumes", new Object, classOf[Object], classOf[Result] ).get( 5, TimeUnit.SECONDS )
+      }
+
+      val stats = registry.getStatistics( dispatcher.toString, "ListVolumes" )
+      stats.getCalls shouldBe 2
+      stats.getErrors.toMap shouldBe Map( "IOException" -> 1L )
+      stats.getResponseBytes shouldBe 13
+    }
+  }
+
+  "newBatch" should {
+
+    def batchAnswering( results: String* ) = {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          val requests = new JsonParser( ).parse( invocation.getArguments( )( 0 ).asInstanceOf[String] ).getAsJsonArray
+          requests.zip( results ).map { case ( r, result ) => "{\"id\":" + r.getAsJsonObject.get( "id" ) + "," + result + "}" }.mkString( "[", ",", "]" )
+        }
+      } )
+      dispatcher
+    }
+
+    "record each call under its own method" in {
+      val dispatcher = batchAnswering( "\"result\":{}", "\"error\":{\"name\":\"xVolumeIDDoesNotExist\",\"code\":500,\"message\":\"no such volume\"}" )
+      val registry = new MetricsRegistry
+      val batch = service( dispatcher, registry ).newBatch( )
+      batch.add( "ListVolumes", new Object, classOf[Object], classOf[Result] )
+      batch.add( "DeleteVolume", new Object, classOf[Object], classOf[Result] )
+
+      batch.execute( )
+
+      registry.getStatistics( dispatcher.toString, "ListVolumes" ).getErrorCount shouldBe 0
+      val failed = registry.getStatistics( dispatcher.toString, "DeleteVolume" )
+      failed.getCalls shouldBe 1
+      failed.getErrors.toMap shouldBe Map( "xVolumeIDDoesNotExist/500" -> 1L )
+    }
+
+    "record the failure of the batch for every call" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenThrow( new IOException( "refused" ) )
+      val registry = new MetricsRegistry
+      val batch = service( dispatcher, registry ).newBatch( )
+      batch.add( "ListVolumes", new Object, classOf[Object], classOf[Result] )
+      batch.add( "GetClusterInfo", new Object, classOf[Object], classOf[Result] )
+
+      an[ExecutionException] should be thrownBy { val _ = batch.executeAsync( ).get( 5, TimeUnit.SECONDS ) }
+
+      Seq( "ListVolumes", "GetClusterInfo" ).map( registry.getStatistics( dispatcher.toString, _ ).getErrors.toMap ) shouldBe
+        Seq( Map( "IOException" -> 1L ), Map( "IOException" -> 1L ) )
+    }
+  }
+
+  "MetricsRegistry" should {
+
+    "forget everything on reset" in {
+      val registry = new MetricsRegistry
+      registry.start( "e", "m" ).succeeded( )
+      registry.reset( )
+      registry.getStatistics shouldBe empty
+      registry.getStatistics( "e", "m" ) shouldBe null
+    }
+
+    "count the UTF-8 size of characters" in {
+      MetricsRegistry.utf8Length( "a\u00e9\u20ac\ud83d\ude00" ) shouldBe 1 + 2 + 3 + 4
+    }
+  }
+
+  "LatencyHistogram" should {
+
+    "read percentiles within 3%" in {
+      val histogram = new LatencyHistogram
+      ( 1 to 1000 ).foreach( i => histogram.record( i * 1000000L ) )
+      val counts = histogram.snapshot( )
+
+      LatencyHistogram.percentile( counts, 50 ) shouldBe 500000.0 +- 15000
+      LatencyHistogram.percentile( counts, 99 ) shouldBe 990000.0 +- 30000
+      LatencyHistogram.percentile( counts, 100 ) shouldBe 1000000.0 +- 30000
+      histogram.getMaxMicros shouldBe 1000000
+    }
+
+    "give every small value its own bucket" in {
+      ( 0L until 64L ).foreach( v => LatencyHistogram.lowerBound( LatencyHistogram.index( v ) ) shouldBe v )
+    }
+
+    "map every value to the bucket it is in" in {
+      Seq( 64L, 65L, 127L, 128L, 1000L, 123456789L, 1L << 40 ).foreach { v =>
+        val index = LatencyHistogram.index( v )
+        LatencyHistogram.lowerBound( index ) should be <= v
+        LatencyHistogram.lowerBound( index + 1 ) should be > v
+      }
+      LatencyHistogram.index( Long.MaxValue ) shouldBe LatencyHistogram.BUCKETS - 1
+    }
+  }
+
+  "StripedCounter" should {
+
+    "sum what many threads add" in {
+      val counter = new StripedCounter
+      val pool = Executors.newFixedThreadPool( 8 )
+      ( 1 to 8 ).foreach( _ => pool.execute( new Runnable {
+        override def run( ): Unit = ( 1 to 10000 ).foreach( _ => counter.increment( ) )
+      } ) )
+      pool.shutdown( )
+      pool.awaitTermination( 10, TimeUnit.SECONDS )
+
+      counter.sum shouldBe 80000
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.IOException
+import java.net.{SocketTimeoutException, URL, UnknownHostException}
+import java.util.concurrent.{ExecutionException, TimeUnit}
+
+import com.solidfire.jsvcgen.client.LocalTlsServer._
+import com.solidfire.jsvcgen.javautil.CompletableFuture
+import org.scalatest.{Matchers, WordSpec}
+
+class NioHttpsRequestDispatcherSuite extends WordSpec with Matchers {
+
+  def withDispatcher[T]( handler: Request => Reply, maxConnectionsPerRoute: Int = 64 )
+                       ( body: ( LocalTlsServer, NioHttpsRequestDispatcher ) => T ): T =
+    withServer( handler ) { server =>
+      val group = new NioEventLoopGroup( 2, null, NioEventLoopGroup.DEFAULT_IDLE_TIMEOUT, maxConnectionsPerRoute )
+      try body( server, new NioHttpsRequestDispatcher( server.url( ), group, trustingContext, trustingVerifier ) ) finally group.close( )
+    }
+
+  def slowly( millis: Long )( request: Request ): Reply = {
+    Thread.sleep( millis )
+    echo( request )
+  }
+
+  def failure( future: CompletableFuture[String] ): Throwable =
+    the[ExecutionException] thrownBy future.get( 5, TimeUnit.SECONDS ) match {
+      case e => e.getCause
+    }
+
+  "dispatchRequestAsync" should {
+
+    "answer many requests in flight at once" in withDispatcher( slowly( 20 ) ) { ( server, dispatcher ) =>
+      val futures = ( 1 to 50 ).map( id => id -> dispatcher.dispatchRequestAsync( request( "GetClusterInfo", id ) ) )
+      for (( id, future ) <- futures) {
+        future.get( 10, TimeUnit.SECONDS ) should startWith( "{\"id\":" + id + "," )
+      }
+      server.requests.size shouldBe 50
+    }
+
+    "reuse keep-alive connections" in withDispatcher( echo ) { ( server, dispatcher ) =>
+      ( 1 to 5 ).foreach( id => dispatcher.dispatchRequestAsync( request( "GetClusterInfo", id ) ).get( 5, TimeUnit.SECONDS ) )
+      server.connections shouldBe 1
+      dispatcher.getGroup.getOpenConnections shouldBe 1
+    }
+
+    "queue requests beyond the connections allowed per route" in withDispatcher( slowly( 20 ), maxConnectionsPerRoute = 2 ) { ( server, dispatcher ) =>
+      val futures = ( 1 to 20 ).map( id => dispatcher.dispatchRequestAsync( request( "GetClusterInfo", id ) ) )
+      dispatcher.getGroup.getWaitingRequests should be > 0
+      futures.foreach( _.get( 10, TimeUnit.SECONDS ) should include( "GetClusterInfo" ) )
+      server.connections should be <= 2
+      dispatcher.getGroup.getWaitingRequests shouldBe 0
+    }
+
+    "give up waiting for a connection after the connect timeout" in withDispatcher( slowly( 1000 ), maxConnectionsPerRoute = 1 ) { ( server, dispatcher ) =>
+      dispatcher.setConnectionTimeout( 200 )
+      val first = dispatcher.dispatchRequestAsync( request( "GetClusterInfo", 1 ) )
+      val second = dispatcher.dispatchRequestAsync( request( "GetClusterInfo", 2 ) )
+      failure( second ).getMessage should include( "waiting for a connection" )
+      first.get( 5, TimeUnit.SECONDS ) should include( "GetClusterInfo" )
+      server.requests.size shouldBe 1
+    }
+
+    "take a cancelled request out of line" in withDispatcher( slowly( 300 ), maxConnectionsPerRoute = 1 ) { ( server, dispatcher ) =>
+      val first = dispatcher.dispatchRequestAsync( request( "GetClusterInfo", 1 ) )
+      val second = dispatcher.dispatchRequestAsync( request( "CreateVolume", 2 ) )
+      dispatcher.getGroup.getWaitingRequests shouldBe 1
+      second.cancel( true ) shouldBe true
+      dispatcher.getGroup.getWaitingRequests shouldBe 0
+      first.get( 5, TimeUnit.SECONDS )
+      dispatcher.dispatchRequestAsync( request( "GetClusterInfo", 3 ) ).get( 5, TimeUnit.SECONDS )
+      server.requests.map( _.method ) shouldBe List( "GetClusterInfo", "GetClusterInfo" )
+    }
+
+    "close the connection of a cancelled request and free its slot" in withDispatcher( r => if (r.index == 0 && r.connection == 1) Stall( 2000 ) else echo( r ), maxConnectionsPerRoute = 1 ) { ( server, dispatcher ) =>
+      val first = dispatcher.dispatchRequestAsync( request( "GetClusterInfo", 1 ) )
+      while (server.requests.isEmpty) Thread.sleep( 10 )
+      first.cancel( true )
+      dispatcher.dispatchRequestAsync( request( "GetClusterInfo", 2 ) ).get( 5, TimeUnit.SECONDS ) should include( "\"connection\":2" )
+    }
+
+    "send an idempotent request again when a reused connection is closed before the response" in withDispatcher( r => if (r.index == 1) Hangup else echo( r ) ) { ( server, dispatcher ) =>
+      dispatcher.dispatchRequestAsync( request( "GetClusterInfo", 1 ) ).get( 5, TimeUnit.SECONDS )
+      dispatcher.dispatchRequestAsync( request( "ListVolumes", 2 ) ).get( 5, TimeUnit.SECONDS ) should include( "\"connection\":2" )
+      server.requests.map( _.method ) shouldBe List( "GetClusterInfo", "ListVolumes", "ListVolumes" )
+    }
+
+    "not send a mutating request twice" in withDispatcher( r => if (r.index == 1) Hangup else echo( r ) ) { ( server, dispatcher ) =>
+      dispatcher.dispatchRequestAsync( request( "GetClusterInfo", 1 ) ).get( 5, TimeUnit.SECONDS )
+      failure( dispatcher.dispatchRequestAsync( request( "CreateVolume", 2 ) ) ) shouldBe a[PooledHttpsConnection.StaleConnectionException]
+      server.requests.map( _.method ) shouldBe List( "GetClusterInfo", "CreateVolume" )
+    }
+
+    "time out a request whose response does not arrive" in withDispatcher( _ => Stall( 2000 ) ) { ( server, dispatcher ) =>
+      dispatcher.setReadTimeout( 200 )
+      failure( dispatcher.dispatchRequestAsync( request( "GetClusterInfo" ) ) ) shouldBe a[SocketTimeoutException]
+    }
+
+    "decode a chunked response" in withDispatcher( _ => chunked( "{\"id\":1,", "\"result\":{}}" ) ) { ( server, dispatcher ) =>
+      dispatcher.dispatchRequest( request( "GetClusterInfo" ) ) shouldBe "{\"id\":1,\"result\":{}}"
+    }
+
+    "fail once the group is closed" in withDispatcher( echo ) { ( server, dispatcher ) =>
+      dispatcher.getGroup.close( )
+      an[IOException] should be thrownBy { val _ = dispatcher.dispatchRequest( request( "GetClusterInfo" ) ) }
+    }
+
+    "fail calls to a host that did not resolve" in {
+      val dispatcher = new NioHttpsRequestDispatcher( new URL( "https://nosuchhost.invalid/json-rpc/7.0" ) )
+      an[UnknownHostException] should be thrownBy { val _ = dispatcher.dispatchRequest( request( "GetClusterInfo" ) ) }
+    }
+  }
+
+  "NioEventLoopGroup" should {
+
+    "reject invalid limits" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new NioEventLoopGroup( 1, null, 1000, 0 ) }
+      an[IllegalArgumentException] should be thrownBy { val _ = new NioEventLoopGroup( 0 ) }
+    }
+  }
+}
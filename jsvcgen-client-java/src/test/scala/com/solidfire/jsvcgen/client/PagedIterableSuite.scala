@@ -0,0 +1,94 @@
+package com.solidfire.jsvcgen.client
+
+import java.util.NoSuchElementException
+
+import com.solidfire.jsvcgen.javautil.CompletableFuture
+import org.scalatest.{Matchers, WordSpec}
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable.ArrayBuffer
+
+class PagedIterableSuite extends WordSpec with Matchers {
+
+  /** Pages over the ids 1 to total, recording the start of each page asked for. */
+  class Ids( total: Int, pageSize: Int ) extends PagedIterable[Integer]( pageSize ) {
+    val fetched = ArrayBuffer[Int]( )
+    val pending = ArrayBuffer[( Int, CompletableFuture[Array[Integer]] )]( )
+    var manual  = false
+
+    override protected def fetchPage( last: Integer, limit: Int ): CompletableFuture[Array[Integer]] = {
+      val start = if (null == last) 1 else last + 1
+      fetched += start
+      val future = new CompletableFuture[Array[Integer]]( )
+      if (manual) pending += ( start -> future ) else complete( start, limit, future )
+      future
+    }
+
+    def complete( start: Int, limit: Int, future: CompletableFuture[Array[Integer]] ): Unit = {
+      val _ = future.complete( ( start until math.min( start + limit, total + 1 ) ).map( Integer.valueOf ).toArray )
+    }
+  }
+
+  "iterator" should {
+
+    "hand out every item a page at a time" in {
+      val ids = new Ids( 25, 10 )
+
+      ids.iterator.toList.map( _.intValue ) shouldBe ( 1 to 25 ).toList
+      ids.fetched shouldBe Seq( 1, 11, 21 )
+    }
+
+    "ask for one page past a full last page" in {
+      val ids = new Ids( 20, 10 )
+
+      ids.iterator.toList should have size 20
+      ids.fetched shouldBe Seq( 1, 11, 21 )
+    }
+
+    "fetch the next page as soon as a page arrives" in {
+      val ids = new Ids( 30, 10 )
+      ids.manual = true
+      val iterator = ids.iterator
+
+      ids.fetched shouldBe Seq( 1 )
+      ids.complete( 1, 10, ids.pending.head._2 )
+      iterator.next( ) shouldBe 1
+      ids.fetched shouldBe Seq( 1, 11 )
+    }
+
+    "start from the first page for each iterator" in {
+      val ids = new Ids( 5, 10 )
+
+      ids.iterator.toList should have size 5
+      ids.iterator.toList should have size 5
+      ids.fetched shouldBe Seq( 1, 1 )
+    }
+
+    "end at an empty first page" in {
+      val iterator = new Ids( 0, 10 ).iterator
+
+      iterator.hasNext shouldBe false
+      a[NoSuchElementException] should be thrownBy iterator.next( )
+    }
+
+    "throw the exception of a failed page" in {
+      val failing = new PagedIterable[Integer]( 10 ) {
+        override protected def fetchPage( last: Integer, limit: Int ) =
+          CompletableFuture.failedFuture[Array[Integer]]( new ApiServerException( "xNotReady", "500", "not ready" ) )
+      }
+
+      an[ApiServerException] should be thrownBy { val _ = failing.iterator.hasNext }
+    }
+
+    "not support remove" in {
+      an[UnsupportedOperationException] should be thrownBy new Ids( 5, 10 ).iterator.remove( )
+    }
+  }
+
+  "PagedIterable" should {
+
+    "reject a page size below one" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new Ids( 5, 0 ) }
+    }
+  }
+}
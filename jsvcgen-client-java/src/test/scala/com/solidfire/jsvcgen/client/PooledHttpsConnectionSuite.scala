@@ -0,0 +1,135 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.{IOException, OutputStream}
+import java.util.Collections
+
+import com.solidfire.jsvcgen.client.LocalTlsServer._
+import org.scalatest.{Matchers, WordSpec}
+
+class PooledHttpsConnectionSuite extends WordSpec with Matchers {
+
+  val headers = Collections.singletonMap( "Content-Type", "application/json" )
+
+  def body( text: String ) = new ByteArrayRequestBody( text.getBytes( "UTF-8" ) )
+
+  /** Sends one request on a leased connection and reads the whole response body. */
+  def post( server: LocalTlsServer, pool: HttpsConnectionPool, request: RequestBody ): ( Int, String ) = {
+    val response = pool.lease( server.url( ), 1000, null ).post( "/json-rpc/8.0", headers, request, -1, 1000 )
+    val in = response.getBody
+    try {
+      ( response.getStatusCode, PooledHttpsRequestDispatcher.readFully( in ) )
+    } finally {
+      in.close( )
+    }
+  }
+
+  "PooledHttpsConnection" should {
+
+    "read a body framed by Content-Length and keep the connection" in withServer( _ => ok( "{\"result\":{}}" ) ) { server =>
+      val pool = trustingPool( )
+      try {
+        post( server, pool, body( request( "GetClusterInfo" ) ) ) shouldBe (( 200, "{\"result\":{}}" ))
+        server.requests.head.requestLine shouldBe "POST /json-rpc/8.0 HTTP/1.1"
+        server.requests.head.header( "Host" ) shouldBe Some( "localhost:" + server.port )
+        server.requests.head.header( "Content-Length" ) shouldBe Some( request( "GetClusterInfo" ).length.toString )
+        pool.getStatistics.getIdle shouldBe 1
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "read a chunked body, ignoring chunk extensions and trailers" in withServer( _ => chunked( "{\"result\":", "{\"a\":\"\u00e9\"}", "}" ) ) { server =>
+      val pool = trustingPool( )
+      try {
+        post( server, pool, body( request( "GetClusterInfo" ) ) ) shouldBe (( 200, "{\"result\":{\"a\":\"\u00e9\"}}" ))
+        post( server, pool, body( request( "GetClusterInfo" ) ) ) shouldBe (( 200, "{\"result\":{\"a\":\"\u00e9\"}}" ))
+        server.connections shouldBe 1
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "skip an interim response" in withServer( _ => Respond( "HTTP/1.1 100 Continue\r\n\r\n" + ok( "{}" ).raw ) ) { server =>
+      val pool = trustingPool( )
+      try {
+        post( server, pool, body( request( "GetClusterInfo" ) ) ) shouldBe (( 200, "{}" ))
+        pool.getStatistics.getIdle shouldBe 1
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "read a body ended by the close of the connection and not reuse it" in withServer( _ => Respond( "HTTP/1.0 500 Oops\r\n\r\n{}", closeAfter = true ) ) { server =>
+      val pool = trustingPool( )
+      try {
+        post( server, pool, body( request( "GetClusterInfo" ) ) ) shouldBe (( 500, "{}" ))
+        pool.getStatistics.getIdle shouldBe 0
+        pool.getStatistics.getClosed shouldBe 1
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "not reuse a connection the server asked to close" in withServer( _ => ok( "{}", "Connection: close\r\n" ) ) { server =>
+      val pool = trustingPool( )
+      try {
+        post( server, pool, body( request( "GetClusterInfo" ) ) ) shouldBe (( 200, "{}" ))
+        pool.getStatistics.getIdle shouldBe 0
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "send a streamed request larger than the buffer with chunked transfer encoding" in withServer( echo ) { server =>
+      val pool = trustingPool( )
+      val padding = "x" * ( RequestOutputStream.BUFFER_SIZE + 10 )
+      val streamed = new RequestBody {
+        override def writeTo( out: OutputStream ): Unit =
+          out.write( ( "{\"method\":\"SetAttributes\",\"params\":{\"padding\":\"" + padding + "\"},\"id\":7}" ).getBytes( "UTF-8" ) )
+      }
+      try {
+        post( server, pool, streamed )._2 should include( "\"method\":\"SetAttributes\"" )
+        server.requests.head.header( "Transfer-Encoding" ) shouldBe Some( "chunked" )
+        server.requests.head.body should include( padding )
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "report a close by the server before any response byte" in withServer( _ => Hangup ) { server =>
+      val pool = trustingPool( )
+      try {
+        a[PooledHttpsConnection.StaleConnectionException] should be thrownBy post( server, pool, body( request( "GetClusterInfo" ) ) )
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "reject a malformed status line" in withServer( _ => Respond( "HTTP/1.1 OK\r\n\r\n" ) ) { server =>
+      val pool = trustingPool( )
+      try {
+        the[IOException] thrownBy post( server, pool, body( request( "GetClusterInfo" ) ) ) should have message "Malformed HTTP status line: HTTP/1.1 OK"
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "tell an idle connection closed by the server from an open one" in withServer( r => r.index match {
+      case 0 => ok( "{}" )
+      case _ => Respond( ok( "{}" ).raw, closeAfter = true )
+    } ) { server =>
+      val pool = trustingPool( )
+      try {
+        val connection = pool.lease( server.url( ), 1000, null )
+        PooledHttpsRequestDispatcher.readFully( connection.post( "/", headers, body( "{}" ), -1, 1000 ).getBody )
+        connection.isStale shouldBe false
+        PooledHttpsRequestDispatcher.readFully( connection.post( "/", headers, body( "{}" ), -1, 1000 ).getBody )
+        Thread.sleep( 100 )
+        connection.isStale shouldBe true
+        pool.discard( connection )
+      } finally {
+        pool.close( )
+      }
+    }
+  }
+}
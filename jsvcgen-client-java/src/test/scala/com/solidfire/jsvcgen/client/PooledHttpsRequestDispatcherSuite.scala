@@ -0,0 +1,115 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.IOException
+import java.net.SocketTimeoutException
+import java.util.regex.Pattern
+
+import com.solidfire.jsvcgen.client.LocalTlsServer._
+import org.scalatest.{Matchers, WordSpec}
+
+class PooledHttpsRequestDispatcherSuite extends WordSpec with Matchers {
+
+  /** Hangs up on the second request of the first connection, as a server closing a keep-alive connection would. */
+  def closingReusedConnection( request: Request ): Reply =
+    if (request.connection == 1 && request.index == 1) Hangup else echo( request )
+
+  def named( method: String, id: Int ): RequestBody =
+    new MethodRequestBody( method, new ByteArrayRequestBody( request( method, id ).getBytes( "UTF-8" ) ) )
+
+  def readAll( reader: java.io.Reader ): String = Stream.continually( reader.read( ) ).takeWhile( _ != -1 ).map( _.toChar ).mkString
+
+  def withDispatcher[T]( handler: Request => Reply )( body: ( LocalTlsServer, PooledHttpsRequestDispatcher ) => T ): T =
+    withServer( handler ) { server =>
+      val pool = trustingPool( )
+      try body( server, new PooledHttpsRequestDispatcher( server.url( ), pool ) ) finally pool.close( )
+    }
+
+  "dispatchRequest" should {
+
+    "send an idempotent request again when a reused connection is closed before the response" in withDispatcher( closingReusedConnection ) { ( server, dispatcher ) =>
+      dispatcher.dispatchRequest( request( "GetClusterInfo", 1 ) ) should include( "\"connection\":1" )
+      dispatcher.dispatchRequest( request( "ListVolumes", 2 ) ) should include( "\"connection\":2" )
+      server.requests.map( _.method ) shouldBe List( "GetClusterInfo", "ListVolumes", "ListVolumes" )
+    }
+
+    "not send a mutating request twice" in withDispatcher( closingReusedConnection ) { ( server, dispatcher ) =>
+      dispatcher.dispatchRequest( request( "GetClusterInfo", 1 ) )
+      a[PooledHttpsConnection.StaleConnectionException] should be thrownBy dispatcher.dispatchRequest( request( "CreateVolume", 2 ) )
+      server.requests.map( _.method ) shouldBe List( "GetClusterInfo", "CreateVolume" )
+      dispatcher.getPool.getStatistics.getLeased shouldBe 0
+    }
+
+    "send the methods it is told are idempotent again" in withDispatcher( closingReusedConnection ) { ( server, dispatcher ) =>
+      dispatcher.setIdempotentMethods( Pattern.compile( "CreateVolume" ) )
+      dispatcher.dispatchRequest( request( "GetClusterInfo", 1 ) )
+      dispatcher.dispatchRequest( request( "CreateVolume", 2 ) ) should include( "\"connection\":2" )
+      an[IllegalArgumentException] should be thrownBy dispatcher.setIdempotentMethods( null )
+    }
+
+    "not send a request again when a new connection is closed" in withDispatcher( _ => Hangup ) { ( server, dispatcher ) =>
+      an[IOException] should be thrownBy { val _ = dispatcher.dispatchRequest( request( "GetClusterInfo" ) ) }
+      server.requests.size shouldBe 1
+    }
+
+    "not send a request again after a read timeout" in withDispatcher( r => if (r.index == 0) echo( r ) else Stall( 2000 ) ) { ( server, dispatcher ) =>
+      dispatcher.dispatchRequest( request( "GetClusterInfo", 1 ) )
+      dispatcher.setReadTimeout( 200 )
+      a[SocketTimeoutException] should be thrownBy dispatcher.dispatchRequest( request( "GetClusterInfo", 2 ) )
+      server.requests.size shouldBe 2
+    }
+
+    "decode a chunked response" in withDispatcher( _ => chunked( "{\"id\":1,", "\"result\":{}}" ) ) { ( server, dispatcher ) =>
+      dispatcher.dispatchRequest( request( "GetClusterInfo" ) ) shouldBe "{\"id\":1,\"result\":{}}"
+      dispatcher.getPool.getStatistics.getIdle shouldBe 1
+    }
+
+    "send the trace id of the current call" in withDispatcher( echo ) { ( server, dispatcher ) =>
+      val trace = new CallTrace( "GetClusterInfo", null )
+      val previous = CallTrace.enter( trace )
+      try dispatcher.dispatchRequest( request( "GetClusterInfo" ) ) finally CallTrace.exit( previous )
+      server.requests.head.header( CallTrace.HEADER ) shouldBe Some( trace.getTraceId )
+    }
+  }
+
+  "dispatchRequestStream" should {
+
+    "hand the connection back once the response is read" in withDispatcher( echo ) { ( server, dispatcher ) =>
+      val reader = dispatcher.dispatchRequestStream( new ByteArrayRequestBody( request( "GetClusterInfo" ).getBytes( "UTF-8" ) ) )
+      dispatcher.getPool.getStatistics.getLeased shouldBe 1
+      Stream.continually( reader.read( ) ).takeWhile( _ != -1 ).map( _.toChar ).mkString should include( "GetClusterInfo" )
+      reader.close( )
+      dispatcher.getPool.getStatistics.getLeased shouldBe 0
+      dispatcher.getPool.getStatistics.getIdle shouldBe 1
+    }
+
+    "send a streamed request to an idempotent method again when a reused connection is closed" in withDispatcher( closingReusedConnection ) { ( server, dispatcher ) =>
+      dispatcher.dispatchRequest( request( "GetClusterInfo", 1 ) )
+      val reader = dispatcher.dispatchRequestStream( named( "ListVolumes", 2 ) )
+      try readAll( reader ) should include( "\"connection\":2" ) finally reader.close( )
+      server.requests.map( _.method ) shouldBe List( "GetClusterInfo", "ListVolumes", "ListVolumes" )
+    }
+
+    "not send a mutating streamed request twice" in withDispatcher( closingReusedConnection ) { ( server, dispatcher ) =>
+      dispatcher.dispatchRequest( request( "GetClusterInfo", 1 ) )
+      a[PooledHttpsConnection.StaleConnectionException] should be thrownBy {
+        val _ = dispatcher.dispatchRequestStream( named( "CreateVolume", 2 ) )
+      }
+      server.requests.size shouldBe 2
+    }
+
+    "not send a streamed request twice when its method is not named" in withDispatcher( closingReusedConnection ) { ( server, dispatcher ) =>
+      dispatcher.dispatchRequest( request( "GetClusterInfo", 1 ) )
+      an[IOException] should be thrownBy {
+        val _ = dispatcher.dispatchRequestStream( new ByteArrayRequestBody( request( "ListVolumes", 2 ).getBytes( "UTF-8" ) ) )
+      }
+      server.requests.size shouldBe 2
+    }
+
+    "keep the stale connection retry for calls a service streams" in withDispatcher( closingReusedConnection ) { ( server, dispatcher ) =>
+      val service = new ServiceBase( dispatcher )
+      service.sendRequest( "GetClusterInfo", new Object, classOf[Object], classOf[Object] )
+      service.sendRequest( "ListVolumes", new Object, classOf[Object], classOf[Object] )
+      server.requests.map( _.method ) shouldBe List( "GetClusterInfo", "ListVolumes", "ListVolumes" )
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package com.solidfire.jsvcgen.client
+
+import java.util.concurrent.{Callable, ConcurrentLinkedQueue, CountDownLatch, Executors, Future, TimeUnit}
+
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.{verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+import scala.collection.JavaConversions._
+
+class PriorityRequestDispatcherSuite extends WordSpec with MockitoSugar with Matchers {
+
+  def request( method: String ) = "{\"id\":1,\"method\":\"" + method + "\",\"params\":{}}"
+
+  /** Records the method of every request sent and holds the ones named Hold until the latch is released. */
+  class Recorder {
+    val sent = new ConcurrentLinkedQueue[String]( )
+    val release = new CountDownLatch( 1 )
+    val delegate = mock[RequestDispatcher]
+    when( delegate.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+      override def answer( invocation: InvocationOnMock ): String = {
+        val method = JsonRpcRequests.method( invocation.getArguments( )( 0 ).asInstanceOf[String] )
+        sent.add( method )
+        if (method.startsWith( "Hold" )) release.await( 5, TimeUnit.SECONDS )
+        "{\"result\":{}}"
+      }
+    } )
+  }
+
+  val executor = Executors.newCachedThreadPool( )
+
+  def inBackground( dispatcher: RequestDispatcher, method: String ): Future[String] =
+    executor.submit( new Callable[String] {
+      override def call( ): String = dispatcher.dispatchRequest( request( method ) )
+    } )
+
+  def eventually( condition: => Boolean ): Unit = {
+    val deadline = System.nanoTime( ) + TimeUnit.SECONDS.toNanos( 5 )
+    while (!condition && System.nanoTime( ) < deadline) Thread.sleep( 1 )
+    condition shouldBe true
+  }
+
+  def queued( dispatcher: PriorityRequestDispatcher ) = dispatcher.getStatistics.map( _.getQueued ).sum
+
+  "dispatchRequest" should {
+
+    "send a request at once while there is a free slot" in {
+      val recorder = new Recorder
+      val dispatcher = new PriorityRequestDispatcher( recorder.delegate )
+
+      dispatcher.dispatchRequest( request( "GetAccount" ) ) shouldBe "{\"result\":{}}"
+
+      val statistics = dispatcher.getStatistics( PriorityRequestDispatcher.DEFAULT_LANE )
+      statistics.getDispatched shouldBe 1
+      statistics.getInFlight shouldBe 0
+      dispatcher.getInFlight shouldBe 0
+    }
+
+    "share free slots between waiting lanes by weight" in {
+      val recorder = new Recorder
+      val dispatcher = new PriorityRequestDispatcher( recorder.delegate, 1 )
+      dispatcher.addLane( "control", 3, 1 )
+      dispatcher.addLane( "bulk", 1, 1 )
+      dispatcher.assign( "control", "Control" )
+      dispatcher.assign( "bulk", "Bulk" )
+
+      val held = inBackground( dispatcher, "Hold" )
+      eventually( dispatcher.getInFlight == 1 )
+      val waiting = ( 1 to 4 ).flatMap( _ => Seq( inBackground( dispatcher, "Bulk" ), inBackground( dispatcher, "Control" ) ) )
+      eventually( queued( dispatcher ) == 8 )
+      recorder.release.countDown( )
+
+      ( held +: waiting ).foreach( _.get( 5, TimeUnit.SECONDS ) )
+      recorder.sent.toSeq.drop( 1 ).take( 5 ).count( _ == "Control" ) shouldBe 4
+      dispatcher.getStatistics( "control" ).getDispatched shouldBe 4
+      dispatcher.getStatistics( "bulk" ).getDispatched shouldBe 4
+    }
+
+    "hold a lane at its cap while other lanes go ahead" in {
+      val recorder = new Recorder
+      val dispatcher = new PriorityRequestDispatcher( recorder.delegate, 4 )
+      dispatcher.addLane( "bulk", 1, 1 )
+      dispatcher.assign( "bulk", "HoldBulk" )
+
+      val first = inBackground( dispatcher, "HoldBulk" )
+      eventually( dispatcher.getInFlight == 1 )
+      val second = inBackground( dispatcher, "HoldBulk" )
+      eventually( dispatcher.getStatistics( "bulk" ).getQueued == 1 )
+
+      dispatcher.dispatchRequest( request( "GetAccount" ) ) shouldBe "{\"result\":{}}"
+      dispatcher.getStatistics( "bulk" ).getQueued shouldBe 1
+
+      recorder.release.countDown( )
+      first.get( 5, TimeUnit.SECONDS )
+      second.get( 5, TimeUnit.SECONDS )
+      dispatcher.getStatistics( "bulk" ).getDispatched shouldBe 2
+      dispatcher.getStatistics( "bulk" ).getMaxQueueWaitMillis should be > 0.0
+    }
+
+    "refuse a request that waited too long" in {
+      val recorder = new Recorder
+      val dispatcher = new PriorityRequestDispatcher( recorder.delegate, 1 )
+      dispatcher.setMaxQueueWaitMillis( 20 )
+
+      val held = inBackground( dispatcher, "Hold" )
+      eventually( dispatcher.getInFlight == 1 )
+
+      a[RequestRejectedException] should be thrownBy dispatcher.dispatchRequest( request( "GetAccount" ) )
+      dispatcher.getStatistics( PriorityRequestDispatcher.DEFAULT_LANE ).getRejected shouldBe 1
+      queued( dispatcher ) shouldBe 0
+
+      recorder.release.countDown( )
+      val _ = held.get( 5, TimeUnit.SECONDS )
+    }
+
+    "refuse a request when the queue is full" in {
+      val recorder = new Recorder
+      val dispatcher = new PriorityRequestDispatcher( recorder.delegate, 1 )
+      dispatcher.setMaxQueueSize( 0 )
+
+      val held = inBackground( dispatcher, "Hold" )
+      eventually( dispatcher.getInFlight == 1 )
+
+      a[RequestRejectedException] should be thrownBy dispatcher.dispatchRequest( request( "GetAccount" ) )
+
+      recorder.release.countDown( )
+      val _ = held.get( 5, TimeUnit.SECONDS )
+    }
+
+    "stop waiting when the deadline of the call passes" in {
+      val recorder = new Recorder
+      val dispatcher = new PriorityRequestDispatcher( recorder.delegate, 1 )
+
+      val held = inBackground( dispatcher, "Hold" )
+      eventually( dispatcher.getInFlight == 1 )
+
+      val previous = CallOptions.enter( new CallOptions( 50, TimeUnit.MILLISECONDS ) )
+      try {
+        a[DeadlineExceededException] should be thrownBy dispatcher.dispatchRequest( request( "GetAccount" ) )
+      } finally {
+        CallOptions.exit( previous )
+      }
+      queued( dispatcher ) shouldBe 0
+
+      recorder.release.countDown( )
+      held.get( 5, TimeUnit.SECONDS )
+      dispatcher.getInFlight shouldBe 0
+    }
+
+    "free the slot when the request fails" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new java.io.IOException( "refused" ) )
+      val dispatcher = new PriorityRequestDispatcher( delegate, 1 )
+
+      an[java.io.IOException] should be thrownBy { val _ = dispatcher.dispatchRequest( request( "GetAccount" ) ) }
+      dispatcher.getInFlight shouldBe 0
+    }
+  }
+
+  "PriorityRequestDispatcher" should {
+
+    "send batches and unassigned methods through the default lane" in {
+      val dispatcher = new PriorityRequestDispatcher( mock[RequestDispatcher] )
+      dispatcher.addLane( "bulk", 1, 2 )
+      dispatcher.assign( "bulk", "ListVolumes", "ListSnapshots" )
+
+      dispatcher.getLane( "ListVolumes" ) shouldBe "bulk"
+      dispatcher.getLane( "GetAccount" ) shouldBe PriorityRequestDispatcher.DEFAULT_LANE
+      dispatcher.getLane( null ) shouldBe PriorityRequestDispatcher.DEFAULT_LANE
+    }
+
+    "change the weight and cap of an existing lane" in {
+      val dispatcher = new PriorityRequestDispatcher( mock[RequestDispatcher] )
+      dispatcher.addLane( "bulk", 1, 2 )
+      dispatcher.addLane( "bulk", 5, 3 )
+
+      dispatcher.getStatistics.map( _.getName ) shouldBe Seq( PriorityRequestDispatcher.DEFAULT_LANE, "bulk" )
+      dispatcher.getStatistics( "bulk" ).getWeight shouldBe 5
+      dispatcher.getStatistics( "bulk" ).getMaxConcurrency shouldBe 3
+      dispatcher.getStatistics( "bulk" ).toString should startWith( "LaneStatistics{ name : bulk, weight : 5" )
+    }
+
+    "reject assigning methods to an unknown lane" in {
+      an[IllegalArgumentException] should be thrownBy new PriorityRequestDispatcher( mock[RequestDispatcher] ).assign( "none", "GetAccount" )
+    }
+
+    "reject a weight below one" in {
+      an[IllegalArgumentException] should be thrownBy new PriorityRequestDispatcher( mock[RequestDispatcher] ).addLane( "bulk", 0, 1 )
+    }
+
+    "delegate timeouts" in {
+      val delegate = mock[RequestDispatcher]
+      val dispatcher = new PriorityRequestDispatcher( delegate )
+
+      dispatcher.setReadTimeout( 42 )
+      dispatcher.setConnectionTimeout( 43 )
+
+      verify( delegate ).setReadTimeout( 42 )
+      verify( delegate ).setConnectionTimeout( 43 )
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.{File, IOException, RandomAccessFile}
+import java.util.concurrent.TimeUnit
+
+import com.solidfire.gson.internal.LinkedTreeMap
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.{times, verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+class RecordReplaySuite extends WordSpec with MockitoSugar with Matchers {
+
+  def recordingFile( ) = {
+    val file = File.createTempFile( "jsvcgen", ".rec" )
+    file.delete( )
+    file.deleteOnExit( )
+    file
+  }
+
+  /** Answers each request with its method and a count of the calls so far, after the delay. */
+  def counting( delayMillis: Long = 0 ) = {
+    val delegate = mock[RequestDispatcher]
+    var calls = 0
+    when( delegate.getVersion ).thenReturn( "8.0" )
+    when( delegate.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+      override def answer( invocation: InvocationOnMock ): String = {
+        val input = invocation.getArguments( )( 0 ).asInstanceOf[String]
+        if (delayMillis > 0) Thread.sleep( delayMillis )
+        calls += 1
+        "{\"id\":" + JsonRpcRequests.id( input ) + ",\"result\":{\"method\":\"" + JsonRpcRequests.method( input ) + "\",\"call\":" + calls + "}}"
+      }
+    } )
+    delegate
+  }
+
+  def record( file: File, delegate: RequestDispatcher, requests: String* ) = {
+    val recorder = new RecordingRequestDispatcher( delegate, file )
+    try requests.map( recorder.dispatchRequest ) finally recorder.close( )
+  }
+
+  "ReplayRequestDispatcher" should {
+
+    "answer a request with the recorded response and the id of the request" in {
+      val file = recordingFile( )
+      record( file, counting( ), "{\"id\":1,\"method\":\"GetAccount\",\"params\":{\"accountID\":5}}" )
+
+      val replay = new ReplayRequestDispatcher( file )
+
+      replay.dispatchRequest( "{\"method\":\"GetAccount\",\"id\":\"abc\",\"params\":{\"accountID\":5}}" ) shouldBe
+        "{\"id\":\"abc\",\"result\":{\"method\":\"GetAccount\",\"call\":1}}"
+      replay.getVersion shouldBe "8.0"
+      replay.getRecordCount shouldBe 1
+    }
+
+    "match parameters whatever the order of their members" in {
+      val file = recordingFile( )
+      record( file, counting( ), "{\"id\":1,\"method\":\"ListVolumes\",\"params\":{\"startVolumeID\":1,\"limit\":{\"b\":2,\"a\":1}}}" )
+
+      val replay = new ReplayRequestDispatcher( file )
+
+      replay.dispatchRequest( "{\"id\":2,\"method\":\"ListVolumes\",\"params\":{\"limit\":{\"a\":1,\"b\":2},\"startVolumeID\":1}}" ) should
+        include( "\"call\":1" )
+      an[IOException] should be thrownBy { val _ = replay.dispatchRequest( "{\"id\":2,\"method\":\"ListVolumes\",\"params\":{\"startVolumeID\":2}}" ) }
+      an[IOException] should be thrownBy { val _ = replay.dispatchRequest( "{\"id\":2,\"method\":\"GetAccount\",\"params\":{}}" ) }
+    }
+
+    "hand out the responses of a request recorded twice in turn" in {
+      val file = recordingFile( )
+      val request = "{\"id\":1,\"method\":\"GetClusterStats\",\"params\":{}}"
+      record( file, counting( ), request, request )
+
+      val replay = new ReplayRequestDispatcher( file )
+
+      Seq.fill( 3 )( replay.dispatchRequest( request ) ).map( r => r.substring( r.indexOf( "\"call\"" ) ) ) shouldBe
+        Seq( "\"call\":1}}", "\"call\":2}}", "\"call\":1}}" )
+      replay.getRequestCount shouldBe 1
+    }
+
+    "reproduce the recorded latency when asked to" in {
+      val file = recordingFile( )
+      val request = "{\"id\":1,\"method\":\"GetAccount\",\"params\":{}}"
+      record( file, counting( 50 ), request )
+
+      val replay = new ReplayRequestDispatcher( file )
+      replay.setReproduceLatency( true )
+
+      val start = System.nanoTime( )
+      replay.dispatchRequest( request )
+      TimeUnit.NANOSECONDS.toMillis( System.nanoTime( ) - start ) should be >= 50L
+    }
+
+    "serve a service on top of the replay" in {
+      val file = recordingFile( )
+      val recorded = new RecordingRequestDispatcher( counting( ), file )
+      new ServiceBase( recorded ).sendRequest( "GetAccount", new Object, classOf[Object], classOf[LinkedTreeMap[String, Object]] )
+      recorded.close( )
+
+      val service = new ServiceBase( new ReplayRequestDispatcher( file ) )
+
+      ( 1 to 3 ).foreach( _ =>
+        service.sendRequest( "GetAccount", new Object, classOf[Object], classOf[LinkedTreeMap[String, Object]] ).get( "method" ) shouldBe "GetAccount" )
+    }
+
+    "reject a file that is not a recording" in {
+      val file = recordingFile( )
+      val out = new RandomAccessFile( file, "rw" )
+      out.writeBytes( "not a recording" )
+      out.close( )
+
+      an[IOException] should be thrownBy { val _ = new ReplayRequestDispatcher( file ) }
+      an[IOException] should be thrownBy { val _ = new RecordingRequestDispatcher( counting( ), file ) }
+    }
+  }
+
+  "RecordingRequestDispatcher" should {
+
+    "append to an existing recording" in {
+      val file = recordingFile( )
+      record( file, counting( ), "{\"id\":1,\"method\":\"GetAccount\",\"params\":{}}" )
+      record( file, counting( ), "{\"id\":1,\"method\":\"ListVolumes\",\"params\":{}}" )
+
+      new ReplayRequestDispatcher( file ).getRecordCount shouldBe 2
+    }
+
+    "drop a last record cut short before appending" in {
+      val file = recordingFile( )
+      record( file, counting( ), "{\"id\":1,\"method\":\"GetAccount\",\"params\":{}}", "{\"id\":1,\"method\":\"ListVolumes\",\"params\":{}}" )
+      val torn = new RandomAccessFile( file, "rw" )
+      torn.setLength( torn.length( ) - 5 )
+      torn.close( )
+
+      new ReplayRequestDispatcher( file ).getRecordCount shouldBe 1
+      val recorder = new RecordingRequestDispatcher( counting( ), file )
+      recorder.getRecordCount shouldBe 1
+      recorder.dispatchRequest( "{\"id\":1,\"method\":\"ListSnapshots\",\"params\":{}}" )
+      recorder.close( )
+
+      val replay = new ReplayRequestDispatcher( file )
+      replay.getRecordCount shouldBe 2
+      replay.dispatchRequest( "{\"id\":1,\"method\":\"ListSnapshots\",\"params\":{}}" ) should include( "ListSnapshots" )
+    }
+
+    "not record a call that failed" in {
+      val file = recordingFile( )
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new IOException( "refused" ) )
+
+      val recorder = new RecordingRequestDispatcher( delegate, file )
+      an[IOException] should be thrownBy { val _ = recorder.dispatchRequest( "{\"id\":1,\"method\":\"GetAccount\",\"params\":{}}" ) }
+      recorder.close( )
+
+      recorder.getRecordCount shouldBe 0
+      verify( delegate, times( 1 ) ).dispatchRequest( anyString )
+      an[IOException] should be thrownBy { val _ = recorder.dispatchRequest( "{\"id\":1,\"method\":\"GetAccount\",\"params\":{}}" ) }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, OutputStream}
+import java.util.zip.GZIPInputStream
+
+import org.scalatest.{Matchers, WordSpec}
+
+class RequestOutputStreamSuite extends WordSpec with Matchers {
+
+  class Recording( threshold: Int = -1 ) extends RequestOutputStream( threshold ) {
+    val chunked    = new ByteArrayOutputStream( )
+    var opened     = false
+    var fixed: Array[Byte] = _
+
+    var gzipped    = false
+
+    override protected def openChunked( ): OutputStream = {
+      opened = true
+      gzipped = isCompressed
+      chunked
+    }
+
+    override protected def sendFixedLength( body: Array[Byte], length: Int ): Unit = {
+      fixed = body.take( length )
+      gzipped = isCompressed
+    }
+  }
+
+  def gunzip( body: Array[Byte] ): Array[Byte] = {
+    val in = new GZIPInputStream( new ByteArrayInputStream( body ) )
+    Stream.continually( in.read( ) ).takeWhile( _ != -1 ).map( _.toByte ).toArray
+  }
+
+  "RequestOutputStream" should {
+
+    "send a body that fits the buffer with a fixed length" in {
+      val out = new Recording
+      out.write( "{\"id\":1}".getBytes( "UTF-8" ) )
+      out.write( '\n' )
+      out.close( )
+
+      new String( out.fixed, "UTF-8" ) shouldBe "{\"id\":1}\n"
+      out.opened shouldBe false
+    }
+
+    "switch to chunked once the body outgrows the buffer" in {
+      val out = new Recording
+      val body = Array.tabulate[Byte]( RequestOutputStream.BUFFER_SIZE * 2 + 5 )( i => ( i % 127 ).toByte )
+      body.grouped( 1000 ).foreach( piece => out.write( piece ) )
+      out.close( )
+
+      out.opened shouldBe true
+      out.fixed shouldBe null
+      out.chunked.toByteArray shouldBe body
+    }
+
+    "compress a body that reaches the threshold" in {
+      val body = ( "{\"ids\":[" + ( 1 to 1000 ).mkString( "," ) + "]}" ).getBytes( "UTF-8" )
+      val out = new Recording( 100 )
+      out.write( body )
+      out.close( )
+
+      out.gzipped shouldBe true
+      gunzip( out.fixed ) shouldBe body
+      out.getBodyBytes shouldBe body.length
+      out.getSentBytes shouldBe out.fixed.length
+    }
+
+    "not compress a body below the threshold" in {
+      val out = new Recording( 100 )
+      out.write( "{}".getBytes( "UTF-8" ) )
+      out.close( )
+
+      out.gzipped shouldBe false
+      new String( out.fixed, "UTF-8" ) shouldBe "{}"
+      out.getSentBytes shouldBe 2
+    }
+
+    "compress a chunked body" in {
+      val body = Array.tabulate[Byte]( RequestOutputStream.BUFFER_SIZE * 3 )( i => ( i % 7 ).toByte )
+      val out = new Recording( 1 << 30 )
+      body.grouped( 4096 ).foreach( piece => out.write( piece ) )
+      out.close( )
+
+      out.gzipped shouldBe true
+      gunzip( out.chunked.toByteArray ) shouldBe body
+      out.getSentBytes shouldBe out.chunked.size( )
+      out.getSentBytes should be < out.getBodyBytes
+    }
+
+    "send nothing when aborted" in {
+      val out = new Recording
+      out.write( 1 )
+      out.abort( )
+      out.close( )
+
+      out.fixed shouldBe null
+      out.opened shouldBe false
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package com.solidfire.jsvcgen.client
+
+import java.util
+import java.util.concurrent.TimeUnit
+
+import com.solidfire.gson.JsonParser
+import com.solidfire.gson.internal.LinkedTreeMap
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.{mock => _, _}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+import scala.collection.JavaConverters._
+
+class ResponseCacheSuite extends WordSpec with MockitoSugar with Matchers {
+
+  type Result = LinkedTreeMap[String, Object]
+
+  /** Answers every call, also those of a batch, with a result counting the calls so far. */
+  def counting( dispatcher: RequestDispatcher ): Unit = {
+    var calls = 0
+    def result( id: String ): String = {
+      calls += 1
+      "{\"id\":" + id + ",\"result\":{\"call\":" + calls + "}}"
+    }
+    val _ = when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+      override def answer( invocation: InvocationOnMock ): String = synchronized {
+        val request = new JsonParser( ).parse( invocation.getArguments( )( 0 ).asInstanceOf[String] )
+        if (request.isJsonArray) request.getAsJsonArray.asScala.map( c => result( c.getAsJsonObject.get( "id" ).toString ) ).mkString( "[", ",", "]" )
+        else result( "1" )
+      }
+    } )
+  }
+
+  def batchOf( service: ServiceBase, methods: String* ): BatchBase = {
+    val batch = service.newBatch( )
+    methods.foreach( method => batch.add( method, params( ), classOf[util.Map[String, Object]], classOf[Result] ) )
+    batch
+  }
+
+  def params( members: (String, Object)* ): util.Map[String, Object] = {
+    val map = new util.LinkedHashMap[String, Object]( )
+    members.foreach( m => map.put( m._1, m._2 ) )
+    map
+  }
+
+  def call( service: ServiceBase, method: String, request: util.Map[String, Object] = params( ) ): Int =
+    service.sendRequest( method, request, classOf[util.Map[String, Object]], classOf[Result] ).get( "call" ).asInstanceOf[Number].intValue
+
+  def cachedService( cache: ResponseCache ) = {
+    val dispatcher = mock[RequestDispatcher]
+    counting( dispatcher )
+    val service = new ServiceBase( dispatcher )
+    service.setResponseCache( cache )
+    service
+  }
+
+  "sendRequest" should {
+
+    "answer a repeated call to a cached method from the cache" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "GetClusterInfo", 60000 )
+      val service = cachedService( cache )
+
+      call( service, "GetClusterInfo" ) shouldBe 1
+      call( service, "GetClusterInfo" ) shouldBe 1
+      verify( service.getRequestDispatcher, times( 1 ) ).dispatchRequest( anyString )
+      cache.getStatistics.getHits shouldBe 1
+      cache.getStatistics.getMisses shouldBe 1
+      cache.getStatistics.getHitRate shouldBe 0.5
+    }
+
+    "send every call to a method without a ttl" in {
+      val cache = new ResponseCache( )
+      val service = cachedService( cache )
+
+      call( service, "GetClusterInfo" ) shouldBe 1
+      call( service, "GetClusterInfo" ) shouldBe 2
+      cache.getStatistics.getMisses shouldBe 0
+    }
+
+    "key results by parameters regardless of member order" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "ListVolumes", 60000 )
+      val service = cachedService( cache )
+
+      call( service, "ListVolumes", params( "a" -> "1", "b" -> "2" ) ) shouldBe 1
+      call( service, "ListVolumes", params( "b" -> "2", "a" -> "1" ) ) shouldBe 1
+      call( service, "ListVolumes", params( "a" -> "2", "b" -> "2" ) ) shouldBe 2
+    }
+
+    "send the call again once the result has expired" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "GetClusterInfo", 1 )
+      val service = cachedService( cache )
+
+      call( service, "GetClusterInfo" ) shouldBe 1
+      Thread.sleep( 5 )
+      call( service, "GetClusterInfo" ) shouldBe 2
+      cache.getStatistics.getExpirations shouldBe 1
+    }
+
+    "drop every result after a mutating call without a rule" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "GetClusterInfo", 60000 )
+      cache.setTtl( "ListVolumes", 60000 )
+      val service = cachedService( cache )
+
+      call( service, "GetClusterInfo" ) shouldBe 1
+      call( service, "ListVolumes" ) shouldBe 2
+      call( service, "CreateVolume" ) shouldBe 3
+      call( service, "GetClusterInfo" ) shouldBe 4
+      call( service, "ListVolumes" ) shouldBe 5
+      cache.getStatistics.getInvalidations shouldBe 2
+    }
+
+    "drop only the results named by the rule of a mutating call" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "GetClusterInfo", 60000 )
+      cache.setTtl( "ListVolumes", 60000 )
+      cache.setInvalidations( "CreateVolume", "ListVolumes" )
+      val service = cachedService( cache )
+
+      call( service, "GetClusterInfo" ) shouldBe 1
+      call( service, "ListVolumes" ) shouldBe 2
+      call( service, "CreateVolume" ) shouldBe 3
+      call( service, "GetClusterInfo" ) shouldBe 1
+      call( service, "ListVolumes" ) shouldBe 4
+    }
+
+    "keep results after a read-only call that is not cached" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "GetClusterInfo", 60000 )
+      val service = cachedService( cache )
+
+      call( service, "GetClusterInfo" ) shouldBe 1
+      call( service, "ListVolumes" ) shouldBe 2
+      call( service, "GetClusterInfo" ) shouldBe 1
+    }
+
+    "drop results after a mutating call that failed" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "GetClusterInfo", 60000 )
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) )
+        .thenReturn( "{\"result\":{\"call\":1}}" )
+        .thenReturn( "{\"error\":{\"name\":\"xUnknown\",\"message\":\"failed\"}}" )
+        .thenReturn( "{\"result\":{\"call\":3}}" )
+      val service = new ServiceBase( dispatcher )
+      service.setResponseCache( cache )
+
+      call( service, "GetClusterInfo" ) shouldBe 1
+      an[ApiServerException] should be thrownBy { val _ = call( service, "DeleteVolume" ) }
+      call( service, "GetClusterInfo" ) shouldBe 3
+    }
+
+    "not share results between dispatchers" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "GetClusterInfo", 60000 )
+      val first = cachedService( cache )
+      val second = cachedService( cache )
+
+      call( first, "GetClusterInfo" ) shouldBe 1
+      call( second, "GetClusterInfo" ) shouldBe 1
+      verify( second.getRequestDispatcher, times( 1 ) ).dispatchRequest( anyString )
+      call( second, "CreateVolume" ) shouldBe 2
+      call( first, "GetClusterInfo" ) shouldBe 1
+    }
+  }
+
+  "sendRequestAsync" should {
+
+    "answer a repeated call from the cache and drop results after a mutating call" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "GetClusterInfo", 60000 )
+      val service = cachedService( cache )
+      def callAsync( method: String ) =
+        service.sendRequestAsync( method, params( ), classOf[util.Map[String, Object]], classOf[Result] )
+          .get( 5, TimeUnit.SECONDS ).get( "call" ).asInstanceOf[Number].intValue
+
+      callAsync( "GetClusterInfo" ) shouldBe 1
+      callAsync( "GetClusterInfo" ) shouldBe 1
+      callAsync( "CreateVolume" ) shouldBe 2
+      callAsync( "GetClusterInfo" ) shouldBe 3
+    }
+  }
+
+  "newBatch" should {
+
+    "drop results after a batch with a mutating call" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "GetClusterInfo", 60000 )
+      val service = cachedService( cache )
+
+      call( service, "GetClusterInfo" ) shouldBe 1
+      batchOf( service, "ListVolumes" ).execute( )
+      call( service, "GetClusterInfo" ) shouldBe 1
+      batchOf( service, "ListVolumes", "CreateVolume" ).execute( )
+      call( service, "GetClusterInfo" ) shouldBe 5
+      batchOf( service, "DeleteVolume" ).executeAsync( ).get( 5, TimeUnit.SECONDS )
+      call( service, "GetClusterInfo" ) shouldBe 7
+      cache.getStatistics.getInvalidations shouldBe 2
+    }
+  }
+
+  "CoalescingRequestDispatcher" should {
+
+    "drop results after a mutating call merged into a batch" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "GetClusterInfo", 60000 )
+      val dispatcher = mock[RequestDispatcher]
+      counting( dispatcher )
+      val service = new ServiceBase( new CoalescingRequestDispatcher( dispatcher ) )
+      service.setResponseCache( cache )
+
+      call( service, "GetClusterInfo" ) shouldBe 1
+      call( service, "CreateVolume" ) shouldBe 2
+      call( service, "GetClusterInfo" ) shouldBe 3
+    }
+  }
+
+  "ResponseCache" should {
+
+    "evict the least recently used result when full" in {
+      val cache = new ResponseCache( 2 )
+      cache.setTtl( "GetVolume", 60000 )
+      val service = cachedService( cache )
+
+      call( service, "GetVolume", params( "id" -> "1" ) ) shouldBe 1
+      call( service, "GetVolume", params( "id" -> "2" ) ) shouldBe 2
+      call( service, "GetVolume", params( "id" -> "1" ) ) shouldBe 1
+      call( service, "GetVolume", params( "id" -> "3" ) ) shouldBe 3
+      call( service, "GetVolume", params( "id" -> "1" ) ) shouldBe 1
+      call( service, "GetVolume", params( "id" -> "2" ) ) shouldBe 4
+      cache.getStatistics.getEvictions shouldBe 2
+      cache.getStatistics.getSize shouldBe 2
+    }
+
+    "not keep a result that arrived after an invalidation" in {
+      val cache = new ResponseCache( )
+      cache.setTtl( "GetClusterInfo", 60000 )
+      val key = RequestKey.of( this, "GetClusterInfo", new JsonParser( ).parse( "{}" ) )
+
+      val stamp = cache.stamp( )
+      cache.invalidateAll( )
+      cache.put( key, "stale", stamp )
+
+      cache.get( key, classOf[String] ) shouldBe null
+    }
+
+    "reject a size below one" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new ResponseCache( 0 ) }
+    }
+
+    "reject a negative ttl" in {
+      an[IllegalArgumentException] should be thrownBy new ResponseCache( ).setTtl( "GetClusterInfo", -1 )
+    }
+  }
+
+  "RequestKey" should {
+
+    "sort the members of nested objects" in {
+      val out = new java.lang.StringBuilder( )
+      RequestKey.appendCanonical( out, new JsonParser( ).parse( "{\"b\":[{\"d\":1,\"c\":null}],\"a\":\"x\"}" ) )
+      out.toString shouldBe "{\"a\":\"x\",\"b\":[{\"c\":null,\"d\":1}]}"
+    }
+  }
+}
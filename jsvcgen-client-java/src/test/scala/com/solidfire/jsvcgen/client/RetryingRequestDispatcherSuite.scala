@@ -0,0 +1,225 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.IOException
+import java.net.{ConnectException, SocketTimeoutException}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.{times, verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+import scala.collection.JavaConversions._
+
+class RetryingRequestDispatcherSuite extends WordSpec with MockitoSugar with Matchers {
+
+  def request( method: String ) = "{\"id\":1,\"method\":\"" + method + "\",\"params\":{}}"
+
+  val busy = "{\"id\":1,\"error\":{\"name\":\"xBusy\",\"code\":500,\"message\":\"try again\"}}"
+
+  "dispatchRequest" should {
+
+    "retry a read-only request after an I/O error" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new SocketTimeoutException( "slow" ) ).thenReturn( "ok" )
+      val dispatcher = new RetryingRequestDispatcher( delegate, 3, 1, 1 )
+
+      dispatcher.dispatchRequest( request( "GetAccount" ) ) shouldBe "ok"
+      dispatcher.getRetries shouldBe 1
+    }
+
+    "not retry a write that may have been received" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new SocketTimeoutException( "slow" ) ).thenReturn( "ok" )
+      val dispatcher = new RetryingRequestDispatcher( delegate, 3, 1, 1 )
+
+      a[SocketTimeoutException] should be thrownBy dispatcher.dispatchRequest( request( "CreateVolume" ) )
+      val _ = verify( delegate, times( 1 ) ).dispatchRequest( anyString )
+    }
+
+    "not retry a request whose deadline passed" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new DeadlineExceededException( "late" ) ).thenReturn( "ok" )
+      val dispatcher = new RetryingRequestDispatcher( delegate, 3, 1, 1 )
+
+      a[DeadlineExceededException] should be thrownBy dispatcher.dispatchRequest( request( "GetAccount" ) )
+      val _ = verify( delegate, times( 1 ) ).dispatchRequest( anyString )
+    }
+
+    "retry any request whose connection was refused" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new ConnectException( "refused" ) ).thenReturn( "ok" )
+      val dispatcher = new RetryingRequestDispatcher( delegate, 3, 1, 1 )
+
+      dispatcher.dispatchRequest( request( "CreateVolume" ) ) shouldBe "ok"
+    }
+
+    "give up after the last attempt" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenThrow( new ConnectException( "1" ), new ConnectException( "2" ), new ConnectException( "3" ) )
+      val dispatcher = new RetryingRequestDispatcher( delegate, 3, 1, 2 )
+
+      val thrown = the[ConnectException] thrownBy dispatcher.dispatchRequest( request( "CreateVolume" ) )
+      thrown.getMessage shouldBe "3"
+      thrown.getSuppressed.map( _.getMessage ) shouldBe Array( "2" )
+      thrown.getSuppressed( )( 0 ).getSuppressed.map( _.getMessage ) shouldBe Array( "1" )
+      dispatcher.getRetries shouldBe 2
+    }
+
+    "retry after a retryable server error" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenReturn( busy, "ok" )
+      val dispatcher = new RetryingRequestDispatcher( delegate, 3, 1, 1 )
+      dispatcher.setRetryableErrorNames( Set( "xBusy" ) )
+
+      dispatcher.dispatchRequest( request( "CreateVolume" ) ) shouldBe "ok"
+    }
+
+    "return the server error when the attempts run out" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenReturn( busy )
+      val dispatcher = new RetryingRequestDispatcher( delegate, 2, 1, 1 )
+      dispatcher.setRetryableErrorNames( Set( "xBusy" ) )
+
+      dispatcher.dispatchRequest( request( "CreateVolume" ) ) shouldBe busy
+      val _ = verify( delegate, times( 2 ) ).dispatchRequest( anyString )
+    }
+
+    "not retry other server errors" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenReturn( busy )
+      val dispatcher = new RetryingRequestDispatcher( delegate, 3, 1, 1 )
+
+      dispatcher.dispatchRequest( request( "GetAccount" ) ) shouldBe busy
+      val _ = verify( delegate, times( 1 ) ).dispatchRequest( anyString )
+    }
+  }
+
+  "hedging" should {
+
+    def warmedUp( delegate: RequestDispatcher ): RetryingRequestDispatcher = {
+      val dispatcher = new RetryingRequestDispatcher( delegate, 1, 0, 0 )
+      ( 1 to RetryingRequestDispatcher.MIN_LATENCY_SAMPLES ).foreach( _ => dispatcher.dispatchRequest( request( "GetAccount" ) ) )
+      dispatcher
+    }
+
+    "answer a slow read-only request with a duplicate" in {
+      val calls = new AtomicInteger
+      val release = new CountDownLatch( 1 )
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          if (calls.incrementAndGet( ) == RetryingRequestDispatcher.MIN_LATENCY_SAMPLES + 1) {
+            release.await( 5, TimeUnit.SECONDS )
+            "stuck"
+          } else "fast"
+        }
+      } )
+      val dispatcher = warmedUp( delegate )
+
+      try {
+        dispatcher.dispatchRequest( request( "GetAccount" ) ) shouldBe "fast"
+      } finally {
+        release.countDown( )
+      }
+      // Either attempt may have been the one that got stuck, depending on which thread reached the delegate first.
+      dispatcher.getHedges shouldBe 1
+    }
+
+    "not send a duplicate of a write" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenReturn( "fast" )
+      val dispatcher = warmedUp( delegate )
+      when( delegate.dispatchRequest( request( "CreateVolume" ) ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          Thread.sleep( 20 )
+          "created"
+        }
+      } )
+
+      dispatcher.dispatchRequest( request( "CreateVolume" ) ) shouldBe "created"
+      dispatcher.getHedges shouldBe 0
+    }
+
+    "not send a duplicate when hedging is off" in {
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenReturn( "fast" )
+      val dispatcher = warmedUp( delegate )
+      dispatcher.setMaxHedges( 0 )
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          Thread.sleep( 20 )
+          "slow"
+        }
+      } )
+
+      dispatcher.dispatchRequest( request( "GetAccount" ) ) shouldBe "slow"
+      dispatcher.getHedges shouldBe 0
+    }
+
+    "fail when every attempt fails" in {
+      val calls = new AtomicInteger
+      val delegate = mock[RequestDispatcher]
+      when( delegate.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          if (calls.incrementAndGet( ) > RetryingRequestDispatcher.MIN_LATENCY_SAMPLES) {
+            Thread.sleep( 20 )
+            throw new SocketTimeoutException( "slow" )
+          }
+          "fast"
+        }
+      } )
+      val dispatcher = warmedUp( delegate )
+
+      a[SocketTimeoutException] should be thrownBy dispatcher.dispatchRequest( request( "GetAccount" ) )
+      dispatcher.getHedges shouldBe 1
+    }
+  }
+
+  "RetryingRequestDispatcher" should {
+
+    "reject fewer than one attempt" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new RetryingRequestDispatcher( mock[RequestDispatcher], 0, 1, 1 ) }
+    }
+
+    "reject a maximum delay below the base delay" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new RetryingRequestDispatcher( mock[RequestDispatcher], 3, 10, 1 ) }
+    }
+  }
+
+  "LatencyWindow" should {
+
+    "report a percentile once it has enough samples" in {
+      val window = new LatencyWindow( 100, 10 )
+      ( 1L to 9L ).foreach( i => window.record( i ) )
+      window.percentile( 95 ) shouldBe -1
+      ( 10L to 100L ).foreach( i => window.record( i ) )
+      window.percentile( 95 ) shouldBe 95
+      window.percentile( 100 ) shouldBe 100
+      window.percentile( 0 ) shouldBe 1
+    }
+
+    "forget the oldest samples" in {
+      val window = new LatencyWindow( 10, 1 )
+      ( 1L to 100L ).foreach( i => window.record( i ) )
+      window.size shouldBe 10
+      window.percentile( 0 ) shouldBe 91
+    }
+  }
+
+  "errorName" should {
+
+    "read the name of a server error" in {
+      JsonRpcRequests.errorName( "{\"id\":1,\"error\":{\"code\":500,\"name\":\"xBusy\"}}" ) shouldBe "xBusy"
+    }
+
+    "return null for a result or a malformed response" in {
+      JsonRpcRequests.errorName( "{\"id\":1,\"result\":{\"name\":\"xBusy\"}}" ) shouldBe null
+      JsonRpcRequests.errorName( "<html>" ) shouldBe null
+      JsonRpcRequests.errorName( "{\"error\":\"xBusy\"}" ) shouldBe null
+    }
+  }
+}
@@ -1,16 +1,20 @@
 package com.solidfire.jsvcgen.client
 
-import java.io.StringReader
+import java.io.{IOException, StringReader}
 import java.util
+import java.util.concurrent.{ExecutionException, Executor, TimeUnit}
 
 import com.solidfire.gson.internal.LinkedTreeMap
 import com.solidfire.gson.stream.JsonReader
 import com.solidfire.gson.{Gson, JsonObject, JsonParser}
 import com.solidfire.jsvcgen.JavaClasses._
-import com.solidfire.jsvcgen.javautil.Optional
+import com.solidfire.jsvcgen.javautil.{CompletableFuture, Optional}
 import com.solidfire.jsvcgen.serialization.GsonUtil
-import org.mockito.Matchers.anyString
-import org.mockito.Mockito.when
+import org.mockito.ArgumentCaptor
+import org.mockito.Matchers.{any, anyString}
+import org.mockito.Mockito.{times, verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
 import org.scalatest.mock.MockitoSugar
 import org.scalatest.{BeforeAndAfterAll, Matchers, WordSpec}
 
@@ -167,6 +171,387 @@ class ServiceBaseSuite extends WordSpec with BeforeAndAfterAll with MockitoSugar
 
   }
 
+  "sendRequest with a streaming dispatcher" should {
+
+    "decode the result from the response stream" in {
+      val dispatcher = mock[StreamingRequestDispatcher]
+      when( dispatcher.dispatchRequestStream( any( classOf[RequestBody] ) ) ).thenReturn( new StringReader( "{'id':1,'result':{'a':'b','c':'d'}}" ) )
+
+      new ServiceBase( dispatcher ).sendRequest( "aMethod", new Object, classOf[Object], classOf[LinkedTreeMap[_, _]] ) should have size 2
+      val _ = verify( dispatcher, times( 0 ) ).dispatchRequest( anyString )
+    }
+
+    "write the same request that encodeRequest builds" in {
+      val dispatcher = mock[StreamingRequestDispatcher]
+      when( dispatcher.dispatchRequestStream( any( classOf[RequestBody] ) ) ).thenReturn( new StringReader( "{'result':{}}" ) )
+      val params = new util.HashMap[String, Object]( )
+      params.put( "name", "v\u00e9l<1>" )
+      params.put( "ids", Array[Long]( 1L, 2L, 3L ) )
+
+      new ServiceBase( dispatcher ).sendRequest( "aMethod", params, classOf[util.HashMap[String, Object]], classOf[LinkedTreeMap[_, _]] )
+
+      val captor = ArgumentCaptor.forClass( classOf[RequestBody] )
+      verify( dispatcher ).dispatchRequestStream( captor.capture( ) )
+      val out = new java.io.ByteArrayOutputStream( )
+      captor.getValue.writeTo( out )
+      val streamed = new JsonParser( ).parse( new String( out.toByteArray, "UTF-8" ) ).getAsJsonObject
+      val encoded = new JsonParser( ).parse( _serviceBase.encodeRequest( "aMethod", params, classOf[util.HashMap[String, Object]] ) ).getAsJsonObject
+      streamed.remove( "id" ).getAsLong should be > 0L
+      encoded.remove( "id" )
+      streamed shouldBe encoded
+    }
+
+    "decode empty attributes as null" in {
+      val dispatcher = mock[StreamingRequestDispatcher]
+      when( dispatcher.dispatchRequestStream( any( classOf[RequestBody] ) ) ).thenReturn( new StringReader( "{\"result\":{\"attributes\":\"\",\"name\":\"\"}}" ) )
+
+      val result = new ServiceBase( dispatcher ).sendRequest( "aMethod", new Object, classOf[Object], classOf[LinkedTreeMap[String, Object]] )
+      result.containsKey( "attributes" ) shouldBe true
+      result.get( "attributes" ) shouldBe null
+      result.get( "name" ) shouldBe ""
+    }
+
+    "throw an ApiServerException for an error response" in {
+      val dispatcher = mock[StreamingRequestDispatcher]
+      when( dispatcher.dispatchRequestStream( any( classOf[RequestBody] ) ) ).thenReturn( new StringReader( "{'result':null,'error':{'name':'xUnknownAPIMethod','code':500,'message':'Unknown method'}}" ) )
+
+      the[ApiServerException] thrownBy {
+        new ServiceBase( dispatcher ).sendRequest( "aMethod", new Object, classOf[Object], classOf[LinkedTreeMap[_, _]] )
+      } should have( 'name ( "xUnknownAPIMethod" ) )
+    }
+
+    "send the request built by an overridden encodeRequest" in {
+      val dispatcher = mock[StreamingRequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{'result':{'a':'b'}}" )
+      val service = new ServiceBase( dispatcher ) {
+        override def encodeRequest[TRequest]( method: String, requestParams: TRequest, requestParamsClass: Class[TRequest] ): String =
+          super.encodeRequest( method + "Renamed", requestParams, requestParamsClass )
+      }
+
+      service.sendRequest( "aMethod", new Object, classOf[Object], classOf[LinkedTreeMap[_, _]] ) should have size 1
+      val captor = ArgumentCaptor.forClass( classOf[String] )
+      verify( dispatcher ).dispatchRequest( captor.capture( ) )
+      JsonRpcRequests.method( captor.getValue ) shouldBe "aMethodRenamed"
+      val _ = verify( dispatcher, times( 0 ) ).dispatchRequestStream( any( classOf[RequestBody] ) )
+    }
+
+    "decode the response with an overridden decodeResponse" in {
+      val dispatcher = mock[StreamingRequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{'result':{'a':'b'}}" )
+      var decoded = List[String]( )
+      val service = new ServiceBase( dispatcher ) {
+        override def decodeResponse[TResult]( response: String, resultParamsClass: Class[TResult] ): TResult = {
+          decoded = response :: decoded
+          super.decodeResponse( response, resultParamsClass )
+        }
+      }
+
+      service.sendRequest( "aMethod", new Object, classOf[Object], classOf[LinkedTreeMap[_, _]] ) should have size 1
+      decoded shouldBe List( "{'result':{'a':'b'}}" )
+      val _ = verify( dispatcher, times( 0 ) ).dispatchRequestStream( any( classOf[RequestBody] ) )
+    }
+
+    "wrap an IOException in an ApiException" in {
+      val dispatcher = mock[StreamingRequestDispatcher]
+      when( dispatcher.dispatchRequestStream( any( classOf[RequestBody] ) ) ).thenThrow( new IOException( "refused" ) )
+
+      ( the[ApiException] thrownBy {
+        new ServiceBase( dispatcher ).sendRequest( "aMethod", new Object, classOf[Object], classOf[LinkedTreeMap[_, _]] )
+      } ).getCause shouldBe an[IOException]
+    }
+  }
+
+  "sendRequestAsync" should {
+
+    "return a result when request succeeds" in {
+      when( _requestDispatcher.dispatchRequest( anyString ) ).thenReturn( "{'result':{'a':'b','c':'d'}}" )
+
+      _serviceBase.sendRequestAsync( "aMethod", new Object, classOf[Object], classOf[LinkedTreeMap[_, _]] ).get( 5, TimeUnit.SECONDS ) should have size 2
+    }
+
+    "use the future returned by an async dispatcher" in {
+      val asyncDispatcher = mock[AsyncRequestDispatcher]
+      val response = new CompletableFuture[String]
+      when( asyncDispatcher.dispatchRequestAsync( anyString ) ).thenReturn( response )
+
+      val result = new ServiceBase( asyncDispatcher ).sendRequestAsync( "aMethod", new Object, classOf[Object], classOf[Foo] )
+      result.isDone should be( false )
+
+      response.complete( "{'result': { 'bar':'', 'baz':'' } }" )
+      result.get.getBaz should be( Optional.of( "" ) )
+    }
+
+    "fail with an ApiServerException when the response holds an error" in {
+      val asyncDispatcher = mock[AsyncRequestDispatcher]
+      when( asyncDispatcher.dispatchRequestAsync( anyString ) ).thenReturn( CompletableFuture.completedFuture( "{ error : { name : 'xUnknownAPIMethod', code : 500, message : 'anErrorMessage' } }" ) )
+
+      val thrown = the[ExecutionException] thrownBy {
+        new ServiceBase( asyncDispatcher ).sendRequestAsync( "aMethod", new Object, classOf[Object], classOf[Foo] ).get
+      }
+      thrown.getCause shouldBe an[ApiServerException]
+    }
+
+    "fail with an ApiException when the dispatcher fails" in {
+      val asyncDispatcher = mock[AsyncRequestDispatcher]
+      when( asyncDispatcher.dispatchRequestAsync( anyString ) ).thenReturn( CompletableFuture.failedFuture[String]( new IOException( "refused" ) ) )
+
+      val thrown = the[ExecutionException] thrownBy {
+        new ServiceBase( asyncDispatcher ).sendRequestAsync( "aMethod", new Object, classOf[Object], classOf[Foo] ).get
+      }
+      thrown.getCause shouldBe an[ApiException]
+      thrown.getCause.getCause shouldBe an[IOException]
+    }
+
+    "cancel the dispatcher future when cancelled" in {
+      val asyncDispatcher = mock[AsyncRequestDispatcher]
+      val response = new CompletableFuture[String]
+      when( asyncDispatcher.dispatchRequestAsync( anyString ) ).thenReturn( response )
+
+      new ServiceBase( asyncDispatcher ).sendRequestAsync( "aMethod", new Object, classOf[Object], classOf[Foo] ).cancel( true )
+      response.isCancelled should be( true )
+    }
+
+    "run blocking dispatchers on the async executor" in {
+      val service = new ServiceBase( _requestDispatcher )
+      var executed = 0
+      service.setAsyncExecutor( new Executor {
+        override def execute( command: Runnable ): Unit = {
+          executed += 1
+          command.run( )
+        }
+      } )
+      when( _requestDispatcher.dispatchRequest( anyString ) ).thenReturn( "{ 'result': {} }" )
+
+      service.sendRequestAsync( "aMethod", new Object, classOf[Object], classOf[LinkedTreeMap[_, _]] ).isDone should be( true )
+      executed should be( 1 )
+    }
+  }
+
+  "sendRawRequest" should {
+
+    val rawRequest = "{\"id\":7,\"method\":\"GetClusterInfo\",\"params\":{\"attributes\":\"\"}}"
+
+    "send the request and return the response untouched" in {
+      val dispatcher = mock[RequestDispatcher]
+      val response = "{\"id\":7,\"result\":{\"attributes\":\"\",\"name\":\"c\"}}"
+      when( dispatcher.dispatchRequest( rawRequest ) ).thenReturn( response )
+
+      new ServiceBase( dispatcher ).sendRawRequest( rawRequest ) shouldBe response
+    }
+
+    "return an error response and record it as a failed call" in {
+      val dispatcher = mock[RequestDispatcher]
+      val response = "{\"id\":7,\"error\":{\"name\":\"xUnknownAPIMethod\",\"code\":500,\"message\":\"no\"}}"
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( response )
+      val registry = new MetricsRegistry
+      val service = new ServiceBase( dispatcher )
+      service.setMetricsRegistry( registry )
+
+      service.sendRawRequest( rawRequest ) shouldBe response
+
+      val stats = registry.getStatistics( dispatcher.toString, "GetClusterInfo" )
+      stats.getCalls shouldBe 1
+      stats.getErrors.keySet should contain( "xUnknownAPIMethod/500" )
+      stats.getResponseBytes shouldBe response.length
+    }
+
+    "record a successful call" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{\"result\":{},\"error\":{\"name\":\"ignored\"}}" )
+      val registry = new MetricsRegistry
+      val service = new ServiceBase( dispatcher )
+      service.setMetricsRegistry( registry )
+
+      service.sendRawRequest( rawRequest )
+
+      registry.getStatistics( dispatcher.toString, "GetClusterInfo" ).getErrorCount shouldBe 0
+    }
+
+    "refuse a request for a later version of the API" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.getVersion ).thenReturn( "8.0" )
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{\"result\":{}}" )
+      val service = new ServiceBase( dispatcher )
+
+      an[ApiException] should be thrownBy { val _ = service.sendRawRequest( rawRequest, "9.0" ) }
+      service.sendRawRequest( rawRequest, "7.0" ) shouldBe "{\"result\":{}}"
+      an[IllegalArgumentException] should be thrownBy { val _ = service.sendRawRequest( rawRequest, "latest" ) }
+      val _ = verify( dispatcher, times( 1 ) ).dispatchRequest( anyString )
+    }
+
+    "pass the request through the interceptors" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{\"result\":{}}" )
+      val service = new ServiceBase( dispatcher )
+      var seen: String = null
+      service.addInterceptor( new ServiceInterceptorAdapter {
+        override def aroundDispatch( method: String, request: String, next: ServiceInterceptor.Dispatch ): CompletableFuture[String] = {
+          seen = method
+          next.proceed( request )
+        }
+      } )
+
+      service.sendRawRequest( rawRequest )
+
+      seen shouldBe "GetClusterInfo"
+    }
+
+    "throw an ApiException when the request can not be sent" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenThrow( new IOException( "refused" ) )
+
+      ( the[ApiException] thrownBy new ServiceBase( dispatcher ).sendRawRequest( rawRequest ) ).getCause shouldBe an[IOException]
+    }
+
+    "compare API versions by number" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.getVersion ).thenReturn( "10.0" )
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{\"result\":{}}" )
+      val service = new ServiceBase( dispatcher )
+
+      service.sendRawRequest( rawRequest, "9.0" ) shouldBe "{\"result\":{}}"
+      an[ApiException] should be thrownBy { val _ = service.sendRawRequest( rawRequest, "10.1" ) }
+    }
+
+    "reject an empty request" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = _serviceBase.sendRawRequest( " " ) }
+    }
+
+    "stream the request and the response through a streaming dispatcher" in {
+      val dispatcher = mock[StreamingRequestDispatcher]
+      val response = "{\"id\":7,\"result\":{\"attributes\":\"\"}}"
+      val sent = new java.io.ByteArrayOutputStream( )
+      when( dispatcher.dispatchRequestStream( any( classOf[RequestBody] ) ) ).thenAnswer( new Answer[java.io.Reader] {
+        override def answer( invocation: InvocationOnMock ): java.io.Reader = {
+          invocation.getArguments( )( 0 ).asInstanceOf[RequestBody].writeTo( sent )
+          new StringReader( response )
+        }
+      } )
+      val registry = new MetricsRegistry
+      val service = new ServiceBase( dispatcher )
+      service.setMetricsRegistry( registry )
+
+      val reader = service.sendRawRequest( "GetClusterInfo", new ByteArrayRequestBody( rawRequest.getBytes( "UTF-8" ) ), null )
+      registry.getStatistics( dispatcher.toString, "GetClusterInfo" ).getCalls shouldBe 0
+      Stream.continually( reader.read( ) ).takeWhile( _ != -1 ).map( _.toChar ).mkString shouldBe response
+      reader.close( )
+
+      val stats = registry.getStatistics( dispatcher.toString, "GetClusterInfo" )
+      stats.getCalls shouldBe 1
+      stats.getRequestBytes shouldBe rawRequest.length
+      new String( sent.toByteArray, "UTF-8" ) shouldBe rawRequest
+      stats.getResponseBytes shouldBe response.length
+      val _ = verify( dispatcher, times( 0 ) ).dispatchRequest( anyString )
+    }
+
+    "buffer a streamed request for a dispatcher that can not stream" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.getVersion ).thenReturn( "8.0" )
+      when( dispatcher.dispatchRequest( rawRequest ) ).thenReturn( "{\"result\":{}}" )
+      val service = new ServiceBase( dispatcher )
+      val body = new ByteArrayRequestBody( rawRequest.getBytes( "UTF-8" ) )
+
+      val reader = service.sendRawRequest( "GetClusterInfo", body, "8.0" )
+      Stream.continually( reader.read( ) ).takeWhile( _ != -1 ).map( _.toChar ).mkString shouldBe "{\"result\":{}}"
+      an[ApiException] should be thrownBy { val _ = service.sendRawRequest( "GetClusterInfo", body, "9.0" ) }
+      an[IllegalArgumentException] should be thrownBy { val _ = service.sendRawRequest( "", body, null ) }
+    }
+  }
+
+  "newBatch" should {
+
+    def idsOf( request: String ): List[String] = {
+      import scala.collection.JavaConversions._
+      new JsonParser( ).parse( request ).getAsJsonArray.map( _.getAsJsonObject.get( "id" ).getAsString ).toList
+    }
+
+    "send every call in one JSON-RPC array and match results by id" in {
+      val dispatcher = mock[RequestDispatcher]
+      val service = new ServiceBase( dispatcher )
+      val batch = service.newBatch( )
+      val first = batch.add( "first", new Object, classOf[Object], classOf[Foo] )
+      val second = batch.add( "second", new Object, classOf[Object], classOf[LinkedTreeMap[_, _]] )
+      val captor = ArgumentCaptor.forClass( classOf[String] )
+      when( dispatcher.dispatchRequest( captor.capture( ) ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          val ids = idsOf( invocation.getArguments( )( 0 ).asInstanceOf[String] )
+          s"[{'id':${ids( 1 )},'result':{'a':'b'}},{'id':${ids( 0 )},'result':{'bar':'x','baz':''}}]"
+        }
+      } )
+
+      batch.execute( )
+
+      verify( dispatcher, times( 1 ) ).dispatchRequest( anyString )
+      idsOf( captor.getValue ) should have size 2
+      first.get.getBar should be( "x" )
+      second.get should have size 1
+    }
+
+    "report errors per call" in {
+      val dispatcher = mock[RequestDispatcher]
+      val batch = new ServiceBase( dispatcher ).newBatch( )
+      val good = batch.add( "good", new Object, classOf[Object], classOf[Foo] )
+      val bad = batch.add( "bad", new Object, classOf[Object], classOf[Foo] )
+      when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          val ids = idsOf( invocation.getArguments( )( 0 ).asInstanceOf[String] )
+          s"[{'id':${ids( 0 )},'result':{'bar':'x'}},{'id':${ids( 1 )},'error':{'name':'xNotFound','code':500,'message':'missing'}}]"
+        }
+      } )
+
+      batch.execute( )
+
+      good.isSuccessful should be( true )
+      bad.isSuccessful should be( false )
+      bad.getError shouldBe an[ApiServerException]
+      the[ApiServerException] thrownBy bad.get should have message "missing"
+    }
+
+    "fail a call the server did not answer" in {
+      val dispatcher = mock[RequestDispatcher]
+      val batch = new ServiceBase( dispatcher ).newBatch( )
+      val call = batch.add( "aMethod", new Object, classOf[Object], classOf[Foo] )
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "[]" )
+
+      batch.execute( )
+
+      call.getError shouldBe an[ApiException]
+    }
+
+    "fail every call when the server rejects the batch" in {
+      val dispatcher = mock[RequestDispatcher]
+      val batch = new ServiceBase( dispatcher ).newBatch( )
+      val calls = List( batch.add( "a", new Object, classOf[Object], classOf[Foo] ), batch.add( "b", new Object, classOf[Object], classOf[Foo] ) )
+      when( dispatcher.dispatchRequest( anyString ) ).thenReturn( "{'id':null,'error':{'name':'xParseError','code':500,'message':'bad batch'}}" )
+
+      an[ApiServerException] should be thrownBy batch.execute( )
+      calls.foreach( _.getError should have message "bad batch" )
+    }
+
+    "refuse to run twice" in {
+      val batch = new ServiceBase( mock[RequestDispatcher] ).newBatch( )
+      batch.execute( )
+      an[IllegalStateException] should be thrownBy batch.execute( )
+      an[IllegalStateException] should be thrownBy { val _ = batch.add( "a", new Object, classOf[Object], classOf[Foo] ) }
+    }
+
+    "complete the future once every call holds its outcome" in {
+      val asyncDispatcher = mock[AsyncRequestDispatcher]
+      val response = new CompletableFuture[String]
+      val captor = ArgumentCaptor.forClass( classOf[String] )
+      when( asyncDispatcher.dispatchRequestAsync( captor.capture( ) ) ).thenReturn( response )
+      val batch = new ServiceBase( asyncDispatcher ).newBatch( )
+      val call = batch.add( "aMethod", new Object, classOf[Object], classOf[Foo] )
+
+      val done = batch.executeAsync( )
+      call.isDone should be( false )
+
+      response.complete( s"[{'id':${idsOf( captor.getValue ).head},'result':{'bar':'y'}}]" )
+      done.isDone should be( true )
+      call.get.getBar should be( "y" )
+    }
+  }
+
   "encodeRequest" should {
 
     "throw exception when method is null" in {
@@ -251,6 +636,42 @@ class ServiceBaseSuite extends WordSpec with BeforeAndAfterAll with MockitoSugar
     }
   }
 
+  "decodeResponseStream" should {
+
+    "bind the result" in {
+      _serviceBase.decodeResponseStream( new StringReader( "{'id':3,'result':{'key':'value'},'extra':[1,2]}" ), classOf[FooMap] ).get( "key" ) should be( "value" )
+    }
+
+    "convert arrays the way decodeResponse does" in {
+      _serviceBase.decodeResponseStream( new StringReader( "{'result':{'map': {'map1' : ['One']}}}" ), classOf[FooMap] )
+        .get( "map" ).asInstanceOf[LinkedTreeMap[String, Object]].get( "map1" ).asInstanceOf[Array[Object]]( 0 ) should be( "One" )
+    }
+
+    "throw an ApiServerException when the error follows the result" in {
+      the[ApiServerException] thrownBy {
+        _serviceBase.decodeResponseStream( new StringReader( "{'result':{},'error':{'name':'anError','code':500,'message':'aMessage'}}" ), classOf[FooMap] )
+      } should have( 'name ( "anError" ) )
+    }
+
+    "decode a response that is not an object as a string" in {
+      the[ApiException] thrownBy {
+        _serviceBase.decodeResponseStream( new StringReader( "I Cause Errors" ), classOf[Any] )
+      } should have message "There was a problem parsing the response from the server. ( response=I Cause Errors )"
+    }
+
+    "throw apiException when the response is empty" in {
+      the[ApiException] thrownBy {
+        _serviceBase.decodeResponseStream( new StringReader( "" ), classOf[Any] )
+      } should have message "There was a problem parsing the response from the server. ( response= )"
+    }
+
+    "throw apiException when the response is truncated" in {
+      an[ApiException] should be thrownBy {
+        val _ = _serviceBase.decodeResponseStream( new StringReader( "{'result':{'key':" ), classOf[FooMap] )
+      }
+    }
+  }
+
   def convertResponseToJsonObject( response: String ): JsonObject = {
     val gson: Gson = GsonUtil.getDefaultBuilder.create
     val reader: JsonReader = new JsonReader( new StringReader( response ) )
@@ -0,0 +1,269 @@
+package com.solidfire.jsvcgen.client
+
+import java.io.{IOException, StringReader}
+import java.util
+import java.util.concurrent.{ExecutionException, TimeUnit}
+
+import com.solidfire.gson.JsonParser
+import com.solidfire.gson.internal.LinkedTreeMap
+import com.solidfire.jsvcgen.javautil.{BiConsumer, CompletableFuture}
+import org.mockito.Matchers.{any, anyString}
+import org.mockito.Mockito.{never, times, verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+import scala.collection.mutable.ArrayBuffer
+
+class ServiceInterceptorSuite extends WordSpec with MockitoSugar with Matchers {
+
+  type Result = LinkedTreeMap[String, Object]
+  type Params = util.Map[String, Object]
+
+  /** Records the hooks it passes under its name. */
+  class Recording( name: String, log: ArrayBuffer[String] ) extends ServiceInterceptorAdapter {
+    override def beforeEncode[TRequest]( method: String, requestParams: TRequest ): TRequest = {
+      log += name + ".beforeEncode"
+      requestParams
+    }
+
+    override def aroundDispatch( method: String, request: String, next: ServiceInterceptor.Dispatch ): CompletableFuture[String] = {
+      log += name + ".aroundDispatch"
+      next.proceed( request )
+    }
+
+    override def afterDecode[TResult]( method: String, result: TResult ): TResult = {
+      log += name + ".afterDecode"
+      result
+    }
+  }
+
+  def params( id: String ): Params = {
+    val map = new util.HashMap[String, Object]( )
+    map.put( "id", id )
+    map
+  }
+
+  def echoing = {
+    val dispatcher = mock[RequestDispatcher]
+    when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+      override def answer( invocation: InvocationOnMock ): String = {
+        val request = new JsonParser( ).parse( invocation.getArguments( )( 0 ).asInstanceOf[String] ).getAsJsonObject
+        "{\"result\":" + request.get( "params" ) + "}"
+      }
+    } )
+    dispatcher
+  }
+
+  def call( service: ServiceBase, request: Params = params( "1" ) ) =
+    service.sendRequest( "GetVolume", request, classOf[Params], classOf[Result] )
+
+  "sendRequest" should {
+
+    "pass the interceptors in order on the way out and in reverse on the way back" in {
+      val log = ArrayBuffer[String]( )
+      val service = new ServiceBase( echoing )
+      service.addInterceptor( new Recording( "a", log ) )
+      service.addInterceptor( new Recording( "b", log ) )
+
+      call( service ).get( "id" ) shouldBe "1"
+      log shouldBe Seq( "a.beforeEncode", "b.beforeEncode", "a.aroundDispatch", "b.aroundDispatch", "b.afterDecode", "a.afterDecode" )
+    }
+
+    "send the request parameters an interceptor replaced" in {
+      val service = new ServiceBase( echoing )
+      service.addInterceptor( new ServiceInterceptorAdapter {
+        override def beforeEncode[TRequest]( method: String, requestParams: TRequest ): TRequest =
+          params( "2" ).asInstanceOf[TRequest]
+      } )
+
+      call( service ).get( "id" ) shouldBe "2"
+    }
+
+    "let an interceptor answer without sending" in {
+      val dispatcher = mock[RequestDispatcher]
+      val service = new ServiceBase( dispatcher )
+      service.addInterceptor( new ServiceInterceptorAdapter {
+        override def aroundDispatch( method: String, request: String, next: ServiceInterceptor.Dispatch ) =
+          CompletableFuture.completedFuture( "{\"result\":{\"id\":\"local\"}}" )
+      } )
+
+      call( service ).get( "id" ) shouldBe "local"
+      val _ = verify( dispatcher, never( ) ).dispatchRequest( anyString )
+    }
+
+    "let an interceptor send again after a failure" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) )
+        .thenThrow( new IOException( "expired" ) )
+        .thenReturn( "{\"result\":{\"id\":\"again\"}}" )
+      val service = new ServiceBase( dispatcher )
+      service.addInterceptor( new ServiceInterceptorAdapter {
+        override def aroundDispatch( method: String, request: String, next: ServiceInterceptor.Dispatch ) = {
+          val retried = new CompletableFuture[String]( )
+          next.proceed( request ).whenComplete( new BiConsumer[String, Throwable] {
+            override def accept( response: String, ex: Throwable ): Unit = {
+              if (null == ex) retried.complete( response )
+              else next.proceed( request ).whenComplete( new BiConsumer[String, Throwable] {
+                override def accept( again: String, ex2: Throwable ): Unit = {
+                  if (null == ex2) retried.complete( again ) else retried.completeExceptionally( ex2 )
+                  ()
+                }
+              } )
+              ()
+            }
+          } )
+          retried
+        }
+      } )
+
+      call( service ).get( "id" ) shouldBe "again"
+      val _ = verify( dispatcher, times( 2 ) ).dispatchRequest( anyString )
+    }
+
+    "throw an I/O failure as an ApiException" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenThrow( new IOException( "refused" ) )
+      val service = new ServiceBase( dispatcher )
+      service.addInterceptor( new ServiceInterceptorAdapter {} )
+
+      ( the[ApiException] thrownBy call( service ) ).getCause shouldBe an[IOException]
+    }
+
+    "fail the call when a hook throws" in {
+      val service = new ServiceBase( echoing )
+      service.addInterceptor( new ServiceInterceptorAdapter {
+        override def aroundDispatch( method: String, request: String, next: ServiceInterceptor.Dispatch ) =
+          throw new IllegalStateException( "no token" )
+      } )
+
+      the[IllegalStateException] thrownBy call( service ) should have message "no token"
+    }
+
+    "keep streaming when there are no interceptors" in {
+      val dispatcher = mock[StreamingRequestDispatcher]
+      when( dispatcher.dispatchRequestStream( any[RequestBody] ) ).thenReturn( new StringReader( "{\"result\":{}}" ) )
+      val service = new ServiceBase( dispatcher )
+      val interceptor = new ServiceInterceptorAdapter {}
+      service.addInterceptor( interceptor )
+      service.removeInterceptor( interceptor ) shouldBe true
+
+      call( service )
+      verify( dispatcher ).dispatchRequestStream( any[RequestBody] )
+      service.getInterceptors shouldBe empty
+    }
+  }
+
+  "sendRequestAsync" should {
+
+    "pass the same hooks" in {
+      val log = ArrayBuffer[String]( )
+      val service = new ServiceBase( echoing )
+      service.addInterceptor( new Recording( "a", log ) )
+
+      service.sendRequestAsync( "GetVolume", params( "3" ), classOf[Params], classOf[Result] ).get( 5, TimeUnit.SECONDS ).get( "id" ) shouldBe "3"
+      log shouldBe Seq( "a.beforeEncode", "a.aroundDispatch", "a.afterDecode" )
+    }
+
+    "fail with an ApiException on an I/O failure" in {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenThrow( new IOException( "refused" ) )
+      val service = new ServiceBase( dispatcher )
+      service.addInterceptor( new ServiceInterceptorAdapter {} )
+
+      val failure = the[ExecutionException] thrownBy
+        service.sendRequestAsync( "GetVolume", params( "3" ), classOf[Params], classOf[Result] ).get( 5, TimeUnit.SECONDS )
+      failure.getCause shouldBe an[ApiException]
+    }
+  }
+
+  "newBatch" should {
+
+    def batchEchoing = {
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          import scala.collection.JavaConversions._
+          val requests = new JsonParser( ).parse( invocation.getArguments( )( 0 ).asInstanceOf[String] ).getAsJsonArray
+          requests.map( r => "{\"id\":" + r.getAsJsonObject.get( "id" ) + ",\"result\":" + r.getAsJsonObject.get( "params" ) + "}" ).mkString( "[", ",", "]" )
+        }
+      } )
+      dispatcher
+    }
+
+    "pass the hooks of each call, and send the batch through aroundDispatch once" in {
+      val log = ArrayBuffer[String]( )
+      val service = new ServiceBase( batchEchoing )
+      service.addInterceptor( new Recording( "a", log ) )
+      service.addInterceptor( new ServiceInterceptorAdapter {
+        override def aroundDispatch( method: String, request: String, next: ServiceInterceptor.Dispatch ) = {
+          log += method
+          next.proceed( request )
+        }
+      } )
+      val batch = service.newBatch( )
+      val first = batch.add( "GetVolume", params( "1" ), classOf[Params], classOf[Result] )
+      val second = batch.add( "GetVolume", params( "2" ), classOf[Params], classOf[Result] )
+
+      batch.execute( )
+
+      first.get.get( "id" ) shouldBe "1"
+      second.get.get( "id" ) shouldBe "2"
+      log shouldBe Seq( "a.beforeEncode", "a.beforeEncode", "a.aroundDispatch", ServiceInterceptor.BATCH, "a.afterDecode", "a.afterDecode" )
+    }
+
+    "fail only the call whose afterDecode throws" in {
+      val service = new ServiceBase( batchEchoing )
+      service.addInterceptor( new ServiceInterceptorAdapter {
+        override def afterDecode[TResult]( method: String, result: TResult ): TResult =
+          if (method == "Bad") throw new IllegalStateException( "rejected" ) else result
+      } )
+      val batch = service.newBatch( )
+      val good = batch.add( "Good", params( "1" ), classOf[Params], classOf[Result] )
+      val bad = batch.add( "Bad", params( "2" ), classOf[Params], classOf[Result] )
+
+      batch.execute( )
+
+      good.isSuccessful shouldBe true
+      bad.isSuccessful shouldBe false
+      bad.getError.getCause should have message "rejected"
+    }
+
+    "fail every call when aroundDispatch throws" in {
+      val dispatcher = batchEchoing
+      val service = new ServiceBase( dispatcher )
+      service.addInterceptor( new ServiceInterceptorAdapter {
+        override def aroundDispatch( method: String, request: String, next: ServiceInterceptor.Dispatch ) =
+          throw new IllegalStateException( "no token" )
+      } )
+      val batch = service.newBatch( )
+      val first = batch.add( "GetVolume", params( "1" ), classOf[Params], classOf[Result] )
+      val second = batch.add( "GetVolume", params( "2" ), classOf[Params], classOf[Result] )
+
+      ( the[ApiException] thrownBy batch.execute( ) ).getCause should have message "no token"
+      Seq( first, second ).map( _.isSuccessful ) shouldBe Seq( false, false )
+      val _ = verify( dispatcher, never( ) ).dispatchRequest( anyString )
+    }
+
+    "pass the same hooks when executed asynchronously" in {
+      val log = ArrayBuffer[String]( )
+      val service = new ServiceBase( batchEchoing )
+      service.addInterceptor( new Recording( "a", log ) )
+      val batch = service.newBatch( )
+      val call = batch.add( "GetVolume", params( "3" ), classOf[Params], classOf[Result] )
+
+      batch.executeAsync( ).get( 5, TimeUnit.SECONDS )
+
+      call.get.get( "id" ) shouldBe "3"
+      log shouldBe Seq( "a.beforeEncode", "a.aroundDispatch", "a.afterDecode" )
+    }
+  }
+
+  "addInterceptor" should {
+
+    "reject null" in {
+      an[IllegalArgumentException] should be thrownBy new ServiceBase( mock[RequestDispatcher] ).addInterceptor( null )
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package com.solidfire.jsvcgen.client
+
+import java.util
+import java.util.concurrent.{CountDownLatch, Executors, ExecutionException, TimeUnit}
+
+import com.solidfire.gson.internal.LinkedTreeMap
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.{times, verify, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.mock.MockitoSugar
+import org.scalatest.{Matchers, WordSpec}
+
+class SingleFlightSuite extends WordSpec with MockitoSugar with Matchers {
+
+  type Result = LinkedTreeMap[String, Object]
+
+  /** A dispatcher that holds every call until released, answering with a result counting the calls. */
+  class Gate {
+    val release    = new CountDownLatch( 1 )
+    val dispatcher = mock[RequestDispatcher]
+    @volatile var calls = 0
+    when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+      override def answer( invocation: InvocationOnMock ): String = {
+        val call = synchronized { calls += 1; calls }
+        release.await( 5, TimeUnit.SECONDS )
+        "{\"result\":{\"call\":" + call + "}}"
+      }
+    } )
+  }
+
+  def params( id: String ): util.Map[String, Object] = {
+    val map = new util.HashMap[String, Object]( )
+    map.put( "id", id )
+    map
+  }
+
+  def service( dispatcher: RequestDispatcher, flight: SingleFlight ) = {
+    val service = new ServiceBase( dispatcher )
+    service.setSingleFlight( flight )
+    service
+  }
+
+  def awaitCondition( condition: => Boolean ): Unit = {
+    val deadline = System.currentTimeMillis + 5000
+    while (!condition && System.currentTimeMillis < deadline) Thread.sleep( 1 )
+    condition shouldBe true
+  }
+
+  def inParallel[T]( n: Int )( body: => T ) = {
+    val pool = Executors.newFixedThreadPool( n )
+    val futures = ( 1 to n ).map( _ => pool.submit( new java.util.concurrent.Callable[T] {
+      override def call( ): T = body
+    } ) )
+    pool.shutdown( )
+    futures
+  }
+
+  "sendRequest" should {
+
+    "send one request for identical calls in flight and hand every caller its result" in {
+      val gate = new Gate
+      val flight = new SingleFlight( "ListVolumes" )
+      val s = service( gate.dispatcher, flight )
+
+      val futures = inParallel( 8 ) {
+        s.sendRequest( "ListVolumes", params( "1" ), classOf[util.Map[String, Object]], classOf[Result] )
+      }
+      awaitCondition( flight.getCoalesced == 7 )
+      gate.release.countDown( )
+
+      val results = futures.map( _.get( 5, TimeUnit.SECONDS ) )
+      results.foreach( r => r should be theSameInstanceAs results.head )
+      verify( gate.dispatcher, times( 1 ) ).dispatchRequest( anyString )
+      flight.getSent shouldBe 1
+      flight.getInFlight shouldBe 0
+    }
+
+    "hand every caller the exception of the shared call" in {
+      val release = new CountDownLatch( 1 )
+      val dispatcher = mock[RequestDispatcher]
+      when( dispatcher.dispatchRequest( anyString ) ).thenAnswer( new Answer[String] {
+        override def answer( invocation: InvocationOnMock ): String = {
+          release.await( 5, TimeUnit.SECONDS )
+          "{\"error\":{\"name\":\"xNotReady\",\"message\":\"not ready\"}}"
+        }
+      } )
+      val flight = new SingleFlight( "ListVolumes" )
+      val s = service( dispatcher, flight )
+
+      val futures = inParallel( 3 ) {
+        s.sendRequest( "ListVolumes", params( "1" ), classOf[util.Map[String, Object]], classOf[Result] )
+      }
+      awaitCondition( flight.getCoalesced == 2 )
+      release.countDown( )
+
+      futures.foreach( f => ( the[ExecutionException] thrownBy f.get( 5, TimeUnit.SECONDS ) ).getCause shouldBe an[ApiServerException] )
+      val _ = verify( dispatcher, times( 1 ) ).dispatchRequest( anyString )
+    }
+
+    "send calls with other parameters or to methods that are not eligible" in {
+      val gate = new Gate
+      val flight = new SingleFlight( "ListVolumes" )
+      val s = service( gate.dispatcher, flight )
+
+      val first = inParallel( 1 ) {
+        s.sendRequest( "ListVolumes", params( "1" ), classOf[util.Map[String, Object]], classOf[Result] )
+      }
+      val second = inParallel( 1 ) {
+        s.sendRequest( "ListVolumes", params( "2" ), classOf[util.Map[String, Object]], classOf[Result] )
+      }
+      val third = inParallel( 1 ) {
+        s.sendRequest( "GetClusterInfo", params( "1" ), classOf[util.Map[String, Object]], classOf[Result] )
+      }
+      awaitCondition( gate.calls == 3 )
+      gate.release.countDown( )
+
+      ( first ++ second ++ third ).map( _.get( 5, TimeUnit.SECONDS ).get( "call" ) ).distinct should have size 3
+      flight.getCoalesced shouldBe 0
+      flight.getSent shouldBe 2
+    }
+
+    "send a new request once the shared call has completed" in {
+      val gate = new Gate
+      gate.release.countDown( )
+      val flight = new SingleFlight( "ListVolumes" )
+      val s = service( gate.dispatcher, flight )
+
+      s.sendRequest( "ListVolumes", params( "1" ), classOf[util.Map[String, Object]], classOf[Result] ).get( "call" ) shouldBe 1.0
+      s.sendRequest( "ListVolumes", params( "1" ), classOf[util.Map[String, Object]], classOf[Result] ).get( "call" ) shouldBe 2.0
+      flight.getCoalesced shouldBe 0
+    }
+  }
+
+  "sendRequestAsync" should {
+
+    "share one request between identical calls in flight" in {
+      val gate = new Gate
+      val flight = new SingleFlight( "ListVolumes" )
+      val s = service( gate.dispatcher, flight )
+
+      val futures = ( 1 to 4 ).map( _ =>
+        s.sendRequestAsync( "ListVolumes", params( "1" ), classOf[util.Map[String, Object]], classOf[Result] ) )
+      flight.getCoalesced shouldBe 3
+      gate.release.countDown( )
+
+      futures.map( _.get( 5, TimeUnit.SECONDS ).get( "call" ) ).distinct shouldBe Seq( 1.0 )
+      val _ = verify( gate.dispatcher, times( 1 ) ).dispatchRequest( anyString )
+    }
+
+    "let a caller stop waiting without failing the others" in {
+      val gate = new Gate
+      val flight = new SingleFlight( "ListVolumes" )
+      val s = service( gate.dispatcher, flight )
+
+      val first = s.sendRequestAsync( "ListVolumes", params( "1" ), classOf[util.Map[String, Object]], classOf[Result] )
+      val second = s.sendRequestAsync( "ListVolumes", params( "1" ), classOf[util.Map[String, Object]], classOf[Result] )
+      first.cancel( true )
+      gate.release.countDown( )
+
+      second.get( 5, TimeUnit.SECONDS ).get( "call" ) shouldBe 1.0
+    }
+  }
+
+  "SingleFlight" should {
+
+    "reject an empty method" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new SingleFlight( "" ) }
+    }
+
+    "stop coalescing a removed method" in {
+      val flight = new SingleFlight( "ListVolumes", "ListAccounts" )
+      flight.removeMethod( "ListAccounts" )
+      flight.getMethods should contain only "ListVolumes"
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package com.solidfire.jsvcgen.client
+
+import java.lang.ref.WeakReference
+import java.net.{Socket, SocketException, URL}
+import java.util.concurrent.TimeUnit
+import javax.net.ssl.{HttpsURLConnection, SSLContext, SSLSocket, SSLSocketFactory}
+
+import com.solidfire.jsvcgen.client.LocalTlsServer._
+import org.scalatest.{Matchers, WordSpec}
+
+class TlsSocketFactorySuite extends WordSpec with Matchers {
+
+  def eventually( condition: => Boolean ): Unit = {
+    val deadline = System.nanoTime( ) + TimeUnit.SECONDS.toNanos( 5 )
+    while (!condition && System.nanoTime( ) < deadline) Thread.sleep( 1 )
+    condition shouldBe true
+  }
+
+  "TlsSocketFactory" should {
+
+    "share one factory per trust configuration" in {
+      TlsSocketFactory.getTrustingAll should be theSameInstanceAs TlsSocketFactory.getTrustingAll
+      TlsSocketFactory.getDefault should be theSameInstanceAs TlsSocketFactory.getDefault
+      TlsSocketFactory.getDefault should not be theSameInstanceAs( TlsSocketFactory.getTrustingAll )
+    }
+
+    "follow a replaced default socket factory" in {
+      val original = HttpsURLConnection.getDefaultSSLSocketFactory
+      val before = TlsSocketFactory.getDefault
+      val context = SSLContext.getInstance( "TLS" )
+      context.init( null, null, null )
+      HttpsURLConnection.setDefaultSSLSocketFactory( context.getSocketFactory )
+      try {
+        TlsSocketFactory.getDefault should not be theSameInstanceAs( before )
+      } finally {
+        HttpsURLConnection.setDefaultSSLSocketFactory( original )
+      }
+    }
+
+    "enable the default protocols less SSLv3 and TLSv1" in withServer( echo ) { server =>
+      val factory = new TlsSocketFactory( TlsSocketFactory.getTrustingAll )
+      val socket = factory.createSocket( new Socket( "localhost", server.port ), "localhost", server.port, true ).asInstanceOf[SSLSocket]
+      val defaults = SSLContext.getDefault.getDefaultSSLParameters.getProtocols.toSet
+      try {
+        socket.getEnabledProtocols.toSet should contain( "TLSv1.2" )
+        socket.getEnabledProtocols.toSet shouldBe defaults -- Set( "SSLv2Hello", "SSLv3", "TLSv1" )
+      } finally {
+        socket.close( )
+      }
+      factory.getStatistics.getSockets shouldBe 1
+      factory.getStatistics.getHandshakes shouldBe 0
+      factory.getStatistics.getAverageHandshakeMillis shouldBe 0.0
+    }
+
+    "not make unconnected sockets, so that a handshake is not timed from before the connect" in {
+      val failure = the[SocketException] thrownBy TlsSocketFactory.getTrustingAll.createSocket( )
+      failure.getCause shouldBe an[UnsupportedOperationException]
+    }
+
+    "keep TLSv1.3 and leave the protocols alone when only legacy ones are enabled" in {
+      TlsSocketFactory.withoutLegacyProtocols( Array( "TLSv1.3", "TLSv1.2", "TLSv1.1", "TLSv1", "SSLv3" ) ) shouldBe
+        Array( "TLSv1.3", "TLSv1.2", "TLSv1.1" )
+      TlsSocketFactory.withoutLegacyProtocols( Array( "TLSv1" ) ) shouldBe Array( "TLSv1" )
+    }
+
+    "share one factory per TLS context and create its engines" in {
+      val context = newTrustingContext( )
+      val factory = TlsSocketFactory.forContext( context )
+      TlsSocketFactory.forContext( context ) should be theSameInstanceAs factory
+      TlsSocketFactory.forContext( newTrustingContext( ) ) should not be theSameInstanceAs( factory )
+
+      val engine = factory.createSSLEngine( "localhost", 443 )
+      engine.getUseClientMode shouldBe true
+      engine.getEnabledProtocols should not contain "TLSv1"
+      factory.getStatistics.getSockets shouldBe 1
+      an[IllegalStateException] should be thrownBy { val _ = new TlsSocketFactory( context.getSocketFactory ).createSSLEngine( "localhost", 443 ) }
+    }
+
+    "not keep a TLS context alive once no one uses its factory" in {
+      var context = newTrustingContext( )
+      TlsSocketFactory.forContext( context ).getStatistics.getSockets shouldBe 0
+      val reference = new WeakReference( context )
+      context = null
+      eventually {
+        System.gc( )
+        null == reference.get
+      }
+    }
+
+    "reject a null delegate" in {
+      an[IllegalArgumentException] should be thrownBy { val _ = new TlsSocketFactory( null: SSLSocketFactory ) }
+      an[IllegalArgumentException] should be thrownBy { val _ = new TlsSocketFactory( null: SSLContext ) }
+      an[IllegalArgumentException] should be thrownBy { val _ = TlsSocketFactory.forContext( null ) }
+    }
+  }
+
+  "HttpsConnectionPool" should {
+
+    "count the handshakes of its connections" in withServer( echo ) { server =>
+      val pool = new HttpsConnectionPool( 8, 30000, newTrustingContext( ).getSocketFactory, trustingVerifier )
+      try {
+        val dispatcher = new PooledHttpsRequestDispatcher( server.url( ), pool )
+        dispatcher.dispatchRequest( request( "GetClusterInfo", 1 ) )
+        dispatcher.dispatchRequest( request( "GetClusterInfo", 2 ) )
+        eventually( pool.getTlsStatistics.getHandshakes == 1 )
+        pool.getTlsStatistics.getSockets shouldBe 1
+      } finally {
+        pool.close( )
+      }
+    }
+
+    "use the shared default factory unless given one" in {
+      val pool = new HttpsConnectionPool( )
+      try pool.getTlsStatistics.toString shouldBe TlsSocketFactory.getDefault.getStatistics.toString finally pool.close( )
+    }
+  }
+
+  "NioHttpsRequestDispatcher" should {
+
+    "count the handshakes of its connections" in withServer( echo ) { server =>
+      val group = new NioEventLoopGroup( 1 )
+      try {
+        val dispatcher = new NioHttpsRequestDispatcher( server.url( ), group, newTrustingContext( ), trustingVerifier )
+        dispatcher.dispatchRequestAsync( request( "GetClusterInfo", 1 ) ).get( 5, TimeUnit.SECONDS )
+        dispatcher.dispatchRequestAsync( request( "GetClusterInfo", 2 ) ).get( 5, TimeUnit.SECONDS )
+        dispatcher.getTlsStatistics.getSockets shouldBe 1
+        dispatcher.getTlsStatistics.getHandshakes shouldBe 1
+      } finally {
+        group.close( )
+      }
+    }
+  }
+
+  "HttpsRequestDispatcher" should {
+
+    "not change the https.protocols system property" in {
+      val before = System.getProperty( "https.protocols" )
+      new HttpsRequestDispatcher( new URL( "https://localhost/json-rpc/7.0" ) )
+      System.getProperty( "https.protocols" ) shouldBe before
+    }
+
+    "count the handshakes of its connections" in withServer( echo ) { server =>
+      val factory = TlsSocketFactory.getTrustingAll
+      val before = factory.getStatistics.getHandshakes
+      new HttpsRequestDispatcherWithoutSSLVerification( server.url( ) ).dispatchRequest( request( "GetClusterInfo", 1 ) ) should
+        include( "GetClusterInfo" )
+      eventually( factory.getStatistics.getHandshakes > before )
+    }
+
+    "use the socket factory shared by its trust configuration" in {
+      new HttpsRequestDispatcher( new URL( "https://localhost/json-rpc/7.0" ) ).getTlsStatistics.toString should startWith( "TlsStatistics{" )
+      new HttpsRequestDispatcherWithoutSSLVerification( new URL( "https://localhost/json-rpc/7.0" ) ).getSocketFactory should
+        be theSameInstanceAs TlsSocketFactory.getTrustingAll
+    }
+  }
+}
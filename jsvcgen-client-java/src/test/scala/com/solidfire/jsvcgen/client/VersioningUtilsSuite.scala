@@ -0,0 +1,30 @@
+package com.solidfire.jsvcgen.client
+
+import org.scalatest.{Matchers, WordSpec}
+
+class VersioningUtilsSuite extends WordSpec with Matchers {
+
+  "compareVersions" should {
+
+    "compare the major and then the minor number" in {
+      VersioningUtils.compareVersions( "10.0", "9.0" ) should be > 0
+      VersioningUtils.compareVersions( "9.0", "10.0" ) should be < 0
+      VersioningUtils.compareVersions( "8.10", "8.9" ) should be > 0
+      VersioningUtils.compareVersions( "8.0", "8.0" ) shouldBe 0
+    }
+
+    "compare strings that are not versions as strings" in {
+      VersioningUtils.compareVersions( "a", "b" ) should be < 0
+    }
+  }
+
+  "isVersionGreater" should {
+
+    "order versions by number" in {
+      VersioningUtils.isVersionGreater( "9.0", "10.0" ) shouldBe true
+      VersioningUtils.isVersionGreaterOrEqual( "10.0", "10.0" ) shouldBe true
+      VersioningUtils.isVersionLess( "10.0", "9.5" ) shouldBe true
+      VersioningUtils.isVersionLessOrEqual( "9.0", "10.0" ) shouldBe false
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.solidfire.jsvcgen.javautil
+
+import java.util.concurrent.{CancellationException, ExecutionException, TimeUnit, TimeoutException}
+
+import org.scalatest.{Matchers, WordSpec}
+
+class CompletableFutureTest extends WordSpec with Matchers {
+
+  val lengthOf = new Function[String, Integer] {
+    override def apply(s: String): Integer = s.length
+  }
+
+  "CompletableFuture" should {
+    "return the value it was completed with" in {
+      val future = new CompletableFuture[String]
+      future.isDone should be (false)
+      future.complete("abc") should be (true)
+      future.isDone should be (true)
+      future.get should be ("abc")
+    }
+    "ignore every completion after the first" in {
+      val future = CompletableFuture.completedFuture("abc")
+      future.complete("def") should be (false)
+      future.completeExceptionally(new RuntimeException) should be (false)
+      future.get should be ("abc")
+    }
+    "wrap the failure in an ExecutionException" in {
+      val future = CompletableFuture.failedFuture[String](new IllegalStateException("boom"))
+      future.isCompletedExceptionally should be (true)
+      the[ExecutionException] thrownBy future.get should have message "java.lang.IllegalStateException: boom"
+    }
+    "throw CancellationException once cancelled" in {
+      val future = new CompletableFuture[String]
+      future.cancel(true) should be (true)
+      future.isCancelled should be (true)
+      a[CancellationException] should be thrownBy future.get
+    }
+    "time out when not completed" in {
+      a[TimeoutException] should be thrownBy new CompletableFuture[String].get(10, TimeUnit.MILLISECONDS)
+    }
+    "return the given value from getNow when not completed" in {
+      new CompletableFuture[String].getNow("absent") should be ("absent")
+    }
+    "apply a function once completed" in {
+      val future = new CompletableFuture[String]
+      val mapped = future.thenApply[Integer](lengthOf)
+      mapped.isDone should be (false)
+      future.complete("abcd")
+      mapped.get should be (4)
+    }
+    "apply a function to an already completed future" in {
+      CompletableFuture.completedFuture("ab").thenApply[Integer](lengthOf).get should be (2)
+    }
+    "pass a failure through thenApply" in {
+      val mapped = CompletableFuture.failedFuture[String](new IllegalStateException("boom")).thenApply[Integer](lengthOf)
+      the[ExecutionException] thrownBy mapped.get should have message "java.lang.IllegalStateException: boom"
+    }
+    "fail thenApply when the function throws" in {
+      val mapped = CompletableFuture.completedFuture[String](null).thenApply[Integer](lengthOf)
+      an[ExecutionException] should be thrownBy { val _ = mapped.get }
+    }
+    "recover from a failure with exceptionally" in {
+      val recovered = CompletableFuture.failedFuture[String](new IllegalStateException("boom")).exceptionally(new Function[Throwable, String] {
+        override def apply(t: Throwable): String = t.getMessage
+      })
+      recovered.get should be ("boom")
+    }
+    "run whenComplete actions with the result and failure" in {
+      var seen: (String, Throwable) = null
+      val future = new CompletableFuture[String]
+      future.whenComplete(new BiConsumer[String, Throwable] {
+        override def accept(s: String, t: Throwable): Unit = seen = (s, t)
+      })
+      seen should be (null)
+      future.complete("abc")
+      seen should be (("abc", null))
+    }
+  }
+}
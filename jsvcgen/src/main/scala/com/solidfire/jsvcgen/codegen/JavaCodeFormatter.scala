@@ -380,6 +380,218 @@ class JavaCodeFormatter( options: CliConfig, serviceDefintion: ServiceDefinition
     sb.result
   }
 
+  def getAsyncResultType(src: Option[ReturnInfo]): String = src match {
+    case Some(info) => "com.solidfire.jsvcgen.javautil.CompletableFuture<" + getTypeName(info.returnType) + ">"
+    case None => "com.solidfire.jsvcgen.javautil.CompletableFuture<Void>"
+  }
+
+  def getAsyncServiceMethod(method: Method, serviceName: String, isInterface: Boolean, useRequestObject: Boolean): String = {
+    val hasValueAdaptor = method.returnInfo.isDefined && method.returnInfo.get.adaptor.isDefined && method.returnInfo.get.adaptor.get.supports.contains("java")
+    val sb = new StringBuilder
+
+    // Adaptors post-process results synchronously; their methods get no async counterpart.
+    if (!hasValueAdaptor) {
+      if (isInterface && method.documentation.isDefined) {
+        val lines =
+          if (useRequestObject) {
+            List( s"""Asynchronous version of ${getMethodName(method)}.""", " ", s"""@param request The request @see com.solidfire.element.api.${getTypeName(method.name)}Request """)
+          } else {
+            List( s"""Asynchronous convenience method for ${getMethodName(method)} """)
+          }
+        sb ++= s"""${getCodeDocumentation(lines ++ List(" ", "@return a future holding the response"), "    ", method.since)}\n"""
+      }
+      if (!isInterface) {
+        sb ++= s"""    @Override\n"""
+      }
+      if (method.since.isDefined) {
+        sb ++= s"""    @Since("${method.since.get}")\n"""
+      }
+      if (isInterface) {
+        sb ++= s"""    """
+      } else {
+        sb ++= s"""    public """
+      }
+      sb ++= s"""${getAsyncResultType(method.returnInfo)} ${getMethodName(method)}Async("""
+      if (useRequestObject) {
+        sb ++= s"""final ${getTypeName(method.name)}Request request"""
+      } else {
+        sb ++= s"""${getParameterList(method.params, isInterface)}"""
+      }
+      sb ++= s""")"""
+      if (isInterface) {
+        sb ++= s""";\n"""
+      } else {
+        sb ++= s""" {\n"""
+        if (useRequestObject) {
+          sb ++= s"""        return super.sendRequestAsync( "${method.name}", request, ${getTypeName(method.name)}Request.class, ${getTypeName(method.returnInfo).split("<")(0)}.class );\n"""
+        } else {
+          sb ++= s"""        return this.${getMethodName(method)}Async( new ${getTypeName(method.name)}Request( ${getParameterUseList(method.params)}) );\n"""
+        }
+        sb ++= s"""    }\n"""
+      }
+    }
+
+    sb.result
+  }
+
+  /**
+    * Where a list method keeps its pages, read from the "pagination" vendor extension of the method.
+    *
+    * @param start  the parameter holding the (inclusive) integer id of the first item of a page
+    * @param limit  the parameter holding the maximum number of items of a page
+    * @param cursor the member of an item holding its id
+    * @param items  the member of the result holding the items, or None when the result is the array of items
+    */
+  case class Pagination(start: String, limit: String, cursor: String, items: Option[String])
+
+  def getPagination(method: Method): Option[Pagination] = {
+    method.vendorExtensions.flatMap(_.get("pagination")).collect {
+      case fields: Map[_, _] =>
+        val values = fields.map { case (k, v) => k.toString -> v.toString }
+        Pagination(values("start"), values("limit"), values("cursor"), values.get("items"))
+    }
+  }
+
+  private def findMember(typeName: String, memberName: String): Option[Member] =
+    serviceDefintion.types.find(_.name == typeName).flatMap(_.members.find(_.name == memberName))
+
+  private def getPagedItemType(method: Method, pagination: Pagination): String = {
+    val returnType = method.returnInfo.get.returnType
+    pagination.items match {
+      case Some(items) => findMember(returnType.typeName, items)
+        .getOrElse(throw new IllegalArgumentException(s"${method.name}: result has no member $items")).typeUse.typeName
+      case None => returnType.typeName
+    }
+  }
+
+  def getPagedItemTypeName(method: Method, pagination: Pagination): String = getTypeName(getPagedItemType(method, pagination))
+
+  def getPagedServiceMethod(method: Method, serviceName: String, isInterface: Boolean): String = {
+    val hasValueAdaptor = method.returnInfo.isDefined && method.returnInfo.get.adaptor.isDefined && method.returnInfo.get.adaptor.get.supports.contains("java")
+    val sb = new StringBuilder
+
+    // Pages are fetched with the async method, which adapted methods do not have.
+    for (pagination <- getPagination(method) if !hasValueAdaptor && method.returnInfo.isDefined) {
+      val itemType = getPagedItemTypeName(method, pagination)
+      val resultType = getTypeName(method.returnInfo)
+      val requestType = s"${getTypeName(method.name)}Request"
+      val iterableType = s"com.solidfire.jsvcgen.client.PagedIterable<$itemType>"
+
+      if (isInterface) {
+        val lines = List(
+          s"""Iterates over the items of ${getMethodName(method)}, fetching them a page at a time and the next page while the items of one are used.""",
+          " ",
+          s"""@param request The request, used for every page with its ${pagination.start} and ${pagination.limit} set for the page""",
+          "@param pageSize the number of items fetched in each call",
+          " ",
+          "@return the items")
+        sb ++= s"""${getCodeDocumentation(lines, "    ", method.since)}
+"""
+        sb ++= s"""    $iterableType ${getMethodName(method)}Paged(final $requestType request, final int pageSize);
+"""
+      } else {
+        val params = method.params.map(p => p.name -> p.typeUse).toMap
+        def setter(name: String): String = {
+          val typeUse = params.getOrElse(name, throw new IllegalArgumentException(s"${method.name}: no parameter $name"))
+          if (typeUse.isOptional) s"optional${Util.camelCase(name, firstUpper = true)}" else name
+        }
+        val limit = if (getTypeName(params.getOrElse(pagination.limit, TypeUse("integer")).typeName) == "Long") "(long) limit" else "limit"
+        val cursorOptional = findMember(getPagedItemType(method, pagination), pagination.cursor).exists(_.typeUse.isOptional)
+        val cursor = s"last.${getMemberAccessorName(pagination.cursor)}()" + (if (cursorOptional) ".get()" else "")
+
+        if (method.since.isDefined) {
+          sb ++= s"""    @Since("${method.since.get}")
+"""
+        }
+        sb ++= s"""    @Override
+"""
+        sb ++= s"""    public $iterableType ${getMethodName(method)}Paged(final $requestType request, final int pageSize) {
+"""
+        sb ++= s"""        return new $iterableType(pageSize) {
+"""
+        sb ++= s"""            @Override
+"""
+        sb ++= s"""            protected com.solidfire.jsvcgen.javautil.CompletableFuture<$itemType[]> fetchPage(final $itemType last, final int limit) {
+"""
+        sb ++= s"""                final $requestType.Builder page = request.asBuilder().${setter(pagination.limit)}($limit);
+"""
+        sb ++= s"""                if (null != last) {
+"""
+        sb ++= s"""                    page.${setter(pagination.start)}($cursor + 1);
+"""
+        sb ++= s"""                }
+"""
+        pagination.items match {
+          case Some(items) =>
+            sb ++= s"""                return ${getMethodName(method)}Async(page.build()).thenApply(new com.solidfire.jsvcgen.javautil.Function<$resultType, $itemType[]>() {
+"""
+            sb ++= s"""                    @Override
+"""
+            sb ++= s"""                    public $itemType[] apply(final $resultType result) {
+"""
+            sb ++= s"""                        return result.${getMemberAccessorName(items)}();
+"""
+            sb ++= s"""                    }
+"""
+            sb ++= s"""                });
+"""
+          case None =>
+            sb ++= s"""                return ${getMethodName(method)}Async(page.build());
+"""
+        }
+        sb ++= s"""            }
+"""
+        sb ++= s"""        };
+"""
+        sb ++= s"""    }
+"""
+      }
+    }
+
+    sb.result
+  }
+
+  def getBatchTypeName(serviceName: String): String = getTypeName(serviceName.stripSuffix("IF")) + "Batch"
+
+  def getNewBatchMethod(serviceName: String, isInterface: Boolean): String = {
+    val sb = new StringBuilder
+
+    if (isInterface) {
+      sb ++= s"""${getCodeDocumentation(List("Create a batch that sends several calls in one JSON-RPC batch request.", " ", "@return an empty batch"), "    ", None)}\n"""
+      sb ++= s"""    ${getBatchTypeName(serviceName)} newBatch();\n"""
+    } else {
+      sb ++= s"""    @Override\n"""
+      sb ++= s"""    public ${getBatchTypeName(serviceName)} newBatch() {\n"""
+      sb ++= s"""        return new ${getBatchTypeName(serviceName)}(this);\n"""
+      sb ++= s"""    }\n"""
+    }
+
+    sb.result
+  }
+
+  def getBatchMethod(method: Method, useRequestObject: Boolean): String = {
+    val hasValueAdaptor = method.returnInfo.isDefined && method.returnInfo.get.adaptor.isDefined && method.returnInfo.get.adaptor.get.supports.contains("java")
+    val sb = new StringBuilder
+
+    // Adaptors post-process results in the client; their methods can not be batched.
+    if (!hasValueAdaptor) {
+      if (method.since.isDefined) {
+        sb ++= s"""    @Since("${method.since.get}")\n"""
+      }
+      sb ++= s"""    public com.solidfire.jsvcgen.client.BatchResult<${getTypeName(method.returnInfo)}> ${getMethodName(method)}("""
+      if (useRequestObject) {
+        sb ++= s"""final ${getTypeName(method.name)}Request request) {\n"""
+        sb ++= s"""        return super.add( "${method.name}", request, ${getTypeName(method.name)}Request.class, ${getTypeName(method.returnInfo).split("<")(0)}.class );\n"""
+      } else {
+        sb ++= s"""${getParameterList(method.params, isInterface = false)}) {\n"""
+        sb ++= s"""        return this.${getMethodName(method)}( new ${getTypeName(method.name)}Request( ${getParameterUseList(method.params)}) );\n"""
+      }
+      sb ++= s"""    }\n"""
+    }
+
+    sb.result
+  }
+
   def getRequestBuilder(typeDefinition: TypeDefinition): String = {
     val sb = new StringBuilder
 
@@ -42,8 +42,12 @@ class JavaCodeGenerator( options: CliConfig ) extends BaseCodeGenerator( options
     Map( servicePath.replaceFirst( ".java", "IF.java" ) -> service.asInstanceOf[ServiceDefinition].asInterface( ) )
   }
 
+  def asBatch( servicePath: String, service: ServiceDefinition ): Map[String, Any] = {
+    Map( servicePath.replaceFirst( ".java", "Batch.java" ) -> BatchDefinition( service ) )
+  }
+
   /**
-    * In Java, we create a file for each TypeDefinition and for the ServiceDefinition.
+    * In Java, we create a file for each TypeDefinition and for the ServiceDefinition, its interface and its batch.
     */
   override def groupItemsToFiles( service: ServiceDefinition ): Map[String, Any] = {
     val prefix = if(ReleaseProcess.INTERNAL.equals(service.release)) ReleaseProcess.INTERNAL.toString else ""
@@ -51,6 +55,7 @@ class JavaCodeGenerator( options: CliConfig ) extends BaseCodeGenerator( options
 
     Map( pathFor( prefixedService ) -> prefixedService ) ++
       asInterface( pathFor( prefixedService ), prefixedService ) ++
+      asBatch( pathFor( prefixedService ), prefixedService ) ++
       (
         for (typ <- prefixedService.types if typ.alias.isEmpty && !typ.userDefined)
           yield pathFor( typ ) -> typ
@@ -20,8 +20,9 @@ package com.solidfire.jsvcgen.codegen
 
 import com.solidfire.jsvcgen.codegen.TestHelper._
 import com.solidfire.jsvcgen.loader.JsvcgenDescription.{DocumentationSerializer, MemberSerializer, ParameterSerializer, ReturnInfoSerializer, ServiceDefinitionSerializer, StabilityLevelSerializer, TypeUseSerializer}
-import com.solidfire.jsvcgen.model.{ServiceDefinition, TypeDefinition}
+import com.solidfire.jsvcgen.model.{Adaptor, Member, Method, Parameter, ReturnInfo, ServiceDefinition, TypeDefinition, TypeUse}
 import org.json4s.DefaultFormats
+import org.json4s.jackson.JsonMethods
 import org.scalatest.{Matchers, WordSpec}
 
 
@@ -191,4 +192,105 @@ class JavaCodeFormatterTests extends WordSpec with Matchers {
       formatter.getTypeName( somePrecision.alias.get.copy( isArray = true ) ) should be( "Optional<Double[]>" )
     }
   }
+
+  "getAsyncServiceMethod" should {
+    val listUsers = simpleService.methods.find( _.name == "listUsers" ).get
+
+    "send the request object through sendRequestAsync" in {
+      val method = javaFormatter.getAsyncServiceMethod( listUsers, "UserService", isInterface = false, useRequestObject = true )
+      method should include( "public com.solidfire.jsvcgen.javautil.CompletableFuture<User[]> listUsersAsync(final ListUsersRequest request) {" )
+      method should include( "return super.sendRequestAsync( \"listUsers\", request, ListUsersRequest.class, User[].class );" )
+    }
+
+    "delegate the convenience form to the request object form" in {
+      val method = javaFormatter.getAsyncServiceMethod( listUsers, "UserService", isInterface = false, useRequestObject = false )
+      method should include( "listUsersAsync(" )
+      method should include( "return this.listUsersAsync( new ListUsersRequest( nameFilter) );" )
+    }
+
+    "declare the method on the interface" in {
+      val method = javaFormatter.getAsyncServiceMethod( listUsers, "UserService", isInterface = true, useRequestObject = true )
+      method should include( "    com.solidfire.jsvcgen.javautil.CompletableFuture<User[]> listUsersAsync(final ListUsersRequest request);" )
+      method should not include "@Override"
+    }
+
+    "skip methods whose result is adapted" in {
+      val adapted = buildMethod.copy( returnInfo = Some( ReturnInfo( TypeUse( "string" ), adaptor = Some( Adaptor( "anAdaptor", List( "java" ) ) ) ) ) )
+      javaFormatter.getAsyncServiceMethod( adapted, "UserService", isInterface = false, useRequestObject = true ) should be( "" )
+    }
+  }
+
+  "getPagedServiceMethod" should {
+    val listUsers = simpleService.methods.find( _.name == "listUsers" ).get
+    val paged = listUsers.copy(
+      params = listUsers.params ++ List(
+        Parameter( "start_user_id", TypeUse( "integer", isOptional = true ) ),
+        Parameter( "limit", TypeUse( "integer", isOptional = true ) ) ),
+      vendorExtensions = Some( Map( "pagination" -> Map( "start" -> "start_user_id", "limit" -> "limit", "cursor" -> "user_id" ) ) ) )
+
+    "fetch pages through the async method" in {
+      val method = javaFormatter.getPagedServiceMethod( paged, "UserService", isInterface = false )
+      method should include( "public com.solidfire.jsvcgen.client.PagedIterable<User> listUsersPaged(final ListUsersRequest request, final int pageSize) {" )
+      method should include( "final ListUsersRequest.Builder page = request.asBuilder().optionalLimit((long) limit);" )
+      method should include( "page.optionalStartUserId(last.getUserId() + 1);" )
+      method should include( "return listUsersAsync(page.build());" )
+    }
+
+    "take the items from a member of the result" in {
+      val listUsersResult = TypeDefinition( "ListUsersResult", members = List( Member( "users", TypeUse( "User", isArray = true ) ) ) )
+      val wrapped = paged.copy(
+        returnInfo = Some( ReturnInfo( TypeUse( "ListUsersResult" ) ) ),
+        vendorExtensions = Some( Map( "pagination" -> Map( "start" -> "start_user_id", "limit" -> "limit", "cursor" -> "user_id", "items" -> "users" ) ) ) )
+      val formatter = new JavaCodeFormatter( buildOptions.copy( namespace = "testNameSpace" ), simpleService.copy( types = listUsersResult :: simpleService.types ) )
+      val method = formatter.getPagedServiceMethod( wrapped, "UserService", isInterface = false )
+      method should include( "protected com.solidfire.jsvcgen.javautil.CompletableFuture<User[]> fetchPage(final User last, final int limit) {" )
+      method should include( "public User[] apply(final ListUsersResult result) {" )
+      method should include( "return result.getUsers();" )
+    }
+
+    "declare the method on the interface" in {
+      val method = javaFormatter.getPagedServiceMethod( paged, "UserService", isInterface = true )
+      method should include( "    com.solidfire.jsvcgen.client.PagedIterable<User> listUsersPaged(final ListUsersRequest request, final int pageSize);" )
+      method should not include "@Override"
+    }
+
+    "skip methods without pagination" in {
+      javaFormatter.getPagedServiceMethod( listUsers, "UserService", isInterface = false ) should be( "" )
+    }
+
+    "read the pagination from the description" in {
+      val json = JsonMethods.parse( "{\"name\":\"listUsers\",\"params\":[],\"vendorExtensions\":{\"pagination\":{\"start\":\"s\",\"limit\":\"l\",\"cursor\":\"c\"}}}" )
+      javaFormatter.getPagination( json.extract[Method] ) should be( Some( javaFormatter.Pagination( "s", "l", "c", None ) ) )
+    }
+  }
+
+  "getBatchMethod" should {
+    val listUsers = simpleService.methods.find( _.name == "listUsers" ).get
+
+    "add the request object to the batch" in {
+      val method = javaFormatter.getBatchMethod( listUsers, useRequestObject = true )
+      method should include( "public com.solidfire.jsvcgen.client.BatchResult<User[]> listUsers(final ListUsersRequest request) {" )
+      method should include( "return super.add( \"listUsers\", request, ListUsersRequest.class, User[].class );" )
+    }
+
+    "delegate the convenience form to the request object form" in {
+      javaFormatter.getBatchMethod( listUsers, useRequestObject = false ) should include( "return this.listUsers( new ListUsersRequest( nameFilter) );" )
+    }
+
+    "skip methods whose result is adapted" in {
+      val adapted = buildMethod.copy( returnInfo = Some( ReturnInfo( TypeUse( "string" ), adaptor = Some( Adaptor( "anAdaptor", List( "java" ) ) ) ) ) )
+      javaFormatter.getBatchMethod( adapted, useRequestObject = true ) should be( "" )
+    }
+  }
+
+  "getNewBatchMethod" should {
+    "create the service's batch" in {
+      javaFormatter.getNewBatchMethod( "UserService", isInterface = false ) should include( "public UserServiceBatch newBatch() {" )
+      javaFormatter.getNewBatchMethod( "UserService", isInterface = false ) should include( "return new UserServiceBatch(this);" )
+    }
+
+    "name the batch after the service when declared on the interface" in {
+      javaFormatter.getNewBatchMethod( "UserServiceIF", isInterface = true ) should include( "    UserServiceBatch newBatch();" )
+    }
+  }
 }
@@ -36,6 +36,11 @@ object Config extends Build {
 
   val isJdk8 = System.getProperty( "java.version" ).startsWith( "1.8" )
 
+  val isJdk11OrLater = {
+    val spec = System.getProperty( "java.specification.version" )
+    !spec.startsWith( "1." ) && spec.takeWhile( _.isDigit ).toInt >= 11
+  }
+
   lazy val javadocOptions = if (isJdk8) Seq(
     "-Xdoclint:none"
   )
@@ -132,6 +137,57 @@ object Config extends Build {
     "Maven Central" at "http://repo1.maven.org/maven2/"
   )
 
+  lazy val java11Source = settingKey[File]( "Sources of the JDK 11 section of a multi-release jar." )
+  lazy val compileJava11 = taskKey[Seq[File]]( "Compiles the JDK 11 section of a multi-release jar into META-INF/versions/11." )
+  lazy val testJava11 = taskKey[Unit]( "Runs the tests with the JDK 11 section of a multi-release jar ahead of the Java 7 classes." )
+
+  // Classes under src/main/java11 replace their Java 7 counterparts on JDK 11+. They can only be compiled when the
+  // build itself runs on JDK 11+; older JDKs produce a jar with the Java 7 versions only.
+  lazy val multiReleaseSettings = Seq(
+    java11Source := (sourceDirectory in Compile).value / "java11",
+    compileJava11 := {
+      val log = streams.value.log
+      val baseClasses = (classDirectory in Compile).value
+      val classpath = (dependencyClasspath in Compile).value.files
+      val sources = (java11Source.value ** "*.java").get
+      val target = baseClasses / "META-INF" / "versions" / "11"
+      (compile in Compile).value
+      if (sources.isEmpty) {
+        Nil
+      } else if (!isJdk11OrLater) {
+        log.warn( s"Skipping ${sources.size} JDK 11 source(s): the build is not running on JDK 11 or later." )
+        Nil
+      } else {
+        IO.createDirectory( target )
+        val args = Seq( "javac", "--release", "11", "-Xlint", "-g",
+          "-cp", (baseClasses +: classpath).mkString( java.io.File.pathSeparator ),
+          "-d", target.getAbsolutePath ) ++ sources.map( _.getAbsolutePath )
+        if (Process( args ).!( log ) != 0) sys.error( "Compilation of the JDK 11 sources failed" )
+        (target ** "*.class").get
+      }
+    },
+    // Tests run from the class directories, where META-INF/versions/11 is not looked at, so they only see the Java 7
+    // classes; this runs them again the way a JDK 11 runtime loads the jar.
+    testJava11 := {
+      val log = streams.value.log
+      val java11Classes = compileJava11.value
+      val classpath = (fullClasspath in Test).value.files
+      val testClasses = (classDirectory in Test).value
+      if (java11Classes.isEmpty) {
+        log.warn( "Skipping the JDK 11 tests: no JDK 11 classes were compiled." )
+      } else {
+        val versions = (classDirectory in Compile).value / "META-INF" / "versions" / "11"
+        val args = Seq( "java", "-Djsvcgen.test.java11=true",
+          "-cp", (versions +: classpath).mkString( java.io.File.pathSeparator ),
+          "org.scalatest.tools.Runner", "-R", testClasses.getAbsolutePath, "-oW" )
+        if (Process( args ).!( log ) != 0) sys.error( "The tests failed with the JDK 11 classes" )
+      }
+    },
+    packageBin in Compile <<= (packageBin in Compile) dependsOn compileJava11,
+    test in Test <<= (test in Test) dependsOn compileJava11,
+    packageOptions in(Compile, packageBin) += Package.ManifestAttributes( "Multi-Release" -> "true" )
+  )
+
   import com.mojolly.scalate.ScalatePlugin._
   import ScalateKeys._
 